@@ -0,0 +1,205 @@
+package wiki.zhr.zouaiagent.advisor;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.core.Ordered;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语义缓存 Advisor
+ *
+ * 对归一化后的用户提示词做向量化，在本地的小型向量索引中查找相似度超过阈值且未过期的历史请求，
+ * 命中时直接返回缓存的回复，不再调用大模型。
+ * 系统提示词、对话记忆和输出格式不同的请求互不命中，多轮对话中记忆上下文不同时自动跳过缓存；
+ * 带工具或多模态内容的请求不缓存。
+ */
+@Slf4j
+public class SemanticCacheAdvisor implements CallAroundAdvisor {
+
+    // 命中缓存时写入 adviseContext 的标记
+    public static final String CACHE_HIT_KEY = "semantic_cache_hit";
+
+    private final EmbeddingModel embeddingModel;
+
+    private final double similarityThreshold;
+
+    private final Duration ttl;
+
+    private final int maxEntries;
+
+    // 按访问顺序排列，超出容量时淘汰最久未使用的条目
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    public SemanticCacheAdvisor(EmbeddingModel embeddingModel, double similarityThreshold, Duration ttl, int maxEntries) {
+        this.embeddingModel = embeddingModel;
+        this.similarityThreshold = similarityThreshold;
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        if (!isCacheable(advisedRequest)) {
+            return chain.nextAroundCall(advisedRequest);
+        }
+        String prompt = normalize(renderUserText(advisedRequest));
+        String contextKey = contextKeyOf(advisedRequest);
+        float[] embedding;
+        try {
+            embedding = embeddingModel.embed(prompt);
+        } catch (Exception e) {
+            log.warn("语义缓存向量化失败，直接调用模型: {}", e.getMessage());
+            return chain.nextAroundCall(advisedRequest);
+        }
+
+        ChatResponse cached = lookup(contextKey, embedding);
+        if (cached != null) {
+            hitCount.incrementAndGet();
+            log.info("语义缓存命中: {}", prompt);
+            Map<String, Object> adviseContext = new HashMap<>(advisedRequest.adviseContext());
+            adviseContext.put(CACHE_HIT_KEY, true);
+            return new AdvisedResponse(cached, adviseContext);
+        }
+        missCount.incrementAndGet();
+
+        AdvisedResponse advisedResponse = chain.nextAroundCall(advisedRequest);
+        ChatResponse response = advisedResponse.response();
+        if (response != null && response.getResult() != null
+                && StringUtils.hasText(response.getResult().getOutput().getText())
+                && !response.hasToolCalls()) {
+            store(contextKey, prompt, embedding, response);
+        }
+        return advisedResponse;
+    }
+
+    private boolean isCacheable(AdvisedRequest advisedRequest) {
+        return StringUtils.hasText(advisedRequest.userText())
+                && CollectionUtils.isEmpty(advisedRequest.media())
+                && CollectionUtils.isEmpty(advisedRequest.functionCallbacks())
+                && CollectionUtils.isEmpty(advisedRequest.functionNames());
+    }
+
+    private String renderUserText(AdvisedRequest advisedRequest) {
+        if (CollectionUtils.isEmpty(advisedRequest.userParams())) {
+            return advisedRequest.userText();
+        }
+        return new PromptTemplate(advisedRequest.userText(), advisedRequest.userParams()).render();
+    }
+
+    /**
+     * 归一化：去掉首尾空白、合并连续空白、统一小写
+     */
+    static String normalize(String text) {
+        return text.strip().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    /**
+     * 请求中除用户提示词以外的上下文：系统提示词、对话记忆和输出格式，只有完全一致的请求才会相互命中
+     */
+    private String contextKeyOf(AdvisedRequest advisedRequest) {
+        StringBuilder context = new StringBuilder();
+        context.append(advisedRequest.systemText()).append('\u0000');
+        context.append(advisedRequest.systemParams()).append('\u0000');
+        for (Message message : advisedRequest.messages()) {
+            context.append(message.getMessageType()).append(':').append(message.getText()).append('\u0000');
+        }
+        context.append(advisedRequest.adviseContext().get("formatParam"));
+        return DigestUtil.sha256Hex(context.toString());
+    }
+
+    private synchronized ChatResponse lookup(String contextKey, float[] embedding) {
+        long now = System.currentTimeMillis();
+        CacheEntry best = null;
+        double bestSimilarity = similarityThreshold;
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (entry.expiresAt() < now) {
+                iterator.remove();
+                continue;
+            }
+            if (!entry.contextKey().equals(contextKey)) {
+                continue;
+            }
+            double similarity = cosineSimilarity(embedding, entry.embedding());
+            if (similarity >= bestSimilarity) {
+                best = entry;
+                bestSimilarity = similarity;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        // 刷新访问顺序
+        entries.get(best.contextKey() + best.prompt());
+        return best.response();
+    }
+
+    private synchronized void store(String contextKey, String prompt, float[] embedding, ChatResponse response) {
+        entries.put(contextKey + prompt,
+                new CacheEntry(contextKey, prompt, embedding, response, System.currentTimeMillis() + ttl.toMillis()));
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static double cosineSimilarity(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        if (normA == 0 || normB == 0) {
+            return 0;
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public int getOrder() {
+        // 在对话记忆之后执行，才能看到记忆上下文；在系统提示词前置之前执行
+        return Ordered.LOWEST_PRECEDENCE - 2;
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    private record CacheEntry(String contextKey, String prompt, float[] embedding, ChatResponse response,
+                              long expiresAt) {
+    }
+}
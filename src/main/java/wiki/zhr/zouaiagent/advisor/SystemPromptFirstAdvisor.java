@@ -0,0 +1,64 @@
+package wiki.zhr.zouaiagent.advisor;
+
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.core.Ordered;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 系统提示词前置 Advisor
+ *
+ * ChatClient 默认将系统提示词追加在对话记忆之后，每轮对话的提示词前缀都不相同。
+ * 这里把系统提示词移到消息列表的最前面，之后是只追加不修改的对话记忆，
+ * 多次调用的前缀保持字节级一致，可以命中 DashScope 的上下文缓存，减少计费的输入 token。
+ * 需要在其他修改请求的 Advisor 之后执行，因此优先级最低。
+ */
+public class SystemPromptFirstAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    private AdvisedRequest before(AdvisedRequest advisedRequest) {
+        String systemText = advisedRequest.systemText();
+        if (!StringUtils.hasText(systemText)) {
+            return advisedRequest;
+        }
+        if (!CollectionUtils.isEmpty(advisedRequest.systemParams())) {
+            systemText = new PromptTemplate(systemText, advisedRequest.systemParams()).render();
+        }
+        List<Message> messages = new ArrayList<>(advisedRequest.messages().size() + 1);
+        messages.add(new SystemMessage(systemText));
+        messages.addAll(advisedRequest.messages());
+        return AdvisedRequest.from(advisedRequest)
+                .messages(messages)
+                .systemText("")
+                .systemParams(Map.of())
+                .build();
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        return chain.nextAroundCall(this.before(advisedRequest));
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        return chain.nextAroundStream(this.before(advisedRequest));
+    }
+
+    @Override
+    public int getOrder() {
+        // 在调用模型之前的最后一个 Advisor
+        return Ordered.LOWEST_PRECEDENCE - 1;
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,284 @@
+package wiki.zhr.zouaiagent.agent;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 智能体运行调度器
+ *
+ * 每次运行使用一个独立的虚拟线程，不再占用 JVM 公共 ForkJoin 池。
+ * 通过全局和单用户两级准入限制控制并发，超出时先排队，排队已满或等待超时则直接拒绝；
+ * 每次运行有独立的截止时间，客户端断开或超时后可取消正在执行的运行。
+ */
+@Component
+@Slf4j
+public class AgentRunScheduler {
+
+    private final int maxRunsPerUser;
+
+    private final int maxQueuedRuns;
+
+    private final Duration queueTimeout;
+
+    private final Duration runDeadline;
+
+    // 全局并发限制
+    private final Semaphore globalPermits;
+
+    // 单用户并发限制，用户没有排队或运行中的任务时移除
+    private final Map<String, UserSlot> userSlots = new ConcurrentHashMap<>();
+
+    // 截止时间到达后取消运行
+    private final ScheduledExecutorService deadlineTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "agent-run-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicInteger runSequence = new AtomicInteger();
+
+    // 指标
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong deadlineExceededCount = new AtomicLong();
+    private final AtomicInteger queuedRuns = new AtomicInteger();
+    private final AtomicInteger activeRuns = new AtomicInteger();
+
+    public AgentRunScheduler(@Value("${agent.scheduler.max-concurrent-runs:16}") int maxConcurrentRuns,
+                             @Value("${agent.scheduler.max-runs-per-user:2}") int maxRunsPerUser,
+                             @Value("${agent.scheduler.max-queued-runs:32}") int maxQueuedRuns,
+                             @Value("${agent.scheduler.queue-timeout-seconds:30}") long queueTimeoutSeconds,
+                             @Value("${agent.scheduler.run-deadline-seconds:300}") long runDeadlineSeconds) {
+        this.globalPermits = new Semaphore(maxConcurrentRuns, true);
+        this.maxRunsPerUser = maxRunsPerUser;
+        this.maxQueuedRuns = maxQueuedRuns;
+        this.queueTimeout = Duration.ofSeconds(queueTimeoutSeconds);
+        this.runDeadline = Duration.ofSeconds(runDeadlineSeconds);
+    }
+
+    /**
+     * 提交一次智能体运行
+     *
+     * @param userId     用户标识，用于单用户并发限制，应来自服务端认证信息而不是客户端参数
+     * @param task       运行逻辑，需在步骤之间检查 {@link AgentRun#isCancelled()}
+     * @param onRejected 排队超时被拒绝时的回调
+     * @return 运行句柄；排队已满时返回 null
+     */
+    public AgentRun submit(String userId, Consumer<AgentRun> task, Consumer<String> onRejected) {
+        submittedCount.incrementAndGet();
+        UserSlot slot = retainSlot(userId);
+        // 有空闲名额时直接运行，不计入排队；限时为 0 的 tryAcquire 遵守公平性，不会插队到排队的运行之前
+        boolean admitted = tryAcquireNow(slot);
+        if (!admitted && queuedRuns.incrementAndGet() > maxQueuedRuns) {
+            queuedRuns.decrementAndGet();
+            releaseSlot(userId);
+            rejectedCount.incrementAndGet();
+            log.warn("智能体运行被拒绝，排队已满: user={}", userId);
+            return null;
+        }
+        AgentRun run = new AgentRun("agent-run-" + runSequence.incrementAndGet());
+        Thread thread = Thread.ofVirtual()
+                .name(run.getId())
+                .unstarted(() -> execute(userId, slot, admitted, run, task, onRejected));
+        run.thread = thread;
+        thread.start();
+        return run;
+    }
+
+    private boolean tryAcquireNow(UserSlot slot) {
+        try {
+            if (!slot.permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            if (globalPermits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            slot.permits.release();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void execute(String userId, UserSlot slot, boolean admitted, AgentRun run, Consumer<AgentRun> task,
+                         Consumer<String> onRejected) {
+        boolean userAcquired = admitted;
+        boolean globalAcquired = admitted;
+        if (!admitted) {
+            try {
+                // 排队等待：先占用户名额，避免单个用户挤占全局队列
+                long deadline = System.nanoTime() + queueTimeout.toNanos();
+                userAcquired = slot.permits.tryAcquire(queueTimeout.toNanos(), TimeUnit.NANOSECONDS);
+                if (userAcquired) {
+                    globalAcquired = globalPermits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // 拿到名额或放弃等待后不再计入排队
+                queuedRuns.decrementAndGet();
+            }
+        }
+
+        if (!globalAcquired || run.isCancelled()) {
+            if (userAcquired) {
+                slot.permits.release();
+            }
+            if (globalAcquired) {
+                globalPermits.release();
+            }
+            releaseSlot(userId);
+            if (run.isCancelled()) {
+                cancelledCount.incrementAndGet();
+            } else {
+                rejectedCount.incrementAndGet();
+                log.warn("智能体运行排队超时被拒绝: user={}", userId);
+                onRejected.accept("服务繁忙，请稍后重试");
+            }
+            return;
+        }
+
+        activeRuns.incrementAndGet();
+        ScheduledFuture<?> deadlineTask = deadlineTimer.schedule(() -> {
+            deadlineExceededCount.incrementAndGet();
+            log.warn("智能体运行超过截止时间 {}s，取消执行: {}", runDeadline.toSeconds(), run.getId());
+            run.cancel();
+        }, runDeadline.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            task.accept(run);
+        } finally {
+            deadlineTask.cancel(false);
+            activeRuns.decrementAndGet();
+            if (run.isCancelled()) {
+                cancelledCount.incrementAndGet();
+            } else {
+                completedCount.incrementAndGet();
+            }
+            globalPermits.release();
+            slot.permits.release();
+            releaseSlot(userId);
+        }
+    }
+
+    /**
+     * 登记用户的一次排队或运行，没有名额记录时创建
+     */
+    private UserSlot retainSlot(String userId) {
+        return userSlots.compute(userId, (id, slot) -> {
+            UserSlot current = slot != null ? slot : new UserSlot(new Semaphore(maxRunsPerUser, true));
+            current.references++;
+            return current;
+        });
+    }
+
+    /**
+     * 用户的一次排队或运行结束，最后一次结束时移除名额记录
+     */
+    private void releaseSlot(String userId) {
+        userSlots.computeIfPresent(userId, (id, slot) -> --slot.references == 0 ? null : slot);
+    }
+
+    /**
+     * @return 单次运行的截止时间
+     */
+    public Duration getRunDeadline() {
+        return runDeadline;
+    }
+
+    /**
+     * @return 排队等待的最长时间
+     */
+    public Duration getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * 调度器指标
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("submitted", submittedCount.get());
+        metrics.put("rejected", rejectedCount.get());
+        metrics.put("completed", completedCount.get());
+        metrics.put("cancelled", cancelledCount.get());
+        metrics.put("deadlineExceeded", deadlineExceededCount.get());
+        metrics.put("queued", queuedRuns.get());
+        metrics.put("active", activeRuns.get());
+        metrics.put("availablePermits", globalPermits.availablePermits());
+        metrics.put("users", userSlots.size());
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deadlineTimer.shutdownNow();
+    }
+
+    /**
+     * 用户的并发名额，references 为该用户排队和运行中的次数，只在 compute 中修改
+     */
+    private static final class UserSlot {
+        private final Semaphore permits;
+        private int references;
+
+        private UserSlot(Semaphore permits) {
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * 一次智能体运行的句柄
+     */
+    public static class AgentRun {
+
+        private final String id;
+
+        private volatile boolean cancelled;
+
+        private volatile Thread thread;
+
+        AgentRun(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * 取消运行：设置取消标记并中断运行线程，正在阻塞的模型或工具调用会尽快返回
+         */
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            Thread runThread = thread;
+            if (runThread != null) {
+                runThread.interrupt();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -8,17 +8,22 @@ import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import wiki.zhr.zouaiagent.agent.model.AgentEvent;
+import wiki.zhr.zouaiagent.agent.model.AgentEventType;
+import wiki.zhr.zouaiagent.agent.model.AgentSession;
 import wiki.zhr.zouaiagent.agent.model.AgentState;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * 抽象基础代理类，用于管理代理状态和执行流程。  
  *   
  * 提供状态转换、内存管理和基于步骤的执行循环的基础功能。  
  * 子类必须实现step方法。  
+ * 代理只保存共享的定义（提示词、客户端、工具），每次运行的状态保存在 {@link AgentSession} 中，
+ * 同一个代理实例可以被多个请求并发使用。
  */  
 @Data
 @Slf4j
@@ -31,19 +36,12 @@ public abstract class BaseAgent {
     private String systemPrompt;  
     private String nextStepPrompt;  
   
-    // 状态  
-    private AgentState state = AgentState.IDLE;
-  
     // 执行控制  
     private int maxSteps = 10;  
-    private int currentStep = 0;  
   
     // LLM  
     private ChatClient chatClient;
   
-    // Memory（需要自主维护会话上下文）  
-    private List<Message> messageList = new ArrayList<>();
-  
     /**  
      * 运行代理  
      *  
@@ -51,41 +49,40 @@ public abstract class BaseAgent {
      * @return 执行结果  
      */  
     public String run(String userPrompt) {  
-        if (this.state != AgentState.IDLE) {  
-            throw new RuntimeException("Cannot run agent from state: " + this.state);  
-        }  
         if (StrUtil.isBlank(userPrompt)) {
             throw new RuntimeException("Cannot run agent with empty user prompt");  
         }  
+        // 每次运行使用独立的会话状态
+        AgentSession session = new AgentSession();
         // 更改状态  
-        state = AgentState.RUNNING;  
+        session.setState(AgentState.RUNNING);
         // 记录消息上下文  
-        messageList.add(new UserMessage(userPrompt));
+        session.getMessageList().add(createUserMessage(session, userPrompt));
         // 保存结果列表  
         List<String> results = new ArrayList<>();  
         try {  
-            for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {  
+            for (int i = 0; i < maxSteps && session.getState() != AgentState.FINISHED; i++) {
                 int stepNumber = i + 1;  
-                currentStep = stepNumber;  
+                session.setCurrentStep(stepNumber);
                 log.info("Executing step " + stepNumber + "/" + maxSteps);  
                 // 单步执行  
-                String stepResult = step();  
+                String stepResult = step(session);
                 String result = "Step " + stepNumber + ": " + stepResult;  
                 results.add(result);  
             }  
             // 检查是否超出步骤限制  
-            if (currentStep >= maxSteps) {  
-                state = AgentState.FINISHED;  
+            if (session.getCurrentStep() >= maxSteps) {
+                session.setState(AgentState.FINISHED);
                 results.add("Terminated: Reached max steps (" + maxSteps + ")");  
             }  
             return String.join("\n", results);  
         } catch (Exception e) {  
-            state = AgentState.ERROR;  
+            session.setState(AgentState.ERROR);
             log.error("Error executing agent", e);  
             return "执行错误" + e.getMessage();  
         } finally {  
             // 清理资源  
-            this.cleanup();  
+            this.cleanup(session);
         }  
     }
 
@@ -93,99 +90,171 @@ public abstract class BaseAgent {
      * 运行代理（流式输出）
      *
      * @param userPrompt 用户提示词
+     * @param scheduler  运行调度器，负责准入限制、截止时间和取消
+     * @param userId     用户标识
      * @return SseEmitter实例
      */
-    public SseEmitter runStream(String userPrompt) {
-        // 创建SseEmitter，设置较长的超时时间
-        SseEmitter emitter = new SseEmitter(300000L); // 5分钟超时
-
-        // 使用线程异步处理，避免阻塞主线程
-        CompletableFuture.runAsync(() -> {
-            try {
-                if (this.state != AgentState.IDLE) {
-                    emitter.send("错误：无法从状态运行代理: " + this.state);
-                    emitter.complete();
-                    return;
-                }
-                if (StrUtil.isBlank(userPrompt)) {
-                    emitter.send("错误：不能使用空提示词运行代理");
-                    emitter.complete();
-                    return;
-                }
+    public SseEmitter runStream(String userPrompt, AgentRunScheduler scheduler, String userId) {
+        // 超时时间覆盖排队等待和单次运行的截止时间
+        SseEmitter emitter = new SseEmitter(
+                scheduler.getQueueTimeout().plus(scheduler.getRunDeadline()).toMillis());
 
-                // 更改状态
-                state = AgentState.RUNNING;
-                // 记录消息上下文
-                messageList.add(new UserMessage(userPrompt));
+        // 每次运行使用独立的会话状态
+        AgentSession session = new AgentSession();
 
-                try {
-                    for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {
-                        int stepNumber = i + 1;
-                        currentStep = stepNumber;
-                        log.info("Executing step " + stepNumber + "/" + maxSteps);
-
-                        // 单步执行
-                        String stepResult = step();
-                        String result = "Step " + stepNumber + ": " + stepResult;
-
-                        // 发送每一步的结果
-                        emitter.send(result);
-                    }
-                    // 检查是否超出步骤限制
-                    if (currentStep >= maxSteps) {
-                        state = AgentState.FINISHED;
-                        emitter.send("执行结束: 达到最大步骤 (" + maxSteps + ")");
-                    }
-                    // 正常完成
+        // 在调度器的虚拟线程中执行，避免阻塞主线程和公共线程池
+        AgentRunScheduler.AgentRun run = scheduler.submit(userId,
+                agentRun -> doRunStream(userPrompt, emitter, session, agentRun),
+                reason -> {
+                    sendEvent(emitter, new AgentEvent(AgentEventType.ERROR, 0, reason));
                     emitter.complete();
-                } catch (Exception e) {
-                    state = AgentState.ERROR;
-                    log.error("执行智能体失败", e);
-                    try {
-                        emitter.send("执行错误: " + e.getMessage());
-                        emitter.complete();
-                    } catch (Exception ex) {
-                        emitter.completeWithError(ex);
-                    }
-                } finally {
-                    // 清理资源
-                    this.cleanup();
-                }
-            } catch (Exception e) {
-                emitter.completeWithError(e);
-            }
-        });
+                });
+        if (run == null) {
+            sendEvent(emitter, new AgentEvent(AgentEventType.ERROR, 0, "服务繁忙，请稍后重试"));
+            emitter.complete();
+            return emitter;
+        }
 
-        // 设置超时和完成回调
+        // 设置超时和完成回调：客户端断开或超时后取消正在执行的运行
         emitter.onTimeout(() -> {
-            this.state = AgentState.ERROR;
-            this.cleanup();
+            run.cancel();
             log.warn("SSE connection timed out");
         });
 
+        emitter.onError(e -> {
+            run.cancel();
+            log.warn("SSE connection error: {}", e.getMessage());
+        });
+
         emitter.onCompletion(() -> {
-            if (this.state == AgentState.RUNNING) {
-                this.state = AgentState.FINISHED;
+            if (session.getState() == AgentState.RUNNING) {
+                run.cancel();
             }
-            this.cleanup();
             log.info("SSE connection completed");
         });
 
         return emitter;
     }
 
+    private void doRunStream(String userPrompt, SseEmitter emitter, AgentSession session,
+                             AgentRunScheduler.AgentRun run) {
+        try {
+            if (StrUtil.isBlank(userPrompt)) {
+                sendEvent(emitter, new AgentEvent(AgentEventType.ERROR, 0, "错误：不能使用空提示词运行代理"));
+                emitter.complete();
+                return;
+            }
+
+            // 更改状态
+            session.setState(AgentState.RUNNING);
+            // 记录消息上下文
+            session.getMessageList().add(createUserMessage(session, userPrompt));
+            // 步骤内的 token、工具调用和工具结果实时推送给客户端，推送失败说明客户端已断开
+            session.setEventListener(event -> {
+                if (!sendEvent(emitter, event)) {
+                    run.cancel();
+                }
+            });
+
+            try {
+                for (int i = 0; i < maxSteps && session.getState() != AgentState.FINISHED && !run.isCancelled(); i++) {
+                    int stepNumber = i + 1;
+                    session.setCurrentStep(stepNumber);
+                    log.info("Executing step " + stepNumber + "/" + maxSteps);
+                    emit(session, AgentEventType.STEP_START, "Step " + stepNumber);
+
+                    // 单步执行
+                    String stepResult = step(session);
+                    String result = "Step " + stepNumber + ": " + stepResult;
+
+                    // 发送每一步的结果
+                    emit(session, AgentEventType.STEP_END, result);
+                }
+                if (run.isCancelled()) {
+                    // 客户端断开或超过截止时间
+                    session.setState(AgentState.ERROR);
+                    log.warn("智能体运行已取消, step: {}", session.getCurrentStep());
+                    sendEvent(emitter, new AgentEvent(AgentEventType.ERROR, session.getCurrentStep(), "执行已取消: 客户端断开或超过截止时间"));
+                } else if (session.getCurrentStep() >= maxSteps) {
+                    // 检查是否超出步骤限制
+                    session.setState(AgentState.FINISHED);
+                    emit(session, AgentEventType.DONE, "执行结束: 达到最大步骤 (" + maxSteps + ")");
+                } else {
+                    session.setState(AgentState.FINISHED);
+                    emit(session, AgentEventType.DONE, "执行结束");
+                }
+                // 正常完成
+                emitter.complete();
+            } catch (Exception e) {
+                session.setState(AgentState.ERROR);
+                log.error("执行智能体失败", e);
+                sendEvent(emitter, new AgentEvent(AgentEventType.ERROR, session.getCurrentStep(), "执行错误: " + e.getMessage()));
+                emitter.complete();
+            } finally {
+                session.setEventListener(null);
+                // 清理资源
+                this.cleanup(session);
+            }
+        } catch (Exception e) {
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * 推送当前步骤的事件，没有监听者时忽略
+     *
+     * @param session 当前运行的会话
+     * @param type    事件类型
+     * @param data    事件内容
+     */
+    protected void emit(AgentSession session, AgentEventType type, String data) {
+        Consumer<AgentEvent> listener = session.getEventListener();
+        if (listener != null) {
+            listener.accept(new AgentEvent(type, session.getCurrentStep(), data));
+        }
+    }
+
+    /**
+     * 以 SSE 命名事件的形式发送，客户端可按 event 类型分别处理
+     */
+    private boolean sendEvent(SseEmitter emitter, AgentEvent event) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name(event.type().getEventName())
+                    .data(event.data()));
+            return true;
+        } catch (Exception e) {
+            log.warn("发送SSE事件失败: {}", e.getMessage());
+            return false;
+        }
+    }
+
+
+    /**
+     * 构建本次任务的用户消息，子类可以重写以在任务开始时补充上下文
+     *
+     * @param session    当前运行的会话
+     * @param userPrompt 用户提示词
+     * @return 用户消息
+     */
+    protected Message createUserMessage(AgentSession session, String userPrompt) {
+        return new UserMessage(userPrompt);
+    }
 
     /**  
      * 执行单个步骤  
      *  
+     * @param session 当前运行的会话
      * @return 步骤执行结果  
      */  
-    public abstract String step();  
+    public abstract String step(AgentSession session);
   
     /**  
      * 清理资源  
+     *
+     * @param session 当前运行的会话
      */  
-    protected void cleanup() {  
+    protected void cleanup(AgentSession session) {
         // 子类可以重写此方法来清理资源  
     }  
 }
@@ -0,0 +1,279 @@
+package wiki.zhr.zouaiagent.agent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.execution.ToolExecutionException;
+import org.springframework.util.CollectionUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 并行工具调用执行器
+ *
+ * 同一步中模型返回的多个工具调用互不依赖，使用虚拟线程并发执行，
+ * 单步耗时取决于最慢的工具而不是所有工具耗时之和。
+ * 结果按原始调用顺序写入 ToolResponseMessage，与 ToolCallingManager.executeToolCalls 的返回结构保持一致。
+ */
+@Slf4j
+public class ParallelToolCallExecutor {
+
+    // 默认单个工具超时时间
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(60);
+
+    // 默认单步最大并发工具数
+    private static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+    private static final ToolContext EMPTY_TOOL_CONTEXT = new ToolContext(Map.of());
+
+    private final Map<String, ToolCallback> toolCallbackMap = new HashMap<>();
+
+    // 每个工具的超时时间和并发上限，未配置的工具使用默认值
+    private final Map<String, ToolPolicy> toolPolicies = new ConcurrentHashMap<>();
+
+    // 需要接收工具上下文的工具，其余工具传入空上下文
+    private final Set<String> contextAwareTools = ConcurrentHashMap.newKeySet();
+
+    private final Duration defaultTimeout;
+
+    private final int maxConcurrency;
+
+    // 虚拟线程执行器，每个工具调用一个虚拟线程
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ParallelToolCallExecutor(ToolCallback[] toolCallbacks) {
+        this(toolCallbacks, DEFAULT_TIMEOUT, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    public ParallelToolCallExecutor(ToolCallback[] toolCallbacks, Duration defaultTimeout, int maxConcurrency) {
+        for (ToolCallback toolCallback : toolCallbacks) {
+            toolCallbackMap.put(toolCallback.getToolDefinition().name(), toolCallback);
+        }
+        this.defaultTimeout = defaultTimeout;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * 为指定工具设置超时时间和并发上限
+     *
+     * @param toolName       工具名称
+     * @param timeout        超时时间
+     * @param maxConcurrency 同时执行的最大数量
+     * @return 当前执行器
+     */
+    public ParallelToolCallExecutor withToolPolicy(String toolName, Duration timeout, int maxConcurrency) {
+        toolPolicies.put(toolName, new ToolPolicy(timeout, maxConcurrency));
+        return this;
+    }
+
+    /**
+     * 为指定工具传入工具上下文，工具方法需要声明 ToolContext 参数
+     *
+     * @param toolName 工具名称
+     * @return 当前执行器
+     */
+    public ParallelToolCallExecutor withToolContext(String toolName) {
+        contextAwareTools.add(toolName);
+        return this;
+    }
+
+    /**
+     * 并发执行模型返回的工具调用
+     *
+     * @param prompt       当前上下文
+     * @param chatResponse 包含工具调用的响应
+     * @return 工具执行结果，conversationHistory 包含助手消息和工具调用返回的结果
+     */
+    public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse) {
+        return executeToolCalls(prompt, chatResponse, Map.of(), new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 并发执行模型返回的工具调用
+     *
+     * @param prompt         当前上下文
+     * @param chatResponse   包含工具调用的响应
+     * @param context        工具上下文，只传给通过 {@link #withToolContext(String)} 声明的工具
+     * @param toolSemaphores 本次运行每个工具的并发限制，跨步骤共享、不跨运行共享
+     * @return 工具执行结果，conversationHistory 包含助手消息和工具调用返回的结果
+     */
+    public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse, Map<String, Object> context,
+                                                Map<String, Semaphore> toolSemaphores) {
+        AssistantMessage assistantMessage = chatResponse.getResults().stream()
+                .map(Generation::getOutput)
+                .filter(output -> !CollectionUtils.isEmpty(output.getToolCalls()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No tool call requested by the chat model"));
+
+        List<Message> conversationHistory = new ArrayList<>(prompt.getInstructions());
+        conversationHistory.add(assistantMessage);
+
+        ToolResponseMessage toolResponseMessage = new ToolResponseMessage(
+                execute(assistantMessage.getToolCalls(), new ToolContext(context), toolSemaphores), Map.of());
+        conversationHistory.add(toolResponseMessage);
+
+        return ToolExecutionResult.builder()
+                .conversationHistory(conversationHistory)
+                .build();
+    }
+
+    /**
+     * 并发执行工具调用，返回结果与调用列表一一对应
+     *
+     * @param toolCalls      工具调用
+     * @param context        工具上下文，只传给通过 {@link #withToolContext(String)} 声明的工具
+     * @param toolSemaphores 本次运行每个工具的并发限制
+     * @return 工具执行结果
+     */
+    public List<ToolResponseMessage.ToolResponse> execute(List<AssistantMessage.ToolCall> toolCalls,
+                                                          Map<String, Object> context,
+                                                          Map<String, Semaphore> toolSemaphores) {
+        return execute(toolCalls, new ToolContext(context), toolSemaphores);
+    }
+
+    /**
+     * 在后台并发执行工具调用，不阻塞当前线程
+     *
+     * @param toolCalls      工具调用
+     * @param context        工具上下文
+     * @param toolSemaphores 本次运行每个工具的并发限制
+     * @return 工具执行结果，超时和异常已转换为结果文本，不会异常完成
+     */
+    public CompletableFuture<List<ToolResponseMessage.ToolResponse>> executeInBackground(
+            List<AssistantMessage.ToolCall> toolCalls, Map<String, Object> context,
+            Map<String, Semaphore> toolSemaphores) {
+        return CompletableFuture.supplyAsync(() -> execute(toolCalls, context, toolSemaphores), executor);
+    }
+
+    private List<ToolResponseMessage.ToolResponse> execute(List<AssistantMessage.ToolCall> toolCalls,
+                                                           ToolContext toolContext,
+                                                           Map<String, Semaphore> toolSemaphores) {
+        // 单步并发上限
+        Semaphore stepLimiter = new Semaphore(maxConcurrency);
+        List<RunningCall> calls = new ArrayList<>(toolCalls.size());
+        for (AssistantMessage.ToolCall toolCall : toolCalls) {
+            CompletableFuture<Long> started = new CompletableFuture<>();
+            Future<String> result = executor.submit(
+                    () -> callTool(toolCall, toolContext, stepLimiter, toolSemaphores, started));
+            calls.add(new RunningCall(toolCall, result, started));
+        }
+
+        List<ToolResponseMessage.ToolResponse> toolResponses = new ArrayList<>(toolCalls.size());
+        for (RunningCall call : calls) {
+            String result = awaitResult(call);
+            toolResponses.add(new ToolResponseMessage.ToolResponse(call.toolCall().id(), call.toolCall().name(), result));
+        }
+        return toolResponses;
+    }
+
+    private String callTool(AssistantMessage.ToolCall toolCall, ToolContext toolContext, Semaphore stepLimiter,
+                            Map<String, Semaphore> toolSemaphores, CompletableFuture<Long> started)
+            throws InterruptedException {
+        try {
+            ToolCallback toolCallback = toolCallbackMap.get(toolCall.name());
+            if (toolCallback == null) {
+                return "工具不存在: " + toolCall.name();
+            }
+            Semaphore toolLimiter = toolSemaphores.computeIfAbsent(toolCall.name(),
+                    name -> new Semaphore(policyOf(name).maxConcurrency()));
+            // 与 ToolCallingManager 一致：不声明 ToolContext 参数的工具传入空上下文，否则会拒绝执行
+            ToolContext callContext = contextAwareTools.contains(toolCall.name()) ? toolContext : EMPTY_TOOL_CONTEXT;
+            stepLimiter.acquire();
+            try {
+                toolLimiter.acquire();
+                try {
+                    // 拿到并发名额后才开始计算超时，排队时间不计入
+                    started.complete(System.nanoTime());
+                    log.debug("开始执行工具: {}", toolCall.name());
+                    return toolCallback.call(toolCall.arguments(), callContext);
+                } catch (ToolExecutionException e) {
+                    return e.getMessage();
+                } finally {
+                    toolLimiter.release();
+                }
+            } finally {
+                stepLimiter.release();
+            }
+        } finally {
+            // 未执行就返回或排队时被中断，等待方不再等开始信号
+            started.complete(System.nanoTime());
+        }
+    }
+
+    private String awaitResult(RunningCall call) {
+        AssistantMessage.ToolCall toolCall = call.toolCall();
+        Future<String> future = call.result();
+        Duration timeout = policyOf(toolCall.name()).timeout();
+        try {
+            // 排队等待名额的工具由前面的工具超时后释放名额，这里不单独限时
+            long startNanos = call.started().get();
+            // 超时从开始执行的时刻计算，按顺序等待不会累加前面工具的耗时
+            long remainingNanos = timeout.toNanos() - (System.nanoTime() - startNanos);
+            return future.get(Math.max(remainingNanos, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.warn("工具 {} 执行超时 ({}s)", toolCall.name(), timeout.toSeconds());
+            return "工具执行超时: " + toolCall.name() + " 超过 " + timeout.toSeconds() + " 秒未返回";
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.error("工具 {} 执行失败: {}", toolCall.name(), cause.getMessage());
+            return "工具执行失败: " + cause.getMessage();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return "工具执行被中断: " + toolCall.name();
+        }
+    }
+
+    private ToolPolicy policyOf(String toolName) {
+        return toolPolicies.getOrDefault(toolName, new ToolPolicy(defaultTimeout, maxConcurrency));
+    }
+
+    /**
+     * 关闭执行器，中断仍在执行的工具
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 已提交的工具调用
+     *
+     * @param toolCall 工具调用
+     * @param result   执行结果
+     * @param started  拿到并发名额、开始执行的时刻（纳秒）
+     */
+    private record RunningCall(AssistantMessage.ToolCall toolCall, Future<String> result,
+                               CompletableFuture<Long> started) {
+    }
+
+    /**
+     * 单个工具的执行策略
+     *
+     * @param timeout        超时时间
+     * @param maxConcurrency 同时执行的最大数量
+     */
+    public record ToolPolicy(Duration timeout, int maxConcurrency) {
+    }
+}
@@ -2,6 +2,7 @@ package wiki.zhr.zouaiagent.agent;
 
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import wiki.zhr.zouaiagent.agent.model.AgentSession;
 
 /**
  * ReAct (Reasoning and Acting) 模式的代理抽象类  
@@ -14,30 +15,33 @@ public abstract class ReActAgent extends BaseAgent {
     /**  
      * 处理当前状态并决定下一步行动  
      *  
+     * @param session 当前运行的会话
      * @return 是否需要执行行动，true表示需要执行，false表示不需要执行  
      */  
-    public abstract boolean think();  
+    public abstract boolean think(AgentSession session);  
   
     /**  
      * 执行决定的行动  
      *  
+     * @param session 当前运行的会话
      * @return 行动执行结果  
      */  
-    public abstract String act();  
+    public abstract String act(AgentSession session);  
   
     /**  
      * 执行单个步骤：思考和行动  
      *  
+     * @param session 当前运行的会话
      * @return 步骤执行结果  
      */  
     @Override  
-    public String step() {  
+    public String step(AgentSession session) {  
         try {  
-            boolean shouldAct = think();  
+            boolean shouldAct = think(session);  
             if (!shouldAct) {  
                 return "思考完成 - 无需行动";  
             }  
-            return act();  
+            return act(session);  
         } catch (Exception e) {  
             // 记录异常日志  
             e.printStackTrace();  
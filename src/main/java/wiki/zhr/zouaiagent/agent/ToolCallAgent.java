@@ -2,23 +2,38 @@ package wiki.zhr.zouaiagent.agent;
 
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
 import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import jakarta.annotation.PreDestroy;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.ToolResponseMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.model.tool.ToolCallingManager;
 import org.springframework.ai.model.tool.ToolExecutionResult;
 import org.springframework.ai.tool.ToolCallback;
+import wiki.zhr.zouaiagent.agent.model.AgentEventType;
+import wiki.zhr.zouaiagent.agent.model.AgentSession;
 import wiki.zhr.zouaiagent.agent.model.AgentState;
+import wiki.zhr.zouaiagent.agent.model.PendingToolResults;
+import wiki.zhr.zouaiagent.tools.FireAndForgetToolCallback;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -32,50 +47,64 @@ public class ToolCallAgent extends ReActAgent {
     // 可用的工具  
     private final ToolCallback[] availableTools;
   
-    // 保存了工具调用信息的响应  
-    private ChatResponse toolCallChatResponse;
-  
-    // 工具调用管理者  
-    private final ToolCallingManager toolCallingManager;
+    // 工具调用执行器，同一步内的多个工具调用并发执行  
+    private final ParallelToolCallExecutor toolCallExecutor;
   
     // 禁用内置的工具调用机制，自己维护上下文  
     private final ChatOptions chatOptions;
+
+    // 流式输出时每个片段返回截至当前的完整内容（incrementalOutput 为 false）
+    private final boolean cumulativeStreamOutput;
+
+    // 结果不影响下一步推理的工具
+    private final Set<String> fireAndForgetTools;
+
+    // 推测执行：上述工具在后台运行，下一次思考不等待其返回
+    private boolean speculativeExecution = false;
   
     public ToolCallAgent(ToolCallback[] availableTools) {  
         super();  
         this.availableTools = availableTools;  
-        this.toolCallingManager = ToolCallingManager.builder().build();  
+        this.toolCallExecutor = new ParallelToolCallExecutor(availableTools);  
+        this.fireAndForgetTools = Arrays.stream(availableTools)
+                .filter(toolCallback -> toolCallback instanceof FireAndForgetToolCallback)
+                .map(toolCallback -> toolCallback.getToolDefinition().name())
+                .collect(Collectors.toSet());
         // 禁用 Spring AI 内置的工具调用机制，自己维护选项和消息上下文  
-        this.chatOptions = DashScopeChatOptions.builder()
+        // 工具定义只在创建时序列化一次，每次调用复用同一份，请求中的工具描述保持字节级一致
+        DashScopeChatOptions dashScopeChatOptions = DashScopeChatOptions.builder()
                 .withProxyToolCalls(true)  
+                .withTools(toFunctionTools(availableTools))
                 .build();  
+        this.chatOptions = dashScopeChatOptions;
+        this.cumulativeStreamOutput = Boolean.FALSE.equals(dashScopeChatOptions.getIncrementalOutput());
     }
 
     /**
      * 处理当前状态并决定下一步行动
      *
+     * @param session 当前运行的会话
      * @return 是否需要执行行动
      */
     @Override
-    public boolean think() {
+    public boolean think(AgentSession session) {
         // 1. 校验提示词，拼接用户提示词
         if (StrUtil.isNotBlank(getNextStepPrompt())) {
             UserMessage userMessage = new UserMessage(getNextStepPrompt());
-            getMessageList().add(userMessage);
+            session.getMessageList().add(userMessage);
         }
 
         // 2. 调用 AI 大模型，获取工具调用结果
-        List<Message> messageList = getMessageList();
-        Prompt prompt = new Prompt(messageList, this.chatOptions);
+        Prompt prompt = buildPrompt(session);
         try {
-            // 获取带工具选项的响应
-            ChatResponse chatResponse = getChatClient().prompt(prompt)
-                    .system(getSystemPrompt())
-                    .tools(availableTools)
+            // 获取带工具选项的响应（流式运行时逐 token 推送给客户端）
+            ChatResponse chatResponse = session.getEventListener() != null
+                    ? streamChatResponse(session, prompt)
+                    : getChatClient().prompt(prompt)
                     .call()
                     .chatResponse();
             // 记录响应，用于 Act
-            this.toolCallChatResponse = chatResponse;
+            session.setToolCallChatResponse(chatResponse);
             // 3. 解析工具调用结果，获取要调用的工具
             AssistantMessage assistantMessage = chatResponse.getResult().getOutput(); // 获取助手消息
             String result = assistantMessage.getText();
@@ -90,9 +119,11 @@ public class ToolCallAgent extends ReActAgent {
                     )
                     .collect(Collectors.joining("\n"));
             log.info(toolCallInfo);
+            toolCallList.forEach(toolCall -> emit(session, AgentEventType.TOOL_CALL,
+                    JSONUtil.toJsonStr(Map.of("id", StrUtil.nullToEmpty(toolCall.id()), "name", toolCall.name(), "arguments", StrUtil.nullToEmpty(toolCall.arguments())))));
             if (toolCallList.isEmpty()) {
                 // 只有不调用工具时，才记录助手消息
-                getMessageList().add(assistantMessage);
+                session.getMessageList().add(assistantMessage);
                 return false;
             } else {
                 // 需要调用工具时，无需记录助手消息，因为调用工具时会自动记录
@@ -100,29 +131,106 @@ public class ToolCallAgent extends ReActAgent {
             }
         } catch (Exception e) {
             log.error(getName() + "的思考过程遇到了问题: " + e.getMessage());
-            getMessageList().add(
+            session.getMessageList().add(
                     new AssistantMessage("处理时遇到错误: " + e.getMessage()));
             return false;
         }
     }
 
+    /**
+     * 组装本次调用的提示词
+     *
+     * 系统提示词固定放在最前面，之后是只追加不修改的消息上下文，工具定义使用预先生成的同一份，
+     * 多次调用的提示词前缀保持一致，可以命中 DashScope 的上下文缓存
+     *
+     * @param session 当前运行的会话
+     * @return 提示词
+     */
+    private Prompt buildPrompt(AgentSession session) {
+        List<Message> messages = new ArrayList<>(session.getMessageList().size() + 1);
+        if (StrUtil.isNotBlank(getSystemPrompt())) {
+            messages.add(new SystemMessage(getSystemPrompt()));
+        }
+        messages.addAll(session.getMessageList());
+        return new Prompt(messages, this.chatOptions);
+    }
+
+    /**
+     * 将工具转换为 DashScope 的工具定义，参数的 JSON Schema 只解析一次
+     */
+    private static List<DashScopeApi.FunctionTool> toFunctionTools(ToolCallback[] toolCallbacks) {
+        return Arrays.stream(toolCallbacks)
+                .map(toolCallback -> new DashScopeApi.FunctionTool(new DashScopeApi.FunctionTool.Function(
+                        toolCallback.getToolDefinition().description(),
+                        toolCallback.getToolDefinition().name(),
+                        toolCallback.getToolDefinition().inputSchema())))
+                .toList();
+    }
+
+    /**
+     * 使用流式 API 调用大模型，思考内容边生成边推送，工具调用片段聚合为完整的工具调用
+     *
+     * @param session 当前运行的会话
+     * @param prompt  当前上下文
+     * @return 聚合后的完整响应
+     */
+    private ChatResponse streamChatResponse(AgentSession session, Prompt prompt) {
+        StringBuilder text = new StringBuilder();
+        ToolCallDeltaAggregator toolCallAggregator = new ToolCallDeltaAggregator(cumulativeStreamOutput);
+        getChatClient().prompt(prompt)
+                .stream()
+                .chatResponse()
+                .doOnNext(chunk -> {
+                    if (chunk.getResult() == null || chunk.getResult().getOutput() == null) {
+                        return;
+                    }
+                    AssistantMessage output = chunk.getResult().getOutput();
+                    if (StrUtil.isNotEmpty(output.getText())) {
+                        text.append(output.getText());
+                        emit(session, AgentEventType.TOKEN, output.getText());
+                    }
+                    toolCallAggregator.add(output.getToolCalls());
+                })
+                .blockLast();
+        AssistantMessage assistantMessage = new AssistantMessage(text.toString(), Map.of(),
+                toolCallAggregator.getToolCalls());
+        return new ChatResponse(List.of(new Generation(assistantMessage)));
+    }
+
     /**
      * 执行工具调用并处理结果
      *
+     * @param session 当前运行的会话
      * @return 执行结果
      */
     @Override
-    public String act() {
+    public String act(AgentSession session) {
+        // 上一步在后台执行的工具先同步结果，避免与本步的工具产生先后顺序问题
+        reconcilePendingToolResults(session);
+        ChatResponse toolCallChatResponse = session.getToolCallChatResponse();
         if (!toolCallChatResponse.hasToolCalls()) {
             return "没有工具调用";
         }
-        // 调用工具
-        Prompt prompt = new Prompt(getMessageList(), chatOptions);
-        ToolExecutionResult toolExecutionResult = toolCallingManager.executeToolCalls(prompt, toolCallChatResponse);
-        // 记录消息上下文，conversationHistory 已经包含了助手消息和工具调用返回的结果
-        setMessageList(toolExecutionResult.conversationHistory());
-        // 当前工具调用的结果
-        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) CollUtil.getLast(toolExecutionResult.conversationHistory());
+        AssistantMessage assistantMessage = toolCallChatResponse.getResult().getOutput();
+        List<AssistantMessage.ToolCall> deferredToolCalls = speculativeExecution
+                ? assistantMessage.getToolCalls().stream().filter(toolCall -> fireAndForgetTools.contains(toolCall.name())).toList()
+                : List.of();
+        ToolResponseMessage toolResponseMessage;
+        if (deferredToolCalls.isEmpty()) {
+            // 调用工具（同一步内的多个工具并发执行，结果保持调用顺序）
+            Prompt prompt = new Prompt(session.getMessageList(), chatOptions);
+            ToolExecutionResult toolExecutionResult = toolCallExecutor.executeToolCalls(prompt, toolCallChatResponse,
+                    buildToolContext(session), session.getToolSemaphores());
+            // 记录消息上下文，conversationHistory 已经包含了助手消息和工具调用返回的结果
+            session.setMessageList(toolExecutionResult.conversationHistory());
+            // 当前工具调用的结果
+            toolResponseMessage = (ToolResponseMessage) CollUtil.getLast(toolExecutionResult.conversationHistory());
+        } else {
+            toolResponseMessage = actSpeculatively(session, assistantMessage, deferredToolCalls);
+        }
+        toolResponseMessage.getResponses().stream()
+                .filter(response -> deferredToolCalls.stream().noneMatch(toolCall -> Objects.equals(toolCall.id(), response.id())))
+                .forEach(response -> emitToolResult(session, response));
         String results = toolResponseMessage.getResponses().stream()
                 .map(response -> "工具 " + response.name() + " 完成了它的任务！结果: " + response.responseData())
                 .collect(Collectors.joining("\n"));
@@ -130,12 +238,122 @@ public class ToolCallAgent extends ReActAgent {
         boolean terminateToolCalled = toolResponseMessage.getResponses().stream()
                 .anyMatch(response -> "doTerminate".equals(response.name()));
         if (terminateToolCalled) {
-            setState(AgentState.FINISHED);
+            // 结束前同步后台工具的结果，保证客户端收到完整的工具结果
+            reconcilePendingToolResults(session);
+            session.setState(AgentState.FINISHED);
         }
         log.info(results);
         return results;
     }
 
+    /**
+     * 推测执行：结果不影响推理的工具在后台运行，其余工具正常执行
+     *
+     * 后台工具的结果先以占位内容写入上下文，下一次思考无需等待；
+     * 真实结果在下一次执行工具前或运行结束时同步回上下文。
+     *
+     * @param session           当前运行的会话
+     * @param assistantMessage  包含工具调用的助手消息
+     * @param deferredToolCalls 在后台执行的工具调用
+     * @return 写入上下文的工具响应
+     */
+    private ToolResponseMessage actSpeculatively(AgentSession session, AssistantMessage assistantMessage,
+                                                 List<AssistantMessage.ToolCall> deferredToolCalls) {
+        Map<String, Object> toolContext = buildToolContext(session);
+        List<AssistantMessage.ToolCall> requiredToolCalls = assistantMessage.getToolCalls().stream()
+                .filter(toolCall -> !deferredToolCalls.contains(toolCall))
+                .toList();
+        CompletableFuture<List<ToolResponseMessage.ToolResponse>> deferredResults =
+                toolCallExecutor.executeInBackground(deferredToolCalls, toolContext, session.getToolSemaphores());
+        List<ToolResponseMessage.ToolResponse> requiredResponses = toolCallExecutor.execute(requiredToolCalls, toolContext,
+                session.getToolSemaphores());
+
+        // 按原始调用顺序组装响应，后台工具使用占位内容
+        Map<String, ToolResponseMessage.ToolResponse> requiredById = new HashMap<>();
+        requiredResponses.forEach(response -> requiredById.put(response.id(), response));
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>();
+        for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+            ToolResponseMessage.ToolResponse response = requiredById.get(toolCall.id());
+            responses.add(response != null ? response
+                    : new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), "工具已在后台执行，结果将在后续步骤中同步"));
+        }
+        ToolResponseMessage toolResponseMessage = new ToolResponseMessage(responses, Map.of());
+
+        List<Message> conversationHistory = new ArrayList<>(session.getMessageList());
+        conversationHistory.add(assistantMessage);
+        conversationHistory.add(toolResponseMessage);
+        session.setMessageList(conversationHistory);
+        session.getPendingToolResults().add(new PendingToolResults(toolResponseMessage, deferredResults));
+        log.info("{} 个工具在后台执行: {}", deferredToolCalls.size(),
+                deferredToolCalls.stream().map(AssistantMessage.ToolCall::name).collect(Collectors.joining(", ")));
+        return toolResponseMessage;
+    }
+
+    /**
+     * 等待后台工具执行完成，用真实结果替换上下文中的占位内容
+     *
+     * @param session 当前运行的会话
+     */
+    protected void reconcilePendingToolResults(AgentSession session) {
+        if (session.getPendingToolResults().isEmpty()) {
+            return;
+        }
+        List<Message> messageList = new ArrayList<>(session.getMessageList());
+        for (PendingToolResults pending : session.getPendingToolResults()) {
+            // 执行器已将超时和异常转换为结果文本，这里不会抛出
+            List<ToolResponseMessage.ToolResponse> results = pending.results().join();
+            Map<String, ToolResponseMessage.ToolResponse> resultById = new HashMap<>();
+            results.forEach(result -> resultById.put(result.id(), result));
+            List<ToolResponseMessage.ToolResponse> merged = pending.placeholder().getResponses().stream()
+                    .map(response -> resultById.getOrDefault(response.id(), response))
+                    .toList();
+            for (int i = 0; i < messageList.size(); i++) {
+                if (messageList.get(i) == pending.placeholder()) {
+                    messageList.set(i, new ToolResponseMessage(merged, Map.of()));
+                    break;
+                }
+            }
+            results.forEach(result -> emitToolResult(session, result));
+            log.info("同步后台工具结果: {}", results.stream()
+                    .map(result -> "工具 " + result.name() + " 完成了它的任务！结果: " + result.responseData())
+                    .collect(Collectors.joining("\n")));
+        }
+        session.getPendingToolResults().clear();
+        session.setMessageList(messageList);
+    }
+
+    /**
+     * 运行结束前同步所有后台工具的结果
+     */
+    @Override
+    protected void cleanup(AgentSession session) {
+        reconcilePendingToolResults(session);
+        super.cleanup(session);
+    }
+
+    /**
+     * 关闭工具执行器
+     */
+    @PreDestroy
+    public void shutdown() {
+        toolCallExecutor.shutdown();
+    }
+
+    private void emitToolResult(AgentSession session, ToolResponseMessage.ToolResponse response) {
+        emit(session, AgentEventType.TOOL_RESULT,
+                JSONUtil.toJsonStr(Map.of("id", StrUtil.nullToEmpty(response.id()), "name", response.name(), "result", StrUtil.nullToEmpty(response.responseData()))));
+    }
+
+    /**
+     * 构建本次运行的工具上下文，子类可以重写以向工具传递运行级别的状态
+     *
+     * @param session 当前运行的会话
+     * @return 工具上下文
+     */
+    protected Map<String, Object> buildToolContext(AgentSession session) {
+        return Map.of();
+    }
+
 
 
 
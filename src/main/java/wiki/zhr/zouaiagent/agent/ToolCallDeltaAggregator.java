@@ -0,0 +1,134 @@
+package wiki.zhr.zouaiagent.agent;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 流式响应中工具调用片段的聚合器
+ *
+ * 流式输出时，一个工具调用会被拆成多个片段返回：首个片段带有 id 和工具名称，
+ * 后续片段可能只带参数的一部分（id 和名称为空）。片段按工具调用的序号合并：
+ * 带 id 的片段按 id 确定序号；没有 id 的片段在同时包含多个工具调用的片段中按位置确定序号，
+ * 否则属于当前正在输出的工具调用（带名称的则是一个新的工具调用）。
+ * Spring AI 的 ToolCall 不保留接口返回的 index 字段，所以只能这样还原。
+ *
+ * 参数是增量还是截至当前的完整内容由请求的 incrementalOutput 决定，整个流只按一种方式合并。
+ */
+public class ToolCallDeltaAggregator {
+
+    // 按序号排列的工具调用
+    private final List<PartialToolCall> toolCalls = new ArrayList<>();
+
+    private final Map<String, Integer> indexById = new HashMap<>();
+
+    // 每个片段的参数是否为截至当前的完整参数
+    private final boolean cumulative;
+
+    // 当前正在输出的工具调用的序号
+    private int current = -1;
+
+    /**
+     * 增量输出的聚合器
+     */
+    public ToolCallDeltaAggregator() {
+        this(false);
+    }
+
+    /**
+     * @param cumulative 每个片段的参数是否为截至当前的完整参数（DashScope 的 incrementalOutput 为 false）
+     */
+    public ToolCallDeltaAggregator(boolean cumulative) {
+        this.cumulative = cumulative;
+    }
+
+    /**
+     * 合并一个响应片段中的工具调用
+     *
+     * @param deltas 片段中的工具调用
+     */
+    public void add(List<AssistantMessage.ToolCall> deltas) {
+        if (deltas == null) {
+            return;
+        }
+        for (int position = 0; position < deltas.size(); position++) {
+            AssistantMessage.ToolCall delta = deltas.get(position);
+            int index = indexOf(delta, position, deltas.size());
+            toolCalls.get(index).merge(delta, cumulative);
+            current = index;
+        }
+    }
+
+    private int indexOf(AssistantMessage.ToolCall delta, int position, int size) {
+        if (StrUtil.isNotBlank(delta.id())) {
+            return indexById.computeIfAbsent(delta.id(), this::open);
+        }
+        if (size > 1) {
+            // 一个片段中包含多个工具调用时，位置即序号
+            while (toolCalls.size() <= position) {
+                open(null);
+            }
+            return position;
+        }
+        if (current < 0 || StrUtil.isNotBlank(delta.name())) {
+            // 首个片段缺少 id，或者没有 id 的新工具调用
+            return open(null);
+        }
+        return current;
+    }
+
+    private int open(String id) {
+        toolCalls.add(new PartialToolCall(id != null ? id : "call_" + toolCalls.size()));
+        return toolCalls.size() - 1;
+    }
+
+    /**
+     * @return 聚合后的完整工具调用列表，保持模型返回的顺序
+     */
+    public List<AssistantMessage.ToolCall> getToolCalls() {
+        List<AssistantMessage.ToolCall> result = new ArrayList<>(toolCalls.size());
+        for (PartialToolCall partial : toolCalls) {
+            if (StrUtil.isNotBlank(partial.name)) {
+                result.add(partial.toToolCall());
+            }
+        }
+        return result;
+    }
+
+    private static class PartialToolCall {
+        private final String id;
+        private String type = "function";
+        private String name = "";
+        private final StringBuilder arguments = new StringBuilder();
+
+        PartialToolCall(String id) {
+            this.id = id;
+        }
+
+        void merge(AssistantMessage.ToolCall delta, boolean cumulative) {
+            if (StrUtil.isNotBlank(delta.type())) {
+                type = delta.type();
+            }
+            if (StrUtil.isNotBlank(delta.name())) {
+                name = delta.name();
+            }
+            String args = delta.arguments();
+            if (StrUtil.isEmpty(args)) {
+                return;
+            }
+            if (cumulative) {
+                arguments.setLength(0);
+            }
+            arguments.append(args);
+        }
+
+        AssistantMessage.ToolCall toToolCall() {
+            String args = arguments.length() == 0 ? "{}" : arguments.toString();
+            return new AssistantMessage.ToolCall(id, type, name, args);
+        }
+    }
+}
@@ -1,26 +1,64 @@
 package wiki.zhr.zouaiagent.agent;
 
-import jakarta.annotation.Resource;
+import cn.hutool.core.util.ArrayUtil;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.tool.ToolCallback;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.tool.ToolCallbacks;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import wiki.zhr.zouaiagent.advisor.MyLoggerAdvisor;
+import wiki.zhr.zouaiagent.agent.model.AgentSession;
+import wiki.zhr.zouaiagent.model.ModelRouter;
+import wiki.zhr.zouaiagent.model.ModelTask;
+import wiki.zhr.zouaiagent.rag.CodeContextAssembler;
+import wiki.zhr.zouaiagent.rag.LocalReranker;
 import wiki.zhr.zouaiagent.service.DynamicPgVectorStoreService;
+import wiki.zhr.zouaiagent.tools.CodeKnowledgeSearchTool;
+
+import java.time.Duration;
+import java.util.Map;
 
 @Component
 public class ZouManus extends ToolCallAgent {
 
-    private final String repositoryName = "zhrRunner_zou-ai-agent";
-    private final VectorStore gitHubVectorStore;
-    private final ChatClient chatClient;
+    private static final String REPOSITORY_NAME = "zhrRunner_zou-ai-agent";
+
+    // 任务开始时检索到的代码知识，只随第一条用户消息注入一次
+    private static final String KNOWLEDGE_PROMPT = """
+
 
+            Code knowledge retrieved for this task is below, surrounded by ---------------------
+            ---------------------
+            %s
+            ---------------------
+            Use it when it is relevant. Call the `searchCodeKnowledge` tool if you need more code knowledge.
+            """;
+
+    private final CodeKnowledgeSearchTool codeKnowledgeSearchTool;
+
+    @Autowired
     public ZouManus(ToolCallback[] allTools,
-                    ChatModel dashscopeChatModel,
-                    DynamicPgVectorStoreService dynamicPgVectorStoreService) {
-        super(allTools);
+                    ModelRouter modelRouter,
+                    DynamicPgVectorStoreService dynamicPgVectorStoreService,
+                    LocalReranker localReranker,
+                    CodeContextAssembler codeContextAssembler,
+                    @Value("${agent.speculative-execution:false}") boolean speculativeExecution) {
+        this(allTools, modelRouter.chatModelFor(ModelTask.AGENT_REASONING),
+                new CodeKnowledgeSearchTool(dynamicPgVectorStoreService.getVectorStore(REPOSITORY_NAME), localReranker,
+                        hits -> codeContextAssembler.assemble(REPOSITORY_NAME, hits)),
+                speculativeExecution);
+    }
+
+    private ZouManus(ToolCallback[] allTools,
+                     ChatModel chatModel,
+                     CodeKnowledgeSearchTool codeKnowledgeSearchTool,
+                     boolean speculativeExecution) {
+        super(ArrayUtil.append(allTools, ToolCallbacks.from(codeKnowledgeSearchTool)));
+        this.codeKnowledgeSearchTool = codeKnowledgeSearchTool;
         this.setName("zouManus");
         String SYSTEM_PROMPT = """
                 You are ZouManus, an all-capable AI assistant, aimed at solving any task presented by the user.
@@ -35,14 +73,31 @@ public class ZouManus extends ToolCallAgent {
                 """;
         this.setNextStepPrompt(NEXT_STEP_PROMPT);
         this.setMaxSteps(20);
+        // 终端命令可能相互影响，串行执行；其余工具使用默认的超时和并发限制
+        this.getToolCallExecutor().withToolPolicy("executeTerminalCommand", Duration.ofSeconds(120), 1);
+        // 写文件、生成 PDF、发送邮件等工具的结果不影响推理，开启后在后台执行
+        this.setSpeculativeExecution(speculativeExecution);
+        // 代码知识检索工具通过工具上下文使用本次运行的检索缓存
+        this.getToolCallExecutor().withToolContext("searchCodeKnowledge");
 
-        // 初始化gitHubVectorStore
-        this.gitHubVectorStore = dynamicPgVectorStoreService.getVectorStore(repositoryName);
-
-        // 初始化客户端
-        this.chatClient = ChatClient.builder(dashscopeChatModel)
-                .defaultAdvisors(new MyLoggerAdvisor(), new QuestionAnswerAdvisor(gitHubVectorStore))
+        // 初始化客户端：不再在每一步检索向量库，检索只在任务开始时和模型显式调用工具时进行
+        ChatClient chatClient = ChatClient.builder(chatModel)
+                .defaultAdvisors(new MyLoggerAdvisor())
                 .build();
         this.setChatClient(chatClient);
     }
+
+    /**
+     * 每个任务只检索一次代码知识，结果缓存到会话中并随用户消息注入
+     */
+    @Override
+    protected Message createUserMessage(AgentSession session, String userPrompt) {
+        String knowledge = codeKnowledgeSearchTool.search(userPrompt, session.getKnowledgeCache());
+        return new UserMessage(userPrompt + KNOWLEDGE_PROMPT.formatted(knowledge));
+    }
+
+    @Override
+    protected Map<String, Object> buildToolContext(AgentSession session) {
+        return Map.of(CodeKnowledgeSearchTool.KNOWLEDGE_CACHE_KEY, session.getKnowledgeCache());
+    }
 }
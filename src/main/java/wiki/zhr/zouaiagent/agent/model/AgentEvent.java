@@ -0,0 +1,11 @@
+package wiki.zhr.zouaiagent.agent.model;
+
+/**
+ * 代理执行过程中推送给客户端的事件
+ *
+ * @param type 事件类型
+ * @param step 所属步骤
+ * @param data 事件内容
+ */
+public record AgentEvent(AgentEventType type, int step, String data) {
+}
@@ -0,0 +1,52 @@
+package wiki.zhr.zouaiagent.agent.model;
+
+/**
+ * 代理流式输出的事件类型，对应 SSE 的 event 名称
+ */
+public enum AgentEventType {
+
+    /**
+     * 步骤开始
+     */
+    STEP_START("step_start"),
+
+    /**
+     * 模型输出的思考内容片段
+     */
+    TOKEN("token"),
+
+    /**
+     * 模型选择的工具调用
+     */
+    TOOL_CALL("tool_call"),
+
+    /**
+     * 工具执行结果
+     */
+    TOOL_RESULT("tool_result"),
+
+    /**
+     * 步骤结束
+     */
+    STEP_END("step_end"),
+
+    /**
+     * 执行结束
+     */
+    DONE("done"),
+
+    /**
+     * 执行错误
+     */
+    ERROR("error");
+
+    private final String eventName;
+
+    AgentEventType(String eventName) {
+        this.eventName = eventName;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+}
@@ -0,0 +1,46 @@
+package wiki.zhr.zouaiagent.agent.model;
+
+import lombok.Data;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * 代理的单次运行状态
+ *
+ * 代理本身只保存提示词、工具、客户端等不可变的定义，可以在多个请求间共享；
+ * 每次运行的消息上下文、步骤计数和执行状态保存在独立的会话中，并发运行互不影响。
+ */
+@Data
+public class AgentSession {
+
+    // 状态
+    private volatile AgentState state = AgentState.IDLE;
+
+    // 当前步骤
+    private int currentStep = 0;
+
+    // Memory（需要自主维护会话上下文）
+    private List<Message> messageList = new ArrayList<>();
+
+    // 保存了工具调用信息的响应
+    private ChatResponse toolCallChatResponse;
+
+    // 推测执行时尚未同步回上下文的后台工具结果
+    private final List<PendingToolResults> pendingToolResults = new ArrayList<>();
+
+    // 本次运行的代码知识检索结果，相同查询只检索一次
+    private final Map<String, String> knowledgeCache = new ConcurrentHashMap<>();
+
+    // 本次运行每个工具的并发限制（如终端命令串行执行），不同运行之间互不影响
+    private final Map<String, Semaphore> toolSemaphores = new ConcurrentHashMap<>();
+
+    // 事件监听（流式运行时推送 token、工具调用等事件，同步运行时为空）
+    private Consumer<AgentEvent> eventListener;
+}
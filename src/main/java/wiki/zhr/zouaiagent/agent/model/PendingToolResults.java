@@ -0,0 +1,16 @@
+package wiki.zhr.zouaiagent.agent.model;
+
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 推测执行时仍在后台运行的工具调用
+ *
+ * @param placeholder 已写入消息上下文的工具响应，后台工具的结果暂为占位内容
+ * @param results     后台工具的执行结果
+ */
+public record PendingToolResults(ToolResponseMessage placeholder,
+                                 CompletableFuture<List<ToolResponseMessage.ToolResponse>> results) {
+}
@@ -1,26 +1,46 @@
 package wiki.zhr.zouaiagent.app;
 
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.client.advisor.RetrievalAugmentationAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.rag.generation.augmentation.ContextualQueryAugmenter;
+import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbackProvider;
+import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 import wiki.zhr.zouaiagent.advisor.MyLoggerAdvisor;
+import wiki.zhr.zouaiagent.advisor.SemanticCacheAdvisor;
+import wiki.zhr.zouaiagent.advisor.SystemPromptFirstAdvisor;
 import wiki.zhr.zouaiagent.chatmemory.FileBasedChatMemory;
+import wiki.zhr.zouaiagent.model.ModelRouter;
+import wiki.zhr.zouaiagent.model.ModelTask;
+import wiki.zhr.zouaiagent.rag.CodeContextAssembler;
+import wiki.zhr.zouaiagent.rag.LocalReranker;
 import wiki.zhr.zouaiagent.rag.QueryRewriter;
+import wiki.zhr.zouaiagent.rag.RerankingDocumentJoiner;
 import wiki.zhr.zouaiagent.service.DynamicPgVectorStoreService;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
@@ -35,9 +55,7 @@ import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvis
 @Slf4j
 public class CodeAssistantApp {
 
-    private final ChatClient chatClient;
-
-    private final String SYSTEM_PROMPT = "你是一个经验丰富的资深软件工程师、自动化测试专家和代码审查顾问。你的职责是：\n" +
+    private static final String SYSTEM_PROMPT = "你是一个经验丰富的资深软件工程师、自动化测试专家和代码审查顾问。你的职责是：\n" +
             "根据用户提供的业务代码片段，自动生成高质量、覆盖率高、结构清晰的单元测试代码。\n" +
             "对业务代码进行全面代码审查，识别潜在缺陷、逻辑漏洞、边界条件遗漏、安全问题和维护风险，输出清晰的审查报告。\n" +
             "在对话过程中不断主动提问以补齐上下文，深入了解用户代码所在的业务场景、依赖环境、项目结构、技术栈、代码约定和测试需求。\n" +
@@ -54,21 +72,54 @@ public class CodeAssistantApp {
             "请始终以专业、实用的方式回复用户，不要生成冗余内容或过度解释。如你无法明确判断某个上下文信息，请向用户提问澄清，而不是臆测。\n" +
             "你的目标是：帮助用户产出可靠、易维护、风险低的单元测试，并提升其代码质量和工程稳定性。";
 
-    public CodeAssistantApp(ChatModel dashscopeChatModel) {
+    // 报告要求追加在系统提示词末尾，不写入对话记忆；系统提示词的前缀与其他对话一致，仍可命中上下文缓存
+    private static final String REPORT_PROMPT = "\n对于单元测试生成和代码审查，都要生成代码建议报告，标题为代码审查报告，内容为建议列表";
+
+    private final ChatClient chatClient;
+
+    // 语义缓存，未开启时为空
+    private final SemanticCacheAdvisor semanticCacheAdvisor;
+
+    // 流式对话中查询重写、对话记忆读取和向量检索等阻塞阶段使用的有界调度器
+    private final Scheduler streamScheduler = Schedulers.newBoundedElastic(32, 1024, "code-assistant-stream");
+
+    public CodeAssistantApp(ModelRouter modelRouter,
+                            EmbeddingModel dashscopeEmbeddingModel,
+                            @Value("${code-assistant.semantic-cache.enabled:false}") boolean semanticCacheEnabled,
+                            @Value("${code-assistant.semantic-cache.similarity-threshold:0.95}") double similarityThreshold,
+                            @Value("${code-assistant.semantic-cache.ttl-minutes:30}") long ttlMinutes,
+                            @Value("${code-assistant.semantic-cache.max-entries:500}") int maxEntries) {
         // 初始化基于文件的对话记忆
         String fileDir = System.getProperty("user.dir") + "/tmp/chat-memory";
         ChatMemory chatMemory = new FileBasedChatMemory(fileDir);
 //        // 初始化基于内存的对话记忆
 //        ChatMemory chatMemory = new InMemoryChatMemory();
-        chatClient = ChatClient.builder(dashscopeChatModel)
+        // 面向用户的回答使用强模型
+        chatClient = ChatClient.builder(modelRouter.chatModelFor(ModelTask.ANSWER))
                 .defaultSystem(SYSTEM_PROMPT)
                 .defaultAdvisors(
-                        new MessageChatMemoryAdvisor(chatMemory)
+                        // 流式调用统一在 streamScheduler 上订阅，记忆读取不再切换到公共的 boundedElastic
+                        MessageChatMemoryAdvisor.builder(chatMemory).protectFromBlocking(false).build(),
+                        // 系统提示词放在最前面，保持提示词前缀稳定以命中上下文缓存
+                        new SystemPromptFirstAdvisor()
                         // 自定义日志拦截器，可以按需开启
 //                        ,new MyLoggerAdvisor()
 //                        , new ReReadingAdvisor()
                 )
                 .build();
+        // 初始化语义缓存：相似的无状态请求直接返回缓存的回复
+        this.semanticCacheAdvisor = semanticCacheEnabled
+                ? new SemanticCacheAdvisor(dashscopeEmbeddingModel, similarityThreshold, Duration.ofMinutes(ttlMinutes), maxEntries)
+                : null;
+    }
+
+    /**
+     * 开启语义缓存时添加缓存 Advisor
+     */
+    private void applySemanticCache(ChatClient.AdvisorSpec spec) {
+        if (semanticCacheAdvisor != null) {
+            spec.advisors(semanticCacheAdvisor);
+        }
     }
 
 
@@ -85,6 +136,7 @@ public class CodeAssistantApp {
                 .user(message)
                 .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
                         .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(this::applySemanticCache)
                 .call()
                 .chatResponse();
         String content = response.getResult().getOutput().getText();
@@ -99,16 +151,36 @@ public class CodeAssistantApp {
     public CodeAssistantReport doChatWithReport(String message, String chatId) {
         CodeAssistantReport codeAssistantReport = chatClient
                 .prompt()
-                .system(SYSTEM_PROMPT + "对于单元测试生成和代码审查，都要生成代码建议报告，标题为代码审查报告，内容为建议列表")
+                .system(SYSTEM_PROMPT + REPORT_PROMPT)
                 .user(message)
                 .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
                         .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(this::applySemanticCache)
                 .call()
                 .entity(CodeAssistantReport.class);
         log.info("codeAssistantReport: {}", codeAssistantReport);
         return codeAssistantReport;
     }
 
+    /**
+     * 生成单元测试，用于覆盖率引导的多轮生成；每轮的反馈不同，不走语义缓存
+     *
+     * @param message 生成要求或上一轮的覆盖率反馈
+     * @param chatId  聊天会话ID，多轮之间共享上下文
+     * @return 模型回复
+     */
+    public String doGenerateTests(String message, String chatId) {
+        String content = chatClient
+                .prompt()
+                .user(message)
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .call()
+                .content();
+        log.debug("生成测试: 会话 {}, 回复 {} 个字符", chatId, content == null ? 0 : content.length());
+        return content;
+    }
+
     // AI 代码助手知识库问答
     @Resource
     @Qualifier("CodeAssistantAppVectorStore")
@@ -126,6 +198,60 @@ public class CodeAssistantApp {
     @Resource
     private QueryRewriter queryRewriter;
 
+    @Resource
+    private LocalReranker localReranker;
+
+    @Resource
+    private CodeContextAssembler codeContextAssembler;
+
+    /**
+     * 知识库问答 Advisor
+     *
+     * 开启重排序时多召回一些候选片段，本地重排序后按 token 预算放入提示词；未开启时直接使用向量检索的结果。
+     *
+     * @param vectorStore 向量存储
+     * @param stream      是否用于流式对话，流式对话的检索在订阅线程（streamScheduler）上执行
+     */
+    private Advisor knowledgeAdvisor(VectorStore vectorStore, boolean stream) {
+        return knowledgeAdvisor(vectorStore, stream, null, null);
+    }
+
+    /**
+     * 代码仓库知识库问答 Advisor，检索结果中同一文件的相邻片段合并为带行号的代码段
+     *
+     * @param repositoryName 仓库名称
+     * @param stream         是否用于流式对话
+     * @param filter         元信息过滤条件，为空时不过滤
+     */
+    private Advisor codeKnowledgeAdvisor(String repositoryName, boolean stream, Filter.Expression filter) {
+        return knowledgeAdvisor(dynamicPgVectorStoreService.getVectorStore(repositoryName), stream,
+                hits -> codeContextAssembler.assemble(repositoryName, hits), filter);
+    }
+
+    private Advisor knowledgeAdvisor(VectorStore vectorStore, boolean stream,
+                                     UnaryOperator<List<Document>> contextAssembler, Filter.Expression filter) {
+        if (!localReranker.isEnabled() && contextAssembler == null) {
+            return QuestionAnswerAdvisor.builder(vectorStore)
+                    .searchRequest(SearchRequest.builder().filterExpression(filter).build())
+                    .protectFromBlocking(!stream)
+                    .build();
+        }
+        RetrievalAugmentationAdvisor.Builder builder = RetrievalAugmentationAdvisor.builder()
+                .documentRetriever(VectorStoreDocumentRetriever.builder()
+                        .vectorStore(vectorStore)
+                        .topK(localReranker.isEnabled() ? localReranker.getCandidateTopK() : SearchRequest.DEFAULT_TOP_K)
+                        .filterExpression(filter)
+                        .build())
+                .documentJoiner(new RerankingDocumentJoiner(localReranker,
+                        contextAssembler != null ? contextAssembler : UnaryOperator.identity()))
+                // 与 QuestionAnswerAdvisor 一致，检索不到内容时仍正常回答
+                .queryAugmenter(ContextualQueryAugmenter.builder().allowEmptyContext(true).build());
+        if (stream) {
+            builder.scheduler(Schedulers.immediate());
+        }
+        return builder.build();
+    }
+
     /**
      * 和 RAG 知识库进行对话
      */
@@ -141,7 +267,7 @@ public class CodeAssistantApp {
                 // 开启日志，便于观察效果
                 .advisors(new MyLoggerAdvisor())
                 // 应用知识库问答 （可选飞书获取文档 \ 获取md文档）
-                .advisors(new QuestionAnswerAdvisor(codeAssistantAppVectorStore))
+                .advisors(knowledgeAdvisor(codeAssistantAppVectorStore, false))
                 // 应用增强检索服务（云知识库服务————百炼）
 //                .advisors(codeAssistantRagCloudAdvisor)
                 // 应用RAG 检索增强服务（基于 PgVector 的向量存储————云数据库）
@@ -161,10 +287,19 @@ public class CodeAssistantApp {
      * @return AI回复内容
      */
     public String doChatWithGitHubRag(String message, String chatId, String repositoryName) {
+        return doChatWithGitHubRag(message, chatId, repositoryName, null);
+    }
+
+    /**
+     * 使用GitHub代码知识库进行RAG对话，只检索满足元信息过滤条件的片段
+     * @param message 用户消息
+     * @param chatId 聊天ID
+     * @param repositoryName GitHub仓库名称（格式: owner_repository-name）
+     * @param filter 元信息过滤条件，由 CodeSearchFilter 构造，为空时不过滤
+     * @return AI回复内容
+     */
+    public String doChatWithGitHubRag(String message, String chatId, String repositoryName, Filter.Expression filter) {
         try {
-            // 获取指定仓库的向量存储
-            VectorStore gitHubVectorStore = dynamicPgVectorStoreService.getVectorStore(repositoryName);
-            
             // 使用 QueryRewriter 对用户输入进行重写
             String rewrittenMessage = queryRewriter.doQueryRewrite(message);
             log.info("🔍 原始消息: {}", message);
@@ -179,7 +314,7 @@ public class CodeAssistantApp {
                     // 开启日志，便于观察效果
                     .advisors(new MyLoggerAdvisor())
                     // 应用GitHub代码知识库问答
-                    .advisors(new QuestionAnswerAdvisor(gitHubVectorStore))
+                    .advisors(codeKnowledgeAdvisor(repositoryName, false, filter))
                     .call()
                     .chatResponse();
                     
@@ -206,10 +341,69 @@ public class CodeAssistantApp {
                 .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
                         .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
                 .stream()
-                .content();
+                .content()
+                .subscribeOn(streamScheduler);
+    }
+
+    /**
+     * 查询重写作为非阻塞阶段，在有界调度器上执行
+     */
+    private Mono<String> rewriteQuery(String message) {
+        return Mono.fromCallable(() -> queryRewriter.doQueryRewrite(message))
+                .subscribeOn(streamScheduler)
+                .doOnNext(rewrittenMessage -> log.info("rewrittenMessage: {}", rewrittenMessage));
+    }
+
+    /**
+     * 和 RAG 知识库进行对话（流式）
+     */
+    public Flux<String> doChatWithRagByStream(String message, String chatId) {
+        return rewriteQuery(message)
+                .flatMapMany(rewrittenMessage -> chatClient
+                        .prompt()
+                        .user(rewrittenMessage)
+                        .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                                .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                        .advisors(new MyLoggerAdvisor())
+                        // 检索在订阅线程（streamScheduler）上执行，不再切换到公共的 boundedElastic
+                        .advisors(knowledgeAdvisor(codeAssistantAppVectorStore, true))
+                        .stream()
+                        .content()
+                        .subscribeOn(streamScheduler));
     }
 
+    /**
+     * 使用GitHub代码知识库进行RAG对话（流式）
+     * @param message 用户消息
+     * @param chatId 聊天ID
+     * @param repositoryName GitHub仓库名称（格式: owner_repository-name）
+     * @return AI的流式回复内容
+     */
+    public Flux<String> doChatWithGitHubRagByStream(String message, String chatId, String repositoryName) {
+        return doChatWithGitHubRagByStream(message, chatId, repositoryName, null);
+    }
 
+    /**
+     * 使用GitHub代码知识库进行RAG对话（流式），只检索满足元信息过滤条件的片段
+     * @param filter 元信息过滤条件，由 CodeSearchFilter 构造，为空时不过滤
+     */
+    public Flux<String> doChatWithGitHubRagByStream(String message, String chatId, String repositoryName, Filter.Expression filter) {
+        return rewriteQuery(message)
+                .flatMapMany(rewrittenMessage -> chatClient
+                        .prompt()
+                        .user(rewrittenMessage)
+                        .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                                .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                        .advisors(new MyLoggerAdvisor())
+                        .advisors(codeKnowledgeAdvisor(repositoryName, true, filter))
+                        .stream()
+                        .content()
+                        .subscribeOn(streamScheduler))
+                .onErrorResume(e -> {
+                    log.error("❌ GitHub RAG流式对话失败: {}", e.getMessage(), e);
+                    return Flux.just("抱歉，在查询代码知识库时遇到了问题：" + e.getMessage());
+                });
+    }
 
     /**
      * 代码助手工具调用 Tool Calling
@@ -233,6 +427,22 @@ public class CodeAssistantApp {
         return content;
     }
 
+    /**
+     * 代码助手工具调用（流式）
+     */
+    public Flux<String> doChatWithToolsByStream(String message, String chatId) {
+        return chatClient
+                .prompt()
+                .user(message)
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(new MyLoggerAdvisor())
+                .tools(allTools)
+                .stream()
+                .content()
+                .subscribeOn(streamScheduler);
+    }
+
     @Resource
     private ToolCallbackProvider toolCallbackProvider;
 
@@ -252,7 +462,24 @@ public class CodeAssistantApp {
         return content;
     }
 
+    /**
+     * 代码助手 MCP 工具调用（流式）
+     */
+    public Flux<String> doChatWithMcpByStream(String message, String chatId) {
+        return chatClient
+                .prompt()
+                .user(message)
+                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
+                .advisors(new MyLoggerAdvisor())
+                .tools(toolCallbackProvider)
+                .stream()
+                .content()
+                .subscribeOn(streamScheduler);
+    }
 
+    @PreDestroy
+    public void shutdown() {
+        streamScheduler.dispose();
+    }
 }
-
-
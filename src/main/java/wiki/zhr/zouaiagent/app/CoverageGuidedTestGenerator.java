@@ -0,0 +1,259 @@
+package wiki.zhr.zouaiagent.app;
+
+import cn.hutool.core.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wiki.zhr.zouaiagent.coverage.CompilationException;
+import wiki.zhr.zouaiagent.coverage.CompiledSources;
+import wiki.zhr.zouaiagent.coverage.CoverageReport;
+import wiki.zhr.zouaiagent.coverage.JavaSource;
+import wiki.zhr.zouaiagent.coverage.WorkerLimitExceededException;
+import wiki.zhr.zouaiagent.tools.CodeCoverageAnalyzer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 覆盖率引导的测试生成
+ *
+ * 让模型生成测试 -> 测量行覆盖率和分支覆盖率 -> 把未覆盖的行、失败的测试或编译错误反馈给模型 -> 重新生成，
+ * 直到达到目标覆盖率或用完轮数/时间预算。被测类只编译一次，之后每轮只重新编译测试类。
+ */
+@Component
+@Slf4j
+public class CoverageGuidedTestGenerator {
+
+    private static final Pattern CODE_BLOCK = Pattern.compile("```(?:java)?\\s*\\n(.*?)```", Pattern.DOTALL);
+
+    /**
+     * 反馈给模型的未覆盖行数量上限，避免提示词过长
+     */
+    private static final int MAX_FEEDBACK_LINES = 40;
+
+    // 模型调用：(提示词, 会话ID) -> 回复
+    private final BiFunction<String, String, String> model;
+
+    private final CodeCoverageAnalyzer analyzer;
+
+    private final double defaultTargetLineCoverage;
+
+    private final int defaultMaxRounds;
+
+    private final Duration timeBudget;
+
+    @Autowired
+    public CoverageGuidedTestGenerator(CodeAssistantApp codeAssistantApp,
+                                       CodeCoverageAnalyzer analyzer,
+                                       @Value("${coverage.generation.target-line-coverage:90}") double targetLineCoverage,
+                                       @Value("${coverage.generation.max-rounds:5}") int maxRounds,
+                                       @Value("${coverage.generation.time-budget-seconds:300}") long timeBudgetSeconds) {
+        this(codeAssistantApp::doGenerateTests, analyzer, targetLineCoverage, maxRounds, Duration.ofSeconds(timeBudgetSeconds));
+    }
+
+    CoverageGuidedTestGenerator(BiFunction<String, String, String> model,
+                                CodeCoverageAnalyzer analyzer,
+                                double targetLineCoverage,
+                                int maxRounds,
+                                Duration timeBudget) {
+        this.model = model;
+        this.analyzer = analyzer;
+        this.defaultTargetLineCoverage = targetLineCoverage;
+        this.defaultMaxRounds = maxRounds;
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * 一轮生成的结果
+     *
+     * @param round          轮次，从 1 开始
+     * @param lineCoverage   行覆盖率，编译失败时为 0
+     * @param branchCoverage 分支覆盖率，编译失败时为 0
+     * @param failedTests    失败的测试数
+     * @param compileErrors  测试代码的编译错误数
+     * @param millis         本轮耗时（包含模型调用）
+     * @param error          测试执行超时或工作进程退出时的原因，其他情况为空
+     */
+    public record Round(int round, double lineCoverage, double branchCoverage, long failedTests, int compileErrors,
+                        long millis, String error) {
+    }
+
+    /**
+     * 生成结果
+     *
+     * @param testCode      最好的一轮生成的测试代码
+     * @param report        最好的一轮的覆盖率报告，所有轮次都编译失败时为空
+     * @param targetReached 是否达到目标覆盖率
+     * @param rounds        每一轮的结果
+     */
+    public record GenerationResult(String testCode, CoverageReport report, boolean targetReached, List<Round> rounds) {
+    }
+
+    /**
+     * 为一个类生成测试，直到达到目标行覆盖率或用完预算
+     *
+     * @param sourceCode         被测源代码
+     * @param targetLineCoverage 目标行覆盖率（百分比），为空使用配置的默认值
+     * @param maxRounds          最多生成的轮数，为空使用配置的默认值
+     * @param chatId             会话ID，为空时生成一个新的
+     * @return 生成结果
+     * @throws CompilationException 被测源代码本身编译失败
+     */
+    public GenerationResult generate(String sourceCode, Double targetLineCoverage, Integer maxRounds, String chatId) {
+        double target = targetLineCoverage == null ? defaultTargetLineCoverage : targetLineCoverage;
+        int roundLimit = maxRounds == null ? defaultMaxRounds : maxRounds;
+        String conversationId = chatId == null || chatId.isBlank() ? "coverage-" + IdUtil.fastSimpleUUID() : chatId;
+        long deadline = System.nanoTime() + timeBudget.toNanos();
+
+        JavaSource source = JavaSource.of(sourceCode);
+        // 被测类只编译一次
+        CompiledSources compiled = analyzer.compileSources(List.of(source));
+
+        List<Round> rounds = new ArrayList<>();
+        String bestTest = null;
+        CoverageReport bestReport = null;
+        String prompt = initialPrompt(source);
+        for (int round = 1; round <= roundLimit && System.nanoTime() < deadline; round++) {
+            long start = System.currentTimeMillis();
+            String reply = model.apply(prompt, conversationId);
+            String testCode = extractCode(reply);
+            JavaSource test;
+            CoverageReport report;
+            try {
+                test = JavaSource.of(testCode);
+                report = analyzer.analyze(compiled, test);
+            } catch (CompilationException e) {
+                rounds.add(new Round(round, 0, 0, 0, e.getErrors().size(), System.currentTimeMillis() - start, null));
+                prompt = compileErrorPrompt(e.getErrors());
+                continue;
+            } catch (IllegalArgumentException e) {
+                rounds.add(new Round(round, 0, 0, 0, 1, System.currentTimeMillis() - start, null));
+                prompt = "没有找到测试类，请只输出一个完整的 Java 测试类代码块。";
+                continue;
+            } catch (WorkerLimitExceededException e) {
+                // 测试死循环或长时间占用 CPU，工作进程已被杀掉，本轮记为失败，让模型修正后继续
+                log.warn("覆盖率引导生成: 第 {} 轮测试执行超时: {}", round, e.getMessage());
+                rounds.add(new Round(round, 0, 0, 0, 0, System.currentTimeMillis() - start, e.getMessage()));
+                prompt = workerFailurePrompt("测试执行超时（" + e.getMessage() + "）",
+                        "请检查是否有死循环、无限等待或耗时过长的用例");
+                continue;
+            } catch (IllegalStateException e) {
+                // 工作进程异常退出（System.exit、内存溢出等）
+                log.warn("覆盖率引导生成: 第 {} 轮工作进程退出: {}", round, e.getMessage());
+                rounds.add(new Round(round, 0, 0, 0, 0, System.currentTimeMillis() - start, e.getMessage()));
+                prompt = workerFailurePrompt("执行测试的工作进程异常退出（" + e.getMessage() + "）",
+                        "请不要调用 System.exit，避免创建过大的对象或无限递归");
+                continue;
+            }
+
+            rounds.add(new Round(round, report.lineCoverage(), report.branchCoverage(), report.tests().failed(), 0,
+                    System.currentTimeMillis() - start, null));
+            log.info("覆盖率引导生成: 第 {} 轮, 行覆盖率 {}%, 分支覆盖率 {}%, 失败测试 {}", round,
+                    String.format("%.2f", report.lineCoverage()), String.format("%.2f", report.branchCoverage()),
+                    report.tests().failed());
+            if (isBetter(report, bestReport)) {
+                bestReport = report;
+                bestTest = test.code();
+            }
+            if (reachedTarget(report, target)) {
+                break;
+            }
+            prompt = coverageFeedbackPrompt(source, report, target);
+        }
+        return new GenerationResult(bestTest, bestReport, bestReport != null && reachedTarget(bestReport, target), rounds);
+    }
+
+    private static boolean reachedTarget(CoverageReport report, double target) {
+        return report.tests().failed() == 0 && report.lineCoverage() >= target;
+    }
+
+    /**
+     * 没有失败测试的结果优先，其次比较行覆盖率和分支覆盖率
+     */
+    static boolean isBetter(CoverageReport candidate, CoverageReport best) {
+        if (best == null) {
+            return true;
+        }
+        boolean candidatePasses = candidate.tests().failed() == 0;
+        boolean bestPasses = best.tests().failed() == 0;
+        if (candidatePasses != bestPasses) {
+            return candidatePasses;
+        }
+        if (candidate.lineCoverage() != best.lineCoverage()) {
+            return candidate.lineCoverage() > best.lineCoverage();
+        }
+        return candidate.branchCoverage() > best.branchCoverage();
+    }
+
+    private static String initialPrompt(JavaSource source) {
+        return "请为下面的 Java 类生成 JUnit 5 单元测试，尽量覆盖所有分支和边界条件。\n" +
+                "要求：测试类放在包 " + (source.packageName().isEmpty() ? "（默认包）" : source.packageName()) +
+                " 中，类名为 " + source.simpleName() + "Test，只使用 JUnit 5，不要使用 Mockito 等其他库；" +
+                "只输出一个完整的 Java 代码块，不要解释。\n\n```java\n" + source.code() + "\n```";
+    }
+
+    private static String compileErrorPrompt(List<String> errors) {
+        return "上一轮的测试代码编译失败：\n" + String.join("\n", errors) +
+                "\n请修复后重新输出完整的测试类代码块。";
+    }
+
+    private static String workerFailurePrompt(String reason, String hint) {
+        return "上一轮的" + reason + "，没有得到覆盖率结果。" + hint + "，然后重新输出完整的测试类代码块。";
+    }
+
+    /**
+     * 把失败的测试和未覆盖的行（附带源代码）反馈给模型
+     */
+    static String coverageFeedbackPrompt(JavaSource source, CoverageReport report, double target) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append(String.format("当前行覆盖率 %.2f%%，分支覆盖率 %.2f%%，目标行覆盖率 %.2f%%。%n",
+                report.lineCoverage(), report.branchCoverage(), target));
+        if (!report.tests().failures().isEmpty()) {
+            prompt.append("以下测试失败，请修正断言（以被测代码的实际行为为准）：\n");
+            report.tests().failures().forEach(failure -> prompt.append("- ").append(failure).append('\n'));
+        }
+        String[] codeLines = source.code().split("\n", -1);
+        List<String> uncovered = new ArrayList<>();
+        for (CoverageReport.ClassCoverage classCoverage : report.classes()) {
+            for (CoverageReport.LineCoverage line : classCoverage.uncoveredLines()) {
+                String code = line.line() <= codeLines.length ? codeLines[line.line() - 1].trim() : "";
+                String status = CoverageReport.LineCoverage.NOT_COVERED.equals(line.status())
+                        ? "未执行"
+                        : "分支覆盖 " + line.coveredBranches() + "/" + line.totalBranches();
+                uncovered.add("第 " + line.line() + " 行（" + status + "）: " + code);
+            }
+        }
+        if (!uncovered.isEmpty()) {
+            prompt.append("以下行没有被完全覆盖，请补充能走到这些行和分支的测试用例：\n");
+            uncovered.stream().limit(MAX_FEEDBACK_LINES).forEach(line -> prompt.append(line).append('\n'));
+        }
+        prompt.append("请输出补充后的完整测试类代码块（保留已有的通过的测试）。");
+        return prompt.toString();
+    }
+
+    /**
+     * 从回复中取出测试代码：优先取包含 @Test 的代码块
+     */
+    static String extractCode(String reply) {
+        if (reply == null) {
+            return "";
+        }
+        Matcher matcher = CODE_BLOCK.matcher(reply);
+        String firstBlock = null;
+        while (matcher.find()) {
+            String block = matcher.group(1);
+            if (block.contains("@Test")) {
+                return block;
+            }
+            if (firstBlock == null) {
+                firstBlock = block;
+            }
+        }
+        return firstBlock != null ? firstBlock : reply;
+    }
+}
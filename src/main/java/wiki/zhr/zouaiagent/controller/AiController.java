@@ -1,17 +1,25 @@
 package wiki.zhr.zouaiagent.controller;
 
+import cn.hutool.crypto.digest.DigestUtil;
 import jakarta.annotation.Resource;
-import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.tool.ToolCallback;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.ai.vectorstore.filter.Filter;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import reactor.core.publisher.Flux;
+import wiki.zhr.zouaiagent.agent.AgentRunScheduler;
 import wiki.zhr.zouaiagent.agent.ZouManus;
 import wiki.zhr.zouaiagent.app.CodeAssistantApp;
-import wiki.zhr.zouaiagent.service.DynamicPgVectorStoreService;
+import wiki.zhr.zouaiagent.http.ConditionalRequestCache;
+import wiki.zhr.zouaiagent.http.SharedHttpClient;
+import wiki.zhr.zouaiagent.model.SingleFlightModelPostProcessor;
+import wiki.zhr.zouaiagent.rag.CodeSearchFilter;
+
+import java.util.Map;
 
 @RestController
 @RequestMapping("/ai")
@@ -20,12 +28,6 @@ public class AiController {
     @Resource
     private CodeAssistantApp codeAssistantApp;
 
-    @Resource
-    private ToolCallback[] allTools;
-
-    @Resource
-    private ChatModel dashscopeChatModel;
-
     /**
      * 同步方式与 Code Assistant 进行对话
      */
@@ -42,8 +44,58 @@ public class AiController {
         return codeAssistantApp.doChatByStream(message, chatId);
     }
 
+    /**
+     * SSE流式与 Code Assistant 进行 RAG 知识库对话
+     */
+    @GetMapping(value = "/codeAssistant/chat/rag/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<String> doChatWithCodeAssistantRagSSE(String message, String chatId) {
+        return codeAssistantApp.doChatWithRagByStream(message, chatId);
+    }
+
+    /**
+     * SSE流式与 Code Assistant 进行 GitHub 代码知识库对话
+     *
+     * @param repositoryName GitHub仓库名称（格式: owner_repository-name）
+     * @param fileType       只检索该扩展名的文件（可选），如 .java
+     * @param filePath       只检索该文件（可选）
+     * @param directory      只检索该目录及其子目录下的文件（可选）
+     * @param branch         只检索该分支构建的片段（可选）
+     */
+    @GetMapping(value = "/codeAssistant/chat/github-rag/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<String> doChatWithCodeAssistantGitHubRagSSE(String message, String chatId, String repositoryName,
+                                                           String fileType, String filePath, String directory,
+                                                           String branch) {
+        Filter.Expression filter;
+        try {
+            filter = CodeSearchFilter.of(fileType, filePath, directory, branch);
+        } catch (IllegalArgumentException e) {
+            return Flux.just("抱歉，过滤条件无效：" + e.getMessage());
+        }
+        return codeAssistantApp.doChatWithGitHubRagByStream(message, chatId, repositoryName, filter);
+    }
+
+    /**
+     * SSE流式与 Code Assistant 进行工具调用对话
+     */
+    @GetMapping(value = "/codeAssistant/chat/tools/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<String> doChatWithCodeAssistantToolsSSE(String message, String chatId) {
+        return codeAssistantApp.doChatWithToolsByStream(message, chatId);
+    }
+
+    /**
+     * SSE流式与 Code Assistant 进行 MCP 工具调用对话
+     */
+    @GetMapping(value = "/codeAssistant/chat/mcp/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<String> doChatWithCodeAssistantMcpSSE(String message, String chatId) {
+        return codeAssistantApp.doChatWithMcpByStream(message, chatId);
+    }
+
+    // 智能体定义在请求间共享，每次运行的状态保存在独立的会话中
     @Resource
-    private DynamicPgVectorStoreService dynamicPgVectorStoreService;
+    private ZouManus zouManus;
+
+    @Resource
+    private AgentRunScheduler agentRunScheduler;
 
     /**
      * 流式调用 Manus 超级智能体
@@ -52,9 +104,65 @@ public class AiController {
      * @return
      */
     @GetMapping("/manus/chat")
-    public SseEmitter doChatWithManus(String message) {
-        ZouManus zouManus = new ZouManus(allTools, dashscopeChatModel, dynamicPgVectorStoreService);
-        return zouManus.runStream(message);
+    public SseEmitter doChatWithManus(String message, HttpServletRequest request) {
+        return zouManus.runStream(message, agentRunScheduler, resolveRunUser(request));
+    }
+
+    /**
+     * 并发准入限制使用的用户标识，只取服务端可信的信息，不接受客户端传入：
+     * 认证用户名，其次是会话中飞书授权的令牌摘要，都没有时使用客户端地址
+     */
+    static String resolveRunUser(HttpServletRequest request) {
+        if (request.getUserPrincipal() != null) {
+            return "user:" + request.getUserPrincipal().getName();
+        }
+        HttpSession session = request.getSession(false);
+        Object feiShuToken = session != null ? session.getAttribute("feishu_user_token") : null;
+        if (feiShuToken != null) {
+            return "feishu:" + DigestUtil.sha256Hex(feiShuToken.toString()).substring(0, 16);
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * Manus 智能体调度器指标（排队、拒绝、取消等）
+     */
+    @GetMapping("/manus/metrics")
+    public Map<String, Object> getManusMetrics() {
+        return agentRunScheduler.getMetrics();
+    }
+
+    @Resource
+    private SingleFlightModelPostProcessor singleFlightModelPostProcessor;
+
+    /**
+     * 模型请求合并指标（实际请求数、被合并的请求数）
+     */
+    @GetMapping("/model/metrics")
+    public Map<String, Object> getModelMetrics() {
+        return singleFlightModelPostProcessor.getMetrics();
+    }
+
+    @Resource
+    private SharedHttpClient sharedHttpClient;
+
+    /**
+     * 对外 HTTP 调用指标：总体和按主机统计的请求数、失败数、并发和耗时
+     */
+    @GetMapping("/http/metrics")
+    public Map<String, Object> getHttpMetrics() {
+        return sharedHttpClient.getMetrics();
+    }
+
+    @Resource
+    private ConditionalRequestCache conditionalRequestCache;
+
+    /**
+     * 条件请求缓存指标（304 命中数、实际下载数、GitHub 剩余限流额度）
+     */
+    @GetMapping("/http/cache/metrics")
+    public Map<String, Object> getHttpCacheMetrics() {
+        return conditionalRequestCache.getMetrics();
     }
 
 
@@ -1,14 +1,22 @@
 package wiki.zhr.zouaiagent.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import wiki.zhr.zouaiagent.app.CoverageGuidedTestGenerator;
+import wiki.zhr.zouaiagent.coverage.BatchCoverageRequest;
+import wiki.zhr.zouaiagent.coverage.CompilationException;
+import wiki.zhr.zouaiagent.coverage.CoverageReport;
+import wiki.zhr.zouaiagent.coverage.WorkerLimitExceededException;
 import wiki.zhr.zouaiagent.tools.CodeCoverageAnalyzer;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/coverage")
@@ -17,6 +25,20 @@ public class CodeCoverageController {
     @Autowired
     private CodeCoverageAnalyzer analyzer;
 
+    @Autowired
+    private CoverageGuidedTestGenerator testGenerator;
+
+    /**
+     * 覆盖率引导生成测试的请求
+     *
+     * @param sourceCode         被测源代码
+     * @param targetLineCoverage 目标行覆盖率（百分比），可选
+     * @param maxRounds          最多生成的轮数，可选
+     * @param chatId             会话ID，可选
+     */
+    record GenerateTestsRequest(String sourceCode, Double targetLineCoverage, Integer maxRounds, String chatId) {
+    }
+
     @PostMapping("/analyze")
     public ResponseEntity<?> analyzeCoverage(@RequestBody Map<String, String> request) {
         try {
@@ -30,7 +52,61 @@ public class CodeCoverageController {
             CodeCoverageAnalyzer.CoverageResult result = analyzer.analyzeCoverage(sourceCode, testCode);
             return ResponseEntity.ok(result);
         } catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Error analyzing coverage: " + e.getMessage());
+            return errorResponse(e);
+        }
+    }
+
+    /**
+     * 批量分析：一次提交多个源文件和测试文件，一起编译，测试类并行执行，返回每个被测类的覆盖率
+     */
+    @PostMapping("/analyze-batch")
+    public ResponseEntity<?> analyzeBatch(@RequestBody BatchCoverageRequest request) {
+        try {
+            CoverageReport report = analyzer.analyzeBatch(request);
+            return ResponseEntity.ok(report);
+        } catch (Exception e) {
+            return errorResponse(e);
+        }
+    }
+
+    /**
+     * 覆盖率引导的测试生成：反复生成测试并把未覆盖的行反馈给模型，直到达到目标覆盖率或用完预算
+     */
+    @PostMapping("/generate")
+    public ResponseEntity<?> generateTests(@RequestBody GenerateTestsRequest request) {
+        if (request.sourceCode() == null) {
+            return ResponseEntity.badRequest().body("sourceCode is required");
         }
+        try {
+            return ResponseEntity.ok(testGenerator.generate(request.sourceCode(), request.targetLineCoverage(),
+                    request.maxRounds(), request.chatId()));
+        } catch (Exception e) {
+            return errorResponse(e);
+        }
+    }
+
+    private ResponseEntity<?> errorResponse(Exception e) {
+        if (e instanceof CompilationException compilationException) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Compilation failed",
+                    "errors", compilationException.getErrors()));
+        }
+        if (e instanceof WorkerLimitExceededException) {
+            return ResponseEntity.unprocessableEntity().body(e.getMessage());
+        }
+        if (e instanceof RejectedExecutionException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+        }
+        if (e instanceof IllegalArgumentException) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        return ResponseEntity.internalServerError().body("Error analyzing coverage: " + e.getMessage());
+    }
+
+    /**
+     * 覆盖率引擎池（或工作进程池）指标
+     */
+    @GetMapping("/metrics")
+    public Map<String, Object> metrics() {
+        return analyzer.getMetrics();
     }
-}
\ No newline at end of file
+}
@@ -8,10 +8,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import wiki.zhr.zouaiagent.rag.CodeSearchFilter;
 import wiki.zhr.zouaiagent.service.DynamicPgVectorStoreService;
 import wiki.zhr.zouaiagent.service.GitHubCodeKnowledgeService;
+import wiki.zhr.zouaiagent.service.KnowledgeRefreshScheduler;
 
 import java.util.HashMap;
 import java.util.List;
@@ -32,7 +35,10 @@ public class CodeKnowledgeController {
     
     @Resource
     private DynamicPgVectorStoreService dynamicPgVectorStoreService;
-    
+
+    @Resource
+    private KnowledgeRefreshScheduler knowledgeRefreshScheduler;
+
     /**
      * 构建GitHub仓库的代码知识库
      */
@@ -118,17 +124,28 @@ public class CodeKnowledgeController {
             @Parameter(description = "返回结果数量", example = "5")
             @RequestParam(defaultValue = "5") int topK,
             @Parameter(description = "相似度阈值", example = "0.7")
-            @RequestParam(defaultValue = "0.7") double threshold) {
+            @RequestParam(defaultValue = "0.7") double threshold,
+            @Parameter(description = "只检索该扩展名的文件", example = ".java")
+            @RequestParam(required = false) String fileType,
+            @Parameter(description = "只检索该文件", example = "src/main/java/wiki/zhr/zouaiagent/ZouAiAgentApplication.java")
+            @RequestParam(required = false) String filePath,
+            @Parameter(description = "只检索该目录及其子目录下的文件", example = "src/main/java/wiki/zhr/zouaiagent/rag")
+            @RequestParam(required = false) String directory,
+            @Parameter(description = "只检索该分支构建的片段", example = "main")
+            @RequestParam(required = false) String branch) {
         
         Map<String, Object> result = new HashMap<>();
         String repositoryName = owner + "_" + repository;
         
         try {
+            Filter.Expression filter = CodeSearchFilter.of(fileType, filePath, directory, branch);
             VectorStore vectorStore = dynamicPgVectorStoreService.getVectorStore(repositoryName);
+            // 过滤条件在向量检索时由数据库按索引先行过滤
             SearchRequest searchRequest = SearchRequest.builder()
                     .query(query)
                     .topK(topK)
                     .similarityThreshold(threshold)
+                    .filterExpression(filter)
                     .build();
             
             List<Document> searchResults = vectorStore.similaritySearch(searchRequest);
@@ -136,6 +153,9 @@ public class CodeKnowledgeController {
             result.put("status", "success");
             result.put("repository", repositoryName);
             result.put("query", query);
+            if (filter != null) {
+                result.put("filter", filter.toString());
+            }
             result.put("total_results", searchResults.size());
             result.put("results", searchResults.stream().map(doc -> {
                 Map<String, Object> docInfo = new HashMap<>();
@@ -146,6 +166,11 @@ public class CodeKnowledgeController {
             
             return ResponseEntity.ok(result);
             
+        } catch (IllegalArgumentException e) {
+            result.put("status", "error");
+            result.put("message", "过滤条件无效: " + e.getMessage());
+            result.put("repository", repositoryName);
+            return ResponseEntity.badRequest().body(result);
         } catch (Exception e) {
             log.error("搜索代码知识库失败: {}/{}, 查询: {}", owner, repository, query, e);
             result.put("status", "error");
@@ -215,6 +240,44 @@ public class CodeKnowledgeController {
         }
     }
     
+    /**
+     * GitHub push Webhook，推送后合并刷新代码知识库
+     */
+    @PostMapping("/webhook")
+    @Operation(summary = "GitHub Webhook", description = "接收GitHub push事件，合并短时间内的多次推送后增量刷新代码知识库")
+    public ResponseEntity<Map<String, Object>> handleWebhook(
+            @RequestHeader(value = "X-GitHub-Event", required = false) String event,
+            @RequestHeader(value = "X-Hub-Signature-256", required = false) String signature,
+            @RequestBody byte[] body) {
+
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("status", knowledgeRefreshScheduler.handleWebhook(event, signature, body));
+            return ResponseEntity.accepted().body(result);
+        } catch (IllegalStateException e) {
+            result.put("status", "error");
+            result.put("message", e.getMessage());
+            return ResponseEntity.status(503).body(result);
+        } catch (SecurityException e) {
+            result.put("status", "error");
+            result.put("message", e.getMessage());
+            return ResponseEntity.status(401).body(result);
+        } catch (IllegalArgumentException e) {
+            result.put("status", "error");
+            result.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+    }
+
+    /**
+     * 自动刷新指标
+     */
+    @GetMapping("/refresh/metrics")
+    @Operation(summary = "自动刷新指标", description = "查看Webhook和轮询触发的刷新次数、合并的推送数和进行中的刷新数")
+    public ResponseEntity<Map<String, Object>> refreshMetrics() {
+        return ResponseEntity.ok(knowledgeRefreshScheduler.getMetrics());
+    }
+
     /**
      * 健康检查
      */
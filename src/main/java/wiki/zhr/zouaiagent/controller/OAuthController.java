@@ -30,6 +30,9 @@ public class OAuthController {
     @Resource(name = "pgVectorVectorStore")
     private VectorStore pgVectorVectorStore;
 
+    @Resource
+    private RestTemplate restTemplate;
+
     private String appId = System.getenv("FEISHU_APP_ID");
 
     private String appSecret = System.getenv("FEISHU_APP_SECRET");
@@ -101,7 +104,6 @@ public class OAuthController {
         System.out.println("Request Body: " + requestBody);
 
         // 发送请求
-        RestTemplate restTemplate = new RestTemplate();
         ResponseEntity<Map> response = restTemplate.postForEntity(
                 url,
                 new HttpEntity<>(requestBody, headers),
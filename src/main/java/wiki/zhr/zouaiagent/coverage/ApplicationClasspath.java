@@ -0,0 +1,175 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * 当前应用的类路径，供内存编译器和覆盖率工作进程使用
+ *
+ * 以 java -jar 运行 Spring Boot 可执行 jar 时，java.class.path 只有这个 jar 本身，应用的类和依赖嵌套在
+ * BOOT-INF/classes、BOOT-INF/lib 中，只有 Boot 的类加载器能读取，javac 和新启动的 JVM 都无法直接使用。
+ * 这种情况下把它们解压到临时目录（同一个 jar 只解压一次），按 BOOT-INF/classpath.idx 的顺序组成类路径；
+ * 已经解压的可执行 jar 目录直接使用其中的 BOOT-INF；普通的类路径原样使用。所有条目都转为绝对路径，
+ * 工作进程在临时目录中运行，相对路径会解析到错误的位置。
+ */
+@Slf4j
+final class ApplicationClasspath {
+
+    private static final String BOOT_INF = "BOOT-INF/";
+    private static final String CLASSES = BOOT_INF + "classes/";
+    private static final String LIB = BOOT_INF + "lib/";
+    private static final String CLASSPATH_INDEX = BOOT_INF + "classpath.idx";
+
+    // 解压完成的标记文件，没有该文件的目录视为解压中断，重新解压
+    private static final String COMPLETE_MARKER = ".complete";
+
+    // 只解析一次，所有使用方共用
+    private static volatile List<String> entries;
+
+    private ApplicationClasspath() {
+    }
+
+    /**
+     * @return 类路径的各个条目，都是普通文件或目录
+     */
+    static List<String> entries() {
+        if (entries == null) {
+            synchronized (ApplicationClasspath.class) {
+                if (entries == null) {
+                    entries = resolve(System.getProperty("java.class.path"),
+                            Path.of(System.getProperty("java.io.tmpdir"), "zou-ai-agent-classpath"));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return 以路径分隔符连接的类路径
+     */
+    static String asString() {
+        return String.join(File.pathSeparator, entries());
+    }
+
+    /**
+     * 解析类路径，可执行 jar 解压到 extractRoot 下，相对路径按当前工作目录转为绝对路径
+     */
+    static List<String> resolve(String javaClassPath, Path extractRoot) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String entry : javaClassPath.split(File.pathSeparator)) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            Path path = Path.of(entry).toAbsolutePath();
+            try {
+                if (Files.isDirectory(path.resolve(BOOT_INF))) {
+                    result.addAll(bootEntries(path));
+                } else if (Files.isRegularFile(path) && isBootJar(path)) {
+                    result.addAll(bootEntries(extract(path, extractRoot)));
+                } else {
+                    result.add(path.toString());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("解析可执行 jar 的类路径失败: " + entry, e);
+            }
+        }
+        return List.copyOf(result);
+    }
+
+    private static boolean isBootJar(Path jar) {
+        if (!jar.getFileName().toString().endsWith(".jar")) {
+            return false;
+        }
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            return jarFile.getEntry(CLASSES) != null || jarFile.getEntry(LIB) != null
+                    || jarFile.getEntry(CLASSPATH_INDEX) != null;
+        } catch (IOException e) {
+            // 无法读取的 jar 原样交给使用方
+            return false;
+        }
+    }
+
+    /**
+     * 解压后的目录中 BOOT-INF/classes 在前，依赖按 classpath.idx 的顺序，没有索引时按文件名排序
+     */
+    private static List<String> bootEntries(Path root) throws IOException {
+        List<String> result = new ArrayList<>();
+        Path classes = root.resolve(CLASSES);
+        if (Files.isDirectory(classes)) {
+            result.add(classes.toString());
+        }
+        Path index = root.resolve(CLASSPATH_INDEX);
+        if (Files.isRegularFile(index)) {
+            for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+                // 格式为 - "BOOT-INF/lib/xxx.jar"
+                String name = line.trim().replaceFirst("^-\\s*", "").replace("\"", "");
+                if (!name.isEmpty() && Files.isRegularFile(root.resolve(name))) {
+                    result.add(root.resolve(name).toString());
+                }
+            }
+            return result;
+        }
+        Path lib = root.resolve(LIB);
+        if (Files.isDirectory(lib)) {
+            try (Stream<Path> jars = Files.list(lib)) {
+                jars.filter(jar -> jar.getFileName().toString().endsWith(".jar"))
+                        .sorted()
+                        .forEach(jar -> result.add(jar.toString()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 解压可执行 jar 的 BOOT-INF 目录，目录名包含 jar 的大小和修改时间，重新打包后自动换新目录
+     */
+    private static Path extract(Path jar, Path extractRoot) throws IOException {
+        String name = jar.getFileName().toString();
+        Path target = extractRoot.toAbsolutePath().normalize().resolve(name.substring(0, name.length() - ".jar".length())
+                + "-" + Long.toHexString(Files.size(jar)) + "-" + Long.toHexString(Files.getLastModifiedTime(jar).toMillis()));
+        if (Files.exists(target.resolve(COMPLETE_MARKER))) {
+            return target;
+        }
+        log.info("📦 解压可执行 jar 的类路径: {} -> {}", jar, target);
+        Files.createDirectories(target);
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            Enumeration<JarEntry> jarEntries = jarFile.entries();
+            while (jarEntries.hasMoreElements()) {
+                JarEntry jarEntry = jarEntries.nextElement();
+                if (!jarEntry.getName().startsWith(BOOT_INF)) {
+                    continue;
+                }
+                Path file = target.resolve(jarEntry.getName()).normalize();
+                if (!file.startsWith(target)) {
+                    throw new IOException("jar 条目路径非法: " + jarEntry.getName());
+                }
+                if (jarEntry.isDirectory()) {
+                    Files.createDirectories(file);
+                    continue;
+                }
+                Files.createDirectories(file.getParent());
+                try (InputStream in = jarFile.getInputStream(jarEntry)) {
+                    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        Files.write(target.resolve(COMPLETE_MARKER), new byte[0]);
+        return target;
+    }
+}
@@ -0,0 +1,75 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 批量覆盖率分析请求：一组被测源文件和一组测试文件，一起编译一次
+ *
+ * @param sources 被测源文件
+ * @param tests   测试文件
+ */
+public record BatchCoverageRequest(List<SourceFile> sources, List<SourceFile> tests) {
+
+    /**
+     * 一个源文件
+     *
+     * @param path 文件路径（可选），如 src/main/java/com/example/Foo.java，需要与代码中的包名和类名一致
+     * @param code 源代码
+     */
+    public record SourceFile(String path, String code) {
+
+        JavaSource toJavaSource() {
+            JavaSource source = JavaSource.of(code);
+            if (path != null && !path.isBlank() && !path.replace('\\', '/').endsWith(source.path())) {
+                throw new IllegalArgumentException("文件路径 " + path + " 与类 " + source.className() + " 不一致");
+            }
+            return source;
+        }
+    }
+
+    /**
+     * @return 被测源文件
+     */
+    public List<JavaSource> sourceFiles() {
+        return toJavaSources(sources);
+    }
+
+    /**
+     * @return 测试文件
+     */
+    public List<JavaSource> testFiles() {
+        return toJavaSources(tests);
+    }
+
+    /**
+     * 校验文件数量和类名是否重复
+     *
+     * @param maxFiles 源文件和测试文件的总数上限
+     * @throws IllegalArgumentException 请求不合法
+     */
+    public void validate(int maxFiles) {
+        if (sources == null || sources.isEmpty() || tests == null || tests.isEmpty()) {
+            throw new IllegalArgumentException("sources and tests are required");
+        }
+        if (sources.size() + tests.size() > maxFiles) {
+            throw new IllegalArgumentException("一次最多分析 " + maxFiles + " 个文件");
+        }
+        Set<String> classNames = new HashSet<>();
+        for (JavaSource source : sourceFiles()) {
+            if (!classNames.add(source.className())) {
+                throw new IllegalArgumentException("类 " + source.className() + " 重复");
+            }
+        }
+        for (JavaSource test : testFiles()) {
+            if (!classNames.add(test.className())) {
+                throw new IllegalArgumentException("类 " + test.className() + " 重复");
+            }
+        }
+    }
+
+    private static List<JavaSource> toJavaSources(List<SourceFile> files) {
+        return files == null ? List.of() : files.stream().map(SourceFile::toJavaSource).toList();
+    }
+}
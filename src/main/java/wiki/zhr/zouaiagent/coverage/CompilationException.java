@@ -0,0 +1,27 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 编译失败，包含编译器的错误信息
+ */
+public class CompilationException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 编译错误，格式为 文件:行号: 错误信息
+     */
+    private final ArrayList<String> errors;
+
+    public CompilationException(List<String> errors) {
+        super("Compilation failed: " + String.join("; ", errors));
+        this.errors = new ArrayList<>(errors);
+    }
+
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+}
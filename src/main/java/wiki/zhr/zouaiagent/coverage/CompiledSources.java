@@ -0,0 +1,27 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已编译的被测源代码，多轮分析之间复用，每轮只重新编译测试类
+ *
+ * @param sources 被测源代码
+ * @param classes 编译得到的类，类名 -> 字节码；为空表示没有预编译，每轮都和测试一起编译
+ */
+public record CompiledSources(List<JavaSource> sources, Map<String, byte[]> classes) {
+
+    /**
+     * 不预编译，每轮分析时和测试代码一起编译
+     */
+    public static CompiledSources uncompiled(List<JavaSource> sources) {
+        return new CompiledSources(List.copyOf(sources), null);
+    }
+
+    /**
+     * @return 是否已经编译
+     */
+    public boolean isCompiled() {
+        return classes != null;
+    }
+}
@@ -0,0 +1,280 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ILine;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfoStore;
+import org.jacoco.core.instr.Instrumenter;
+import org.jacoco.core.runtime.IRuntime;
+import org.jacoco.core.runtime.LoggerRuntime;
+import org.jacoco.core.runtime.RuntimeData;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
+import org.junit.platform.launcher.listeners.TestExecutionSummary;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+import static org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder.request;
+
+/**
+ * 覆盖率引擎
+ *
+ * 整个流程都在内存中完成：编译源代码和测试 -> 用 JaCoCo 插桩被测类 -> 在 MemoryClassLoader 中通过
+ * JUnit Platform 执行测试 -> 用原始字节码分析执行数据，得到逐行、逐分支的覆盖情况。
+ * 编译器、JaCoCo 运行时和 JUnit 启动器在多次分析之间复用，每次分析使用独立的会话 ID 并清空探针；
+ * 同一个实例的分析是串行的，需要并发时使用 {@link CoverageEnginePool}。
+ */
+public class CoverageEngine implements AutoCloseable {
+
+    /**
+     * 运行时数据中累积的类超过该数量后换一份新的，避免不断分析新类导致内存增长
+     */
+    private static final int MAX_RUNTIME_CLASSES = 512;
+
+    private final InMemoryCompiler compiler;
+
+    private final Launcher launcher;
+
+    private final Duration testTimeout;
+
+    private final IRuntime runtime;
+
+    private final Instrumenter instrumenter;
+
+    private RuntimeData data;
+
+    public CoverageEngine(Duration testTimeout) {
+        this(new InMemoryCompiler(), testTimeout);
+    }
+
+    public CoverageEngine(InMemoryCompiler compiler, Duration testTimeout) {
+        this.compiler = compiler;
+        this.launcher = LauncherFactory.create();
+        this.testTimeout = testTimeout;
+        this.runtime = new LoggerRuntime();
+        this.instrumenter = new Instrumenter(runtime);
+        this.data = new RuntimeData();
+        try {
+            runtime.startup(data);
+        } catch (Exception e) {
+            throw new IllegalStateException("启动 JaCoCo 运行时失败", e);
+        }
+    }
+
+    /**
+     * 编译并执行测试，统计被测类的覆盖率
+     *
+     * @param sources 被测源代码
+     * @param tests   测试代码
+     * @return 覆盖率报告
+     * @throws CompilationException 编译失败
+     */
+    public synchronized CoverageReport analyze(List<JavaSource> sources, List<JavaSource> tests) {
+        List<JavaSource> units = new ArrayList<>(sources);
+        units.addAll(tests);
+        Map<String, byte[]> compiled = compiler.compile(units);
+
+        Set<String> sourceNames = sources.stream().map(JavaSource::className).collect(Collectors.toSet());
+        Map<String, byte[]> sourceClasses = new HashMap<>();
+        compiled.forEach((name, bytes) -> {
+            if (sourceNames.contains(topLevelName(name))) {
+                sourceClasses.put(name, bytes);
+            }
+        });
+        return run(compiled, sourceClasses, tests);
+    }
+
+    /**
+     * 只编译被测源代码，供后续多轮分析复用
+     *
+     * @param sources 被测源代码
+     * @return 已编译的源代码
+     * @throws CompilationException 编译失败
+     */
+    public CompiledSources compileSources(List<JavaSource> sources) {
+        return new CompiledSources(List.copyOf(sources), Map.copyOf(compiler.compile(sources)));
+    }
+
+    /**
+     * 使用已编译的被测类执行分析，只编译测试代码
+     *
+     * @param sources 已编译的被测源代码
+     * @param tests   测试代码
+     * @return 覆盖率报告
+     * @throws CompilationException 测试代码编译失败
+     */
+    public synchronized CoverageReport analyze(CompiledSources sources, List<JavaSource> tests) {
+        if (!sources.isCompiled()) {
+            return analyze(sources.sources(), tests);
+        }
+        Map<String, byte[]> compiled = new HashMap<>(sources.classes());
+        compiled.putAll(compiler.compile(tests, sources.classes()));
+        return run(compiled, sources.classes(), tests);
+    }
+
+    private CoverageReport run(Map<String, byte[]> compiled, Map<String, byte[]> sourceClasses, List<JavaSource> tests) {
+        List<String> testClassNames = tests.stream().map(JavaSource::className).toList();
+
+        // 每次分析一个新会话，清掉上一次留下的探针
+        data.setSessionId(UUID.randomUUID().toString());
+        data.reset();
+        try {
+            Map<String, byte[]> definitions = new HashMap<>(compiled);
+            for (Map.Entry<String, byte[]> entry : sourceClasses.entrySet()) {
+                definitions.put(entry.getKey(), instrumenter.instrument(entry.getValue(), entry.getKey()));
+            }
+
+            MemoryClassLoader classLoader = new MemoryClassLoader(definitions, getClass().getClassLoader());
+            CoverageReport.TestSummary testSummary = runTests(classLoader, testClassNames);
+
+            ExecutionDataStore executionData = new ExecutionDataStore();
+            data.collect(executionData, new SessionInfoStore(), false);
+            if (executionData.getContents().size() > MAX_RUNTIME_CLASSES) {
+                renewRuntimeData();
+            }
+            return buildReport(executionData, sourceClasses, testSummary);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("覆盖率分析失败", e);
+        }
+    }
+
+    private void renewRuntimeData() {
+        runtime.shutdown();
+        data = new RuntimeData();
+        try {
+            runtime.startup(data);
+        } catch (Exception e) {
+            throw new IllegalStateException("启动 JaCoCo 运行时失败", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        runtime.shutdown();
+        compiler.close();
+    }
+
+    private CoverageReport.TestSummary runTests(ClassLoader classLoader, List<String> testClassNames)
+            throws ClassNotFoundException {
+        List<Class<?>> testClasses = new ArrayList<>();
+        for (String name : testClassNames) {
+            testClasses.add(classLoader.loadClass(name));
+        }
+        LauncherDiscoveryRequestBuilder requestBuilder = request()
+                .selectors(testClasses.stream().map(testClass -> selectClass(testClass)).toList())
+                // 防止死循环的测试一直占用线程
+                .configurationParameter("junit.jupiter.execution.timeout.default", testTimeout.toMillis() + " ms")
+                .configurationParameter("junit.jupiter.execution.timeout.thread.mode.default", "SEPARATE_THREAD");
+        int parallelism = Math.min(testClasses.size(), Runtime.getRuntime().availableProcessors());
+        if (parallelism > 1) {
+            // 多个测试类并行执行，同一个类内的方法仍然串行
+            requestBuilder
+                    .configurationParameter("junit.jupiter.execution.parallel.enabled", "true")
+                    .configurationParameter("junit.jupiter.execution.parallel.mode.default", "same_thread")
+                    .configurationParameter("junit.jupiter.execution.parallel.mode.classes.default", "concurrent")
+                    .configurationParameter("junit.jupiter.execution.parallel.config.strategy", "fixed")
+                    .configurationParameter("junit.jupiter.execution.parallel.config.fixed.parallelism",
+                            String.valueOf(parallelism));
+        }
+        LauncherDiscoveryRequest discoveryRequest = requestBuilder.build();
+
+        SummaryGeneratingListener listener = new SummaryGeneratingListener();
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            launcher.execute(discoveryRequest, listener);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+
+        TestExecutionSummary summary = listener.getSummary();
+        List<String> failures = summary.getFailures().stream()
+                .map(failure -> testName(failure.getTestIdentifier()) + ": " + failure.getException())
+                .toList();
+        return new CoverageReport.TestSummary(summary.getTestsFoundCount(), summary.getTestsSucceededCount(),
+                summary.getTotalFailureCount(), failures);
+    }
+
+    private CoverageReport buildReport(ExecutionDataStore executionData, Map<String, byte[]> sourceClasses,
+                                       CoverageReport.TestSummary testSummary) throws IOException {
+        CoverageBuilder coverageBuilder = new CoverageBuilder();
+        Analyzer analyzer = new Analyzer(executionData, coverageBuilder);
+        for (Map.Entry<String, byte[]> entry : sourceClasses.entrySet()) {
+            analyzer.analyzeClass(entry.getValue(), entry.getKey());
+        }
+
+        int coveredLines = 0;
+        int totalLines = 0;
+        int coveredBranches = 0;
+        int totalBranches = 0;
+        List<CoverageReport.ClassCoverage> classes = new ArrayList<>();
+        List<IClassCoverage> classCoverages = new ArrayList<>(coverageBuilder.getClasses());
+        classCoverages.sort(Comparator.comparing(IClassCoverage::getName));
+        for (IClassCoverage classCoverage : classCoverages) {
+            ICounter lineCounter = classCoverage.getLineCounter();
+            ICounter branchCounter = classCoverage.getBranchCounter();
+            coveredLines += lineCounter.getCoveredCount();
+            totalLines += lineCounter.getTotalCount();
+            coveredBranches += branchCounter.getCoveredCount();
+            totalBranches += branchCounter.getTotalCount();
+            classes.add(new CoverageReport.ClassCoverage(
+                    classCoverage.getName().replace('/', '.'),
+                    CoverageReport.percentage(lineCounter.getCoveredCount(), lineCounter.getTotalCount()),
+                    CoverageReport.percentage(branchCounter.getCoveredCount(), branchCounter.getTotalCount()),
+                    lines(classCoverage)));
+        }
+        return new CoverageReport(
+                CoverageReport.percentage(coveredLines, totalLines),
+                CoverageReport.percentage(coveredBranches, totalBranches),
+                coveredLines, totalLines, coveredBranches, totalBranches, classes, testSummary);
+    }
+
+    private static List<CoverageReport.LineCoverage> lines(IClassCoverage classCoverage) {
+        List<CoverageReport.LineCoverage> lines = new ArrayList<>();
+        for (int nr = classCoverage.getFirstLine(); nr >= 0 && nr <= classCoverage.getLastLine(); nr++) {
+            ILine line = classCoverage.getLine(nr);
+            String status = switch (line.getStatus()) {
+                case ICounter.NOT_COVERED -> CoverageReport.LineCoverage.NOT_COVERED;
+                case ICounter.PARTLY_COVERED -> CoverageReport.LineCoverage.PARTLY_COVERED;
+                case ICounter.FULLY_COVERED -> CoverageReport.LineCoverage.FULLY_COVERED;
+                default -> null;
+            };
+            if (status != null) {
+                lines.add(new CoverageReport.LineCoverage(nr, status,
+                        line.getBranchCounter().getCoveredCount(), line.getBranchCounter().getTotalCount()));
+            }
+        }
+        return lines;
+    }
+
+    private static String testName(TestIdentifier identifier) {
+        return identifier.getSource()
+                .filter(MethodSource.class::isInstance)
+                .map(source -> ((MethodSource) source).getClassName() + "#" + identifier.getDisplayName())
+                .orElse(identifier.getDisplayName());
+    }
+
+    static String topLevelName(String className) {
+        int dollar = className.indexOf('$');
+        return dollar < 0 ? className : className.substring(0, dollar);
+    }
+}
@@ -0,0 +1,214 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 覆盖率引擎池
+ *
+ * 引擎各自持有编译器、JaCoCo 运行时和 JUnit 启动器，请求借用一个空闲引擎执行分析，池的大小即并发上限。
+ * 引擎按需创建：没有空闲引擎且数量未达上限时创建新引擎，否则排队，超过等待时间直接拒绝。
+ */
+@Slf4j
+public class CoverageEnginePool implements CoverageExecutor {
+
+    static final JavaSource WARM_UP_SOURCE = JavaSource.of("""
+            package warmup;
+
+            public class WarmUp {
+                public int sign(int value) {
+                    return value > 0 ? 1 : value < 0 ? -1 : 0;
+                }
+            }
+            """);
+
+    static final JavaSource WARM_UP_TEST = JavaSource.of("""
+            package warmup;
+
+            import org.junit.jupiter.api.Test;
+            import static org.junit.jupiter.api.Assertions.assertEquals;
+
+            class WarmUpTest {
+                @Test
+                void sign() {
+                    assertEquals(1, new WarmUp().sign(5));
+                }
+            }
+            """);
+
+    private final BlockingQueue<CoverageEngine> idleEngines;
+
+    private final int poolSize;
+
+    private final Duration testTimeout;
+
+    private final Duration acquireTimeout;
+
+    // 已创建（包括正在创建）的引擎数量
+    private final AtomicInteger created = new AtomicInteger();
+
+    // 指标
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong compiledCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public CoverageEnginePool(int poolSize, Duration testTimeout, Duration acquireTimeout) {
+        this.poolSize = poolSize;
+        this.testTimeout = testTimeout;
+        this.acquireTimeout = acquireTimeout;
+        this.idleEngines = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * 借用一个空闲引擎执行分析
+     */
+    @Override
+    public CoverageReport analyze(List<JavaSource> sources, List<JavaSource> tests) {
+        return withEngine(engine -> engine.analyze(sources, tests), true);
+    }
+
+    /**
+     * 编译结果与引擎无关，可以在任意引擎上复用；只编译不算一次分析，单独计数
+     */
+    @Override
+    public CompiledSources compileSources(List<JavaSource> sources) {
+        return withEngine(engine -> engine.compileSources(sources), false);
+    }
+
+    @Override
+    public CoverageReport analyze(CompiledSources sources, List<JavaSource> tests) {
+        return withEngine(engine -> engine.analyze(sources, tests), true);
+    }
+
+    /**
+     * @param analysis 是否为一次覆盖率分析，只有分析计入完成数、失败数和平均耗时
+     */
+    private <T> T withEngine(Function<CoverageEngine, T> action, boolean analysis) {
+        CoverageEngine engine = acquire();
+        long start = System.nanoTime();
+        try {
+            T result = action.apply(engine);
+            (analysis ? completedCount : compiledCount).incrementAndGet();
+            return result;
+        } catch (RuntimeException e) {
+            if (analysis) {
+                failedCount.incrementAndGet();
+            }
+            throw e;
+        } finally {
+            if (analysis) {
+                totalMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            idleEngines.add(engine);
+        }
+    }
+
+    private CoverageEngine acquire() {
+        waiting.incrementAndGet();
+        try {
+            CoverageEngine engine = idleEngines.poll();
+            if (engine == null) {
+                engine = tryCreate();
+            }
+            if (engine == null) {
+                engine = idleEngines.poll(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            if (engine == null) {
+                rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException("覆盖率分析繁忙，请稍后重试");
+            }
+            return engine;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("等待覆盖率引擎时被中断", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * 数量未达上限时创建一个新引擎
+     *
+     * @return 新引擎，已达上限时返回 null
+     */
+    private CoverageEngine tryCreate() {
+        int current;
+        do {
+            current = created.get();
+            if (current >= poolSize) {
+                return null;
+            }
+        } while (!created.compareAndSet(current, current + 1));
+        try {
+            return new CoverageEngine(testTimeout);
+        } catch (RuntimeException | Error e) {
+            created.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 预热：创建剩余的引擎，每个新引擎先完整跑几次编译、插桩和测试，让 javac 和 JUnit 的代码完成类加载和 JIT 编译，
+     * 再放入空闲队列；预热期间请求仍可以使用已有的引擎，不会被预热占住
+     *
+     * @param rounds 每个新引擎预热的次数
+     */
+    @Override
+    public void warmUp(int rounds) {
+        long start = System.currentTimeMillis();
+        int warmed = 0;
+        CoverageEngine engine;
+        while ((engine = tryCreate()) != null) {
+            try {
+                for (int round = 0; round < rounds; round++) {
+                    engine.analyze(List.of(WARM_UP_SOURCE), List.of(WARM_UP_TEST));
+                }
+                warmed++;
+            } finally {
+                idleEngines.add(engine);
+            }
+        }
+        log.info("覆盖率引擎预热完成: 新引擎数={}, 轮数={}, 耗时={}ms", warmed, rounds, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 引擎池指标
+     */
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long completed = completedCount.get();
+        long failed = failedCount.get();
+        metrics.put("execution", "in-process");
+        metrics.put("poolSize", poolSize);
+        metrics.put("created", created.get());
+        metrics.put("idle", idleEngines.size());
+        metrics.put("waiting", waiting.get());
+        metrics.put("completed", completed);
+        metrics.put("failed", failed);
+        metrics.put("rejected", rejectedCount.get());
+        metrics.put("compiled", compiledCount.get());
+        metrics.put("averageMillis", completed + failed == 0 ? 0 : totalMillis.get() / (completed + failed));
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        idleEngines.forEach(CoverageEngine::close);
+        idleEngines.clear();
+    }
+}
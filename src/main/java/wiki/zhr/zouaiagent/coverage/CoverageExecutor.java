@@ -0,0 +1,58 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 覆盖率分析的执行方式：进程内的引擎池，或独立的工作进程池
+ */
+public interface CoverageExecutor extends AutoCloseable {
+
+    /**
+     * 编译并执行测试，统计被测类的覆盖率
+     *
+     * @param sources 被测源代码
+     * @param tests   测试代码
+     * @return 覆盖率报告
+     * @throws CompilationException                            编译失败
+     * @throws java.util.concurrent.RejectedExecutionException 等待空闲执行单元超时
+     */
+    CoverageReport analyze(List<JavaSource> sources, List<JavaSource> tests);
+
+    /**
+     * 预先编译被测源代码，供多轮分析复用；默认不预编译，每轮和测试代码一起编译
+     *
+     * @param sources 被测源代码
+     * @return 已编译的源代码
+     * @throws CompilationException 编译失败
+     */
+    default CompiledSources compileSources(List<JavaSource> sources) {
+        return CompiledSources.uncompiled(sources);
+    }
+
+    /**
+     * 使用预编译的被测类执行分析，只编译测试代码
+     *
+     * @param sources 已编译的被测源代码
+     * @param tests   测试代码
+     * @return 覆盖率报告
+     */
+    default CoverageReport analyze(CompiledSources sources, List<JavaSource> tests) {
+        return analyze(sources.sources(), tests);
+    }
+
+    /**
+     * 预热所有执行单元
+     *
+     * @param rounds 每个执行单元预热的次数
+     */
+    void warmUp(int rounds);
+
+    /**
+     * 执行指标
+     */
+    Map<String, Object> getMetrics();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,78 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import java.util.List;
+
+/**
+ * 覆盖率报告
+ *
+ * @param lineCoverage    行覆盖率（百分比）
+ * @param branchCoverage  分支覆盖率（百分比）
+ * @param coveredLines    覆盖的行数
+ * @param totalLines      总行数
+ * @param coveredBranches 覆盖的分支数
+ * @param totalBranches   总分支数
+ * @param classes         每个被测类的覆盖情况
+ * @param tests           测试执行结果
+ */
+public record CoverageReport(double lineCoverage,
+                             double branchCoverage,
+                             int coveredLines,
+                             int totalLines,
+                             int coveredBranches,
+                             int totalBranches,
+                             List<ClassCoverage> classes,
+                             TestSummary tests) {
+
+    /**
+     * 单个类的覆盖情况
+     *
+     * @param className      全限定类名
+     * @param lineCoverage   行覆盖率（百分比）
+     * @param branchCoverage 分支覆盖率（百分比）
+     * @param lines          每一行的覆盖情况，只包含有字节码的行
+     */
+    public record ClassCoverage(String className,
+                                double lineCoverage,
+                                double branchCoverage,
+                                List<LineCoverage> lines) {
+
+        /**
+         * @return 没有被完全覆盖的行（未执行或分支未走全）
+         */
+        public List<LineCoverage> uncoveredLines() {
+            return lines.stream().filter(line -> !LineCoverage.FULLY_COVERED.equals(line.status())).toList();
+        }
+    }
+
+    /**
+     * 单行的覆盖情况
+     *
+     * @param line            行号
+     * @param status          NOT_COVERED / PARTLY_COVERED / FULLY_COVERED
+     * @param coveredBranches 该行覆盖的分支数
+     * @param totalBranches   该行的分支数
+     */
+    public record LineCoverage(int line, String status, int coveredBranches, int totalBranches) {
+
+        public static final String NOT_COVERED = "NOT_COVERED";
+
+        public static final String PARTLY_COVERED = "PARTLY_COVERED";
+
+        public static final String FULLY_COVERED = "FULLY_COVERED";
+    }
+
+    /**
+     * 测试执行结果
+     *
+     * @param found     发现的测试数
+     * @param succeeded 通过的测试数
+     * @param failed    失败的测试数
+     * @param failures  失败信息，格式为 测试名: 异常
+     */
+    public record TestSummary(long found, long succeeded, long failed, List<String> failures) {
+    }
+
+    static double percentage(int covered, int total) {
+        return total == 0 ? 0.0 : (double) covered / total * 100;
+    }
+}
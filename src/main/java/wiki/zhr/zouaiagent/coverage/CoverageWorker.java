@@ -0,0 +1,204 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import cn.hutool.core.io.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 一个覆盖率工作进程
+ *
+ * 由 {@link CoverageWorkerPool} 创建和回收，同一时间只处理一个请求。
+ * 工作进程不继承主进程的环境变量（其中可能有 API Key、数据库密码等），只保留启动 JVM 需要的几项；
+ * 工作目录和 java.io.tmpdir 是每个进程独立的临时目录，进程结束后删除。
+ *
+ * 仍然存在的隔离缺口：工作进程与主进程是同一个操作系统用户，可以读写该用户有权限的文件（包括配置文件），
+ * 可以访问网络，也可以启动子进程；需要更强的隔离时应在容器或受限用户下运行工作进程。
+ */
+@Slf4j
+class CoverageWorker {
+
+    /**
+     * 检查 CPU 时间和墙钟时间的间隔
+     */
+    private static final long WATCHDOG_INTERVAL_MILLIS = 50;
+
+    private final int id;
+
+    /**
+     * 工作进程保留的环境变量，Windows 上没有 SystemRoot 时 JVM 无法初始化网络和加密组件
+     */
+    private static final List<String> INHERITED_ENVIRONMENT = List.of("SystemRoot", "TZ", "LANG");
+
+    private final Process process;
+
+    private final Path workDirectory;
+
+    private final DataOutputStream out;
+
+    private final DataInputStream in;
+
+    private int runs;
+
+    private CoverageWorker(int id, Process process, Path workDirectory) {
+        this.id = id;
+        this.process = process;
+        this.workDirectory = workDirectory;
+        this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    /**
+     * 启动工作进程并等待 ready 帧
+     */
+    static CoverageWorker start(int id, List<String> command, Duration startupTimeout) throws IOException {
+        Path workDirectory = Files.createTempDirectory("coverage-worker-");
+        List<String> workerCommand = new ArrayList<>(command);
+        // command 的第一项是 java 可执行文件，JVM 参数紧随其后
+        workerCommand.add(1, "-Djava.io.tmpdir=" + workDirectory);
+        ProcessBuilder builder = new ProcessBuilder(workerCommand)
+                .directory(workDirectory.toFile())
+                .redirectError(ProcessBuilder.Redirect.INHERIT);
+        Map<String, String> environment = builder.environment();
+        Map<String, String> inherited = new HashMap<>();
+        for (String name : INHERITED_ENVIRONMENT) {
+            String value = environment.get(name);
+            if (value != null) {
+                inherited.put(name, value);
+            }
+        }
+        environment.clear();
+        environment.putAll(inherited);
+        environment.put("HOME", workDirectory.toString());
+        environment.put("TMPDIR", workDirectory.toString());
+        environment.put("TEMP", workDirectory.toString());
+        environment.put("TMP", workDirectory.toString());
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            FileUtil.del(workDirectory);
+            throw e;
+        }
+        CoverageWorker worker = new CoverageWorker(id, process, workDirectory);
+        try {
+            WorkerProtocol.Response ready = worker.await(
+                    CompletableFuture.supplyAsync(worker::readResponse, Thread::startVirtualThread),
+                    startupTimeout, null);
+            if (!ready.ready()) {
+                throw new IOException("工作进程没有发送 ready 帧");
+            }
+            return worker;
+        } catch (IOException | RuntimeException e) {
+            worker.destroy();
+            throw e instanceof IOException ioException ? ioException : new IOException("工作进程启动失败", e);
+        }
+    }
+
+    /**
+     * 发送请求并等待响应；超过墙钟时间或 CPU 时间限制时杀掉工作进程
+     *
+     * @throws WorkerLimitExceededException 超过资源限制
+     * @throws IOException                  工作进程异常退出
+     */
+    WorkerProtocol.Response run(WorkerProtocol.Request request, Duration wallClockLimit, Duration cpuTimeLimit)
+            throws IOException {
+        runs++;
+        WorkerProtocol.write(out, request);
+        return await(CompletableFuture.supplyAsync(this::readResponse, Thread::startVirtualThread),
+                wallClockLimit, cpuTimeLimit);
+    }
+
+    private WorkerProtocol.Response await(CompletableFuture<WorkerProtocol.Response> response, Duration wallClockLimit,
+                                          Duration cpuTimeLimit) throws IOException {
+        long deadline = System.nanoTime() + wallClockLimit.toNanos();
+        Duration cpuAtStart = cpuTime();
+        while (true) {
+            try {
+                return response.get(WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (System.nanoTime() > deadline) {
+                    destroy();
+                    throw new WorkerLimitExceededException("测试执行超过墙钟时间限制 " + wallClockLimit.toSeconds() + " 秒");
+                }
+                if (cpuTimeLimit != null && cpuTime().minus(cpuAtStart).compareTo(cpuTimeLimit) > 0) {
+                    destroy();
+                    throw new WorkerLimitExceededException("测试执行超过 CPU 时间限制 " + cpuTimeLimit.toSeconds() + " 秒");
+                }
+            } catch (InterruptedException e) {
+                destroy();
+                Thread.currentThread().interrupt();
+                throw new IOException("等待工作进程响应时被中断", e);
+            } catch (ExecutionException e) {
+                destroy();
+                throw new IOException("工作进程异常退出: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+
+    private WorkerProtocol.Response readResponse() {
+        try {
+            return WorkerProtocol.read(in, WorkerProtocol.Response.class);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage(), e);
+        }
+    }
+
+    private Duration cpuTime() {
+        return process.toHandle().info().totalCpuDuration().orElse(Duration.ZERO);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    int getRuns() {
+        return runs;
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * 关闭标准输入让工作进程自行退出，超时后强制结束
+     */
+    void stop() {
+        try {
+            out.close();
+            process.waitFor(2, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            // 管道已经断开，直接结束
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 超时未退出的强制结束，并删除工作目录
+        destroy();
+    }
+
+    void destroy() {
+        process.destroyForcibly();
+        try {
+            process.waitFor(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        FileUtil.del(workDirectory);
+        log.debug("覆盖率工作进程 {} 已结束", id);
+    }
+}
@@ -0,0 +1,137 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 覆盖率工作进程入口
+ *
+ * 由 {@link CoverageWorkerPool} 启动，循环读取请求、执行分析（或只编译被测类）、写回响应，直到标准输入关闭。
+ * 标准输出专门用于协议，测试代码打印的内容被重定向到标准错误。
+ *
+ * 参数：单个测试方法的超时时间（毫秒）
+ */
+public final class CoverageWorkerMain {
+
+    private static final long THREAD_GRACE_MILLIS = 100;
+
+    // 线程转储 JSON 中的线程 id，如 "tid": "21"
+    private static final Pattern THREAD_ID = Pattern.compile("\"tid\":\\s*\"?(\\d+)");
+
+    private CoverageWorkerMain() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+
+        Duration testTimeout = Duration.ofMillis(args.length > 0 ? Long.parseLong(args[0]) : 10_000);
+        CoverageEngine engine = new CoverageEngine(testTimeout);
+        engine.analyze(List.of(CoverageEnginePool.WARM_UP_SOURCE), List.of(CoverageEnginePool.WARM_UP_TEST));
+        WorkerProtocol.write(out, WorkerProtocol.Response.ofReady());
+
+        while (true) {
+            WorkerProtocol.Request request;
+            try {
+                request = WorkerProtocol.read(in, WorkerProtocol.Request.class);
+            } catch (EOFException e) {
+                // 父进程关闭了管道
+                break;
+            }
+            WorkerProtocol.Response response;
+            try {
+                response = handle(engine, request);
+            } catch (CompilationException e) {
+                response = WorkerProtocol.Response.ofCompilationErrors(e.getErrors());
+            } catch (RuntimeException | LinkageError e) {
+                response = WorkerProtocol.Response.ofError(String.valueOf(e));
+            }
+            WorkerProtocol.write(out, response);
+            if (response.dirty()) {
+                break;
+            }
+        }
+        // 超时的测试线程可能还在运行，直接退出
+        System.exit(0);
+    }
+
+    private static WorkerProtocol.Response handle(CoverageEngine engine, WorkerProtocol.Request request) {
+        if (request.isCompileOnly()) {
+            // 只编译不执行任何代码，不会留下线程
+            return WorkerProtocol.Response.ofClasses(engine.compileSources(request.sources()).classes());
+        }
+        Set<String> threadsBefore = threadIds();
+        CoverageReport report = request.classes() != null
+                ? engine.analyze(new CompiledSources(request.sources(), request.classes()), request.tests())
+                : engine.analyze(request.sources(), request.tests());
+        return WorkerProtocol.Response.ofReport(report, leftRunningThreads(threadsBefore));
+    }
+
+    /**
+     * 超时后被放弃的测试线程会继续占用 CPU，出现这种情况时工作进程处理完当前请求就退出
+     */
+    private static boolean leftRunningThreads(Set<String> threadsBefore) {
+        Set<String> started = threadIds();
+        started.removeAll(threadsBefore);
+        if (started.isEmpty()) {
+            return false;
+        }
+        try {
+            // 正常结束的线程给一点收尾时间
+            Thread.sleep(THREAD_GRACE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+        started.retainAll(threadIds());
+        return !started.isEmpty();
+    }
+
+    /**
+     * 当前所有线程的 id，包括虚拟线程
+     *
+     * Thread.getAllStackTraces 只包含平台线程，测试代码启动的虚拟线程需要通过线程转储获取
+     * （JDK 21 默认跟踪所有虚拟线程，即 jdk.trackAllThreads 为 true）。转储失败时返回一个不会与之前重复的 id，
+     * 让工作进程按有遗留线程处理而被回收。
+     */
+    static Set<String> threadIds() {
+        Set<String> ids = new HashSet<>();
+        try {
+            Path dump = Files.createTempFile("threads-", ".json");
+            try {
+                Files.delete(dump);
+                ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+                        .dumpThreads(dump.toString(), HotSpotDiagnosticMXBean.ThreadDumpFormat.JSON);
+                Matcher matcher = THREAD_ID.matcher(Files.readString(dump));
+                while (matcher.find()) {
+                    ids.add(matcher.group(1));
+                }
+            } finally {
+                Files.deleteIfExists(dump);
+            }
+        } catch (IOException | RuntimeException e) {
+            ids.add("unknown-" + System.nanoTime());
+        }
+        return ids;
+    }
+}
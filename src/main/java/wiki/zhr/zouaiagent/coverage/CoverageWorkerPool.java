@@ -0,0 +1,299 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 覆盖率工作进程池
+ *
+ * 模型生成的测试代码不可信，死循环或 System.exit 会拖垮主进程，因此放到预先启动的独立 JVM 中执行。
+ * 每个工作进程有堆内存上限，每次运行有墙钟时间和 CPU 时间上限，超出即杀掉进程；运行 N 次后或测试留下了
+ * 仍在运行的线程时回收进程，由新进程补位。池的大小即并发上限。
+ *
+ * 多轮分析时被测类先在工作进程中编译一次，字节码回传给父进程保存，之后每轮连同字节码发给任意一个工作进程，
+ * 工作进程只编译测试类。
+ */
+@Slf4j
+public class CoverageWorkerPool implements CoverageExecutor {
+
+    /**
+     * 工作进程池配置
+     *
+     * @param poolSize         工作进程数量，即最大并发分析数
+     * @param maxHeapMb        每个工作进程的最大堆内存
+     * @param wallClockLimit   每次运行的墙钟时间上限
+     * @param cpuTimeLimit     每次运行的 CPU 时间上限
+     * @param maxRunsPerWorker 工作进程运行该次数后回收
+     * @param testTimeout      单个测试方法的超时时间
+     * @param acquireTimeout   等待空闲工作进程的最长时间
+     * @param classpath        工作进程的类路径，为空时使用当前应用的类路径（可执行 jar 解压后的类路径）
+     * @param cdsArchive       AppCDS 归档文件，为空时不使用；文件不存在时在第一个进程退出时自动生成
+     */
+    public record Settings(int poolSize,
+                           int maxHeapMb,
+                           Duration wallClockLimit,
+                           Duration cpuTimeLimit,
+                           int maxRunsPerWorker,
+                           Duration testTimeout,
+                           Duration acquireTimeout,
+                           String classpath,
+                           String cdsArchive) {
+    }
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+
+    private final Settings settings;
+
+    private final List<String> command;
+
+    private final Semaphore permits;
+
+    private final LinkedBlockingQueue<CoverageWorker> idleWorkers = new LinkedBlockingQueue<>();
+
+    private final AtomicInteger workerSequence = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    // 指标
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong recycledCount = new AtomicLong();
+    private final AtomicLong killedCount = new AtomicLong();
+    private final AtomicLong crashedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong compiledCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    public CoverageWorkerPool(Settings settings) {
+        this.settings = settings;
+        this.permits = new Semaphore(settings.poolSize(), true);
+        this.command = buildCommand(settings);
+    }
+
+    private static List<String> buildCommand(Settings settings) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        // 工作进程在独立的临时目录中运行，相对路径都先转换为绝对路径
+        if (settings.cdsArchive() != null && !settings.cdsArchive().isBlank()) {
+            command.add("-XX:SharedArchiveFile=" + Path.of(settings.cdsArchive()).toAbsolutePath());
+            command.add("-XX:+AutoCreateSharedArchive");
+        }
+        command.add("-Xmx" + settings.maxHeapMb() + "m");
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        command.add("-XX:+UseSerialGC");
+        command.add("-Dfile.encoding=UTF-8");
+        command.add("-cp");
+        command.add(settings.classpath() == null || settings.classpath().isBlank()
+                ? ApplicationClasspath.asString() : absoluteClasspath(settings.classpath()));
+        command.add(CoverageWorkerMain.class.getName());
+        command.add(String.valueOf(settings.testTimeout().toMillis()));
+        return List.copyOf(command);
+    }
+
+    private static String absoluteClasspath(String classpath) {
+        return Arrays.stream(classpath.split(File.pathSeparator))
+                .filter(entry -> !entry.isBlank())
+                .map(entry -> Path.of(entry).toAbsolutePath().toString())
+                .collect(Collectors.joining(File.pathSeparator));
+    }
+
+    @Override
+    public CoverageReport analyze(List<JavaSource> sources, List<JavaSource> tests) {
+        return exchange(WorkerProtocol.Request.analyze(sources, tests)).report();
+    }
+
+    /**
+     * 在工作进程中编译被测类，字节码回传后供之后每轮分析复用；只编译不算一次分析，单独计数
+     */
+    @Override
+    public CompiledSources compileSources(List<JavaSource> sources) {
+        return new CompiledSources(List.copyOf(sources),
+                Map.copyOf(exchange(WorkerProtocol.Request.compile(sources)).classes()));
+    }
+
+    @Override
+    public CoverageReport analyze(CompiledSources sources, List<JavaSource> tests) {
+        if (!sources.isCompiled()) {
+            return analyze(sources.sources(), tests);
+        }
+        return exchange(WorkerProtocol.Request.analyze(sources, tests)).report();
+    }
+
+    private WorkerProtocol.Response exchange(WorkerProtocol.Request request) {
+        boolean analysis = !request.isCompileOnly();
+        acquirePermit();
+        long start = System.nanoTime();
+        CoverageWorker worker = null;
+        boolean reusable = false;
+        try {
+            worker = takeWorker();
+            WorkerProtocol.Response response = worker.run(request, settings.wallClockLimit(), settings.cpuTimeLimit());
+            reusable = !response.dirty();
+            if (response.compilationErrors() != null) {
+                countFailure(analysis);
+                throw new CompilationException(response.compilationErrors());
+            }
+            if (analysis ? response.report() == null : response.classes() == null) {
+                countFailure(analysis);
+                throw new IllegalStateException("覆盖率分析失败: " + response.error());
+            }
+            (analysis ? completedCount : compiledCount).incrementAndGet();
+            return response;
+        } catch (WorkerLimitExceededException e) {
+            killedCount.incrementAndGet();
+            countFailure(analysis);
+            throw e;
+        } catch (IOException e) {
+            crashedCount.incrementAndGet();
+            countFailure(analysis);
+            throw new IllegalStateException("覆盖率工作进程异常退出，可能是测试调用了 System.exit 或内存溢出: " + e.getMessage(), e);
+        } finally {
+            if (analysis) {
+                totalMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            release(worker, reusable);
+            permits.release();
+        }
+    }
+
+    /**
+     * 只有分析计入失败数和平均耗时
+     */
+    private void countFailure(boolean analysis) {
+        if (analysis) {
+            failedCount.incrementAndGet();
+        }
+    }
+
+    private void acquirePermit() {
+        try {
+            if (!permits.tryAcquire(settings.acquireTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException("覆盖率分析繁忙，请稍后重试");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("等待覆盖率工作进程时被中断", e);
+        }
+    }
+
+    private CoverageWorker takeWorker() throws IOException {
+        CoverageWorker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            if (worker.isAlive()) {
+                return worker;
+            }
+            crashedCount.incrementAndGet();
+            worker.destroy();
+        }
+        return startWorker();
+    }
+
+    private CoverageWorker startWorker() throws IOException {
+        CoverageWorker worker = CoverageWorker.start(workerSequence.incrementAndGet(), command, STARTUP_TIMEOUT);
+        startedCount.incrementAndGet();
+        return worker;
+    }
+
+    private void release(CoverageWorker worker, boolean reusable) {
+        if (worker == null) {
+            return;
+        }
+        if (!closed && reusable && worker.isAlive() && worker.getRuns() < settings.maxRunsPerWorker()) {
+            idleWorkers.add(worker);
+            return;
+        }
+        if (worker.isAlive()) {
+            recycledCount.incrementAndGet();
+        }
+        // 后台回收旧进程并启动一个新进程补位，不占用请求线程
+        Thread.ofVirtual().name("coverage-worker-recycle").start(() -> {
+            worker.stop();
+            if (!closed) {
+                prestart();
+            }
+        });
+    }
+
+    private void prestart() {
+        try {
+            CoverageWorker worker = startWorker();
+            if (closed) {
+                worker.stop();
+            } else {
+                idleWorkers.add(worker);
+            }
+        } catch (IOException e) {
+            log.warn("启动覆盖率工作进程失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 预先启动所有工作进程，工作进程启动时会自行预热一次
+     */
+    @Override
+    public void warmUp(int rounds) {
+        long start = System.currentTimeMillis();
+        List<Thread> starters = new ArrayList<>();
+        for (int i = idleWorkers.size(); i < settings.poolSize(); i++) {
+            starters.add(Thread.ofVirtual().name("coverage-worker-start").start(this::prestart));
+        }
+        for (Thread starter : starters) {
+            try {
+                starter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        log.info("覆盖率工作进程启动完成: 进程数={}, 耗时={}ms", idleWorkers.size(), System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long completed = completedCount.get();
+        long failed = failedCount.get();
+        metrics.put("execution", "worker");
+        metrics.put("poolSize", settings.poolSize());
+        metrics.put("idle", idleWorkers.size());
+        metrics.put("active", settings.poolSize() - permits.availablePermits());
+        metrics.put("waiting", permits.getQueueLength());
+        metrics.put("completed", completed);
+        metrics.put("failed", failed);
+        metrics.put("compiled", compiledCount.get());
+        metrics.put("rejected", rejectedCount.get());
+        metrics.put("workersStarted", startedCount.get());
+        metrics.put("workersRecycled", recycledCount.get());
+        metrics.put("workersKilled", killedCount.get());
+        metrics.put("workersCrashed", crashedCount.get());
+        metrics.put("averageMillis", completed + failed == 0 ? 0 : totalMillis.get() / (completed + failed));
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        CoverageWorker worker;
+        while ((worker = idleWorkers.poll()) != null) {
+            worker.stop();
+        }
+    }
+}
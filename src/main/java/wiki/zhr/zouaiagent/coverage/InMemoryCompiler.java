@@ -0,0 +1,150 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 内存编译器
+ *
+ * 源代码和字节码都只存在于内存中，编译类路径为当前应用的类路径加上测试库（JUnit）所在的位置；
+ * 以可执行 jar 运行时使用解压后的类路径（见 {@link ApplicationClasspath}）。
+ * 标准文件管理器在多次编译之间复用，JDK 模块和依赖 jar 的索引只需打开一次；
+ * 因此同一个实例不能并发编译，需要并发时每个线程使用各自的实例（见 {@link CoverageEnginePool}）。
+ */
+@Slf4j
+public class InMemoryCompiler implements AutoCloseable {
+
+    /**
+     * 编译测试代码时需要能引用到的库，取其所在的 jar 加入类路径
+     */
+    private static final List<String> TEST_LIBRARY_CLASSES = List.of(
+            "org.junit.jupiter.api.Test",
+            "org.junit.jupiter.api.Assertions",
+            "org.junit.jupiter.params.ParameterizedTest",
+            "org.apiguardian.api.API",
+            "org.opentest4j.AssertionFailedError");
+
+    // 类路径只计算一次，所有实例共用
+    private static volatile String classpath;
+
+    private final JavaCompiler compiler;
+
+    private final List<String> options;
+
+    private final InMemoryJavaFileManager fileManager;
+
+    public InMemoryCompiler() {
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("当前运行环境没有 Java 编译器，请使用 JDK 而不是 JRE 运行");
+        }
+        this.options = List.of("-g", "-proc:none", "-encoding", "UTF-8", "-classpath", getClasspath());
+        StandardJavaFileManager standardFileManager =
+                compiler.getStandardFileManager(null, Locale.ROOT, StandardCharsets.UTF_8);
+        this.fileManager = new InMemoryJavaFileManager(standardFileManager);
+    }
+
+    /**
+     * 编译一组源文件
+     *
+     * @param sources 源文件
+     * @return 编译得到的类，类名 -> 字节码（包含内部类）
+     * @throws CompilationException 编译失败
+     */
+    public Map<String, byte[]> compile(Collection<JavaSource> sources) {
+        return compile(sources, Map.of());
+    }
+
+    /**
+     * 编译一组源文件，可以引用已经编译好的类（增量编译）
+     *
+     * @param sources          源文件
+     * @param classpathClasses 已编译的类，类名 -> 字节码
+     * @return 本次编译得到的类，不包含 classpathClasses
+     * @throws CompilationException 编译失败
+     */
+    public synchronized Map<String, byte[]> compile(Collection<JavaSource> sources, Map<String, byte[]> classpathClasses) {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        fileManager.reset();
+        fileManager.setClasspathClasses(classpathClasses);
+        try {
+            List<JavaFileObject> units = sources.stream().map(InMemoryJavaFileManager::sourceOf).toList();
+            JavaCompiler.CompilationTask task =
+                    compiler.getTask(null, fileManager, diagnostics, options, null, units);
+            if (!task.call()) {
+                throw new CompilationException(formatErrors(diagnostics.getDiagnostics()));
+            }
+            return fileManager.getClassBytes();
+        } finally {
+            fileManager.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            log.warn("关闭文件管理器失败: {}", e.getMessage());
+        }
+    }
+
+    static List<String> formatErrors(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+                continue;
+            }
+            String file = diagnostic.getSource() == null ? "" : diagnostic.getSource().getName().replaceFirst("^/", "") + ":";
+            errors.add(file + diagnostic.getLineNumber() + ": " + diagnostic.getMessage(Locale.ROOT));
+        }
+        return errors;
+    }
+
+    private static String getClasspath() {
+        if (classpath == null) {
+            synchronized (InMemoryCompiler.class) {
+                if (classpath == null) {
+                    classpath = buildClasspath();
+                }
+            }
+        }
+        return classpath;
+    }
+
+    private static String buildClasspath() {
+        Set<String> entries = new LinkedHashSet<>(ApplicationClasspath.entries());
+        for (String className : TEST_LIBRARY_CLASSES) {
+            try {
+                CodeSource codeSource = Class.forName(className).getProtectionDomain().getCodeSource();
+                // 只有普通文件才能交给 javac，嵌套在可执行 jar 中的库已经在解压后的类路径中
+                if (codeSource != null && "file".equals(codeSource.getLocation().getProtocol())) {
+                    entries.add(Path.of(codeSource.getLocation().toURI()).toString());
+                }
+            } catch (ClassNotFoundException | URISyntaxException e) {
+                log.debug("测试库 {} 不可用: {}", className, e.getMessage());
+            }
+        }
+        entries.removeIf(String::isBlank);
+        return String.join(File.pathSeparator, entries);
+    }
+}
@@ -0,0 +1,139 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 内存中的文件管理器
+ *
+ * 源代码从字符串读取，编译产物写入内存，不读写临时目录；
+ * JDK 和依赖库仍由被包装的标准文件管理器提供。
+ * 还可以把之前编译好的类挂到类路径上，只重新编译发生变化的源文件（如测试类）。
+ */
+public class InMemoryJavaFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+    // 类名 -> 字节码输出
+    private final Map<String, ByteArrayOutputStream> classOutputs = new LinkedHashMap<>();
+
+    // 挂到类路径上的已编译类：包名 -> 类文件
+    private final Map<String, List<ClassFileObject>> classpathClasses = new HashMap<>();
+
+    public InMemoryJavaFileManager(JavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    /**
+     * 把已编译的类挂到类路径上，编译时可以直接引用而不需要它们的源代码
+     *
+     * @param classes 类名 -> 字节码
+     */
+    public void setClasspathClasses(Map<String, byte[]> classes) {
+        classpathClasses.clear();
+        classes.forEach((name, bytes) -> {
+            int lastDot = name.lastIndexOf('.');
+            String packageName = lastDot < 0 ? "" : name.substring(0, lastDot);
+            classpathClasses.computeIfAbsent(packageName, key -> new ArrayList<>()).add(new ClassFileObject(name, bytes));
+        });
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                                         boolean recurse) throws IOException {
+        Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+        List<ClassFileObject> cached = classpathClasses.get(packageName);
+        if (location != StandardLocation.CLASS_PATH || cached == null || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+            return listed;
+        }
+        List<JavaFileObject> result = new ArrayList<>(cached);
+        listed.forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof ClassFileObject classFile) {
+            return classFile.binaryName;
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                               FileObject sibling) {
+        return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+            @Override
+            public OutputStream openOutputStream() {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                classOutputs.put(className, output);
+                return output;
+            }
+        };
+    }
+
+    /**
+     * @return 本次编译生成的类，类名 -> 字节码
+     */
+    public Map<String, byte[]> getClassBytes() {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classOutputs.forEach((name, output) -> classes.put(name, output.toByteArray()));
+        return classes;
+    }
+
+    /**
+     * 清空编译产物，以便复用同一个文件管理器
+     */
+    public void reset() {
+        classOutputs.clear();
+        classpathClasses.clear();
+    }
+
+    /**
+     * 内存中的已编译类
+     */
+    private static class ClassFileObject extends SimpleJavaFileObject {
+
+        private final String binaryName;
+
+        private final byte[] bytes;
+
+        ClassFileObject(String binaryName, byte[] bytes) {
+            super(URI.create("mem:///" + binaryName.replace('.', '/') + JavaFileObject.Kind.CLASS.extension),
+                    JavaFileObject.Kind.CLASS);
+            this.binaryName = binaryName;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    /**
+     * 以字符串作为内容的源文件
+     */
+    public static JavaFileObject sourceOf(JavaSource source) {
+        return new SimpleJavaFileObject(URI.create("mem:///" + source.path()), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source.code();
+            }
+        };
+    }
+}
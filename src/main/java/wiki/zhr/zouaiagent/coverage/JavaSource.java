@@ -0,0 +1,70 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 一个 Java 源文件
+ *
+ * @param className 全限定类名
+ * @param code      源代码
+ */
+public record JavaSource(String className, String code) {
+
+    private static final Pattern COMMENT = Pattern.compile("/\\*.*?\\*/|//[^\\n]*", Pattern.DOTALL);
+
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+
+    private static final Pattern PUBLIC_TYPE = Pattern.compile(
+            "\\bpublic\\s+(?:(?:final|abstract|sealed|non-sealed|strictfp)\\s+)*(?:class|interface|enum|record|@interface)\\s+(\\w+)");
+
+    private static final Pattern TYPE = Pattern.compile(
+            "\\b(?:class|interface|enum|record)\\s+(\\w+)");
+
+    /**
+     * 从源代码中识别包名和类名：优先使用 public 的顶层类型，否则使用第一个声明的类型
+     *
+     * @param code 源代码
+     * @return 源文件
+     */
+    public static JavaSource of(String code) {
+        if (code == null || code.isBlank()) {
+            throw new IllegalArgumentException("源代码不能为空");
+        }
+        String stripped = COMMENT.matcher(code).replaceAll(" ");
+        Matcher packageMatcher = PACKAGE.matcher(stripped);
+        String packageName = packageMatcher.find() ? packageMatcher.group(1) : "";
+
+        Matcher typeMatcher = PUBLIC_TYPE.matcher(stripped);
+        if (!typeMatcher.find()) {
+            typeMatcher = TYPE.matcher(stripped);
+            if (!typeMatcher.find()) {
+                throw new IllegalArgumentException("无法从源代码中识别类名");
+            }
+        }
+        String simpleName = typeMatcher.group(1);
+        return new JavaSource(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, code);
+    }
+
+    /**
+     * @return 包名，默认包为空字符串
+     */
+    public String packageName() {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot < 0 ? "" : className.substring(0, lastDot);
+    }
+
+    /**
+     * @return 简单类名
+     */
+    public String simpleName() {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * @return 相对源码目录的文件路径，如 com/example/Foo.java
+     */
+    public String path() {
+        return className.replace('.', '/') + ".java";
+    }
+}
@@ -0,0 +1,41 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import java.util.Map;
+
+/**
+ * 从内存加载类的类加载器
+ *
+ * 内存中的类优先由自己定义，其余委托给父加载器（应用类加载器），
+ * 这样测试代码和 JUnit 引擎看到的是同一份注解和断言类。
+ */
+public class MemoryClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Map<String, byte[]> definitions;
+
+    public MemoryClassLoader(Map<String, byte[]> definitions, ClassLoader parent) {
+        super(parent);
+        this.definitions = definitions;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!definitions.containsKey(name)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                byte[] bytes = definitions.get(name);
+                loaded = defineClass(name, bytes, 0, bytes.length);
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+}
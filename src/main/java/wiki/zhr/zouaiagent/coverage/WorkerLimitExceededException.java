@@ -0,0 +1,13 @@
+package wiki.zhr.zouaiagent.coverage;
+
+/**
+ * 测试执行超过了工作进程的资源限制（墙钟时间、CPU 时间），工作进程已被结束
+ */
+public class WorkerLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public WorkerLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,109 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 覆盖率工作进程的管道协议
+ *
+ * 父进程通过工作进程的标准输入发送请求、从标准输出读取响应，每一帧是 4 字节的长度（大端）加上 UTF-8 编码的 JSON。
+ * 工作进程启动完成后先发送一个 ready 帧。类的字节码在 JSON 中以 base64 编码传输。
+ */
+final class WorkerProtocol {
+
+    /**
+     * 单帧的最大长度，防止读到错乱的数据时分配过大的数组
+     */
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private WorkerProtocol() {
+    }
+
+    /**
+     * 请求：tests 为空时只编译被测源代码并返回字节码；classes 不为空时使用其中已编译的被测类，只编译测试代码
+     *
+     * @param sources 被测源代码
+     * @param classes 已编译的被测类，类名 -> 字节码
+     * @param tests   测试代码
+     */
+    record Request(List<JavaSource> sources, Map<String, byte[]> classes, List<JavaSource> tests) {
+
+        static Request analyze(List<JavaSource> sources, List<JavaSource> tests) {
+            return new Request(sources, null, tests);
+        }
+
+        static Request analyze(CompiledSources sources, List<JavaSource> tests) {
+            return new Request(sources.sources(), sources.classes(), tests);
+        }
+
+        static Request compile(List<JavaSource> sources) {
+            return new Request(sources, null, null);
+        }
+
+        boolean isCompileOnly() {
+            return tests == null;
+        }
+    }
+
+    /**
+     * 响应，report（或 classes）、compilationErrors 和 error 三选一
+     *
+     * @param ready             工作进程已启动，可以接收请求
+     * @param report            覆盖率报告
+     * @param classes           只编译的请求编译得到的类
+     * @param compilationErrors 编译错误
+     * @param error             其他错误
+     * @param dirty             测试留下了仍在运行的线程，工作进程需要回收
+     */
+    record Response(boolean ready, CoverageReport report, Map<String, byte[]> classes, List<String> compilationErrors,
+                    String error, boolean dirty) {
+
+        static Response ofReady() {
+            return new Response(true, null, null, null, null, false);
+        }
+
+        static Response ofReport(CoverageReport report, boolean dirty) {
+            return new Response(false, report, null, null, null, dirty);
+        }
+
+        static Response ofClasses(Map<String, byte[]> classes) {
+            return new Response(false, null, classes, null, null, false);
+        }
+
+        static Response ofCompilationErrors(List<String> errors) {
+            return new Response(false, null, null, errors, null, false);
+        }
+
+        static Response ofError(String error) {
+            return new Response(false, null, null, null, error, true);
+        }
+    }
+
+    static void write(DataOutputStream out, Object message) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(message);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    static <T> T read(DataInputStream in, Class<T> type) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("非法的帧长度: " + length);
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new IOException("帧数据不完整");
+        }
+        return MAPPER.readValue(bytes, type);
+    }
+}
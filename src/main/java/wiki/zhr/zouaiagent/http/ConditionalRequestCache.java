@@ -0,0 +1,223 @@
+package wiki.zhr.zouaiagent.http;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 ETag 的条件请求磁盘缓存
+ *
+ * 响应的 ETag 和响应体按 (令牌范围, URL) 保存在磁盘上，再次请求时带上 If-None-Match，
+ * 服务端返回 304 时直接使用缓存的响应体。GitHub 的 304 响应不计入限流额度，仓库没有变化时重建几乎不消耗时间和额度。
+ * 令牌只以摘要的形式参与缓存键，不同令牌能看到的内容不同，互不共享缓存。
+ */
+@Component
+@Slf4j
+public class ConditionalRequestCache {
+
+    private static final String ANONYMOUS_SCOPE = "anonymous";
+
+    private final SharedHttpClient httpClient;
+
+    private final boolean enabled;
+
+    private final Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicLong notModifiedCount = new AtomicLong();
+    private final AtomicLong fetchedCount = new AtomicLong();
+    private final AtomicLong storedCount = new AtomicLong();
+    private volatile String rateLimitRemaining;
+
+    @Autowired
+    public ConditionalRequestCache(SharedHttpClient httpClient,
+                                   @Value("${http-client.etag-cache.enabled:true}") boolean enabled,
+                                   @Value("${http-client.etag-cache.directory:tmp/http-cache}") String directory) {
+        this(httpClient, enabled, Paths.get(directory));
+    }
+
+    public ConditionalRequestCache(SharedHttpClient httpClient, boolean enabled, Path directory) {
+        this.httpClient = httpClient;
+        this.enabled = enabled;
+        this.directory = directory;
+    }
+
+    /**
+     * 缓存条目的元信息，和响应体分开存放
+     */
+    record Entry(String url, String etag, String lastModified) {
+    }
+
+    /**
+     * 响应
+     *
+     * @param body      响应体
+     * @param fromCache 是否是服务端返回 304 后使用的缓存
+     */
+    public record CachedResponse(byte[] body, boolean fromCache) {
+
+        public String bodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 条件 GET 请求
+     *
+     * @param url   地址
+     * @param token Bearer 令牌，为空时匿名请求
+     * @return 响应体，可能来自缓存
+     * @throws IOException 网络错误或服务端返回 2xx、304 以外的状态码
+     */
+    public CachedResponse get(String url, String token) throws IOException {
+        return get(url, token, null);
+    }
+
+    /**
+     * 指定 Accept 的条件 GET 请求，同一个 URL 不同的 Accept 分开缓存
+     *
+     * @param url    地址
+     * @param token  Bearer 令牌，为空时匿名请求
+     * @param accept Accept 请求头，为空使用默认值
+     * @return 响应体，可能来自缓存
+     * @throws IOException 网络错误或服务端返回 2xx、304 以外的状态码
+     */
+    public CachedResponse get(String url, String token, String accept) throws IOException {
+        String key = key(url, token, accept);
+        Entry cached = enabled ? readEntry(key) : null;
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).GET();
+        if (token != null && !token.isBlank()) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        if (accept != null) {
+            builder.header("Accept", accept);
+        }
+        if (cached != null) {
+            if (cached.etag() != null) {
+                builder.header("If-None-Match", cached.etag());
+            } else if (cached.lastModified() != null) {
+                builder.header("If-Modified-Since", cached.lastModified());
+            }
+        }
+        SharedHttpClient.Response response = httpClient.send(builder.build());
+        response.headers().firstValue("X-RateLimit-Remaining").ifPresent(value -> rateLimitRemaining = value);
+
+        if (response.statusCode() == 304 && cached != null) {
+            byte[] body = readBody(key);
+            if (body != null) {
+                notModifiedCount.incrementAndGet();
+                return new CachedResponse(body, true);
+            }
+            // 响应体文件丢失，去掉条件头重新请求
+            deleteEntry(key);
+            return get(url, token, accept);
+        }
+        if (!response.isSuccessful()) {
+            throw new IOException("HTTP " + response.statusCode() + ": " + url);
+        }
+        fetchedCount.incrementAndGet();
+
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        if (enabled && (etag != null || lastModified != null)) {
+            writeEntry(key, new Entry(url, etag, lastModified), response.body());
+        }
+        return new CachedResponse(response.body(), false);
+    }
+
+    /**
+     * 缓存键：令牌摘要、URL 和 Accept 的摘要
+     */
+    static String key(String url, String token, String accept) {
+        String scope = token == null || token.isBlank() ? ANONYMOUS_SCOPE : DigestUtil.sha256Hex(token);
+        return DigestUtil.sha256Hex(scope + "\n" + url + (accept == null ? "" : "\n" + accept));
+    }
+
+    private Path metaPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".meta");
+    }
+
+    private Path bodyPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".body");
+    }
+
+    private Entry readEntry(String key) {
+        Path meta = metaPath(key);
+        if (!Files.exists(meta)) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(meta.toFile(), Entry.class);
+        } catch (IOException e) {
+            log.warn("读取 HTTP 缓存失败: {}, 错误: {}", meta, e.getMessage());
+            deleteEntry(key);
+            return null;
+        }
+    }
+
+    private byte[] readBody(String key) {
+        try {
+            return Files.readAllBytes(bodyPath(key));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 先写响应体再写元信息，都通过临时文件原子替换，并发读取时不会读到写了一半的条目
+     */
+    private void writeEntry(String key, Entry entry, byte[] body) {
+        try {
+            Path meta = metaPath(key);
+            Files.createDirectories(meta.getParent());
+            Path bodyTemp = Files.createTempFile(meta.getParent(), key, ".tmp");
+            Files.write(bodyTemp, body);
+            Files.move(bodyTemp, bodyPath(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Path metaTemp = Files.createTempFile(meta.getParent(), key, ".tmp");
+            objectMapper.writeValue(metaTemp.toFile(), entry);
+            Files.move(metaTemp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            storedCount.incrementAndGet();
+        } catch (IOException e) {
+            log.warn("写入 HTTP 缓存失败: {}, 错误: {}", entry.url(), e.getMessage());
+        }
+    }
+
+    private void deleteEntry(String key) {
+        try {
+            Files.deleteIfExists(metaPath(key));
+            Files.deleteIfExists(bodyPath(key));
+        } catch (IOException e) {
+            log.warn("删除 HTTP 缓存失败: {}, 错误: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * 缓存指标：304 命中数、实际下载数、写入缓存数和最近一次返回的 GitHub 剩余限流额度
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("notModified", notModifiedCount.get());
+        metrics.put("fetched", fetchedCount.get());
+        metrics.put("stored", storedCount.get());
+        metrics.put("rateLimitRemaining", rateLimitRemaining);
+        return metrics;
+    }
+}
@@ -0,0 +1,29 @@
+package wiki.zhr.zouaiagent.http;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * 基于共享 HTTP 客户端的 RestTemplate，GitHub、OAuth 等使用 RestTemplate 的调用共用同一个连接池
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Bean
+    public RestTemplate restTemplate(SharedHttpClient sharedHttpClient) {
+        return createRestTemplate(sharedHttpClient);
+    }
+
+    /**
+     * 创建使用共享客户端的 RestTemplate，不经过 Spring 容器时使用
+     */
+    public static RestTemplate createRestTemplate(SharedHttpClient sharedHttpClient) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(sharedHttpClient.getHttpClient());
+        requestFactory.setReadTimeout(sharedHttpClient.getReadTimeout());
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        restTemplate.getInterceptors().add(new SharedHttpClientInterceptor(sharedHttpClient));
+        return restTemplate;
+    }
+}
@@ -0,0 +1,498 @@
+package wiki.zhr.zouaiagent.http;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 全局共享的 HTTP 客户端
+ *
+ * 应用自己发起的 HTTP 调用（GitHub 接口、飞书 OAuth、搜索、网页抓取、资源下载）都走同一个 JDK HttpClient：
+ * 连接池内的连接保持长连接复用，支持 HTTP/2 的服务端自动走多路复用；每个主机的并发请求数有上限，
+ * 避免某个慢主机占满连接；统一设置连接和读取超时，请求 gzip 压缩并自动解压，按主机统计请求指标。
+ * DashScope 模型调用、飞书开放平台 SDK 和阿里云 OSS SDK 使用各自 SDK 内置的 HTTP 客户端，不经过这里。
+ *
+ * HttpRequest 的超时只覆盖到收到响应头为止，响应体的读取另有截止时间（到期关闭连接）和大小上限（按解压后的字节计算），
+ * 避免慢速或超大的响应无限占用线程和内存。
+ */
+@Component
+@Slf4j
+public class SharedHttpClient implements AutoCloseable {
+
+    private static volatile SharedHttpClient defaultClient;
+
+    private final HttpClient httpClient;
+
+    private final Duration readTimeout;
+
+    private final Duration bodyTimeout;
+
+    private final long maxBodyBytes;
+
+    private final int maxConnectionsPerHost;
+
+    // 到期关闭响应体的定时器
+    private final ScheduledExecutorService bodyDeadlines = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http-body-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+    private final HostStats total = new HostStats(Integer.MAX_VALUE);
+
+    @Autowired
+    public SharedHttpClient(@Value("${http-client.connect-timeout-seconds:10}") long connectTimeoutSeconds,
+                            @Value("${http-client.read-timeout-seconds:30}") long readTimeoutSeconds,
+                            @Value("${http-client.max-connections-per-host:16}") int maxConnectionsPerHost,
+                            @Value("${http-client.body-timeout-seconds:60}") long bodyTimeoutSeconds,
+                            @Value("${http-client.max-body-mb:20}") long maxBodyMb) {
+        this(Duration.ofSeconds(connectTimeoutSeconds), Duration.ofSeconds(readTimeoutSeconds), maxConnectionsPerHost,
+                Duration.ofSeconds(bodyTimeoutSeconds), maxBodyMb * 1024 * 1024);
+    }
+
+    public SharedHttpClient(Duration connectTimeout, Duration readTimeout, int maxConnectionsPerHost) {
+        this(connectTimeout, readTimeout, maxConnectionsPerHost, Duration.ofSeconds(60), 20L * 1024 * 1024);
+    }
+
+    /**
+     * @param bodyTimeout  收到响应头后读取完响应体的最长时间
+     * @param maxBodyBytes 响应体（解压后）的最大字节数
+     */
+    public SharedHttpClient(Duration connectTimeout, Duration readTimeout, int maxConnectionsPerHost,
+                            Duration bodyTimeout, long maxBodyBytes) {
+        this.readTimeout = readTimeout;
+        this.bodyTimeout = bodyTimeout;
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        log.info("共享 HTTP 客户端: 连接超时 {}s, 读取超时 {}s, 单主机最大并发 {}",
+                connectTimeout.toSeconds(), readTimeout.toSeconds(), this.maxConnectionsPerHost);
+    }
+
+    /**
+     * 容器中的实例注册为默认客户端，不经过 Spring 注入的工具也使用同一个连接池
+     */
+    @PostConstruct
+    void registerAsDefault() {
+        synchronized (SharedHttpClient.class) {
+            defaultClient = this;
+        }
+    }
+
+    /**
+     * 不经过 Spring 容器创建的工具使用的默认客户端：容器启动后即容器中的实例，只有没有容器时（如单元测试）才单独创建
+     */
+    public static SharedHttpClient defaultClient() {
+        if (defaultClient == null) {
+            synchronized (SharedHttpClient.class) {
+                if (defaultClient == null) {
+                    defaultClient = new SharedHttpClient(Duration.ofSeconds(10), Duration.ofSeconds(30), 16);
+                }
+            }
+        }
+        return defaultClient;
+    }
+
+    /**
+     * 响应，body 已经解压
+     *
+     * @param statusCode 状态码
+     * @param headers    响应头
+     * @param body       响应体
+     */
+    public record Response(int statusCode, HttpHeaders headers, byte[] body) {
+
+        public boolean isSuccessful() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        /**
+         * 响应头中声明的字符集，没有声明时为空
+         */
+        public Charset charset() {
+            String contentType = headers.firstValue("Content-Type").orElse("");
+            for (String part : contentType.split(";")) {
+                String param = part.trim();
+                if (param.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+                    try {
+                        return Charset.forName(param.substring(8).replace("\"", "").trim());
+                    } catch (Exception e) {
+                        return null;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 按声明的字符集解码响应体，没有声明时使用 UTF-8
+         */
+        public String bodyAsString() {
+            Charset charset = charset();
+            return new String(body, charset != null ? charset : StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * GET 请求
+     *
+     * @param url     地址
+     * @param headers 请求头，可以为空
+     * @return 响应
+     * @throws IOException 网络错误、超时或等待连接超时
+     */
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        return get(url, headers, maxBodyBytes);
+    }
+
+    /**
+     * GET 请求，响应体超过 maxBodyBytes 时失败
+     *
+     * @param maxBodyBytes 响应体（解压后）的最大字节数
+     */
+    public Response get(String url, Map<String, String> headers, long maxBodyBytes) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).GET();
+        if (headers != null) {
+            headers.forEach(builder::header);
+        }
+        return send(builder.build(), maxBodyBytes);
+    }
+
+    /**
+     * 发送请求并读取完整的响应体
+     *
+     * @throws IOException 网络错误、超时、响应体读取超时或超过大小上限
+     */
+    public Response send(HttpRequest request) throws IOException {
+        return send(request, maxBodyBytes);
+    }
+
+    /**
+     * 发送请求并读取完整的响应体，响应体超过 maxBodyBytes 时失败
+     */
+    public Response send(HttpRequest request, long maxBodyBytes) throws IOException {
+        return exchange(request, maxBodyBytes, (response, body) ->
+                new Response(response.statusCode(), response.headers(), body.readAllBytes()));
+    }
+
+    /**
+     * 下载到文件，响应体直接写入磁盘，不在内存中缓存
+     *
+     * @param url    地址
+     * @param target 目标文件
+     * @return 写入的字节数
+     * @throws IOException 网络错误或响应状态码不是 2xx
+     */
+    public long download(String url, Path target) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).GET().build();
+        return exchange(request, maxBodyBytes, (response, body) -> {
+            if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                throw new IOException("下载失败: HTTP " + response.statusCode());
+            }
+            Path parent = target.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try {
+                return Files.copy(body, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                // 超时或超过大小上限时不留下不完整的文件
+                Files.deleteIfExists(target);
+                throw e;
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(HttpResponse<InputStream> response, InputStream body) throws IOException;
+    }
+
+    private <T> T exchange(HttpRequest request, long maxBodyBytes, BodyReader<T> reader) throws IOException {
+        Call call = begin(request.uri());
+        boolean success = false;
+        try {
+            HttpResponse<InputStream> response = httpClient.send(prepare(request), HttpResponse.BodyHandlers.ofInputStream());
+            InputStream raw = response.body();
+            // 到期关闭原始响应体，阻塞中的读取随之失败
+            AtomicBoolean expired = new AtomicBoolean();
+            ScheduledFuture<?> deadline = bodyDeadlines.schedule(() -> {
+                expired.set(true);
+                closeQuietly(raw);
+            }, bodyTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            try (InputStream body = new BoundedInputStream(
+                    decode(response.headers().firstValue("Content-Encoding").orElse(null), raw),
+                    maxBodyBytes, expired, bodyTimeout)) {
+                T result = reader.read(response, body);
+                success = response.statusCode() < 500;
+                return result;
+            } finally {
+                deadline.cancel(false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("HTTP 请求被中断: " + request.uri(), e);
+        } finally {
+            call.end(success);
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            log.debug("关闭响应体失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 限制大小的响应体：超过上限或读取截止时间到期时抛出异常
+     */
+    static final class BoundedInputStream extends FilterInputStream {
+
+        private final long maxBytes;
+
+        private final AtomicBoolean expired;
+
+        private final Duration timeout;
+
+        private long count;
+
+        BoundedInputStream(InputStream in, long maxBytes, AtomicBoolean expired, Duration timeout) {
+            super(in);
+            this.maxBytes = maxBytes;
+            this.expired = expired;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkExpired();
+            int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (IOException e) {
+                checkExpired();
+                throw e;
+            }
+            if (n > 0) {
+                count += n;
+                if (count > maxBytes) {
+                    throw new IOException("响应体超过大小上限 " + maxBytes + " 字节");
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return read(new byte[(int) Math.min(n, 8192)]);
+        }
+
+        private void checkExpired() throws HttpTimeoutException {
+            if (expired.get()) {
+                throw new HttpTimeoutException("读取响应体超时（" + timeout.toSeconds() + " 秒）");
+            }
+        }
+    }
+
+    /**
+     * 补上默认的读取超时和 gzip 请求头
+     */
+    private HttpRequest prepare(HttpRequest request) {
+        boolean hasTimeout = request.timeout().isPresent();
+        boolean hasEncoding = request.headers().firstValue("Accept-Encoding").isPresent();
+        if (hasTimeout && hasEncoding) {
+            return request;
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request, (name, value) -> true);
+        if (!hasTimeout) {
+            builder.timeout(readTimeout);
+        }
+        if (!hasEncoding) {
+            builder.header("Accept-Encoding", "gzip");
+        }
+        return builder.build();
+    }
+
+    /**
+     * 按 Content-Encoding 解压响应体；304、204 等没有响应体的响应原样返回
+     */
+    static InputStream decode(String contentEncoding, InputStream body) throws IOException {
+        if (contentEncoding == null || !contentEncoding.trim().equalsIgnoreCase("gzip")) {
+            return body;
+        }
+        PushbackInputStream in = new PushbackInputStream(body, 1);
+        int first = in.read();
+        if (first == -1) {
+            return in;
+        }
+        in.unread(first);
+        return new GZIPInputStream(in);
+    }
+
+    /**
+     * 开始一次请求：占用目标主机的一个并发名额，结束时必须调用 {@link Call#end(boolean)}
+     *
+     * @throws IOException 在读取超时时间内没有等到空闲名额
+     */
+    Call begin(URI uri) throws IOException {
+        String host = uri.getHost() == null ? "unknown" : uri.getHost().toLowerCase(Locale.ROOT);
+        HostStats stats = hosts.computeIfAbsent(host, key -> new HostStats(maxConnectionsPerHost));
+        try {
+            if (!stats.permits.tryAcquire(readTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                stats.rejected.incrementAndGet();
+                total.rejected.incrementAndGet();
+                throw new IOException("等待主机 " + host + " 的空闲连接超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待主机 " + host + " 的空闲连接被中断", e);
+        }
+        stats.inFlight.incrementAndGet();
+        total.inFlight.incrementAndGet();
+        return new Call(stats);
+    }
+
+    /**
+     * 一次进行中的请求
+     */
+    final class Call {
+
+        private final HostStats stats;
+
+        private final long startNanos = System.nanoTime();
+
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        private Call(HostStats stats) {
+            this.stats = stats;
+        }
+
+        /**
+         * 结束请求，释放并发名额并记录耗时；重复调用无效
+         *
+         * @param success 是否成功（没有网络错误且不是 5xx）
+         */
+        void end(boolean success) {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            stats.permits.release();
+            stats.record(nanos, success);
+            total.record(nanos, success);
+        }
+    }
+
+    private static final class HostStats {
+
+        private final Semaphore permits;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private HostStats(int permits) {
+            this.permits = new Semaphore(permits, true);
+        }
+
+        private void record(long nanos, boolean success) {
+            inFlight.decrementAndGet();
+            requests.incrementAndGet();
+            if (!success) {
+                failures.incrementAndGet();
+            }
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            long count = requests.get();
+            metrics.put("requests", count);
+            metrics.put("failures", failures.get());
+            metrics.put("rejected", rejected.get());
+            metrics.put("inFlight", inFlight.get());
+            metrics.put("avgLatencyMs", count == 0 ? 0 : totalNanos.get() / count / 1_000_000);
+            metrics.put("maxLatencyMs", maxNanos.get() / 1_000_000);
+            return metrics;
+        }
+    }
+
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * 请求指标：总体和按主机统计的请求数、失败数、等待连接超时数、进行中的请求数和耗时
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>(total.toMap());
+        metrics.put("maxConnectionsPerHost", maxConnectionsPerHost);
+        Map<String, Object> perHost = new LinkedHashMap<>();
+        hosts.forEach((host, stats) -> perHost.put(host, stats.toMap()));
+        metrics.put("hosts", perHost);
+        return metrics;
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        bodyDeadlines.shutdownNow();
+        httpClient.close();
+    }
+}
@@ -0,0 +1,104 @@
+package wiki.zhr.zouaiagent.http;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * RestTemplate 拦截器：让 RestTemplate 的请求也受共享客户端的单主机并发上限约束、计入指标，并自动解压 gzip 响应
+ */
+class SharedHttpClientInterceptor implements ClientHttpRequestInterceptor {
+
+    private final SharedHttpClient sharedHttpClient;
+
+    SharedHttpClientInterceptor(SharedHttpClient sharedHttpClient) {
+        this.sharedHttpClient = sharedHttpClient;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        if (!request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+            request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        }
+        SharedHttpClient.Call call = sharedHttpClient.begin(request.getURI());
+        try {
+            return new DecodingResponse(execution.execute(request, body), call);
+        } catch (IOException | RuntimeException e) {
+            call.end(false);
+            throw e;
+        }
+    }
+
+    /**
+     * 解压响应体，关闭时释放并发名额
+     */
+    private static final class DecodingResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+
+        private final SharedHttpClient.Call call;
+
+        private final boolean gzip;
+
+        private InputStream body;
+
+        private DecodingResponse(ClientHttpResponse delegate, SharedHttpClient.Call call) {
+            this.delegate = delegate;
+            this.call = call;
+            this.gzip = "gzip".equalsIgnoreCase(delegate.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            if (!gzip) {
+                return delegate.getHeaders();
+            }
+            // 解压后长度和编码都变了，不再暴露原始的 Content-Encoding 和 Content-Length
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(delegate.getHeaders());
+            headers.remove(HttpHeaders.CONTENT_ENCODING);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            return HttpHeaders.readOnlyHttpHeaders(headers);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = gzip ? SharedHttpClient.decode("gzip", delegate.getBody()) : delegate.getBody();
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            boolean success;
+            try {
+                success = !delegate.getStatusCode().is5xxServerError();
+            } catch (IOException e) {
+                success = false;
+            }
+            try {
+                delegate.close();
+            } finally {
+                call.end(success);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package wiki.zhr.zouaiagent.mcp;
 
+import jakarta.annotation.Resource;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
@@ -19,7 +20,9 @@ public class GitHubService {
     @Value("${github.client_secret}")
     private String clientSecret;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    // 共享 HTTP 客户端之上的 RestTemplate，复用连接池
+    @Resource
+    private RestTemplate restTemplate;
 
     /**
      * 用授权码换取access_token
@@ -0,0 +1,53 @@
+package wiki.zhr.zouaiagent.model;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 模型路由
+ *
+ * 按任务类型选择模型：辅助任务默认使用快速模型，面向用户的生成默认使用强模型。
+ * 每个调用点都可以通过 model.routing.tasks.&lt;任务&gt; 单独指定模型；
+ * 开启 model.routing.stub 后所有任务都使用本地桩模型，便于测试。
+ */
+@Component
+@Slf4j
+public class ModelRouter {
+
+    private final Map<ModelTask, ChatModel> chatModels = new EnumMap<>(ModelTask.class);
+
+    public ModelRouter(ChatModel dashscopeChatModel, Environment environment) {
+        boolean stub = environment.getProperty("model.routing.stub", Boolean.class, false);
+        StubChatModel stubChatModel = stub ? new StubChatModel() : null;
+        for (ModelTask task : ModelTask.values()) {
+            if (stub) {
+                chatModels.put(task, stubChatModel);
+                continue;
+            }
+            String tierModel = switch (task.getDefaultTier()) {
+                case FAST -> environment.getProperty("model.routing.fast-model", "qwen-turbo");
+                case STRONG -> environment.getProperty("model.routing.strong-model", "");
+            };
+            String model = environment.getProperty("model.routing.tasks." + task.getKey(), tierModel);
+            // 未指定模型时使用 ChatModel 自身配置的默认模型
+            chatModels.put(task, StrUtil.isBlank(model) ? dashscopeChatModel : new RoutedChatModel(dashscopeChatModel, model));
+            log.info("模型路由: {} -> {}", task.getKey(), StrUtil.blankToDefault(model, "默认模型"));
+        }
+    }
+
+    /**
+     * 获取指定任务使用的 ChatModel
+     *
+     * @param task 任务类型
+     * @return ChatModel
+     */
+    public ChatModel chatModelFor(ModelTask task) {
+        return chatModels.get(task);
+    }
+}
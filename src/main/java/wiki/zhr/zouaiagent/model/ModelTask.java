@@ -0,0 +1,50 @@
+package wiki.zhr.zouaiagent.model;
+
+import lombok.Getter;
+
+/**
+ * 模型调用的任务类型
+ *
+ * 辅助任务（查询重写、关键词提取）默认使用便宜快速的模型，面向用户的生成使用强模型。
+ */
+@Getter
+public enum ModelTask {
+
+    /**
+     * 查询重写
+     */
+    QUERY_REWRITE("query-rewrite", ModelTier.FAST),
+
+    /**
+     * 文档关键词提取
+     */
+    KEYWORD_EXTRACTION("keyword-extraction", ModelTier.FAST),
+
+    /**
+     * 智能体推理
+     */
+    AGENT_REASONING("agent-reasoning", ModelTier.STRONG),
+
+    /**
+     * 面向用户的回答
+     */
+    ANSWER("answer", ModelTier.STRONG);
+
+    // 配置项 model.routing.tasks.<key>
+    private final String key;
+
+    private final ModelTier defaultTier;
+
+    ModelTask(String key, ModelTier defaultTier) {
+        this.key = key;
+        this.defaultTier = defaultTier;
+    }
+
+    /**
+     * 模型档位
+     */
+    public enum ModelTier {
+        FAST,
+        STRONG
+    }
+}
@@ -0,0 +1,66 @@
+package wiki.zhr.zouaiagent.model;
+
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.DefaultChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+/**
+ * 固定使用指定模型的 ChatModel
+ *
+ * 在每次请求的选项中写入模型名称，其余选项保持不变，底层仍然是同一个 ChatModel。
+ */
+public class RoutedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+
+    private final String model;
+
+    public RoutedChatModel(ChatModel delegate, String model) {
+        this.delegate = delegate;
+        this.model = model;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return delegate.call(route(prompt));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return delegate.stream(route(prompt));
+    }
+
+    /**
+     * ChatClient 使用默认选项构建请求，这里返回带有目标模型的默认选项
+     */
+    @Override
+    public ChatOptions getDefaultOptions() {
+        ChatOptions defaultOptions = delegate.getDefaultOptions();
+        return defaultOptions == null ? null : withModel(defaultOptions.copy());
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    private Prompt route(Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        ChatOptions routedOptions = options == null
+                ? DashScopeChatOptions.builder().withModel(model).build()
+                : withModel(options.copy());
+        return new Prompt(prompt.getInstructions(), routedOptions);
+    }
+
+    private ChatOptions withModel(ChatOptions options) {
+        if (options instanceof DashScopeChatOptions dashScopeChatOptions) {
+            dashScopeChatOptions.setModel(model);
+        } else if (options instanceof DefaultChatOptions defaultChatOptions) {
+            defaultChatOptions.setModel(model);
+        }
+        return options;
+    }
+}
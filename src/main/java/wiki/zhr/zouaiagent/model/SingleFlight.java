@@ -0,0 +1,140 @@
+package wiki.zhr.zouaiagent.model;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 合并相同的并发请求
+ *
+ * 相同 key 的请求在执行期间只会真正执行一次，其余调用方等待并共享同一个结果（包括异常）。
+ * 执行结束后立即移除，不缓存结果，后续请求会重新执行。
+ * 执行的调用方被取消（线程中断）时，取消只影响它自己：等待的调用方重新发起，其中一个接替执行。
+ *
+ * @param <K> 请求的 key
+ * @param <V> 结果类型
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    // 真正执行的次数
+    private final AtomicLong executedCount = new AtomicLong();
+
+    // 被合并、共享结果的次数
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    // 执行的调用方被取消后由等待方接替执行的次数
+    private final AtomicLong handedOverCount = new AtomicLong();
+
+    /**
+     * 执行请求，相同 key 的请求正在执行时等待其结果
+     *
+     * @param key      请求的 key
+     * @param supplier 请求逻辑
+     * @return 结果
+     */
+    public V execute(K key, Supplier<V> supplier) {
+        while (true) {
+            CompletableFuture<V> created = new CompletableFuture<>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+            if (existing == null) {
+                return lead(key, created, supplier);
+            }
+            coalescedCount.incrementAndGet();
+            try {
+                return await(existing);
+            } catch (LeaderCancelledException e) {
+                // 执行方被取消，重新发起：先到的等待方成为新的执行方
+                coalescedCount.decrementAndGet();
+                handedOverCount.incrementAndGet();
+            }
+        }
+    }
+
+    private V lead(K key, CompletableFuture<V> created, Supplier<V> supplier) {
+        executedCount.incrementAndGet();
+        try {
+            V value = supplier.get();
+            created.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            created.completeExceptionally(isCancellation(e) ? new LeaderCancelledException() : e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * 执行失败是否由调用方线程被中断（取消运行）导致
+     */
+    private static boolean isCancellation(Throwable e) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || cause instanceof CancellationException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待合并请求的结果时被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof LeaderCancelledException leaderCancelled) {
+                throw leaderCancelled;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getHandedOverCount() {
+        return handedOverCount.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * 通知等待方：执行方被取消，需要重新发起
+     */
+    private static final class LeaderCancelledException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private LeaderCancelledException() {
+            super(null, null, false, false);
+        }
+    }
+}
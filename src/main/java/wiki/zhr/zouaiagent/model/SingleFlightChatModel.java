@@ -0,0 +1,137 @@
+package wiki.zhr.zouaiagent.model;
+
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 合并相同并发请求的 ChatModel
+ *
+ * 消息和选项完全相同的同步调用在执行期间只请求一次大模型，其余调用共享结果。
+ * 流式调用、带多模态内容或由模型内部执行工具的请求不合并，直接交给原始模型。
+ * 执行请求的调用被取消（线程中断）时，不把取消传给等待的调用，由其中一个接替执行。
+ */
+public class SingleFlightChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+
+    private final SingleFlight<String, ChatResponse> singleFlight = new SingleFlight<>();
+
+    public SingleFlightChatModel(ChatModel delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        String key = keyOf(prompt);
+        if (key == null) {
+            return delegate.call(prompt);
+        }
+        return singleFlight.execute(key, () -> delegate.call(prompt));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return delegate.stream(prompt);
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    public ChatModel getDelegate() {
+        return delegate;
+    }
+
+    public SingleFlight<String, ChatResponse> getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * 生成请求的 key，不能合并的请求返回 null
+     *
+     * key 由消息内容的摘要加上模型名称、温度等标量选项组成，不序列化整个选项（其中包含所有工具的 JSON Schema）；
+     * 工具定义按实例区分，ToolCallAgent 复用同一份预先生成的工具列表，同一个智能体的请求仍能合并
+     */
+    private String keyOf(Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        // 模型内部执行工具时会产生副作用，不能合并
+        if (options instanceof DashScopeChatOptions dashScopeChatOptions
+                && (!CollectionUtils.isEmpty(dashScopeChatOptions.getFunctionCallbacks())
+                || !CollectionUtils.isEmpty(dashScopeChatOptions.getFunctions()))) {
+            return null;
+        }
+        if (options instanceof ToolCallingChatOptions toolCallingChatOptions
+                && (!CollectionUtils.isEmpty(toolCallingChatOptions.getToolCallbacks())
+                || !CollectionUtils.isEmpty(toolCallingChatOptions.getToolNames()))) {
+            return null;
+        }
+        MessageDigest digest = sha256();
+        for (Message message : prompt.getInstructions()) {
+            if (message instanceof UserMessage userMessage && !CollectionUtils.isEmpty(userMessage.getMedia())) {
+                return null;
+            }
+            update(digest, message.getMessageType().name());
+            update(digest, message.getText());
+            if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+                for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                    update(digest, toolCall.id());
+                    update(digest, toolCall.name());
+                    update(digest, toolCall.arguments());
+                }
+            }
+            if (message instanceof ToolResponseMessage toolResponseMessage) {
+                for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                    update(digest, response.id());
+                    update(digest, response.name());
+                    update(digest, response.responseData());
+                }
+            }
+        }
+        StringBuilder key = new StringBuilder(HexFormat.of().formatHex(digest.digest()));
+        if (options != null) {
+            key.append('|').append(options.getClass().getName())
+                    .append('|').append(options.getModel())
+                    .append('|').append(options.getTemperature())
+                    .append('|').append(options.getTopP())
+                    .append('|').append(options.getTopK())
+                    .append('|').append(options.getMaxTokens());
+            if (options instanceof DashScopeChatOptions dashScopeChatOptions
+                    && !CollectionUtils.isEmpty(dashScopeChatOptions.getTools())) {
+                key.append('|').append(System.identityHashCode(dashScopeChatOptions.getTools()));
+            }
+        }
+        return key.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        // 分隔符，避免相邻字段拼接后相同
+        digest.update((byte) 0);
+    }
+}
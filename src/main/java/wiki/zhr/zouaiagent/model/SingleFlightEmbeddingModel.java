@@ -0,0 +1,53 @@
+package wiki.zhr.zouaiagent.model;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.model.ModelOptionsUtils;
+
+/**
+ * 合并相同并发请求的 EmbeddingModel
+ *
+ * 文本和选项完全相同的向量化请求在执行期间只请求一次，例如并发的相同查询在 QuestionAnswerAdvisor 中的向量化。
+ */
+public class SingleFlightEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+
+    private final SingleFlight<String, EmbeddingResponse> singleFlight = new SingleFlight<>();
+
+    public SingleFlightEmbeddingModel(EmbeddingModel delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        String key;
+        try {
+            key = String.join("\u0000", request.getInstructions())
+                    + '\u0001' + ModelOptionsUtils.toJsonString(request.getOptions());
+        } catch (Exception e) {
+            return delegate.call(request);
+        }
+        return singleFlight.execute(key, () -> delegate.call(request));
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public EmbeddingModel getDelegate() {
+        return delegate;
+    }
+
+    public SingleFlight<String, EmbeddingResponse> getSingleFlight() {
+        return singleFlight;
+    }
+}
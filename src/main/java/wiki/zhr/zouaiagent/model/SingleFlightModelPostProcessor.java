@@ -0,0 +1,67 @@
+package wiki.zhr.zouaiagent.model;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 为容器中的 ChatModel 和 EmbeddingModel 包装请求合并层
+ *
+ * 流量高峰时并发的相同查询重写、查询向量化和关键词提取只请求一次上游，减少重复开销和限流。
+ */
+@Component
+@Slf4j
+public class SingleFlightModelPostProcessor implements BeanPostProcessor {
+
+    private final boolean enabled;
+
+    private final Map<String, SingleFlight<?, ?>> singleFlights = new ConcurrentHashMap<>();
+
+    // BeanPostProcessor 创建得很早，通过 Environment 读取配置，避免影响其他 Bean 的后置处理
+    public SingleFlightModelPostProcessor(Environment environment) {
+        this.enabled = environment.getProperty("model.single-flight.enabled", Boolean.class, true);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!enabled) {
+            return bean;
+        }
+        if (bean instanceof ChatModel chatModel && !(bean instanceof SingleFlightChatModel)) {
+            SingleFlightChatModel singleFlightChatModel = new SingleFlightChatModel(chatModel);
+            singleFlights.put(beanName, singleFlightChatModel.getSingleFlight());
+            log.info("为 {} 开启请求合并", beanName);
+            return singleFlightChatModel;
+        }
+        if (bean instanceof EmbeddingModel embeddingModel && !(bean instanceof SingleFlightEmbeddingModel)) {
+            SingleFlightEmbeddingModel singleFlightEmbeddingModel = new SingleFlightEmbeddingModel(embeddingModel);
+            singleFlights.put(beanName, singleFlightEmbeddingModel.getSingleFlight());
+            log.info("为 {} 开启请求合并", beanName);
+            return singleFlightEmbeddingModel;
+        }
+        return bean;
+    }
+
+    /**
+     * 各模型的请求合并指标
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        singleFlights.forEach((beanName, singleFlight) -> {
+            Map<String, Object> modelMetrics = new LinkedHashMap<>();
+            modelMetrics.put("executed", singleFlight.getExecutedCount());
+            modelMetrics.put("coalesced", singleFlight.getCoalescedCount());
+            modelMetrics.put("handedOver", singleFlight.getHandedOverCount());
+            modelMetrics.put("inFlight", singleFlight.getInFlightCount());
+            metrics.put(beanName, modelMetrics);
+        });
+        return metrics;
+    }
+}
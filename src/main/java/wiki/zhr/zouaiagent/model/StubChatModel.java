@@ -0,0 +1,59 @@
+package wiki.zhr.zouaiagent.model;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 本地桩模型，不访问任何外部服务，用于测试
+ *
+ * 默认原样返回最后一条用户消息，也可以传入自定义的回复逻辑。
+ */
+public class StubChatModel implements ChatModel {
+
+    private final Function<Prompt, String> responder;
+
+    private final AtomicLong callCount = new AtomicLong();
+
+    public StubChatModel() {
+        this(StubChatModel::lastUserText);
+    }
+
+    public StubChatModel(Function<Prompt, String> responder) {
+        this.responder = responder;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        callCount.incrementAndGet();
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(responder.apply(prompt)))));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.just(call(prompt));
+    }
+
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    private static String lastUserText(Prompt prompt) {
+        List<Message> instructions = prompt.getInstructions();
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            if (instructions.get(i).getMessageType() == MessageType.USER) {
+                return instructions.get(i).getText();
+            }
+        }
+        return "";
+    }
+}
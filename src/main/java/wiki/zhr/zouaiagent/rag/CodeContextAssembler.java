@@ -0,0 +1,215 @@
+package wiki.zhr.zouaiagent.rag;
+
+import cn.hutool.core.util.StrUtil;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wiki.zhr.zouaiagent.service.DynamicPgVectorStoreService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * 代码上下文组装
+ *
+ * 向量检索经常返回同一文件的多个片段，直接拼接既浪费 token 又打断代码结构。
+ * 这里按 file_path 分组，补齐命中片段之间缺失的少量片段（一次批量查询），
+ * 把相邻的片段合并成一段连续的代码，并标注文件路径和行号范围；内容完全相同的片段只保留一个。
+ * 没有片段序号的文档（旧数据或非代码知识库）原样保留。
+ */
+@Component
+@Slf4j
+public class CodeContextAssembler {
+
+    // 相邻片段重复部分的查找范围
+    private static final int MAX_OVERLAP = 400;
+
+    private static final int MIN_OVERLAP = 20;
+
+    @Resource
+    private DynamicPgVectorStoreService dynamicPgVectorStoreService;
+
+    /**
+     * 是否开启上下文组装
+     */
+    private final boolean enabled;
+
+    // 两个命中片段之间最多补齐的片段数量
+    private final int maxGap;
+
+    public CodeContextAssembler(@Value("${rag.context-assembly.enabled:true}") boolean enabled,
+                                @Value("${rag.context-assembly.max-gap:1}") int maxGap) {
+        this.enabled = enabled;
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * 组装指定仓库的检索结果
+     *
+     * @param repositoryName 仓库名称，用于读取缺失的相邻片段
+     * @param hits           检索到的片段，按相关性从高到低排列
+     * @return 合并后的文件片段，按其中最相关片段的顺序排列
+     */
+    public List<Document> assemble(String repositoryName, List<Document> hits) {
+        if (!enabled) {
+            return hits;
+        }
+        return assemble(hits, missing -> dynamicPgVectorStoreService.fetchChunks(repositoryName, missing));
+    }
+
+    /**
+     * 组装检索结果
+     *
+     * @param hits             检索到的片段，按相关性从高到低排列
+     * @param neighbourFetcher 按文件路径和片段序号批量读取片段
+     */
+    List<Document> assemble(List<Document> hits, Function<Map<String, Set<Integer>>, List<Document>> neighbourFetcher) {
+        // 按文件分组，记录每个文件最相关片段的排名；没有片段序号的文档单独成组
+        Map<String, TreeMap<Integer, Document>> chunksByFile = new LinkedHashMap<>();
+        Map<Object, Integer> rankByGroup = new HashMap<>();
+        Set<String> seenTexts = new HashSet<>();
+        for (int rank = 0; rank < hits.size(); rank++) {
+            Document hit = hits.get(rank);
+            // 内容完全相同的片段只保留排名最靠前的一个
+            if (!seenTexts.add(StrUtil.nullToEmpty(hit.getText()))) {
+                continue;
+            }
+            String filePath = metadataString(hit, LocalReranker.FILE_PATH_METADATA_KEY);
+            Integer chunkIndex = metadataInt(hit, MyTokenTextSplitter.CHUNK_INDEX_METADATA_KEY);
+            if (filePath == null || chunkIndex == null) {
+                rankByGroup.put(hit, rank);
+                continue;
+            }
+            chunksByFile.computeIfAbsent(filePath, key -> new TreeMap<>()).putIfAbsent(chunkIndex, hit);
+            rankByGroup.putIfAbsent(filePath, rank);
+        }
+
+        // 找出命中片段之间的小间隔，一次查询补齐
+        Map<String, Set<Integer>> missing = new HashMap<>();
+        chunksByFile.forEach((filePath, chunks) -> {
+            Integer previous = null;
+            for (Integer index : chunks.keySet()) {
+                if (previous != null && index - previous > 1 && index - previous - 1 <= maxGap) {
+                    for (int gap = previous + 1; gap < index; gap++) {
+                        missing.computeIfAbsent(filePath, key -> new HashSet<>()).add(gap);
+                    }
+                }
+                previous = index;
+            }
+        });
+        if (!missing.isEmpty()) {
+            for (Document neighbour : neighbourFetcher.apply(missing)) {
+                String filePath = metadataString(neighbour, LocalReranker.FILE_PATH_METADATA_KEY);
+                Integer chunkIndex = metadataInt(neighbour, MyTokenTextSplitter.CHUNK_INDEX_METADATA_KEY);
+                if (filePath != null && chunkIndex != null && chunksByFile.containsKey(filePath)) {
+                    chunksByFile.get(filePath).putIfAbsent(chunkIndex, neighbour);
+                }
+            }
+        }
+
+        // 合并每个文件中连续的片段
+        List<Object> groups = new ArrayList<>(rankByGroup.keySet());
+        groups.sort((a, b) -> Integer.compare(rankByGroup.get(a), rankByGroup.get(b)));
+        List<Document> result = new ArrayList<>();
+        for (Object group : groups) {
+            if (group instanceof String filePath) {
+                result.addAll(mergeRuns(filePath, chunksByFile.get(filePath)));
+            } else {
+                result.add((Document) group);
+            }
+        }
+        log.debug("上下文组装: 命中 {} 个片段，补齐 {} 个文件的相邻片段，输出 {} 段", hits.size(), missing.size(), result.size());
+        return result;
+    }
+
+    private List<Document> mergeRuns(String filePath, TreeMap<Integer, Document> chunks) {
+        List<Document> excerpts = new ArrayList<>();
+        List<Document> run = new ArrayList<>();
+        Integer previous = null;
+        for (Map.Entry<Integer, Document> entry : chunks.entrySet()) {
+            if (previous != null && entry.getKey() != previous + 1) {
+                excerpts.add(toExcerpt(filePath, run));
+                run = new ArrayList<>();
+            }
+            run.add(entry.getValue());
+            previous = entry.getKey();
+        }
+        if (!run.isEmpty()) {
+            excerpts.add(toExcerpt(filePath, run));
+        }
+        return excerpts;
+    }
+
+    private Document toExcerpt(String filePath, List<Document> run) {
+        StringBuilder text = new StringBuilder();
+        for (Document chunk : run) {
+            appendWithoutOverlap(text, StrUtil.nullToEmpty(chunk.getText()));
+        }
+        Document first = run.get(0);
+        Integer startLine = metadataInt(first, MyTokenTextSplitter.START_LINE_METADATA_KEY);
+        Integer endLine = metadataInt(run.get(run.size() - 1), MyTokenTextSplitter.END_LINE_METADATA_KEY);
+        String header = startLine != null && endLine != null
+                ? "// " + filePath + " (第 " + startLine + "-" + endLine + " 行)\n"
+                : "// " + filePath + "\n";
+
+        Map<String, Object> metadata = new HashMap<>(first.getMetadata());
+        if (endLine != null) {
+            metadata.put(MyTokenTextSplitter.END_LINE_METADATA_KEY, endLine);
+        }
+        Double score = run.stream()
+                .map(Document::getScore)
+                .filter(s -> s != null)
+                .max(Double::compare)
+                .orElse(null);
+        return Document.builder()
+                .id(first.getId())
+                .text(header + text)
+                .metadata(metadata)
+                .score(score)
+                .build();
+    }
+
+    /**
+     * 追加片段，去掉与已有内容末尾重复的部分
+     * 重复部分太短时视为巧合（如单独的右括号），不做去重
+     */
+    static void appendWithoutOverlap(StringBuilder text, String next) {
+        if (text.length() == 0) {
+            text.append(next);
+            return;
+        }
+        String tail = text.substring(Math.max(0, text.length() - MAX_OVERLAP));
+        for (int overlap = Math.min(tail.length(), next.length()); overlap >= MIN_OVERLAP; overlap--) {
+            if (tail.regionMatches(tail.length() - overlap, next, 0, overlap)) {
+                text.append(next, overlap, next.length());
+                return;
+            }
+        }
+        text.append('\n').append(next);
+    }
+
+    private static String metadataString(Document document, String key) {
+        Object value = document.getMetadata().get(key);
+        return value != null ? value.toString() : null;
+    }
+
+    private static Integer metadataInt(Document document, String key) {
+        Object value = document.getMetadata().get(key);
+        if (value instanceof Number number) {
+            return number.intValue();
+        }
+        if (value instanceof String string && StrUtil.isNumeric(string)) {
+            return Integer.parseInt(string);
+        }
+        return null;
+    }
+}
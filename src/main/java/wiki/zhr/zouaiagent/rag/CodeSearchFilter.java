@@ -0,0 +1,133 @@
+package wiki.zhr.zouaiagent.rag;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 代码知识库检索的元信息过滤条件
+ *
+ * 过滤条件只接受固定的几个键，由服务端使用 FilterExpressionBuilder 构造，不接受客户端传入的表达式文本：
+ * PgVectorStore 会把过滤条件转换成 jsonpath 直接拼接进 SQL 的字符串字面量中，不做转义。
+ * 值中包含引号、反斜杠或控制字符时直接拒绝。
+ *
+ * directory 按目录前缀（子树）过滤：片段的 directories 元信息保存文件所在目录及其所有上级目录，
+ * jsonpath 对数组做等值比较时只要任一元素相等即匹配，同样可以使用元信息的 GIN 索引。
+ */
+public final class CodeSearchFilter {
+
+    public static final String FILE_TYPE = "file_type";
+    public static final String FILE_PATH = "file_path";
+    public static final String DIRECTORY = "directory";
+    public static final String BRANCH = "branch";
+
+    // directory 条件实际比较的元信息键
+    public static final String DIRECTORIES = "directories";
+
+    private static final int MAX_VALUE_LENGTH = 512;
+
+    private CodeSearchFilter() {
+    }
+
+    /**
+     * 按类型化的参数构造过滤条件，参数为空的不参与过滤
+     *
+     * @return 过滤条件，全部为空时返回 null
+     * @throws IllegalArgumentException 值不合法
+     */
+    public static Filter.Expression of(String fileType, String filePath, String directory, String branch) {
+        Map<String, String> conditions = new LinkedHashMap<>();
+        conditions.put(FILE_TYPE, fileType);
+        conditions.put(FILE_PATH, filePath);
+        conditions.put(DIRECTORY, directory);
+        conditions.put(BRANCH, branch);
+        return of(conditions);
+    }
+
+    /**
+     * 按键值对构造过滤条件，多个条件之间为且的关系
+     *
+     * @param conditions 过滤键到值的映射，键只能是 file_type、file_path、directory、branch
+     * @return 过滤条件，没有有效条件时返回 null
+     * @throws IllegalArgumentException 键不在白名单中或值不合法
+     */
+    public static Filter.Expression of(Map<String, String> conditions) {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        List<FilterExpressionBuilder.Op> ops = new ArrayList<>();
+        conditions.forEach((key, value) -> {
+            if (StrUtil.isBlank(value)) {
+                return;
+            }
+            String checked = validate(key, value.trim());
+            switch (key) {
+                case FILE_TYPE -> ops.add(b.eq(FILE_TYPE, checked.startsWith(".") ? checked : "." + checked));
+                case FILE_PATH -> ops.add(b.eq(FILE_PATH, stripSlashes(checked)));
+                case DIRECTORY -> {
+                    // 根目录即整个仓库，不需要过滤
+                    String directory = stripSlashes(checked);
+                    if (!directory.isEmpty()) {
+                        ops.add(b.eq(DIRECTORIES, directory));
+                    }
+                }
+                default -> ops.add(b.eq(BRANCH, checked));
+            }
+        });
+        if (ops.isEmpty()) {
+            return null;
+        }
+        FilterExpressionBuilder.Op result = ops.get(0);
+        for (int i = 1; i < ops.size(); i++) {
+            result = b.and(result, ops.get(i));
+        }
+        return result.build();
+    }
+
+    /**
+     * 文件所在目录及其所有上级目录，用于按目录子树过滤，根目录下的文件返回空列表
+     *
+     * @param filePath 仓库内的文件路径，如 src/main/App.java
+     * @return 如 [src, src/main]
+     */
+    public static List<String> directoriesOf(String filePath) {
+        List<String> directories = new ArrayList<>();
+        int slash = filePath.indexOf('/');
+        while (slash > 0) {
+            directories.add(filePath.substring(0, slash));
+            slash = filePath.indexOf('/', slash + 1);
+        }
+        return directories;
+    }
+
+    private static String validate(String key, String value) {
+        if (!FILE_TYPE.equals(key) && !FILE_PATH.equals(key) && !DIRECTORY.equals(key) && !BRANCH.equals(key)) {
+            throw new IllegalArgumentException("不支持的过滤条件: " + key);
+        }
+        if (value.length() > MAX_VALUE_LENGTH) {
+            throw new IllegalArgumentException("过滤条件 " + key + " 过长");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\'' || c == '"' || c == '\\' || Character.isISOControl(c)) {
+                throw new IllegalArgumentException("过滤条件 " + key + " 包含非法字符");
+            }
+        }
+        return value;
+    }
+
+    private static String stripSlashes(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+}
@@ -0,0 +1,166 @@
+package wiki.zhr.zouaiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 整个仓库的文档频率统计，供增量刷新时本地关键词提取使用
+ *
+ * 增量刷新只处理变化的文件，如果只用这批片段统计文档频率，几乎每个词都只出现在一两个片段中，IDF 没有区分度。
+ * 这里按文件记录每个词出现在该文件的几个片段中，文件变化或删除时只替换或减去这个文件的贡献，
+ * 汇总后就是整个仓库的文档频率（以片段为文档）。统计和本地缓存清单放在同一目录，刷新成功后一起保存。
+ */
+@Slf4j
+public class DocumentFrequencies {
+
+    private static final int MAGIC = 0x5A444631;
+
+    // 文件路径 -> 该文件的统计
+    private final Map<String, FileStats> files = new HashMap<>();
+
+    // 所有文件汇总的文档频率
+    private final Map<String, Integer> documentFrequencies = new HashMap<>();
+
+    private int totalDocuments;
+
+    /**
+     * 一个文件的统计
+     *
+     * @param chunks 片段数
+     * @param terms  词 -> 包含该词的片段数
+     */
+    private record FileStats(int chunks, Map<String, Integer> terms) {
+    }
+
+    /**
+     * 读取保存的统计
+     *
+     * @return 文件不存在或损坏时为空
+     */
+    public static DocumentFrequencies load(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        DocumentFrequencies frequencies = new DocumentFrequencies();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("统计格式不正确");
+            }
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i++) {
+                String path = in.readUTF();
+                int chunks = in.readInt();
+                int termCount = in.readInt();
+                Map<String, Integer> terms = new HashMap<>(termCount * 2);
+                for (int j = 0; j < termCount; j++) {
+                    terms.put(in.readUTF(), in.readInt());
+                }
+                frequencies.add(path, new FileStats(chunks, terms));
+            }
+            return frequencies;
+        } catch (IOException e) {
+            log.warn("文档频率统计损坏，忽略: {}, 错误: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 保存统计，先写临时文件再原子替换
+     */
+    public void save(Path file) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(files.size());
+            for (Map.Entry<String, FileStats> entry : files.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().chunks());
+                out.writeInt(entry.getValue().terms().size());
+                for (Map.Entry<String, Integer> term : entry.getValue().terms().entrySet()) {
+                    out.writeUTF(term.getKey());
+                    out.writeInt(term.getValue());
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 用一批片段替换它们所在文件的统计，片段按 file_path 元信息分组，同一个文件的片段需要一次全部传入
+     *
+     * @return 每个片段的加权词频，顺序与传入的片段一致
+     */
+    public List<Map<String, Integer>> addAll(List<Document> documents) {
+        List<Map<String, Integer>> termFrequencies = new ArrayList<>(documents.size());
+        Map<String, List<Map<String, Integer>>> byFile = new LinkedHashMap<>();
+        for (Document document : documents) {
+            Map<String, Integer> tf = LocalKeywordEnricher.extractTerms(document.getText());
+            termFrequencies.add(tf);
+            Object path = document.getMetadata().get(CodeSearchFilter.FILE_PATH);
+            byFile.computeIfAbsent(path == null ? "" : path.toString(), key -> new ArrayList<>()).add(tf);
+        }
+        byFile.forEach((path, chunks) -> {
+            Map<String, Integer> terms = new HashMap<>();
+            for (Map<String, Integer> tf : chunks) {
+                for (String term : tf.keySet()) {
+                    terms.merge(term, 1, Integer::sum);
+                }
+            }
+            remove(path);
+            add(path, new FileStats(chunks.size(), terms));
+        });
+        return termFrequencies;
+    }
+
+    /**
+     * 减去文件的统计，文件删除或不再产生片段时调用
+     */
+    public void removeAll(Collection<String> paths) {
+        paths.forEach(this::remove);
+    }
+
+    private void remove(String path) {
+        FileStats stats = files.remove(path);
+        if (stats == null) {
+            return;
+        }
+        totalDocuments -= stats.chunks();
+        stats.terms().forEach((term, count) ->
+                documentFrequencies.computeIfPresent(term, (key, total) -> total > count ? total - count : null));
+    }
+
+    private void add(String path, FileStats stats) {
+        files.put(path, stats);
+        totalDocuments += stats.chunks();
+        stats.terms().forEach((term, count) -> documentFrequencies.merge(term, count, Integer::sum));
+    }
+
+    /**
+     * @return 包含该词的片段数
+     */
+    public int documentFrequency(String term) {
+        return documentFrequencies.getOrDefault(term, 0);
+    }
+
+    /**
+     * @return 片段总数
+     */
+    public int totalDocuments() {
+        return totalDocuments;
+    }
+}
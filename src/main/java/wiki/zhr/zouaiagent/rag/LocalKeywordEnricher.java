@@ -0,0 +1,203 @@
+package wiki.zhr.zouaiagent.rag;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 本地关键词提取，不调用大模型
+ *
+ * 从每个片段中提取标识符、类名、方法名和 import，按驼峰/下划线拆分出词，
+ * 再以整批文档（同一个仓库）为语料计算 TF-IDF，取得分最高的若干个词写入 excerpt_keywords 元信息，
+ * 与 {@link org.springframework.ai.transformer.KeywordMetadataEnricher} 的输出格式一致。
+ * 文档只遍历一次：遍历时同时统计每个片段的词频和整个语料的文档频率，之后只在内存中打分。
+ * 增量刷新只传入变化文件的片段时，改用保存的整个仓库的 {@link DocumentFrequencies} 计算 IDF。
+ */
+public class LocalKeywordEnricher {
+
+    public static final String EXCERPT_KEYWORDS_METADATA_KEY = "excerpt_keywords";
+
+    // 类型声明的名称
+    private static final Pattern TYPE_DECLARATION = Pattern.compile(
+            "\\b(?:class|interface|enum|record|struct|trait|object)\\s+([A-Za-z_$][\\w$]*)");
+
+    // 方法声明的名称：返回类型或修饰符之后紧跟名称和左括号
+    private static final Pattern METHOD_DECLARATION = Pattern.compile(
+            "\\b(?!return\\b|new\\b|throw\\b|else\\b|await\\b)(?:def|func|fun|function|[A-Za-z_$][\\w$<>\\[\\],]*)\\s+([a-z_$][\\w$]*)\\s*\\(");
+
+    // import / from ... import / require 引入的模块，取最后一段
+    private static final Pattern IMPORT = Pattern.compile(
+            "^\\s*(?:import\\s+(?:static\\s+)?|from\\s+|#include\\s*[<\"])([\\w$./]+)", Pattern.MULTILINE);
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][\\w$]*");
+
+    // 连续的中文字符，按二元组切分
+    private static final Pattern CJK = Pattern.compile("[\\u4e00-\\u9fa5]{2,}");
+
+    // 驼峰和下划线拆分
+    private static final Pattern CAMEL_SPLIT = Pattern.compile("(?<=[a-z0-9])(?=[A-Z])|(?<=[A-Z])(?=[A-Z][a-z])|[_$]+");
+
+    private static final int DECLARATION_WEIGHT = 3;
+
+    private static final int IMPORT_WEIGHT = 2;
+
+    private static final int MIN_TERM_LENGTH = 3;
+
+    // 语言关键字和常见的无意义词
+    private static final Set<String> STOP_WORDS = Set.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp",
+            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void",
+            "volatile", "while", "var", "record", "yield", "true", "false", "null", "def", "func", "fun",
+            "function", "let", "from", "self", "none", "and", "not", "the", "with", "get", "set", "string",
+            "object", "list", "map", "value", "values", "param", "override", "java", "util", "lang",
+            "org", "com", "www", "http", "https", "todo", "author", "since", "see", "code", "link", "args");
+
+    private final int keywordCount;
+
+    public LocalKeywordEnricher(int keywordCount) {
+        this.keywordCount = keywordCount;
+    }
+
+    /**
+     * 为整批文档补充关键词元信息
+     *
+     * @param documents 同一语料（通常是同一个仓库）的全部片段，文档频率基于这批文档统计
+     * @return 原文档列表，元信息中增加 excerpt_keywords
+     */
+    public List<Document> enrichDocuments(List<Document> documents) {
+        // 单次遍历：统计每个片段的加权词频，同时累加文档频率
+        List<Map<String, Integer>> termFrequencies = new ArrayList<>(documents.size());
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        for (Document document : documents) {
+            Map<String, Integer> tf = extractTerms(document.getText());
+            termFrequencies.add(tf);
+            for (String term : tf.keySet()) {
+                documentFrequencies.merge(term, 1, Integer::sum);
+            }
+        }
+
+        return enrich(documents, termFrequencies, term -> documentFrequencies.getOrDefault(term, 0), documents.size());
+    }
+
+    /**
+     * 为仓库的部分片段补充关键词，文档频率使用整个仓库的统计
+     *
+     * @param documents 变化文件的全部片段
+     * @param corpus    整个仓库的文档频率统计，先用这批片段替换所在文件的旧统计，再以更新后的统计打分
+     * @return 原文档列表，元信息中增加 excerpt_keywords
+     */
+    public List<Document> enrichDocuments(List<Document> documents, DocumentFrequencies corpus) {
+        List<Map<String, Integer>> termFrequencies = corpus.addAll(documents);
+        return enrich(documents, termFrequencies, corpus::documentFrequency, corpus.totalDocuments());
+    }
+
+    private List<Document> enrich(List<Document> documents, List<Map<String, Integer>> termFrequencies,
+                                  ToIntFunction<String> df, int totalDocuments) {
+        for (int i = 0; i < documents.size(); i++) {
+            List<String> keywords = topKeywords(termFrequencies.get(i), df, totalDocuments);
+            if (!keywords.isEmpty()) {
+                documents.get(i).getMetadata().put(EXCERPT_KEYWORDS_METADATA_KEY, String.join(", ", keywords));
+            }
+        }
+        return documents;
+    }
+
+    private List<String> topKeywords(Map<String, Integer> tf, ToIntFunction<String> df, int totalDocuments) {
+        if (tf.isEmpty()) {
+            return List.of();
+        }
+        Map<String, Double> scores = new HashMap<>(tf.size());
+        tf.forEach((term, count) -> {
+            // 平滑的 IDF，单文档语料也能得到正分
+            double idf = Math.log((1.0 + totalDocuments) / (1.0 + df.applyAsInt(term))) + 1.0;
+            scores.put(term, (1.0 + Math.log(count)) * idf);
+        });
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(keywordCount)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 提取一个片段中的词及其加权词频
+     */
+    static Map<String, Integer> extractTerms(String text) {
+        Map<String, Integer> terms = new HashMap<>();
+        if (StrUtil.isBlank(text)) {
+            return terms;
+        }
+
+        // 声明和 import 更能代表片段内容，额外加权
+        addMatches(terms, TYPE_DECLARATION.matcher(text), DECLARATION_WEIGHT);
+        addMatches(terms, METHOD_DECLARATION.matcher(text), DECLARATION_WEIGHT);
+        Matcher importMatcher = IMPORT.matcher(text);
+        while (importMatcher.find()) {
+            String module = importMatcher.group(1);
+            int lastSeparator = Math.max(module.lastIndexOf('.'), module.lastIndexOf('/'));
+            String name = lastSeparator >= 0 ? module.substring(lastSeparator + 1) : module;
+            if (!"*".equals(name)) {
+                addTerm(terms, name, IMPORT_WEIGHT);
+            }
+        }
+
+        // 普通标识符：保留完整标识符，同时加入拆分后的词
+        Matcher identifierMatcher = IDENTIFIER.matcher(text);
+        while (identifierMatcher.find()) {
+            String identifier = identifierMatcher.group();
+            addTerm(terms, identifier, 1);
+            String[] parts = CAMEL_SPLIT.split(identifier);
+            if (parts.length > 1) {
+                for (String part : parts) {
+                    addTerm(terms, part, 1);
+                }
+            }
+        }
+
+        // 中文内容（如飞书文档）使用二元组
+        Matcher cjkMatcher = CJK.matcher(text);
+        while (cjkMatcher.find()) {
+            String run = cjkMatcher.group();
+            for (int i = 0; i + 2 <= run.length(); i++) {
+                terms.merge(run.substring(i, i + 2), 1, Integer::sum);
+            }
+        }
+        return terms;
+    }
+
+    private static void addMatches(Map<String, Integer> terms, Matcher matcher, int weight) {
+        while (matcher.find()) {
+            addTerm(terms, matcher.group(1), weight);
+        }
+    }
+
+    private static void addTerm(Map<String, Integer> terms, String term, int weight) {
+        if (term == null || term.length() < MIN_TERM_LENGTH || Character.isDigit(term.charAt(0))) {
+            return;
+        }
+        // 完整标识符保留原始大小写，方便直接匹配代码中的名称；单个词统一小写
+        String normalized = isCompound(term) ? term : term.toLowerCase(Locale.ROOT);
+        if (STOP_WORDS.contains(normalized.toLowerCase(Locale.ROOT))) {
+            return;
+        }
+        terms.merge(normalized, weight, Integer::sum);
+    }
+
+    private static boolean isCompound(String term) {
+        return CAMEL_SPLIT.split(term).length > 1;
+    }
+}
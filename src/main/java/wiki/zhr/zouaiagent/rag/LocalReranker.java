@@ -0,0 +1,275 @@
+package wiki.zhr.zouaiagent.rag;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 本地重排序
+ *
+ * 在向量检索和提示词组装之间对候选片段重新打分，不依赖交叉编码器，只在本地 CPU 上计算：
+ * 向量相似度、与查询中标识符的词法重合度、文件路径先验（业务代码优先，生成代码和依赖目录降权）、
+ * 以及同一文件相邻片段的加权。按得分从高到低选取片段，直到达到 token 预算，
+ * 得分明显低于最高分的片段直接丢弃，用尽量少的片段覆盖查询。
+ */
+@Component
+@Slf4j
+public class LocalReranker {
+
+    // 文件路径元信息，与 GitHubCodeKnowledgeService 写入的键一致
+    public static final String FILE_PATH_METADATA_KEY = "file_path";
+
+    private static final String DISTANCE_METADATA_KEY = "distance";
+
+    private static final double VECTOR_WEIGHT = 0.5;
+    private static final double LEXICAL_WEIGHT = 0.3;
+    private static final double PATH_WEIGHT = 0.1;
+    private static final double NEIGHBOUR_WEIGHT = 0.1;
+
+    // 依赖、构建产物和生成代码，几乎不会是问题的答案
+    private static final List<String> LOW_VALUE_PATHS = List.of(
+            "node_modules/", "vendor/", "dist/", "build/", "target/", "generated/", ".min.js", "-lock.", ".lock");
+
+    /**
+     * 是否开启重排序
+     */
+    @Getter
+    private final boolean enabled;
+
+    /**
+     * 向量检索的候选数量，重排序后只保留其中的一部分
+     */
+    @Getter
+    private final int candidateTopK;
+
+    /**
+     * 放入提示词的片段 token 预算
+     */
+    @Getter
+    private final int tokenBudget;
+
+    // 得分低于最高分的该比例时丢弃
+    private final double minScoreRatio;
+
+    public LocalReranker(@Value("${rag.rerank.enabled:true}") boolean enabled,
+                         @Value("${rag.rerank.candidate-top-k:20}") int candidateTopK,
+                         @Value("${rag.rerank.token-budget:3000}") int tokenBudget,
+                         @Value("${rag.rerank.min-score-ratio:0.5}") double minScoreRatio) {
+        this.enabled = enabled;
+        this.candidateTopK = candidateTopK;
+        this.tokenBudget = tokenBudget;
+        this.minScoreRatio = minScoreRatio;
+    }
+
+    /**
+     * 对候选片段重排序并按 token 预算截取
+     *
+     * @param query      查询内容
+     * @param candidates 向量检索返回的候选片段，按相似度从高到低排列
+     * @return 选中的片段，按得分从高到低排列
+     */
+    public List<Document> rerank(String query, List<Document> candidates) {
+        if (CollUtil.isEmpty(candidates)) {
+            return List.of();
+        }
+        Set<String> queryTerms = terms(query);
+        double[] vectorScores = normalizedVectorScores(candidates);
+        Map<String, List<Integer>> chunksByFile = chunksByFile(candidates);
+
+        List<ScoredDocument> scored = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            Document document = candidates.get(i);
+            String filePath = filePathOf(document);
+            double score = VECTOR_WEIGHT * vectorScores[i]
+                    + LEXICAL_WEIGHT * lexicalOverlap(queryTerms, document, filePath)
+                    + PATH_WEIGHT * pathPrior(queryTerms, filePath)
+                    + NEIGHBOUR_WEIGHT * neighbourBoost(document, filePath, chunksByFile);
+            scored.add(new ScoredDocument(document, score, estimateTokens(document.getText())));
+        }
+        scored.sort(Comparator.comparingDouble(ScoredDocument::score).reversed());
+
+        // 按得分贪心选取，直到用完 token 预算
+        double minScore = scored.get(0).score() * minScoreRatio;
+        List<Document> selected = new ArrayList<>();
+        int usedTokens = 0;
+        for (ScoredDocument candidate : scored) {
+            if (candidate.score() < minScore) {
+                break;
+            }
+            if (!selected.isEmpty() && usedTokens + candidate.tokens() > tokenBudget) {
+                continue;
+            }
+            // 最相关的片段即使超出预算也保留，避免上下文为空
+            selected.add(candidate.document());
+            usedTokens += candidate.tokens();
+        }
+        log.debug("重排序: 候选 {} 个，选中 {} 个，约 {} tokens", candidates.size(), selected.size(), usedTokens);
+        return selected;
+    }
+
+    /**
+     * 估算文本的 token 数：中文约每字一个 token，其他字符约每 4 个一个 token
+     */
+    public static int estimateTokens(String text) {
+        if (StrUtil.isEmpty(text)) {
+            return 0;
+        }
+        int cjk = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '一' && c <= '龥') {
+                cjk++;
+            }
+        }
+        return cjk + (text.length() - cjk + 3) / 4;
+    }
+
+    /**
+     * 向量得分按最高分归一化，没有得分时按检索顺序折算
+     * 不做最小-最大缩放，避免把候选之间很小的相似度差异放大
+     */
+    private double[] normalizedVectorScores(List<Document> candidates) {
+        int size = candidates.size();
+        double[] scores = new double[size];
+        double max = 0;
+        for (int i = 0; i < size; i++) {
+            scores[i] = Math.max(0, vectorScoreOf(candidates.get(i), i, size));
+            max = Math.max(max, scores[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            scores[i] = max > 0 ? scores[i] / max : 1.0;
+        }
+        return scores;
+    }
+
+    private double vectorScoreOf(Document document, int rank, int size) {
+        if (document.getScore() != null) {
+            return document.getScore();
+        }
+        Object distance = document.getMetadata().get(DISTANCE_METADATA_KEY);
+        if (distance instanceof Number number) {
+            return 1.0 - number.doubleValue();
+        }
+        return 1.0 - (double) rank / size;
+    }
+
+    /**
+     * 查询中的词在片段（正文、关键词、文件名）中出现的比例
+     */
+    private double lexicalOverlap(Set<String> queryTerms, Document document, String filePath) {
+        if (queryTerms.isEmpty()) {
+            return 0;
+        }
+        StringBuilder text = new StringBuilder(StrUtil.nullToEmpty(document.getText()));
+        Object keywords = document.getMetadata().get(LocalKeywordEnricher.EXCERPT_KEYWORDS_METADATA_KEY);
+        if (keywords != null) {
+            text.append('\n').append(keywords);
+        }
+        if (filePath != null) {
+            text.append('\n').append(filePath);
+        }
+        Set<String> documentTerms = terms(text.toString());
+        int matched = 0;
+        for (String term : queryTerms) {
+            if (documentTerms.contains(term)) {
+                matched++;
+            }
+        }
+        return (double) matched / queryTerms.size();
+    }
+
+    /**
+     * 文件路径先验：业务代码优先，测试代码仅在查询涉及测试时不降权
+     */
+    private double pathPrior(Set<String> queryTerms, String filePath) {
+        if (filePath == null) {
+            // 非代码仓库的文档（如飞书、Markdown 知识库）不区分路径
+            return 0.5;
+        }
+        String path = filePath.toLowerCase(Locale.ROOT);
+        for (String lowValue : LOW_VALUE_PATHS) {
+            if (path.contains(lowValue)) {
+                return 0;
+            }
+        }
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        String stem = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+        if (queryTerms.contains(stem)) {
+            // 查询直接提到了文件名
+            return 1.0;
+        }
+        boolean testPath = path.contains("/test/") || path.contains("/tests/") || stem.endsWith("test") || stem.endsWith("_spec");
+        if (testPath) {
+            return queryTerms.contains("test") || queryTerms.contains("测试") ? 0.8 : 0.3;
+        }
+        if (path.endsWith(".md") || path.endsWith(".txt")) {
+            return 0.6;
+        }
+        return 0.8;
+    }
+
+    /**
+     * 同一文件的其他片段也被检索到时加权，相邻片段加权更多
+     */
+    private double neighbourBoost(Document document, String filePath, Map<String, List<Integer>> chunksByFile) {
+        if (filePath == null) {
+            return 0;
+        }
+        List<Integer> chunkIndexes = chunksByFile.get(filePath);
+        if (chunkIndexes == null || chunkIndexes.size() < 2) {
+            return 0;
+        }
+        Integer chunkIndex = chunkIndexOf(document);
+        if (chunkIndex != null && (chunkIndexes.contains(chunkIndex - 1) || chunkIndexes.contains(chunkIndex + 1))) {
+            return 1.0;
+        }
+        return 0.5;
+    }
+
+    private Map<String, List<Integer>> chunksByFile(List<Document> candidates) {
+        Map<String, List<Integer>> chunksByFile = new HashMap<>();
+        for (Document document : candidates) {
+            String filePath = filePathOf(document);
+            if (filePath != null) {
+                Integer chunkIndex = chunkIndexOf(document);
+                chunksByFile.computeIfAbsent(filePath, key -> new ArrayList<>())
+                        .add(chunkIndex != null ? chunkIndex : Integer.MIN_VALUE);
+            }
+        }
+        return chunksByFile;
+    }
+
+    private Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        for (String term : LocalKeywordEnricher.extractTerms(text).keySet()) {
+            terms.add(term.toLowerCase(Locale.ROOT));
+        }
+        return terms;
+    }
+
+    private static String filePathOf(Document document) {
+        Object filePath = document.getMetadata().get(FILE_PATH_METADATA_KEY);
+        return filePath != null ? filePath.toString() : null;
+    }
+
+    private static Integer chunkIndexOf(Document document) {
+        Object chunkIndex = document.getMetadata().get(MyTokenTextSplitter.CHUNK_INDEX_METADATA_KEY);
+        return chunkIndex instanceof Number number ? number.intValue() : null;
+    }
+
+    private record ScoredDocument(Document document, double score, int tokens) {
+    }
+}
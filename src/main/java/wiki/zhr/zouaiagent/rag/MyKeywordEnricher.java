@@ -1,20 +1,47 @@
 package wiki.zhr.zouaiagent.rag;
 
 import jakarta.annotation.Resource;
-import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.transformer.KeywordMetadataEnricher;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import wiki.zhr.zouaiagent.model.ModelRouter;
+import wiki.zhr.zouaiagent.model.ModelTask;
 
 import java.util.List;
 
 @Component
 public class MyKeywordEnricher {
     @Resource
-    private ChatModel dashscopeChatModel;
+    private ModelRouter modelRouter;
+
+    // 关键词提取方式：llm 每个片段调用一次模型，local 在本地按 TF-IDF 提取
+    @Value("${rag.keyword-enricher.mode:llm}")
+    private String mode;
+
+    private final LocalKeywordEnricher localKeywordEnricher = new LocalKeywordEnricher(5);
 
     public List<Document> enrichDocuments(List<Document> documents) {
-        KeywordMetadataEnricher enricher = new KeywordMetadataEnricher(this.dashscopeChatModel, 5);
+        if (isLocal()) {
+            // 本地提取时文档频率基于传入的整批文档统计，调用方应一次传入整个仓库的片段
+            return localKeywordEnricher.enrichDocuments(documents);
+        }
+        // 关键词提取是辅助任务，使用快速模型
+        KeywordMetadataEnricher enricher = new KeywordMetadataEnricher(modelRouter.chatModelFor(ModelTask.KEYWORD_EXTRACTION), 5);
         return enricher.apply(documents);
     }
-}
\ No newline at end of file
+
+    /**
+     * 本地提取仓库的部分片段（增量刷新），文档频率使用整个仓库的统计 corpus，并用这批片段更新它
+     */
+    public List<Document> enrichDocuments(List<Document> documents, DocumentFrequencies corpus) {
+        return localKeywordEnricher.enrichDocuments(documents, corpus);
+    }
+
+    /**
+     * @return 是否使用本地关键词提取
+     */
+    public boolean isLocal() {
+        return "local".equalsIgnoreCase(mode);
+    }
+}
@@ -4,6 +4,7 @@ import org.springframework.ai.document.Document;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -11,6 +12,15 @@ import java.util.List;
  */
 @Component
 public class MyTokenTextSplitter {
+
+    // 片段在原文档中的序号，从 0 开始
+    public static final String CHUNK_INDEX_METADATA_KEY = "chunk_index";
+
+    // 片段在原文档中的起止行号，从 1 开始
+    public static final String START_LINE_METADATA_KEY = "start_line";
+
+    public static final String END_LINE_METADATA_KEY = "end_line";
+
     public List<Document> splitDocuments(List<Document> documents) {
         TokenTextSplitter splitter = new TokenTextSplitter();
         return splitter.apply(documents);
@@ -19,6 +29,56 @@ public class MyTokenTextSplitter {
     public List<Document> splitCustomized(List<Document> documents) {
         // 限制每个chunk最大1800字符，为DashScope embedding留出安全边界 (2048-248=1800)
         TokenTextSplitter splitter = new TokenTextSplitter(400, 100, 10, 1800, true);
-        return splitter.apply(documents);
+        // 逐个文档切分，记录片段序号和行号，检索时可以按序号取相邻片段并合并
+        List<Document> result = new ArrayList<>();
+        for (Document document : documents) {
+            List<Document> chunks = splitter.apply(List.of(document));
+            annotateChunks(document.getText(), chunks);
+            result.addAll(chunks);
+        }
+        return result;
+    }
+
+    /**
+     * 为同一文档切分出的片段补充序号和起止行号
+     *
+     * 切分器输出的片段是原文按顺序截取并去掉首尾空白的结果，按顺序在原文中查找即可定位；
+     * 最后一段的换行可能被替换为空格，查找时把换行统一视为空格。
+     */
+    static void annotateChunks(String original, List<Document> chunks) {
+        String normalized = original == null ? "" : original.replace('\n', ' ');
+        int cursor = 0;
+        // 已统计到的位置和该位置所在的行，行号只向前累加
+        int lineOffset = 0;
+        int line = 1;
+        for (int i = 0; i < chunks.size(); i++) {
+            Document chunk = chunks.get(i);
+            chunk.getMetadata().put(CHUNK_INDEX_METADATA_KEY, i);
+            String text = chunk.getText();
+            if (text == null || text.isEmpty()) {
+                continue;
+            }
+            int start = normalized.indexOf(text.replace('\n', ' '), cursor);
+            if (start < 0) {
+                continue;
+            }
+            int end = start + text.length() - 1;
+            line += countLines(original, lineOffset, start);
+            chunk.getMetadata().put(START_LINE_METADATA_KEY, line);
+            line += countLines(original, start, end);
+            chunk.getMetadata().put(END_LINE_METADATA_KEY, line);
+            lineOffset = end;
+            cursor = end + 1;
+        }
+    }
+
+    private static int countLines(String text, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
     }
 }
@@ -1,11 +1,12 @@
 package wiki.zhr.zouaiagent.rag;
 
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.rag.Query;
 import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
 import org.springframework.ai.rag.preretrieval.query.transformation.RewriteQueryTransformer;
 import org.springframework.stereotype.Component;
+import wiki.zhr.zouaiagent.model.ModelRouter;
+import wiki.zhr.zouaiagent.model.ModelTask;
 
 /**
  * 查询重写器
@@ -15,8 +16,9 @@ public class QueryRewriter {
 
     private final QueryTransformer queryTransformer;
 
-    public QueryRewriter(ChatModel dashscopeChatModel) {
-        ChatClient.Builder builder = ChatClient.builder(dashscopeChatModel);
+    public QueryRewriter(ModelRouter modelRouter) {
+        // 查询重写是辅助任务，使用快速模型
+        ChatClient.Builder builder = ChatClient.builder(modelRouter.chatModelFor(ModelTask.QUERY_REWRITE));
         // 创建查询重写转换器
         queryTransformer = RewriteQueryTransformer.builder()
                 .chatClientBuilder(builder)
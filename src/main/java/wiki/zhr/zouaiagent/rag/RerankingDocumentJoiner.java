@@ -0,0 +1,50 @@
+package wiki.zhr.zouaiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.join.DocumentJoiner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * 合并检索结果后进行本地重排序
+ *
+ * 多个查询的结果按 id 去重（保留首次出现的片段），再交给 {@link LocalReranker} 按 token 预算截取，
+ * 最后可选地交给上下文组装（如 {@link CodeContextAssembler}）合并同一文件的相邻片段，
+ * 用于 {@link org.springframework.ai.chat.client.advisor.RetrievalAugmentationAdvisor}。
+ */
+public class RerankingDocumentJoiner implements DocumentJoiner {
+
+    private final LocalReranker localReranker;
+
+    // 重排序之后的上下文组装
+    private final UnaryOperator<List<Document>> contextAssembler;
+
+    public RerankingDocumentJoiner(LocalReranker localReranker) {
+        this(localReranker, UnaryOperator.identity());
+    }
+
+    public RerankingDocumentJoiner(LocalReranker localReranker, UnaryOperator<List<Document>> contextAssembler) {
+        this.localReranker = localReranker;
+        this.contextAssembler = contextAssembler;
+    }
+
+    @Override
+    public List<Document> join(Map<Query, List<List<Document>>> documentsForQuery) {
+        Map<String, Document> candidates = new LinkedHashMap<>();
+        StringBuilder queryText = new StringBuilder();
+        documentsForQuery.forEach((query, documentLists) -> {
+            queryText.append(query.text()).append('\n');
+            documentLists.forEach(documents -> documents.forEach(document -> candidates.putIfAbsent(document.getId(), document)));
+        });
+        List<Document> documents = new ArrayList<>(candidates.values());
+        if (localReranker.isEnabled()) {
+            documents = localReranker.rerank(queryText.toString(), documents);
+        }
+        return contextAssembler.apply(documents);
+    }
+}
@@ -0,0 +1,142 @@
+package wiki.zhr.zouaiagent.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 根据文件名和内容识别不适合放进知识库的文件：二进制文件、压缩后的代码和自动生成的文件
+ *
+ * 这些文件扩展名常常和源代码一样（.js、.json），但对检索没有帮助，只会占用向量化的额度。
+ */
+public final class ContentSniffer {
+
+    /**
+     * 检查内容时只看开头的字节数，和 git 判断二进制文件的做法一致
+     */
+    private static final int SNIFF_LENGTH = 8000;
+
+    /**
+     * 查找生成标记时只看文件头部
+     */
+    private static final int HEADER_LENGTH = 1024;
+
+    /**
+     * 平均行长超过该值视为压缩后的代码
+     */
+    private static final int MINIFIED_AVERAGE_LINE_LENGTH = 300;
+
+    /**
+     * 单行超过该长度且占据文件大部分内容，视为压缩后的代码
+     */
+    private static final int MINIFIED_LONGEST_LINE = 5000;
+
+    private static final Set<String> LOCK_FILES = Set.of(
+            "package-lock.json", "yarn.lock", "pnpm-lock.yaml", "npm-shrinkwrap.json", "composer.lock",
+            "cargo.lock", "poetry.lock", "pipfile.lock", "gemfile.lock", "go.sum", "gradle.lockfile");
+
+    private static final List<String> GENERATED_SUFFIXES = List.of(
+            ".min.js", ".min.css", ".min.mjs", ".bundle.js", ".chunk.js", ".map",
+            ".pb.go", "_pb2.py", ".g.dart", ".designer.cs");
+
+    private static final List<String> GENERATED_MARKERS = List.of(
+            "@generated", "code generated by", "auto-generated", "autogenerated",
+            "this file was generated", "this file is generated");
+
+    private ContentSniffer() {
+    }
+
+    /**
+     * 按文件名判断
+     *
+     * @return 跳过的原因，不需要跳过时为空
+     */
+    public static String sniffName(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if (LOCK_FILES.contains(name)) {
+            return "依赖锁文件";
+        }
+        for (String suffix : GENERATED_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return "生成文件";
+            }
+        }
+        if (name.contains(".generated.")) {
+            return "生成文件";
+        }
+        return null;
+    }
+
+    /**
+     * 按内容判断
+     *
+     * @param bytes 文件内容
+     * @return 跳过的原因，不需要跳过时为空
+     */
+    public static String sniffContent(byte[] bytes) {
+        if (isBinary(bytes)) {
+            return "二进制文件";
+        }
+        if (isMinified(bytes)) {
+            return "压缩后的代码";
+        }
+        if (hasGeneratedMarker(bytes)) {
+            return "生成文件";
+        }
+        return null;
+    }
+
+    /**
+     * 开头出现 NUL 字节，或者控制字符占比过高
+     */
+    static boolean isBinary(byte[] bytes) {
+        int length = Math.min(bytes.length, SNIFF_LENGTH);
+        int control = 0;
+        for (int i = 0; i < length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b == 0) {
+                return true;
+            }
+            if (b < 0x20 && b != '\n' && b != '\r' && b != '\t' && b != '\f' && b != 0x1B) {
+                control++;
+            }
+        }
+        return length > 0 && control * 10 > length;
+    }
+
+    /**
+     * 平均行长过长，或者一行就占了大半个文件
+     */
+    static boolean isMinified(byte[] bytes) {
+        if (bytes.length < 1000) {
+            return false;
+        }
+        int lines = 1;
+        int longest = 0;
+        int current = 0;
+        for (byte b : bytes) {
+            if (b == '\n') {
+                lines++;
+                longest = Math.max(longest, current);
+                current = 0;
+            } else {
+                current++;
+            }
+        }
+        longest = Math.max(longest, current);
+        return bytes.length / lines > MINIFIED_AVERAGE_LINE_LENGTH
+                || (longest > MINIFIED_LONGEST_LINE && longest * 2L > bytes.length);
+    }
+
+    static boolean hasGeneratedMarker(byte[] bytes) {
+        String header = new String(bytes, 0, Math.min(bytes.length, HEADER_LENGTH), StandardCharsets.UTF_8)
+                .toLowerCase(Locale.ROOT);
+        for (String marker : GENERATED_MARKERS) {
+            if (header.contains(marker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
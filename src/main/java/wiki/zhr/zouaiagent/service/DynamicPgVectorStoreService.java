@@ -1,13 +1,22 @@
 package wiki.zhr.zouaiagent.service;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgDistanceType.COSINE_DISTANCE;
@@ -28,7 +37,17 @@ public class DynamicPgVectorStoreService {
     
     // 缓存不同仓库的VectorStore实例
     private final ConcurrentHashMap<String, VectorStore> vectorStoreCache = new ConcurrentHashMap<>();
-    
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 从元信息生成的独立列：列名即元信息的键，供按文件读取、删除片段的 SQL 直接使用
+    private static final Map<String, String> GENERATED_METADATA_COLUMNS = Map.of(
+            "file_path", "text",
+            "chunk_index", "integer");
+
+    // 旧版本生成但没有查询使用的列，检索过滤统一走元信息的 GIN 索引
+    private static final List<String> UNUSED_METADATA_COLUMNS = List.of("file_type", "directory", "branch");
+
     /**
      * 获取或创建指定仓库的VectorStore
      * @param repositoryName 仓库名称，用作表名
@@ -79,6 +98,7 @@ public class DynamicPgVectorStoreService {
             
             if (Boolean.TRUE.equals(tableExists)) {
                 log.debug("✅ 表已存在: zou_ai_agent.{}", tableName);
+                ensureMetadataIndexes(tableName);
                 return;
             }
             
@@ -89,7 +109,7 @@ public class DynamicPgVectorStoreService {
                 "CREATE TABLE zou_ai_agent.%s (" +
                 "    id uuid NOT NULL DEFAULT uuid_generate_v4()," +
                 "    content text," +
-                "    metadata json," +
+                "    metadata jsonb," +
                 "    embedding vector(1536)" +
                 ")", tableName);
             
@@ -108,6 +128,8 @@ public class DynamicPgVectorStoreService {
                 tableName, tableName);
             
             jdbcTemplate.execute(createIndexSql);
+
+            ensureMetadataIndexes(tableName);
             
             log.info("✅ 向量表创建成功: zou_ai_agent.{}", tableName);
             
@@ -117,6 +139,90 @@ public class DynamicPgVectorStoreService {
         }
     }
     
+    /**
+     * 确保元信息可以走索引过滤
+     *
+     * 元信息列使用 jsonb 并建立 jsonb_path_ops 的 GIN 索引，检索时的过滤条件（file_type、file_path、directories、branch）
+     * 由 PgVectorStore 转换成 jsonpath（@@），通过该索引先行缩小候选范围，而不是在向量扫描之后逐行过滤。
+     * file_path 和 chunk_index 另外生成独立列并建立 B-Tree 索引，供 fetchChunks、deleteFiles 的 SQL 使用。
+     * 旧表的 json 列在这里转换为 jsonb，旧版本多余的生成列和索引在这里删除。
+     */
+    void ensureMetadataIndexes(String tableName) {
+        String metadataType = jdbcTemplate.queryForObject(
+                "SELECT data_type FROM information_schema.columns " +
+                "WHERE table_schema = 'zou_ai_agent' AND table_name = ? AND column_name = 'metadata'",
+                String.class, tableName);
+        if ("json".equals(metadataType)) {
+            log.info("🔧 元信息列转换为 jsonb: zou_ai_agent.{}", tableName);
+            jdbcTemplate.execute(String.format(
+                "ALTER TABLE zou_ai_agent.%s ALTER COLUMN metadata TYPE jsonb USING metadata::jsonb", tableName));
+        }
+
+        jdbcTemplate.execute(String.format(
+            "CREATE INDEX IF NOT EXISTS %s_metadata_idx ON zou_ai_agent.%s USING gin (metadata jsonb_path_ops)",
+            tableName, tableName));
+
+        GENERATED_METADATA_COLUMNS.forEach((column, type) -> {
+            String expression = "integer".equals(type)
+                    ? "(metadata->>'" + column + "')::integer"
+                    : "metadata->>'" + column + "'";
+            jdbcTemplate.execute(String.format(
+                "ALTER TABLE zou_ai_agent.%s ADD COLUMN IF NOT EXISTS %s %s GENERATED ALWAYS AS (%s) STORED",
+                tableName, column, type, expression));
+        });
+        jdbcTemplate.execute(String.format(
+            "CREATE INDEX IF NOT EXISTS %s_file_chunk_idx ON zou_ai_agent.%s (file_path, chunk_index)", tableName, tableName));
+
+        // 删除列时其上的索引一并删除
+        for (String column : UNUSED_METADATA_COLUMNS) {
+            jdbcTemplate.execute(String.format(
+                "ALTER TABLE zou_ai_agent.%s DROP COLUMN IF EXISTS %s", tableName, column));
+        }
+    }
+
+    /**
+     * 按文件路径和片段序号批量读取片段，用于补齐检索结果中缺失的相邻片段
+     *
+     * @param repositoryName 仓库名称
+     * @param chunkIndexes   文件路径到片段序号的映射
+     * @return 读取到的片段，不包含向量
+     */
+    public List<Document> fetchChunks(String repositoryName, Map<String, Set<Integer>> chunkIndexes) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder values = new StringBuilder();
+        chunkIndexes.forEach((filePath, indexes) -> indexes.forEach(index -> {
+            values.append(values.length() == 0 ? "(?, ?)" : ", (?, ?)");
+            params.add(filePath);
+            params.add(index);
+        }));
+        if (params.isEmpty()) {
+            return List.of();
+        }
+        String tableName = "code_" + sanitizeTableName(repositoryName);
+        // 一次查询取回所有需要的片段
+        String sql = "SELECT id, content, metadata::text AS metadata FROM zou_ai_agent." + tableName +
+                " WHERE (file_path, chunk_index) IN (" + values + ")";
+        try {
+            return jdbcTemplate.query(sql, (rs, rowNum) -> Document.builder()
+                    .id(rs.getString("id"))
+                    .text(rs.getString("content"))
+                    .metadata(parseMetadata(rs.getString("metadata")))
+                    .build(), params.toArray());
+        } catch (Exception e) {
+            log.warn("⚠️ 读取相邻片段失败: {}, 错误: {}", tableName, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private Map<String, Object> parseMetadata(String json) {
+        try {
+            return json == null ? Map.of() : objectMapper.readValue(json, new TypeReference<Map<String, Object>>() {
+            });
+        } catch (Exception e) {
+            return Map.of();
+        }
+    }
+
     /**
      * 清理表名，确保符合PostgreSQL命名规范
      */
@@ -128,6 +234,52 @@ public class DynamicPgVectorStoreService {
                 .replaceAll("^_|_$", "");       // 移除首尾下划线
     }
     
+    /**
+     * 删除指定文件的全部片段，用于增量更新
+     *
+     * @param repositoryName 仓库名称
+     * @param filePaths      文件路径
+     * @return 删除的片段数
+     */
+    public int deleteFiles(String repositoryName, Collection<String> filePaths) {
+        return deleteFiles(repositoryName, filePaths, List.of());
+    }
+
+    /**
+     * 删除指定文件的旧片段，保留指定 ID 的片段，用于先写入新片段再删除旧片段
+     *
+     * @param repositoryName 仓库名称
+     * @param filePaths      文件路径
+     * @param keepIds        不删除的片段 ID（刚写入的新片段）
+     * @return 删除的片段数
+     */
+    public int deleteFiles(String repositoryName, Collection<String> filePaths, Collection<String> keepIds) {
+        if (filePaths.isEmpty()) {
+            return 0;
+        }
+        // ID 都是 UUID，不含逗号，拼成一个参数传入
+        String keep = String.join(",", keepIds);
+        String tableName = "code_" + sanitizeTableName(repositoryName);
+        List<String> paths = new ArrayList<>(filePaths);
+        int deleted = 0;
+        // 分批删除，避免参数过多
+        for (int i = 0; i < paths.size(); i += 500) {
+            List<String> batch = paths.subList(i, Math.min(i + 500, paths.size()));
+            String placeholders = String.join(", ", Collections.nCopies(batch.size(), "?"));
+            List<Object> args = new ArrayList<>(batch);
+            args.add(keep);
+            try {
+                deleted += jdbcTemplate.update("DELETE FROM zou_ai_agent." + tableName +
+                        " WHERE file_path IN (" + placeholders + ") AND id::text <> ALL (string_to_array(?, ','))",
+                        args.toArray());
+            } catch (Exception e) {
+                log.warn("⚠️ 删除文件片段失败: {}, 错误: {}", tableName, e.getMessage());
+            }
+        }
+        log.info("🧹 删除 {} 个文件的旧片段: {} 条", filePaths.size(), deleted);
+        return deleted;
+    }
+
     /**
      * 清理指定仓库的向量数据
      */
@@ -7,12 +7,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import wiki.zhr.zouaiagent.http.ConditionalRequestCache;
+import wiki.zhr.zouaiagent.rag.CodeSearchFilter;
+import wiki.zhr.zouaiagent.rag.DocumentFrequencies;
 import wiki.zhr.zouaiagent.rag.MyKeywordEnricher;
 import wiki.zhr.zouaiagent.rag.MyTokenTextSplitter;
 
@@ -21,6 +19,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 /**
  * GitHub代码知识库服务
@@ -33,6 +34,9 @@ public class GitHubCodeKnowledgeService {
     @Value("${github.personal_access_token}")
     private String personalAccessToken;
 
+    @Value("${code-knowledge.cache-directory:tmp/code}")
+    private String cacheDirectory;
+
     @Resource
     private DynamicPgVectorStoreService dynamicPgVectorStoreService;
 
@@ -42,9 +46,17 @@ public class GitHubCodeKnowledgeService {
     @Resource
     private MyKeywordEnricher myKeywordEnricher;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Resource
+    private ConditionalRequestCache conditionalRequestCache;
+
+    @Resource
+    private GitHubFileReader gitHubFileReader;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // 同一个仓库的构建和刷新互斥，它们共用同一张向量表和本地缓存
+    private final Map<String, ReentrantLock> repositoryLocks = new ConcurrentHashMap<>();
+
     // 支持的代码文件扩展名
     private static final Set<String> CODE_EXTENSIONS = Set.of(
             ".java", ".py", ".js", ".ts", ".cpp", ".c", ".h", ".cs", ".go",
@@ -66,53 +78,70 @@ public class GitHubCodeKnowledgeService {
      */
     public void buildCodeKnowledge(String owner, String repository, String branch,
             boolean enableSplitting, boolean enableEnrichment) {
+        ReentrantLock lock = lockOf(owner, repository);
+        lock.lock();
+        try {
+            doBuildCodeKnowledge(owner, repository, branch, enableSplitting, enableEnrichment);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void doBuildCodeKnowledge(String owner, String repository, String branch,
+            boolean enableSplitting, boolean enableEnrichment) {
         long startTime = System.currentTimeMillis();
         try {
             log.info("🚀 开始构建代码知识库: {}/{} (branch: {}, 分片: {}, 丰富: {})",
                     owner, repository, branch, enableSplitting, enableEnrichment);
 
-            // 1. 清理现有数据
+            // 1-2. 创建本地存储目录（现有数据在新文档准备好后、写入前才清理，中途失败时保留旧数据）
             String repositoryName = owner + "_" + repository;
-            log.info("🧹 清理现有知识库数据: {}", repositoryName);
-            dynamicPgVectorStoreService.clearRepository(repositoryName);
-
-            // 2. 创建本地存储目录
             Path localCodePath = createLocalDirectory(repositoryName);
             log.info("📁 创建本地存储目录: {}", localCodePath.toAbsolutePath());
 
-            // 3. 检查本地缓存
-            boolean hasLocalCache = checkLocalCache(localCodePath);
-            if (hasLocalCache) {
-                log.info("📦 发现本地缓存，将使用已下载的文件");
-            }
-
-            // 4. 递归获取仓库所有文件
-            log.info("🔍 开始扫描仓库文件结构...");
-            List<GitHubFile> allFiles = getAllRepositoryFiles(owner, repository, branch, "");
+            // 3. 打开本地缓存，获取分支当前的根目录树 SHA
+            LocalCodeCache localCache = LocalCodeCache.open(localCodePath);
+            localCache.setBranch(branch);
+            String treeSha = getTreeSha(owner, repository, branch);
 
-            // 5. 过滤代码文件
-            List<GitHubFile> codeFiles = allFiles.stream()
-                    .filter(file -> isCodeFile(file.getName()) && file.getType().equals("file"))
-                    .toList();
-            log.info("📋 发现 {} 个代码文件，总文件数: {}", codeFiles.size(), allFiles.size());
+            List<GitHubFile> codeFiles;
+            if (treeSha != null && treeSha.equals(localCache.getTreeSha()) && !localCache.isEmpty()) {
+                // 4. 仓库没有变化，直接使用缓存清单中的文件，不再扫描目录
+                codeFiles = filesFromCache(owner, repository, branch, localCache);
+                log.info("📦 仓库没有变化 (tree: {})，使用本地缓存的 {} 个文件", treeSha, codeFiles.size());
+            } else {
+                // 4-5. 递归获取仓库所有文件，过滤代码文件
+                codeFiles = listCodeFiles(owner, repository, branch);
+            }
 
-            // 6. 下载代码文件
-            List<Document> documents = downloadCodeFiles(owner, repository, branch, codeFiles, localCodePath,
-                    hasLocalCache);
+            // 6. 下载代码文件（命中本地缓存的直接读取）
+            List<Document> documents = downloadCodeFiles(owner, repository, branch, codeFiles, localCache, treeSha,
+                    codeFiles.stream().map(GitHubFile::getPath).collect(Collectors.toSet())).documents();
 
             if (documents.isEmpty()) {
                 log.warn("⚠️ 没有成功下载任何代码文件");
+                log.info("🧹 清理现有知识库数据: {}", repositoryName);
+                dynamicPgVectorStoreService.clearRepository(repositoryName);
+                new DocumentFrequencies().save(localCache.documentFrequenciesPath());
+                localCache.save();
                 return;
             }
 
-            // 7. 文档处理（根据参数决定是否进行分割和关键词丰富）
+            // 7. 文档处理（根据参数决定是否进行分割和关键词丰富），同时重新统计整个仓库的文档频率
             log.info("⚙️ 开始处理文档...");
-            List<Document> processedDocuments = processDocuments(documents, enableSplitting, enableEnrichment);
+            DocumentFrequencies corpus = new DocumentFrequencies();
+            List<Document> processedDocuments = processDocuments(documents, enableSplitting, enableEnrichment, corpus);
 
-            // 8. 分批存储到向量数据库（重要：解决DashScope批处理限制）
+            // 8. 清理现有数据后分批存储到向量数据库（重要：解决DashScope批处理限制）
+            log.info("🧹 清理现有知识库数据: {}", repositoryName);
+            dynamicPgVectorStoreService.clearRepository(repositoryName);
             log.info("💾 开始分批存储到向量数据库...");
             storeDocumentsInBatches(repositoryName, processedDocuments);
 
+            // 9. 向量库写入成功后才保存文档频率统计、缓存清单和根目录树 SHA，失败时下次重新处理
+            corpus.save(localCache.documentFrequenciesPath());
+            localCache.save();
+
             long duration = System.currentTimeMillis() - startTime;
             log.info("✅ 代码知识库构建完成: {}/{}, 耗时: {}ms, 共处理 {} 个文档片段",
                     owner, repository, duration, processedDocuments.size());
@@ -132,65 +161,284 @@ public class GitHubCodeKnowledgeService {
     }
 
     /**
-     * 检查本地缓存是否存在
+     * 刷新结果
+     *
+     * @param mode         刷新方式
+     * @param changedFiles 新增或修改的文件数
+     * @param removedFiles 删除的文件数
+     * @param chunks       写入的文档片段数
+     */
+    public record RefreshResult(RefreshMode mode, int changedFiles, int removedFiles, int chunks) {
+    }
+
+    public enum RefreshMode {
+        /**
+         * 仓库没有变化
+         */
+        UNCHANGED,
+        /**
+         * 只更新变化的文件
+         */
+        INCREMENTAL,
+        /**
+         * 没有本地缓存，全量构建
+         */
+        FULL
+    }
+
+    /**
+     * 增量刷新代码知识库：只重新处理上游 SHA 变化的文件，删除已经不存在的文件的片段
+     *
+     * 没有构建过（没有本地缓存清单）或者构建的是其他分支时退化为全量构建；根目录树没变时什么也不做。
+     * 新片段写入成功后才删除同一文件的旧片段（按片段 ID 保留新写入的），随后保存清单；
+     * 目录列表获取失败时整个刷新失败，下载失败的文件保留旧片段，下次刷新重新处理。
+     * 本地关键词提取使用保存的整个仓库的文档频率统计；统计不存在时（例如旧版本构建的缓存）本次跳过本地提取，
+     * 只用变化文件统计的 IDF 没有区分度，全量构建后恢复。
      */
-    private boolean checkLocalCache(Path localCodePath) {
+    public RefreshResult refreshCodeKnowledge(String owner, String repository, String branch,
+            boolean enableSplitting, boolean enableEnrichment) {
+        ReentrantLock lock = lockOf(owner, repository);
+        lock.lock();
         try {
-            if (!Files.exists(localCodePath)) {
-                return false;
+            String builtBranch = getBuiltBranch(owner, repository);
+            if (!branch.equals(builtBranch)) {
+                if (builtBranch != null) {
+                    log.info("🔀 知识库构建的分支 {} 与刷新的分支 {} 不同，全量重建: {}/{}",
+                            builtBranch, branch, owner, repository);
+                }
+                doBuildCodeKnowledge(owner, repository, branch, enableSplitting, enableEnrichment);
+                return new RefreshResult(RefreshMode.FULL, 0, 0, 0);
+            }
+            return doRefreshCodeKnowledge(owner, repository, branch, enableSplitting, enableEnrichment);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private RefreshResult doRefreshCodeKnowledge(String owner, String repository, String branch,
+            boolean enableSplitting, boolean enableEnrichment) {
+        String repositoryName = owner + "_" + repository;
+        long startTime = System.currentTimeMillis();
+        try {
+            LocalCodeCache localCache = LocalCodeCache.open(createLocalDirectory(repositoryName));
+            String treeSha = getTreeSha(owner, repository, branch);
+            if (treeSha != null && treeSha.equals(localCache.getTreeSha())) {
+                log.info("📦 仓库没有变化，跳过刷新: {}/{} (tree: {})", owner, repository, treeSha);
+                return new RefreshResult(RefreshMode.UNCHANGED, 0, 0, 0);
+            }
+
+            List<GitHubFile> codeFiles = listCodeFiles(owner, repository, branch);
+            Set<String> livePaths = codeFiles.stream().map(GitHubFile::getPath).collect(Collectors.toSet());
+            // 上游没变的文件，包括之前按内容跳过的文件，都不用重新处理
+            List<GitHubFile> changedFiles = codeFiles.stream()
+                    .filter(file -> !localCache.isValid(file.getPath(), file.getSha())
+                            && !localCache.isSkipped(file.getPath(), file.getSha()))
+                    .toList();
+            List<String> removedPaths = localCache.entries().stream()
+                    .map(LocalCodeCache.Entry::path)
+                    .filter(path -> !livePaths.contains(path))
+                    .toList();
+            log.info("🔄 增量刷新: {}/{}，变化文件 {} 个，删除文件 {} 个",
+                    owner, repository, changedFiles.size(), removedPaths.size());
+
+            DownloadResult downloaded = downloadCodeFiles(owner, repository, branch, changedFiles, localCache,
+                    treeSha, livePaths);
+            // 变化和删除的文件的旧片段都要替换；下载失败的文件保留旧片段
+            Set<String> stalePaths = new HashSet<>(removedPaths);
+            changedFiles.stream()
+                    .map(GitHubFile::getPath)
+                    .filter(path -> !downloaded.failedPaths().contains(path))
+                    .forEach(stalePaths::add);
+
+            DocumentFrequencies corpus = DocumentFrequencies.load(localCache.documentFrequenciesPath());
+            boolean enrichment = enableEnrichment;
+            if (corpus != null) {
+                corpus.removeAll(stalePaths);
+            } else if (enableEnrichment && myKeywordEnricher.isLocal()) {
+                log.warn("⚠️ 没有整个仓库的文档频率统计，本次增量刷新跳过本地关键词提取，全量构建后恢复: {}/{}",
+                        owner, repository);
+                enrichment = false;
+            }
+            List<Document> processedDocuments = downloaded.documents().isEmpty()
+                    ? List.of() : processDocuments(downloaded.documents(), enableSplitting, enrichment, corpus);
+
+            // 先写入新片段，再删除旧片段
+            List<String> storedIds = processedDocuments.isEmpty()
+                    ? List.of() : storeDocumentsInBatches(repositoryName, processedDocuments);
+            dynamicPgVectorStoreService.deleteFiles(repositoryName, stalePaths, storedIds);
+            if (corpus != null) {
+                corpus.save(localCache.documentFrequenciesPath());
             }
+            localCache.save();
+            log.info("✅ 增量刷新完成: {}/{}, 耗时: {}ms, 写入 {} 个文档片段",
+                    owner, repository, System.currentTimeMillis() - startTime, processedDocuments.size());
+            return new RefreshResult(RefreshMode.INCREMENTAL, changedFiles.size(), removedPaths.size(),
+                    processedDocuments.size());
+        } catch (Exception e) {
+            log.error("❌ 增量刷新失败: {}/{}", owner, repository, e);
+            throw new RuntimeException("增量刷新代码知识库失败", e);
+        }
+    }
+
+    private ReentrantLock lockOf(String owner, String repository) {
+        return repositoryLocks.computeIfAbsent((owner + "_" + repository).toLowerCase(Locale.ROOT),
+                key -> new ReentrantLock());
+    }
 
-            // 检查是否有文件
-            long fileCount = Files.walk(localCodePath)
-                    .filter(Files::isRegularFile)
-                    .count();
+    /**
+     * 是否已经构建过（存在本地缓存清单）
+     */
+    public boolean hasLocalCache(String owner, String repository) {
+        return Files.exists(Paths.get(cacheDirectory, owner + "_" + repository, LocalCodeCache.MANIFEST_FILE));
+    }
 
-            log.info("📁 本地缓存目录存在，包含 {} 个文件", fileCount);
-            return fileCount > 0;
+    /**
+     * 知识库构建的分支，记录在本地缓存清单中；没有构建过或者清单中没有记录时返回空
+     */
+    public String getBuiltBranch(String owner, String repository) {
+        if (!hasLocalCache(owner, repository)) {
+            return null;
+        }
+        try {
+            return LocalCodeCache.open(Paths.get(cacheDirectory, owner + "_" + repository)).getBranch();
         } catch (IOException e) {
-            log.warn("检查本地缓存失败: {}", e.getMessage());
-            return false;
+            log.warn("读取本地缓存清单失败: {}/{}, 错误: {}", owner, repository, e.getMessage());
+            return null;
         }
     }
 
+    /**
+     * 获取分支最新提交的 SHA，供轮询判断分支是否有新提交；获取失败时返回空
+     */
+    public String getHeadCommitSha(String owner, String repository, String branch) {
+        JsonNode commit = getBranchHead(owner, repository, branch);
+        return commit == null ? null : commit.path("sha").asText(null);
+    }
+
+    /**
+     * 递归获取仓库所有文件，过滤出代码文件
+     */
+    private List<GitHubFile> listCodeFiles(String owner, String repository, String branch) throws IOException {
+        log.info("🔍 开始扫描仓库文件结构...");
+        List<GitHubFile> allFiles = getAllRepositoryFiles(owner, repository, branch, "");
+        List<GitHubFile> codeFiles = allFiles.stream()
+                .filter(file -> isCodeFile(file.getName()) && file.getType().equals("file"))
+                .toList();
+        log.info("📋 发现 {} 个代码文件，总文件数: {}", codeFiles.size(), allFiles.size());
+        return codeFiles;
+    }
+
+    /**
+     * 获取分支当前的根目录树 SHA，获取失败时返回空（不使用整库缓存）
+     */
+    private String getTreeSha(String owner, String repository, String branch) {
+        JsonNode commit = getBranchHead(owner, repository, branch);
+        return commit == null ? null : commit.path("commit").path("tree").path("sha").asText(null);
+    }
+
+    /**
+     * 获取分支最新提交，内容没变时服务端返回 304，不消耗限流额度
+     */
+    private JsonNode getBranchHead(String owner, String repository, String branch) {
+        try {
+            String url = String.format("https://api.github.com/repos/%s/%s/commits/%s", owner, repository, branch);
+            return objectMapper.readTree(conditionalRequestCache.get(url, personalAccessToken).body());
+        } catch (Exception e) {
+            log.warn("获取分支最新提交失败: {}/{}@{}, 错误: {}", owner, repository, branch, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 由缓存清单还原文件列表
+     */
+    private List<GitHubFile> filesFromCache(String owner, String repository, String branch, LocalCodeCache localCache) {
+        return localCache.entries().stream()
+                .sorted(Comparator.comparing(LocalCodeCache.Entry::path))
+                .map(entry -> {
+                    GitHubFile file = new GitHubFile();
+                    file.setPath(entry.path());
+                    file.setName(entry.path().substring(entry.path().lastIndexOf('/') + 1));
+                    file.setType("file");
+                    file.setSha(entry.sha());
+                    file.setSize(entry.size());
+                    file.setDownloadUrl(String.format("https://raw.githubusercontent.com/%s/%s/%s/%s",
+                            owner, repository, branch, entry.path()));
+                    return file;
+                })
+                .toList();
+    }
+
     /**
      * 下载代码文件
+     *
+     * 上游 SHA 没变的文件从本地缓存并行读取，其余的从 GitHub 下载后写入缓存；
+     * 最后清理已经不在仓库中的缓存文件，全部成功时记录根目录树 SHA。
+     * 清单只在内存中更新，由调用方在向量库写入成功后保存；下载失败的文件从清单中移除，下次重新下载。
+     *
+     * @param livePaths 仓库中现存的全部代码文件，增量刷新时 codeFiles 只是其中变化的部分
      */
-    private List<Document> downloadCodeFiles(String owner, String repository, String branch,
-            List<GitHubFile> codeFiles, Path localCodePath, boolean hasLocalCache) {
+    private DownloadResult downloadCodeFiles(String owner, String repository, String branch,
+            List<GitHubFile> codeFiles, LocalCodeCache localCache, String treeSha, Set<String> livePaths)
+            throws IOException {
         List<Document> documents = new ArrayList<>();
+        Set<String> failedPaths = new HashSet<>();
         int successCount = 0;
         int skipCount = 0;
         int failCount = 0;
+        int ignoredCount = 0;
+
+        // 命中本地缓存的文件并行读取
+        long readStart = System.currentTimeMillis();
+        List<String> cachedPaths = codeFiles.stream()
+                .filter(file -> localCache.isValid(file.getPath(), file.getSha()))
+                .map(GitHubFile::getPath)
+                .toList();
+        Map<String, String> cachedContents = localCache.readAll(cachedPaths);
+        log.info("📦 本地缓存命中 {} 个文件，读取耗时 {}ms", cachedContents.size(),
+                System.currentTimeMillis() - readStart);
 
-        log.info("📥 开始下载代码文件，总计: {} 个", codeFiles.size());
+        log.info("📥 开始下载代码文件，总计: {} 个", codeFiles.size() - cachedContents.size());
 
         for (int i = 0; i < codeFiles.size(); i++) {
             GitHubFile file = codeFiles.get(i);
             try {
-                // 检查本地文件是否已存在
-                Path localFilePath = localCodePath.resolve(file.getPath());
-                if (hasLocalCache && Files.exists(localFilePath)) {
+                if (localCache.isSkipped(file.getPath(), file.getSha())) {
+                    // 上游没变，之前已经按内容跳过
+                    ignoredCount++;
+                    continue;
+                }
+                String cachedContent = cachedContents.get(file.getPath());
+                if (cachedContent != null) {
                     // 使用本地缓存
-                    Document document = createDocumentFromLocalFile(owner, repository, branch, file, localFilePath);
+                    Document document = createDocument(owner, repository, branch, file, cachedContent,
+                            localCache.resolvePath(file.getPath()), true);
                     if (document != null) {
                         documents.add(document);
-                        skipCount++;
-                        if ((i + 1) % 10 == 0 || i == codeFiles.size() - 1) {
-                            log.info("📦 使用缓存进度: {}/{} (成功: {}, 跳过: {}, 失败: {})",
-                                    i + 1, codeFiles.size(), successCount, skipCount, failCount);
-                        }
-                        continue;
                     }
+                    skipCount++;
+                    continue;
                 }
 
-                // 从GitHub下载
-                Document document = downloadAndCreateDocument(owner, repository, branch, file, localCodePath);
+                // 从GitHub下载，二进制、压缩后的代码和生成文件直接跳过
+                GitHubFileReader.FileContent fileContent = gitHubFileReader.read(owner, repository, branch,
+                        file.getPath(), file.getName(), file.getSize());
+                if (fileContent.isSkipped()) {
+                    ignoredCount++;
+                    localCache.markSkipped(file.getPath(), file.getSha());
+                    log.info("⏭️ 跳过文件: {} ({})", file.getPath(), fileContent.skipReason());
+                    continue;
+                }
+                Path localFilePath = localCache.put(file.getPath(), fileContent.content(), file.getSha());
+                log.debug("💾 本地保存: {} -> {}", file.getPath(), localFilePath);
+                Document document = createDocument(owner, repository, branch, file, fileContent.content(),
+                        localFilePath, false);
                 if (document != null) {
                     documents.add(document);
                     successCount++;
                 } else {
-                    failCount++;
+                    // 空文件已经登记到缓存，没有需要入库的内容
+                    ignoredCount++;
                 }
 
                 // 每10个文件或最后一个文件时打印进度
@@ -201,27 +449,41 @@ public class GitHubCodeKnowledgeService {
 
             } catch (Exception e) {
                 failCount++;
+                failedPaths.add(file.getPath());
+                localCache.remove(file.getPath());
                 log.warn("❌ 下载文件失败: {}, 错误: {}", file.getPath(), e.getMessage());
             }
         }
 
-        log.info("📥 文件下载完成！成功: {}, 跳过缓存: {}, 失败: {}, 总计: {}",
-                successCount, skipCount, failCount, codeFiles.size());
+        log.info("📥 文件下载完成！成功: {}, 跳过缓存: {}, 忽略: {}, 失败: {}, 总计: {}",
+                successCount, skipCount, ignoredCount, failCount, codeFiles.size());
 
-        return documents;
+        // 清理已经不在仓库中的缓存，有下载失败时不记录根目录树，下次重新扫描
+        int removed = localCache.retainOnly(livePaths);
+        if (removed > 0) {
+            log.info("🧹 清理过期的本地缓存文件: {} 个", removed);
+        }
+        localCache.setTreeSha(failCount == 0 ? treeSha : null);
+
+        return new DownloadResult(documents, failedPaths);
     }
 
     /**
-     * 从本地缓存创建Document 
+     * 下载结果
+     *
+     * @param documents   成功读取的文档
+     * @param failedPaths 下载失败的文件
      */
-    private Document createDocumentFromLocalFile(String owner, String repository, String branch,
-            GitHubFile file, Path localFilePath) throws IOException {
-        if (!Files.exists(localFilePath)) {
-            return null;
-        }
+    private record DownloadResult(List<Document> documents, Set<String> failedPaths) {
+    }
 
-        String content = Files.readString(localFilePath);
-        if (content.trim().isEmpty()) {
+    /**
+     * 创建Document
+     */
+    private Document createDocument(String owner, String repository, String branch, GitHubFile file,
+            String content, Path localFilePath, boolean fromCache) {
+        if (content == null || content.trim().isEmpty()) {
+            log.debug("⚠️ 文件内容为空: {}", file.getPath());
             return null;
         }
 
@@ -230,20 +492,24 @@ public class GitHubCodeKnowledgeService {
         metadata.put("repository", owner + "/" + repository);
         metadata.put("branch", branch);
         metadata.put("file_path", file.getPath());
+        metadata.put("directory", getDirectory(file.getPath()));
+        metadata.put(CodeSearchFilter.DIRECTORIES, CodeSearchFilter.directoriesOf(file.getPath()));
         metadata.put("file_name", file.getName());
         metadata.put("file_type", getFileExtension(file.getName()));
         metadata.put("file_size", content.length());
         metadata.put("download_url", file.getDownloadUrl());
         metadata.put("local_path", localFilePath.toString());
-        metadata.put("from_cache", true);
+        metadata.put("from_cache", fromCache);
 
         return new Document(content, metadata);
     }
 
     /**
      * 分批存储文档到向量数据库（解决DashScope批处理限制）
+     *
+     * @return 写入的片段 ID
      */
-    private void storeDocumentsInBatches(String repositoryName, List<Document> processedDocuments) {
+    private List<String> storeDocumentsInBatches(String repositoryName, List<Document> processedDocuments) {
         VectorStore vectorStore = dynamicPgVectorStoreService.getVectorStore(repositoryName);
 
         // 🔍 验证和修复文档长度，确保符合DashScope embedding限制
@@ -280,6 +546,7 @@ public class GitHubCodeKnowledgeService {
         }
 
         log.info("✅ 所有文档分批存储完成！总计: {} 个文档", totalDocuments);
+        return validatedDocuments.stream().map(Document::getId).toList();
     }
 
     /**
@@ -354,115 +621,48 @@ public class GitHubCodeKnowledgeService {
 
     /**
      * 递归获取仓库所有文件信息
+     *
+     * 任何一个目录获取失败都直接失败：不完整的列表会被当作文件已删除，导致片段和本地缓存被清空。
+     *
+     * @throws IOException 目录列表获取失败或格式不正确
      */
-    private List<GitHubFile> getAllRepositoryFiles(String owner, String repository, String branch, String path) {
-        try {
-            String url = String.format("https://api.github.com/repos/%s/%s/contents/%s?ref=%s",
-                    owner, repository, path, branch);
+    private List<GitHubFile> getAllRepositoryFiles(String owner, String repository, String branch, String path)
+            throws IOException {
+        String url = String.format("https://api.github.com/repos/%s/%s/contents/%s?ref=%s",
+                owner, repository, path, branch);
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setBearerAuth(personalAccessToken);
-            HttpEntity<String> entity = new HttpEntity<>(headers);
-
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            JsonNode jsonNode = objectMapper.readTree(response.getBody());
-
-            List<GitHubFile> allFiles = new ArrayList<>();
-
-            if (jsonNode.isArray()) {
-                for (JsonNode fileNode : jsonNode) {
-                    GitHubFile file = parseGitHubFile(fileNode);
-                    allFiles.add(file);
-
-                    // 如果是目录，递归获取子文件
-                    if ("dir".equals(file.getType())) {
-                        log.debug("🔍 扫描目录: {}", file.getPath());
-                        List<GitHubFile> subFiles = getAllRepositoryFiles(owner, repository, branch, file.getPath());
-                        allFiles.addAll(subFiles);
-                    }
-                }
-            }
-
-            return allFiles;
-
-        } catch (Exception e) {
-            log.warn("❌ 获取目录文件失败: {}, 错误: {}", path, e.getMessage());
-            return Collections.emptyList();
+        // 条件请求，内容没有变化时服务端返回 304，使用磁盘缓存且不消耗限流额度
+        JsonNode jsonNode;
+        try {
+            jsonNode = objectMapper.readTree(conditionalRequestCache.get(url, personalAccessToken).body());
+        } catch (IOException e) {
+            throw new IOException("获取目录文件失败: " + (path.isEmpty() ? "/" : path) + ", 错误: " + e.getMessage(), e);
         }
-    }
-
-    /**
-     * 下载文件内容并创建Document
-     */
-    private Document downloadAndCreateDocument(String owner, String repository, String branch,
-            GitHubFile file, Path localCodePath) throws IOException {
-        // 获取文件内容
-        String content = getFileContent(owner, repository, branch, file.getPath());
-        if (content == null || content.trim().isEmpty()) {
-            log.debug("⚠️ 文件内容为空: {}", file.getPath());
-            return null;
+        if (!jsonNode.isArray()) {
+            throw new IOException("目录列表格式不正确: " + (path.isEmpty() ? "/" : path));
         }
 
-        // 保存到本地文件系统
-        Path localFilePath = localCodePath.resolve(file.getPath());
-        Files.createDirectories(localFilePath.getParent());
-        Files.writeString(localFilePath, content);
-
-        log.debug("💾 本地保存: {} -> {}", file.getPath(), localFilePath);
-
-        // 创建Document对象
-        Map<String, Object> metadata = new HashMap<>();
-        metadata.put("repository", owner + "/" + repository);
-        metadata.put("branch", branch);
-        metadata.put("file_path", file.getPath());
-        metadata.put("file_name", file.getName());
-        metadata.put("file_type", getFileExtension(file.getName()));
-        metadata.put("file_size", content.length());
-        metadata.put("download_url", file.getDownloadUrl());
-        metadata.put("local_path", localFilePath.toString());
-        metadata.put("from_cache", false);
-
-        return new Document(content, metadata);
-    }
-
-    /**
-     * 获取文件内容
-     */
-    private String getFileContent(String owner, String repository, String branch, String path) {
-        try {
-            String url = String.format("https://api.github.com/repos/%s/%s/contents/%s?ref=%s",
-                    owner, repository, path, branch);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setBearerAuth(personalAccessToken);
-            HttpEntity<String> entity = new HttpEntity<>(headers);
+        List<GitHubFile> allFiles = new ArrayList<>();
+        for (JsonNode fileNode : jsonNode) {
+            GitHubFile file = parseGitHubFile(fileNode);
+            allFiles.add(file);
 
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            JsonNode jsonNode = objectMapper.readTree(response.getBody());
-
-            if (jsonNode.has("content") && jsonNode.has("encoding")) {
-                String content = jsonNode.get("content").asText();
-                String encoding = jsonNode.get("encoding").asText();
-
-                if ("base64".equals(encoding)) {
-                    byte[] decodedBytes = Base64.getDecoder().decode(content.replaceAll("\\s", ""));
-                    return new String(decodedBytes);
-                }
+            // 如果是目录，递归获取子文件
+            if ("dir".equals(file.getType())) {
+                log.debug("🔍 扫描目录: {}", file.getPath());
+                allFiles.addAll(getAllRepositoryFiles(owner, repository, branch, file.getPath()));
             }
-
-            return null;
-
-        } catch (Exception e) {
-            log.warn("❌ 获取文件内容失败: {}, 错误: {}", path, e.getMessage());
-            return null;
         }
+        return allFiles;
     }
 
     /**
      * 处理文档：分割和关键词丰富
+     *
+     * @param corpus 整个仓库的文档频率统计，用分割后的片段更新；为空时不统计
      */
     private List<Document> processDocuments(List<Document> documents, boolean enableSplitting,
-            boolean enableEnrichment) {
+            boolean enableEnrichment, DocumentFrequencies corpus) {
         log.info("⚙️ 开始处理文档，原始文档数量: {}", documents.size());
 
         // 1. 文档分割
@@ -479,7 +679,22 @@ public class GitHubCodeKnowledgeService {
         }
 
         // 2. 关键词丰富（批量处理以提高效率）
-        if (enableEnrichment) {
+        boolean localEnrichment = enableEnrichment && myKeywordEnricher.isLocal();
+        if (corpus != null && !localEnrichment) {
+            // 不做本地提取时也更新统计，之后切换到本地提取时增量刷新仍然可用
+            corpus.addAll(splitDocuments);
+        }
+        if (localEnrichment) {
+            // 本地提取不调用模型，文档频率基于整个仓库的片段统计（增量刷新时使用保存的统计）
+            log.info("🔑 开始本地关键词提取...");
+            long start = System.currentTimeMillis();
+            List<Document> enrichedDocuments = corpus != null
+                    ? myKeywordEnricher.enrichDocuments(splitDocuments, corpus)
+                    : myKeywordEnricher.enrichDocuments(splitDocuments);
+            log.info("✅ 文档处理完成，最终文档数量: {} (本地关键词提取耗时 {}ms)",
+                    enrichedDocuments.size(), System.currentTimeMillis() - start);
+            return enrichedDocuments;
+        } else if (enableEnrichment) {
             log.info("🔑 开始关键词丰富...");
             List<Document> enrichedDocuments = new ArrayList<>();
             int batchSize = 5; // 减少批量大小，避免超时
@@ -555,7 +770,7 @@ public class GitHubCodeKnowledgeService {
      * 创建本地存储目录
      */
     private Path createLocalDirectory(String repositoryName) throws IOException {
-        Path localCodePath = Paths.get("tmp/code", repositoryName);
+        Path localCodePath = Paths.get(cacheDirectory, repositoryName);
         Files.createDirectories(localCodePath);
         return localCodePath;
     }
@@ -576,6 +791,14 @@ public class GitHubCodeKnowledgeService {
         return lastDotIndex > 0 ? fileName.substring(lastDotIndex) : "";
     }
 
+    /**
+     * 获取文件所在目录，用于按目录过滤检索，根目录为空字符串
+     */
+    private String getDirectory(String filePath) {
+        int lastSlashIndex = filePath.lastIndexOf('/');
+        return lastSlashIndex > 0 ? filePath.substring(0, lastSlashIndex) : "";
+    }
+
     /**
      * 解析GitHub文件信息
      */
@@ -584,6 +807,12 @@ public class GitHubCodeKnowledgeService {
         file.setName(fileNode.get("name").asText());
         file.setPath(fileNode.get("path").asText());
         file.setType(fileNode.get("type").asText());
+        if (fileNode.has("sha")) {
+            file.setSha(fileNode.get("sha").asText());
+        }
+        if (fileNode.has("size")) {
+            file.setSize(fileNode.get("size").asLong());
+        }
         if (fileNode.has("download_url") && !fileNode.get("download_url").isNull()) {
             file.setDownloadUrl(fileNode.get("download_url").asText());
         }
@@ -598,6 +827,8 @@ public class GitHubCodeKnowledgeService {
         private String path;
         private String type;
         private String downloadUrl;
+        private long size;
+        private String sha;
 
         public String getName() {
             return name;
@@ -630,5 +861,21 @@ public class GitHubCodeKnowledgeService {
         public void setDownloadUrl(String downloadUrl) {
             this.downloadUrl = downloadUrl;
         }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public String getSha() {
+            return sha;
+        }
+
+        public void setSha(String sha) {
+            this.sha = sha;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package wiki.zhr.zouaiagent.service;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import wiki.zhr.zouaiagent.http.ConditionalRequestCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 读取 GitHub 仓库中的单个文件，供知识库入库使用
+ *
+ * 响应体经 ETag 缓存完整读入内存后解析：JSON 中的 base64 内容由解析器直接解码成字节，不再生成中间的 base64 字符串；
+ * 超过 Contents 接口大小限制的文件改用 raw 媒体类型下载原始内容。
+ * 二进制文件、压缩后的代码、依赖锁文件和自动生成的文件按内容识别后跳过，不进入向量化。
+ */
+@Component
+@Slf4j
+public class GitHubFileReader {
+
+    /**
+     * Contents 接口只对 1MB 以内的文件返回 base64 内容
+     */
+    static final long CONTENTS_API_LIMIT = 1024 * 1024;
+
+    private static final String RAW_MEDIA_TYPE = "application/vnd.github.raw+json";
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private final ConditionalRequestCache conditionalRequestCache;
+
+    private final String apiBaseUrl;
+
+    private final String token;
+
+    private final long maxFileSize;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Autowired
+    public GitHubFileReader(ConditionalRequestCache conditionalRequestCache,
+                            @Value("${github.personal_access_token}") String token,
+                            @Value("${code-knowledge.ingestion.max-file-size-kb:2048}") long maxFileSizeKb) {
+        this(conditionalRequestCache, "https://api.github.com", token, maxFileSizeKb * 1024);
+    }
+
+    GitHubFileReader(ConditionalRequestCache conditionalRequestCache, String apiBaseUrl, String token, long maxFileSize) {
+        this.conditionalRequestCache = conditionalRequestCache;
+        this.apiBaseUrl = apiBaseUrl;
+        this.token = token;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * 读取结果
+     *
+     * @param content    文件内容，跳过时为空
+     * @param skipReason 跳过的原因，没有跳过时为空
+     * @param raw        是否通过 raw 下载
+     */
+    public record FileContent(String content, String skipReason, boolean raw) {
+
+        static FileContent skipped(String reason) {
+            return new FileContent(null, reason, false);
+        }
+
+        public boolean isSkipped() {
+            return skipReason != null;
+        }
+    }
+
+    /**
+     * 读取文件内容
+     *
+     * @param owner      仓库所有者
+     * @param repository 仓库名称
+     * @param branch     分支名称
+     * @param path       文件路径
+     * @param fileName   文件名
+     * @param size       目录列表中的文件大小，未知时为 0
+     * @return 文件内容或跳过的原因
+     * @throws IOException 请求失败
+     */
+    public FileContent read(String owner, String repository, String branch, String path, String fileName, long size)
+            throws IOException {
+        String nameReason = ContentSniffer.sniffName(fileName);
+        if (nameReason != null) {
+            return FileContent.skipped(nameReason);
+        }
+        if (size > maxFileSize) {
+            return FileContent.skipped("文件过大 (" + size + " 字节)");
+        }
+
+        String url = String.format("%s/repos/%s/%s/contents/%s?ref=%s", apiBaseUrl, owner, repository, path, branch);
+        byte[] bytes = null;
+        boolean raw = false;
+        if (size <= CONTENTS_API_LIMIT) {
+            bytes = decodeContents(conditionalRequestCache.get(url, token).body(), size);
+        }
+        if (bytes == null) {
+            // 大文件 Contents 接口不返回内容（encoding 为 none），改为下载原始内容
+            bytes = conditionalRequestCache.get(url, token, RAW_MEDIA_TYPE).body();
+            raw = true;
+        }
+        if (bytes.length > maxFileSize) {
+            return FileContent.skipped("文件过大 (" + bytes.length + " 字节)");
+        }
+
+        String contentReason = ContentSniffer.sniffContent(bytes);
+        if (contentReason != null) {
+            return FileContent.skipped(contentReason);
+        }
+        return new FileContent(decodeUtf8(bytes), null, raw);
+    }
+
+    /**
+     * 从 Contents 接口的 JSON 中解码 base64 内容
+     *
+     * @param json     响应体
+     * @param sizeHint 文件大小，用于预分配缓冲区
+     * @return 解码后的字节，响应中没有 base64 内容时为空
+     */
+    byte[] decodeContents(byte[] json, long sizeHint) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            String encoding = null;
+            ByteArrayOutputStream decoded = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("content".equals(field) && value == JsonToken.VALUE_STRING) {
+                    decoded = new ByteArrayOutputStream((int) Math.min(Math.max(sizeHint, 32), CONTENTS_API_LIMIT));
+                    // GitHub 每 60 个字符插入一个换行，MIME 变体会跳过
+                    parser.readBinaryValue(Base64Variants.MIME, decoded);
+                } else if ("encoding".equals(field) && value == JsonToken.VALUE_STRING) {
+                    encoding = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (!"base64".equals(encoding) || decoded == null || (decoded.size() == 0 && sizeHint > 0)) {
+                return null;
+            }
+            return decoded.toByteArray();
+        }
+    }
+
+    /**
+     * 按 UTF-8 解码，去掉 BOM
+     */
+    static String decodeUtf8(byte[] bytes) {
+        int offset = bytes.length >= 3 && bytes[0] == UTF8_BOM[0] && bytes[1] == UTF8_BOM[1] && bytes[2] == UTF8_BOM[2]
+                ? 3 : 0;
+        return new String(bytes, offset, bytes.length - offset, StandardCharsets.UTF_8);
+    }
+}
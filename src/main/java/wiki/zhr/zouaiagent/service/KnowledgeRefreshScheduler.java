@@ -0,0 +1,493 @@
+package wiki.zhr.zouaiagent.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 代码知识库的自动刷新
+ *
+ * 刷新来源有两个：GitHub push Webhook，以及定时轮询配置的仓库分支的最新提交。
+ * 同一个仓库的连续推送会合并：最后一次推送后等待一段时间再刷新，持续推送时最长延迟到上限；
+ * 刷新进行中收到的推送在当前刷新结束后再合并刷新一次。刷新走增量更新，所有仓库同时进行的刷新数有上限。
+ * 刷新失败时按指数退避重试（期间收到新的推送则立即按推送重新安排），重试用完后清除记录的分支最新提交，
+ * 下一次轮询会重新发起刷新。
+ * 没有配置 Webhook 密钥时拒绝所有 Webhook 请求，只能靠轮询刷新。
+ */
+@Component
+@Slf4j
+public class KnowledgeRefreshScheduler {
+
+    /**
+     * 刷新操作，默认委托给 {@link GitHubCodeKnowledgeService}
+     */
+    interface Refresher {
+
+        GitHubCodeKnowledgeService.RefreshResult refresh(String owner, String repository, String branch);
+
+        /**
+         * 分支最新提交的 SHA，获取失败时为空
+         */
+        String headSha(String owner, String repository, String branch);
+
+        /**
+         * 知识库构建的分支，没有构建过时为空；没有配置的仓库只接受这个分支的推送
+         */
+        String builtBranch(String owner, String repository);
+    }
+
+    /**
+     * 配置的仓库
+     */
+    record Repository(String owner, String name, String branch) {
+
+        /**
+         * 解析 owner/repo@branch，分支缺省为 main
+         */
+        static Repository parse(String value) {
+            String text = value.trim();
+            String branch = "main";
+            int at = text.indexOf('@');
+            if (at > 0) {
+                branch = text.substring(at + 1);
+                text = text.substring(0, at);
+            }
+            int slash = text.indexOf('/');
+            if (slash <= 0 || slash == text.length() - 1) {
+                throw new IllegalArgumentException("仓库格式应为 owner/repo@branch: " + value);
+            }
+            return new Repository(text.substring(0, slash), text.substring(slash + 1), branch);
+        }
+
+        String key() {
+            return key(owner, name);
+        }
+
+        static String key(String owner, String name) {
+            return (owner + "/" + name).toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * 单个仓库的刷新状态，由调度器加锁保护
+     */
+    private static final class RepoState {
+        private final String owner;
+        private final String repository;
+        private String branch;
+        private ScheduledFuture<?> timer;
+        private long firstRequestNanos;
+        // 已提交执行（包括等待并发名额）
+        private boolean running;
+        // 已经拿到并发名额，开始刷新
+        private boolean started;
+        // 刷新开始后又收到了推送
+        private boolean pending;
+        // 连续失败的次数
+        private int failures;
+
+        private RepoState(String owner, String repository, String branch) {
+            this.owner = owner;
+            this.repository = repository;
+            this.branch = branch;
+        }
+    }
+
+    private final Refresher refresher;
+
+    private final Duration debounce;
+
+    private final Duration maxDelay;
+
+    private final Duration retryDelay;
+
+    private final Semaphore permits;
+
+    private final int maxConcurrent;
+
+    private final Map<String, Repository> repositories = new LinkedHashMap<>();
+
+    private final byte[] webhookSecret;
+
+    private final Map<String, RepoState> states = new ConcurrentHashMap<>();
+
+    private final Map<String, String> lastHeads = new ConcurrentHashMap<>();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 失败后最多重试的次数，第 n 次重试等待 retryDelay * 2^(n-1)
+    static final int MAX_RETRIES = 5;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "knowledge-refresh-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Duration pollInterval;
+
+    // 上一次轮询还没结束时跳过本次
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    private final AtomicLong requestedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong unchangedCount = new AtomicLong();
+    private final AtomicLong incrementalCount = new AtomicLong();
+    private final AtomicLong fullCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong pollCount = new AtomicLong();
+    private final AtomicInteger activeRefreshes = new AtomicInteger();
+
+    @Autowired
+    public KnowledgeRefreshScheduler(GitHubCodeKnowledgeService gitHubCodeKnowledgeService,
+                                     @Value("${code-knowledge.refresh.enable-splitting:true}") boolean enableSplitting,
+                                     @Value("${code-knowledge.refresh.enable-enrichment:true}") boolean enableEnrichment,
+                                     @Value("${code-knowledge.refresh.debounce-seconds:30}") long debounceSeconds,
+                                     @Value("${code-knowledge.refresh.max-delay-seconds:300}") long maxDelaySeconds,
+                                     @Value("${code-knowledge.refresh.max-concurrent:2}") int maxConcurrent,
+                                     @Value("${code-knowledge.refresh.retry-delay-seconds:60}") long retryDelaySeconds,
+                                     @Value("${code-knowledge.refresh.poll-interval-seconds:0}") long pollIntervalSeconds,
+                                     @Value("${code-knowledge.refresh.repositories:}") String repositories,
+                                     @Value("${code-knowledge.refresh.webhook-secret:}") String webhookSecret) {
+        this(new Refresher() {
+                 @Override
+                 public GitHubCodeKnowledgeService.RefreshResult refresh(String owner, String repository, String branch) {
+                     return gitHubCodeKnowledgeService.refreshCodeKnowledge(owner, repository, branch,
+                             enableSplitting, enableEnrichment);
+                 }
+
+                 @Override
+                 public String headSha(String owner, String repository, String branch) {
+                     return gitHubCodeKnowledgeService.getHeadCommitSha(owner, repository, branch);
+                 }
+
+                 @Override
+                 public String builtBranch(String owner, String repository) {
+                     return gitHubCodeKnowledgeService.getBuiltBranch(owner, repository);
+                 }
+             }, Duration.ofSeconds(debounceSeconds), Duration.ofSeconds(maxDelaySeconds), maxConcurrent,
+                Duration.ofSeconds(retryDelaySeconds), Duration.ofSeconds(pollIntervalSeconds),
+                parseRepositories(repositories), webhookSecret);
+    }
+
+    KnowledgeRefreshScheduler(Refresher refresher, Duration debounce, Duration maxDelay, int maxConcurrent,
+                              Duration retryDelay, Duration pollInterval, List<Repository> repositories,
+                              String webhookSecret) {
+        this.refresher = refresher;
+        this.debounce = debounce;
+        this.maxDelay = maxDelay.compareTo(debounce) < 0 ? debounce : maxDelay;
+        this.retryDelay = retryDelay;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.permits = new Semaphore(this.maxConcurrent, true);
+        repositories.forEach(repository -> this.repositories.put(repository.key(), repository));
+        this.webhookSecret = webhookSecret == null || webhookSecret.isBlank()
+                ? null : webhookSecret.getBytes(StandardCharsets.UTF_8);
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * 开启轮询：定时器只负责触发，请求 GitHub 的轮询在工作线程中执行，不阻塞防抖定时器
+     */
+    @PostConstruct
+    public void start() {
+        if (webhookSecret == null) {
+            log.warn("未配置代码知识库 Webhook 密钥，Webhook 请求将被拒绝");
+        }
+        if (pollInterval.isZero() || pollInterval.isNegative() || repositories.isEmpty()) {
+            return;
+        }
+        timer.scheduleWithFixedDelay(() -> workers.execute(this::pollOnce), pollInterval.toMillis(),
+                pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("代码知识库轮询已开启: 间隔 {}s, 仓库 {}", pollInterval.toSeconds(), repositories.keySet());
+    }
+
+    private void pollOnce() {
+        if (!polling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            poll();
+        } finally {
+            polling.set(false);
+        }
+    }
+
+    static List<Repository> parseRepositories(String value) {
+        List<Repository> repositories = new ArrayList<>();
+        if (value == null) {
+            return repositories;
+        }
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) {
+                repositories.add(Repository.parse(item));
+            }
+        }
+        return repositories;
+    }
+
+    /**
+     * 请求刷新一个仓库，和同一仓库尚未开始的刷新合并
+     *
+     * @param reason 刷新原因，用于日志
+     */
+    public synchronized void requestRefresh(String owner, String repository, String branch, String reason) {
+        requestedCount.incrementAndGet();
+        RepoState state = states.computeIfAbsent(Repository.key(owner, repository),
+                key -> new RepoState(owner, repository, branch));
+        state.branch = branch;
+        log.info("收到代码知识库刷新请求: {}/{}@{} ({})", owner, repository, branch, reason);
+        if (state.running && !state.started) {
+            // 还在等待并发名额，本次推送会被这次刷新一并处理
+            coalescedCount.incrementAndGet();
+            return;
+        }
+        if (state.running) {
+            if (state.pending) {
+                coalescedCount.incrementAndGet();
+            }
+            state.pending = true;
+            return;
+        }
+        if (state.timer != null) {
+            coalescedCount.incrementAndGet();
+        }
+        schedule(state);
+    }
+
+    /**
+     * 重新设置防抖定时器：最后一次请求后等待 debounce，但距离第一次请求不超过 maxDelay
+     */
+    private void schedule(RepoState state) {
+        long now = System.nanoTime();
+        if (state.timer == null) {
+            state.firstRequestNanos = now;
+        } else {
+            state.timer.cancel(false);
+        }
+        long remaining = maxDelay.toNanos() - (now - state.firstRequestNanos);
+        long delay = Math.max(0, Math.min(debounce.toNanos(), remaining));
+        state.timer = timer.schedule(() -> fire(state), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void fire(RepoState state) {
+        synchronized (this) {
+            state.timer = null;
+            state.running = true;
+            state.started = false;
+        }
+        workers.execute(() -> run(state));
+    }
+
+    private void run(RepoState state) {
+        permits.acquireUninterruptibly();
+        String branch;
+        synchronized (this) {
+            state.started = true;
+            branch = state.branch;
+        }
+        activeRefreshes.incrementAndGet();
+        boolean failed = false;
+        try {
+            GitHubCodeKnowledgeService.RefreshResult result = refresher.refresh(state.owner, state.repository, branch);
+            switch (result.mode()) {
+                case UNCHANGED -> unchangedCount.incrementAndGet();
+                case INCREMENTAL -> incrementalCount.incrementAndGet();
+                case FULL -> fullCount.incrementAndGet();
+            }
+        } catch (Exception e) {
+            failed = true;
+            failedCount.incrementAndGet();
+            log.error("代码知识库刷新失败: {}/{}@{}", state.owner, state.repository, branch, e);
+        } finally {
+            activeRefreshes.decrementAndGet();
+            permits.release();
+            synchronized (this) {
+                state.running = false;
+                state.started = false;
+                if (!failed) {
+                    state.failures = 0;
+                }
+                if (state.pending) {
+                    state.pending = false;
+                    schedule(state);
+                } else if (failed) {
+                    retry(state);
+                }
+            }
+        }
+    }
+
+    /**
+     * 刷新失败后按指数退避重新安排，重试用完后清除记录的最新提交，由下一次轮询或推送重新触发
+     */
+    private void retry(RepoState state) {
+        state.failures++;
+        if (state.failures > MAX_RETRIES) {
+            log.error("代码知识库刷新连续失败 {} 次，停止重试: {}/{}", MAX_RETRIES, state.owner, state.repository);
+            state.failures = 0;
+            lastHeads.remove(Repository.key(state.owner, state.repository));
+            return;
+        }
+        retriedCount.incrementAndGet();
+        long delay = retryDelay.toNanos() << (state.failures - 1);
+        log.info("{}s 后重试代码知识库刷新（第 {} 次）: {}/{}", TimeUnit.NANOSECONDS.toSeconds(delay), state.failures,
+                state.owner, state.repository);
+        state.firstRequestNanos = System.nanoTime();
+        state.timer = timer.schedule(() -> fire(state), delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 轮询配置的仓库，分支有新提交时请求刷新
+     */
+    void poll() {
+        pollCount.incrementAndGet();
+        for (Repository repository : repositories.values()) {
+            try {
+                String head = refresher.headSha(repository.owner(), repository.name(), repository.branch());
+                if (head == null) {
+                    continue;
+                }
+                String previous = lastHeads.put(repository.key(), head);
+                if (!head.equals(previous)) {
+                    requestRefresh(repository.owner(), repository.name(), repository.branch(),
+                            previous == null ? "首次轮询" : "轮询发现新提交 " + head);
+                }
+            } catch (Exception e) {
+                log.warn("轮询仓库失败: {}, 错误: {}", repository.key(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 处理 GitHub Webhook
+     *
+     * @param event     X-GitHub-Event 请求头
+     * @param signature X-Hub-Signature-256 请求头
+     * @param body      原始请求体
+     * @return 处理结果：scheduled 已安排刷新，ignored 忽略，pong 响应 ping
+     * @throws IllegalStateException    没有配置密钥，Webhook 已停用
+     * @throws SecurityException        签名不正确
+     * @throws IllegalArgumentException 请求体不是合法的 push 事件
+     */
+    public String handleWebhook(String event, String signature, byte[] body) {
+        if (webhookSecret == null) {
+            throw new IllegalStateException("未配置 Webhook 密钥，Webhook 已停用");
+        }
+        if (!isValidSignature(body, signature)) {
+            throw new SecurityException("Webhook 签名校验失败");
+        }
+        if ("ping".equals(event)) {
+            return "pong";
+        }
+        if (event != null && !"push".equals(event)) {
+            return "ignored";
+        }
+        JsonNode payload;
+        try {
+            payload = objectMapper.readTree(body);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Webhook 请求体不是合法的 JSON", e);
+        }
+        String fullName = payload.path("repository").path("full_name").asText("");
+        String ref = payload.path("ref").asText("");
+        if (!fullName.contains("/") || !ref.startsWith("refs/heads/")) {
+            throw new IllegalArgumentException("不是 push 事件: 缺少 repository.full_name 或 ref");
+        }
+        String owner = fullName.substring(0, fullName.indexOf('/'));
+        String name = fullName.substring(fullName.indexOf('/') + 1);
+        String branch = ref.substring("refs/heads/".length());
+
+        // 配置的仓库只跟踪配置的分支，其他仓库只跟踪知识库构建的分支，没有构建过的忽略
+        Repository configured = repositories.get(Repository.key(owner, name));
+        String trackedBranch = configured != null ? configured.branch() : refresher.builtBranch(owner, name);
+        if (!branch.equals(trackedBranch)) {
+            return "ignored";
+        }
+        if (payload.path("deleted").asBoolean(false)) {
+            return "ignored";
+        }
+        String after = payload.path("after").asText(null);
+        if (after != null) {
+            lastHeads.put(Repository.key(owner, name), after);
+        }
+        requestRefresh(owner, name, branch, "push " + (after == null ? "" : after));
+        return "scheduled";
+    }
+
+    /**
+     * 校验 X-Hub-Signature-256：sha256=HMAC-SHA256(密钥, 请求体) 的十六进制
+     */
+    boolean isValidSignature(byte[] body, String signature) {
+        if (signature == null || !signature.startsWith("sha256=")) {
+            return false;
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(webhookSecret, "HmacSHA256"));
+            byte[] expected = mac.doFinal(body);
+            byte[] actual = HexFormat.of().parseHex(signature.substring("sha256=".length()));
+            return MessageDigest.isEqual(expected, actual);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 刷新指标：请求数、被合并的请求数、各种刷新方式的次数、失败数和进行中的刷新数
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("requested", requestedCount.get());
+        metrics.put("coalesced", coalescedCount.get());
+        metrics.put("unchanged", unchangedCount.get());
+        metrics.put("incremental", incrementalCount.get());
+        metrics.put("full", fullCount.get());
+        metrics.put("failed", failedCount.get());
+        metrics.put("retried", retriedCount.get());
+        metrics.put("polls", pollCount.get());
+        metrics.put("active", activeRefreshes.get());
+        metrics.put("maxConcurrent", maxConcurrent);
+        synchronized (this) {
+            metrics.put("scheduled", states.values().stream().filter(state -> state.timer != null).count());
+        }
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+}
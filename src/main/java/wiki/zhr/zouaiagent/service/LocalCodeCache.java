@@ -0,0 +1,369 @@
+package wiki.zhr.zouaiagent.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * 仓库代码的本地缓存（tmp/code/&lt;仓库&gt;）
+ *
+ * 目录下的 .manifest 文件记录每个缓存文件的路径、大小、上游 blob SHA 和修改时间，以及缓存对应的分支和仓库根目录树 SHA。
+ * 缓存文件只有在上游 SHA 没有变化、且本地文件的大小和修改时间与清单一致时才视为命中（和 git 索引的做法一样，
+ * 不需要重新计算哈希）；根目录树 SHA 没变时整个缓存都有效，连目录列表也不用请求。
+ * 命中的文件并行读取，大文件使用内存映射；不再出现在仓库中的文件在保存清单时一并清理。
+ * 按内容识别后跳过的文件也登记在清单中（不保存内容），上游 SHA 不变时不再重复下载。
+ * 同一目录下的 .manifest.df 保存整个仓库的文档频率统计，供增量刷新时本地关键词提取使用。
+ */
+@Slf4j
+public class LocalCodeCache {
+
+    static final String MANIFEST_FILE = ".manifest";
+
+    // 以清单文件名开头，清理缓存时和清单一样保留
+    static final String DOCUMENT_FREQUENCIES_FILE = MANIFEST_FILE + ".df";
+
+    private static final int MANIFEST_MAGIC_V1 = 0x5A434331;
+
+    // 第 2 版增加了分支
+    private static final int MANIFEST_MAGIC = 0x5A434332;
+
+    /**
+     * 超过该大小的文件使用内存映射读取
+     */
+    static final long MMAP_THRESHOLD = 256 * 1024;
+
+    /**
+     * 上游 SHA 未知时记录的占位值，不会和任何上游 SHA 相等
+     */
+    private static final String UNKNOWN_SHA = "0".repeat(40);
+
+    private final Path root;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile String treeSha;
+
+    private volatile String branch;
+
+    /**
+     * 清单中的一个文件
+     *
+     * @param path  仓库内的相对路径
+     * @param size  本地文件大小（字节），跳过的文件为 -1
+     * @param sha   上游 blob SHA（40 位十六进制）
+     * @param mtime 写入后本地文件的修改时间（毫秒）
+     */
+    public record Entry(String path, long size, String sha, long mtime) {
+
+        /**
+         * @return 是否是跳过的文件，本地没有内容
+         */
+        public boolean skipped() {
+            return size < 0;
+        }
+    }
+
+    private LocalCodeCache(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * 打开缓存目录，读取清单；清单不存在或损坏时从空缓存开始
+     */
+    public static LocalCodeCache open(Path root) throws IOException {
+        Files.createDirectories(root);
+        LocalCodeCache cache = new LocalCodeCache(root);
+        Path manifest = root.resolve(MANIFEST_FILE);
+        if (Files.exists(manifest)) {
+            try {
+                cache.load(manifest);
+            } catch (IOException e) {
+                log.warn("本地缓存清单损坏，忽略已有缓存: {}, 错误: {}", manifest, e.getMessage());
+                cache.entries.clear();
+                cache.treeSha = null;
+                cache.branch = null;
+            }
+        }
+        return cache;
+    }
+
+    private void load(Path manifest) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest)))) {
+            int magic = in.readInt();
+            if (magic != MANIFEST_MAGIC && magic != MANIFEST_MAGIC_V1) {
+                throw new IOException("清单格式不正确");
+            }
+            String tree = in.readUTF();
+            treeSha = tree.isEmpty() ? null : tree;
+            if (magic == MANIFEST_MAGIC) {
+                String name = in.readUTF();
+                branch = name.isEmpty() ? null : name;
+            }
+            int count = in.readInt();
+            HexFormat hex = HexFormat.of();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                byte[] sha = new byte[20];
+                in.readFully(sha);
+                long mtime = in.readLong();
+                entries.put(path, new Entry(path, size, hex.formatHex(sha), mtime));
+            }
+        }
+    }
+
+    /**
+     * 保存清单，先写临时文件再原子替换；SHA 以 20 字节二进制存储
+     */
+    public void save() throws IOException {
+        Path manifest = root.resolve(MANIFEST_FILE);
+        Path temp = Files.createTempFile(root, MANIFEST_FILE, ".tmp");
+        HexFormat hex = HexFormat.of();
+        List<Entry> snapshot = new ArrayList<>(entries.values());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeUTF(treeSha == null ? "" : treeSha);
+            out.writeUTF(branch == null ? "" : branch);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.path());
+                out.writeLong(entry.size());
+                out.write(hex.parseHex(entry.sha()));
+                out.writeLong(entry.mtime());
+            }
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return 缓存对应的根目录树 SHA，未知时为空
+     */
+    public String getTreeSha() {
+        return treeSha;
+    }
+
+    public void setTreeSha(String treeSha) {
+        this.treeSha = treeSha;
+    }
+
+    /**
+     * @return 缓存对应的分支，第 1 版清单没有记录时为空
+     */
+    public String getBranch() {
+        return branch;
+    }
+
+    public void setBranch(String branch) {
+        this.branch = branch;
+    }
+
+    /**
+     * @return 仓库文档频率统计的保存位置
+     */
+    public Path documentFrequenciesPath() {
+        return root.resolve(DOCUMENT_FREQUENCIES_FILE);
+    }
+
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * 文件是否命中：上游 SHA 相同，本地文件存在且大小和修改时间没有变化
+     *
+     * @param path      仓库内的相对路径
+     * @param remoteSha 上游 blob SHA，为空时只检查本地文件
+     */
+    public boolean isValid(String path, String remoteSha) {
+        Entry entry = entries.get(path);
+        if (entry == null || (remoteSha != null && !remoteSha.equalsIgnoreCase(entry.sha()))) {
+            return false;
+        }
+        try {
+            Path file = resolvePath(path);
+            return Files.size(file) == entry.size() && Files.getLastModifiedTime(file).toMillis() == entry.mtime();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 文件是否在上游 SHA 相同时被跳过过，这种文件不需要重新下载
+     *
+     * @param path      仓库内的相对路径
+     * @param remoteSha 上游 blob SHA，为空时不比较
+     */
+    public boolean isSkipped(String path, String remoteSha) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.skipped() && (remoteSha == null || remoteSha.equalsIgnoreCase(entry.sha()));
+    }
+
+    /**
+     * 登记跳过的文件，删除之前缓存的内容
+     *
+     * @param path 仓库内的相对路径
+     * @param sha  上游 blob SHA，未知时为空
+     */
+    public void markSkipped(String path, String sha) throws IOException {
+        Files.deleteIfExists(resolvePath(path));
+        entries.put(path, new Entry(path, -1, sha == null ? UNKNOWN_SHA : sha, 0));
+    }
+
+    /**
+     * 写入文件并登记到清单
+     *
+     * @param path    仓库内的相对路径
+     * @param content 文件内容
+     * @param sha     上游 blob SHA，未知时为空
+     * @return 本地文件路径
+     */
+    public Path put(String path, String content, String sha) throws IOException {
+        Path file = resolvePath(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        entries.put(path, new Entry(path, Files.size(file), sha == null ? UNKNOWN_SHA : sha,
+                Files.getLastModifiedTime(file).toMillis()));
+        return file;
+    }
+
+    /**
+     * 从清单中移除文件，下次视为未命中；磁盘上的文件在清理时删除
+     */
+    public void remove(String path) {
+        entries.remove(path);
+    }
+
+    /**
+     * 并行读取多个缓存文件
+     *
+     * @param paths 仓库内的相对路径
+     * @return 相对路径 -> 内容，保持传入的顺序；读取失败的文件不在结果中，并从清单中移除
+     */
+    public Map<String, String> readAll(List<String> paths) {
+        Map<String, String> contents = new LinkedHashMap<>();
+        if (paths.isEmpty()) {
+            return contents;
+        }
+        // 文件读取会占住载体线程，用固定大小的线程池限制并发的文件句柄数
+        int threads = Math.min(paths.size(), Runtime.getRuntime().availableProcessors() * 2);
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            Map<String, Future<String>> futures = new LinkedHashMap<>();
+            for (String path : paths) {
+                futures.put(path, executor.submit(() -> read(resolvePath(path))));
+            }
+            for (Map.Entry<String, Future<String>> future : futures.entrySet()) {
+                try {
+                    contents.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    log.warn("读取本地缓存失败: {}, 错误: {}", future.getKey(), e.getCause().getMessage());
+                    entries.remove(future.getKey());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("读取本地缓存被中断", e);
+                }
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * 小文件直接读取，大文件通过内存映射解码，避免额外的堆内缓冲区拷贝
+     */
+    static String read(Path file) throws IOException {
+        long size = Files.size(file);
+        if (size < MMAP_THRESHOLD) {
+            return Files.readString(file, StandardCharsets.UTF_8);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    }
+
+    /**
+     * 清理不在仓库中的缓存：清单中多余的条目和磁盘上不在清单中的文件
+     *
+     * @param livePaths 仓库中仍然存在的文件
+     * @return 删除的文件数
+     */
+    public int retainOnly(Set<String> livePaths) throws IOException {
+        entries.keySet().removeIf(path -> !livePaths.contains(path));
+        List<Path> stale;
+        try (Stream<Path> files = Files.walk(root)) {
+            stale = files.filter(Files::isRegularFile)
+                    .filter(file -> !isManifestFile(file))
+                    .filter(file -> !entries.containsKey(root.relativize(file).toString().replace('\\', '/')))
+                    .toList();
+        }
+        int deleted = 0;
+        for (Path file : stale) {
+            if (Files.deleteIfExists(file)) {
+                deleted++;
+            }
+        }
+        deleteEmptyDirectories();
+        return deleted;
+    }
+
+    /**
+     * 缓存根目录下的清单及其保存时的临时文件，子目录中的同名文件是普通的缓存文件
+     */
+    private boolean isManifestFile(Path file) {
+        return root.equals(file.getParent()) && file.getFileName().toString().startsWith(MANIFEST_FILE);
+    }
+
+    private void deleteEmptyDirectories() throws IOException {
+        List<Path> directories;
+        try (Stream<Path> paths = Files.walk(root)) {
+            directories = paths.filter(Files::isDirectory).filter(dir -> !dir.equals(root))
+                    .sorted(Collections.reverseOrder()).toList();
+        }
+        for (Path dir : directories) {
+            try (Stream<Path> children = Files.list(dir)) {
+                if (children.findAny().isEmpty()) {
+                    Files.delete(dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * 缓存文件的本地路径，不允许跳出缓存目录
+     */
+    public Path resolvePath(String path) throws IOException {
+        Path file = root.resolve(path).normalize();
+        if (!file.startsWith(root.normalize())) {
+            throw new IOException("非法的缓存路径: " + path);
+        }
+        return file;
+    }
+}
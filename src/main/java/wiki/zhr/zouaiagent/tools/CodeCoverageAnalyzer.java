@@ -1,170 +1,213 @@
 package wiki.zhr.zouaiagent.tools;
 
-import org.jacoco.core.analysis.*;
-import org.jacoco.core.data.ExecutionDataStore;
-import org.jacoco.core.data.SessionInfoStore;
-import org.jacoco.core.instr.Instrumenter;
-import org.jacoco.core.runtime.IRuntime;
-import org.jacoco.core.runtime.LoggerRuntime;
-import org.jacoco.core.runtime.RuntimeData;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import wiki.zhr.zouaiagent.coverage.BatchCoverageRequest;
+import wiki.zhr.zouaiagent.coverage.CompiledSources;
+import wiki.zhr.zouaiagent.coverage.CoverageEnginePool;
+import wiki.zhr.zouaiagent.coverage.CoverageExecutor;
+import wiki.zhr.zouaiagent.coverage.CoverageWorkerPool;
+import wiki.zhr.zouaiagent.coverage.CoverageReport;
+import wiki.zhr.zouaiagent.coverage.JavaSource;
 
-import javax.tools.*;
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.*;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Component
+@Slf4j
 public class CodeCoverageAnalyzer {
 
+    private final String execution;
+
+    private final int poolSize;
+
+    private final Duration testTimeout;
+
+    private final Duration acquireTimeout;
+
+    private final int warmUpRounds;
+
+    private final int batchMaxFiles;
+
+    private final int workerMaxHeapMb;
+
+    private final Duration workerWallClockLimit;
+
+    private final Duration workerCpuTimeLimit;
+
+    private final int workerMaxRuns;
+
+    private final String workerClasspath;
+
+    private final String workerCdsArchive;
+
+    // 第一次使用时再创建，避免没有 JDK 编译器的环境启动失败
+    private volatile CoverageExecutor executor;
+
+    // 配置为进程内执行时，模型生成的测试仍然使用单独的工作进程池执行
+    private volatile CoverageExecutor generatedCodeExecutor;
+
+    public CodeCoverageAnalyzer(@Value("${coverage.execution:worker}") String execution,
+                                @Value("${coverage.pool-size:2}") int poolSize,
+                                @Value("${coverage.test-timeout-seconds:10}") long testTimeoutSeconds,
+                                @Value("${coverage.acquire-timeout-seconds:30}") long acquireTimeoutSeconds,
+                                @Value("${coverage.warm-up-rounds:1}") int warmUpRounds,
+                                @Value("${coverage.batch-max-files:200}") int batchMaxFiles,
+                                @Value("${coverage.worker.max-heap-mb:256}") int workerMaxHeapMb,
+                                @Value("${coverage.worker.wall-clock-limit-seconds:30}") long workerWallClockLimitSeconds,
+                                @Value("${coverage.worker.cpu-time-limit-seconds:20}") long workerCpuTimeLimitSeconds,
+                                @Value("${coverage.worker.max-runs:50}") int workerMaxRuns,
+                                @Value("${coverage.worker.classpath:}") String workerClasspath,
+                                @Value("${coverage.worker.cds-archive:}") String workerCdsArchive) {
+        this.execution = execution;
+        this.poolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        this.testTimeout = Duration.ofSeconds(testTimeoutSeconds);
+        this.acquireTimeout = Duration.ofSeconds(acquireTimeoutSeconds);
+        this.warmUpRounds = warmUpRounds;
+        this.batchMaxFiles = batchMaxFiles;
+        this.workerMaxHeapMb = workerMaxHeapMb;
+        this.workerWallClockLimit = Duration.ofSeconds(workerWallClockLimitSeconds);
+        this.workerCpuTimeLimit = Duration.ofSeconds(workerCpuTimeLimitSeconds);
+        this.workerMaxRuns = workerMaxRuns;
+        this.workerClasspath = workerClasspath;
+        this.workerCdsArchive = workerCdsArchive;
+    }
+
     /**
-     * 分析代码覆盖率
+     * 第一次使用时在后台预热引擎池（或启动工作进程），之后的请求不再承担 javac 和 JVM 的冷启动开销；
+     * 不使用覆盖率分析的实例不会为此占用启动时间和内存
+     */
+    private void warmUpInBackground(CoverageExecutor created) {
+        if (warmUpRounds <= 0) {
+            return;
+        }
+        Thread.ofVirtual().name("coverage-warm-up").start(() -> {
+            try {
+                created.warmUp(warmUpRounds);
+            } catch (Exception | LinkageError e) {
+                log.warn("覆盖率引擎预热失败: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 分析代码覆盖率：在内存中编译源代码和测试代码，执行测试并统计被测类的覆盖率
      *
      * @param sourceCode 源代码
      * @param testCode   测试代码
      * @return 覆盖率信息
+     * @throws java.util.concurrent.RejectedExecutionException 等待空闲引擎超时
      */
-    public CoverageResult analyzeCoverage(String sourceCode, String testCode) throws Exception {
-        // 创建临时目录
-        Path tempDir = Files.createTempDirectory("coverage_analysis");
-
-        try {
-            // 编译源代码和测试代码
-            Map<String, byte[]> compiledClasses = compileCode(sourceCode, testCode, tempDir);
-
-            // 初始化JaCoCo运行时
-            IRuntime runtime = new LoggerRuntime();
-            RuntimeData data = new RuntimeData();
-            runtime.startup(data);
-
-            // 创建instrumented类
-            Instrumenter instrumenter = new Instrumenter(runtime);
-            Map<String, byte[]> instrumentedClasses = new HashMap<>();
-            for (Map.Entry<String, byte[]> entry : compiledClasses.entrySet()) {
-                instrumentedClasses.put(entry.getKey(),
-                        instrumenter.instrument(entry.getValue(), entry.getKey()));
-            }
-
-            // 创建自定义类加载器并加载instrumented类
-            MemoryClassLoader classLoader = new MemoryClassLoader(instrumentedClasses);
-
-            // 执行测试
-            ExecutionDataStore executionData = new ExecutionDataStore();
-            SessionInfoStore sessionInfo = new SessionInfoStore();
-            data.collect(executionData, sessionInfo, false);
-
-            // 分析覆盖率
-            CoverageBuilder coverageBuilder = new CoverageBuilder();
-            Analyzer analyzer = new Analyzer(executionData, coverageBuilder);
-
-            for (Map.Entry<String, byte[]> entry : compiledClasses.entrySet()) {
-                analyzer.analyzeClass(entry.getValue(), entry.getKey());
-            }
+    public CoverageResult analyzeCoverage(String sourceCode, String testCode) {
+        CoverageReport report = getExecutor().analyze(List.of(JavaSource.of(sourceCode)), List.of(JavaSource.of(testCode)));
+        return new CoverageResult(report);
+    }
 
-            // 计算覆盖率
-            int coveredLines = 0;
-            int totalLines = 0;
-            int coveredBranches = 0;
-            int totalBranches = 0;
-
-            for (IClassCoverage classCoverage : coverageBuilder.getClasses()) {
-                coveredLines += classCoverage.getLineCounter().getCoveredCount();
-                totalLines += classCoverage.getLineCounter().getTotalCount();
-                coveredBranches += classCoverage.getBranchCounter().getCoveredCount();
-                totalBranches += classCoverage.getBranchCounter().getTotalCount();
-            }
+    /**
+     * 批量分析：所有源文件和测试文件一起编译一次，测试类并行执行，返回每个被测类的覆盖率
+     *
+     * @param request 批量请求
+     * @return 覆盖率报告
+     * @throws IllegalArgumentException                        请求不合法
+     * @throws java.util.concurrent.RejectedExecutionException 等待空闲引擎超时
+     */
+    public CoverageReport analyzeBatch(BatchCoverageRequest request) {
+        request.validate(batchMaxFiles);
+        return getExecutor().analyze(request.sourceFiles(), request.testFiles());
+    }
 
-            return new CoverageResult(
-                    calculatePercentage(coveredLines, totalLines),
-                    calculatePercentage(coveredBranches, totalBranches));
+    /**
+     * 预先编译被测源代码，多轮分析时每轮只重新编译测试类；用于模型生成测试，始终在工作进程中执行
+     *
+     * @param sources 被测源代码
+     * @return 已编译的源代码
+     */
+    public CompiledSources compileSources(List<JavaSource> sources) {
+        return getGeneratedCodeExecutor().compileSources(sources);
+    }
 
-        } finally {
-            // 清理临时文件
-            deleteDirectory(tempDir.toFile());
-        }
+    /**
+     * 使用预编译的被测类分析一个测试类；测试由模型生成，不可信，始终在工作进程中执行
+     *
+     * @param sources 已编译的被测源代码
+     * @param test    测试代码
+     * @return 覆盖率报告
+     */
+    public CoverageReport analyze(CompiledSources sources, JavaSource test) {
+        return getGeneratedCodeExecutor().analyze(sources, List.of(test));
     }
 
-    private double calculatePercentage(int covered, int total) {
-        return total == 0 ? 0.0 : (double) covered / total * 100;
+    /**
+     * 引擎池指标，池尚未创建时为空；单独的生成测试工作进程池的指标放在 generation 下
+     */
+    public Map<String, Object> getMetrics() {
+        CoverageExecutor current = executor;
+        CoverageExecutor generation = generatedCodeExecutor;
+        if (generation == null || generation == current) {
+            return current == null ? Map.of() : current.getMetrics();
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>(current == null ? Map.of() : current.getMetrics());
+        metrics.put("generation", generation.getMetrics());
+        return metrics;
     }
 
-    private Map<String, byte[]> compileCode(String sourceCode, String testCode, Path tempDir) throws Exception {
-        // 创建Java编译器
-        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
-        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
-
-        // 写入源代码和测试代码到临时文件
-        Path sourceFile = tempDir.resolve("Source.java");
-        Path testFile = tempDir.resolve("SourceTest.java");
-        Files.write(sourceFile, sourceCode.getBytes());
-        Files.write(testFile, testCode.getBytes());
-
-        // 编译代码
-        Iterable<? extends JavaFileObject> compilationUnits = fileManager.getJavaFileObjectsFromFiles(
-                Arrays.asList(sourceFile.toFile(), testFile.toFile()));
-        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, null, null,
-                compilationUnits);
-
-        if (!task.call()) {
-            throw new RuntimeException("Compilation failed: " + diagnostics.getDiagnostics());
-        }
-
-        // 读取编译后的类文件
-        Map<String, byte[]> compiledClasses = new HashMap<>();
-        Path classesDir = tempDir.resolve("classes");
-        if (Files.exists(classesDir)) {
-            Files.walk(classesDir)
-                    .filter(path -> path.toString().endsWith(".class"))
-                    .forEach(path -> {
-                        try {
-                            String className = path.toString()
-                                    .substring(classesDir.toString().length() + 1)
-                                    .replace(".class", "")
-                                    .replace(File.separatorChar, '.');
-                            compiledClasses.put(className, Files.readAllBytes(path));
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
-        }
-
-        return compiledClasses;
+    private CoverageExecutor getExecutor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    executor = createExecutor();
+                    warmUpInBackground(executor);
+                }
+            }
+        }
+        return executor;
     }
 
-    private void deleteDirectory(File directory) {
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    deleteDirectory(file);
-                } else {
-                    file.delete();
+    private CoverageExecutor getGeneratedCodeExecutor() {
+        if (!isInProcess()) {
+            return getExecutor();
+        }
+        if (generatedCodeExecutor == null) {
+            synchronized (this) {
+                if (generatedCodeExecutor == null) {
+                    generatedCodeExecutor = createWorkerPool();
                 }
             }
         }
-        directory.delete();
+        return generatedCodeExecutor;
+    }
+
+    private boolean isInProcess() {
+        return "in-process".equalsIgnoreCase(execution);
     }
 
     /**
-     * 自定义类加载器，用于加载instrumented类
+     * 默认在工作进程中执行，只有显式配置 in-process 时才在主进程内执行测试代码
      */
-    private static class MemoryClassLoader extends ClassLoader {
-        private final Map<String, byte[]> definitions;
-
-        public MemoryClassLoader(Map<String, byte[]> definitions) {
-            this.definitions = definitions;
+    private CoverageExecutor createExecutor() {
+        if (isInProcess()) {
+            return new CoverageEnginePool(poolSize, testTimeout, acquireTimeout);
         }
+        return createWorkerPool();
+    }
 
-        @Override
-        protected Class<?> findClass(String name) throws ClassNotFoundException {
-            byte[] bytes = definitions.get(name);
-            if (bytes != null) {
-                return defineClass(name, bytes, 0, bytes.length);
-            }
-            return super.findClass(name);
+    private CoverageExecutor createWorkerPool() {
+        return new CoverageWorkerPool(new CoverageWorkerPool.Settings(poolSize, workerMaxHeapMb,
+                workerWallClockLimit, workerCpuTimeLimit, workerMaxRuns, testTimeout, acquireTimeout,
+                workerClasspath, workerCdsArchive));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.close();
+        }
+        if (generatedCodeExecutor != null) {
+            generatedCodeExecutor.close();
         }
     }
 
@@ -174,10 +217,23 @@ public class CodeCoverageAnalyzer {
     public static class CoverageResult {
         private final double lineCoverage;
         private final double branchCoverage;
+        private final List<CoverageReport.ClassCoverage> classes;
+        private final CoverageReport.TestSummary tests;
 
         public CoverageResult(double lineCoverage, double branchCoverage) {
+            this(lineCoverage, branchCoverage, List.of(), null);
+        }
+
+        public CoverageResult(CoverageReport report) {
+            this(report.lineCoverage(), report.branchCoverage(), report.classes(), report.tests());
+        }
+
+        private CoverageResult(double lineCoverage, double branchCoverage,
+                               List<CoverageReport.ClassCoverage> classes, CoverageReport.TestSummary tests) {
             this.lineCoverage = lineCoverage;
             this.branchCoverage = branchCoverage;
+            this.classes = classes;
+            this.tests = tests;
         }
 
         public double getLineCoverage() {
@@ -188,9 +244,23 @@ public class CodeCoverageAnalyzer {
             return branchCoverage;
         }
 
+        /**
+         * @return 每个被测类的逐行、逐分支覆盖情况
+         */
+        public List<CoverageReport.ClassCoverage> getClasses() {
+            return classes;
+        }
+
+        /**
+         * @return 测试执行结果
+         */
+        public CoverageReport.TestSummary getTests() {
+            return tests;
+        }
+
         @Override
         public String toString() {
             return String.format("行覆盖率: %.2f%%, 分支覆盖率: %.2f%%", lineCoverage, branchCoverage);
         }
     }
-}
\ No newline at end of file
+}
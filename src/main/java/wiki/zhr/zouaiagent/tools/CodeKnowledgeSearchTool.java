@@ -0,0 +1,128 @@
+package wiki.zhr.zouaiagent.tools;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import wiki.zhr.zouaiagent.rag.LocalReranker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * 代码知识库检索工具
+ *
+ * 由模型按需调用，检索结果缓存在单次运行的工具上下文中，同一次运行内相同的查询不会重复检索。
+ */
+@Slf4j
+public class CodeKnowledgeSearchTool {
+
+    // 工具上下文中缓存检索结果的键
+    public static final String KNOWLEDGE_CACHE_KEY = "knowledgeCache";
+
+    private static final int DEFAULT_TOP_K = 4;
+
+    private final VectorStore vectorStore;
+
+    private final int topK;
+
+    // 本地重排序，为空时直接使用向量检索的结果
+    private final LocalReranker localReranker;
+
+    // 检索结果的上下文组装，合并同一文件的相邻片段
+    private final UnaryOperator<List<Document>> contextAssembler;
+
+    public CodeKnowledgeSearchTool(VectorStore vectorStore) {
+        this(vectorStore, DEFAULT_TOP_K);
+    }
+
+    public CodeKnowledgeSearchTool(VectorStore vectorStore, int topK) {
+        this.vectorStore = vectorStore;
+        this.topK = topK;
+        this.localReranker = null;
+        this.contextAssembler = UnaryOperator.identity();
+    }
+
+    /**
+     * 开启重排序时召回更多候选片段，再按 token 预算截取
+     */
+    public CodeKnowledgeSearchTool(VectorStore vectorStore, LocalReranker localReranker) {
+        this(vectorStore, localReranker, UnaryOperator.identity());
+    }
+
+    /**
+     * 重排序后再组装上下文，例如合并同一文件的相邻片段
+     */
+    public CodeKnowledgeSearchTool(VectorStore vectorStore, LocalReranker localReranker,
+                                   UnaryOperator<List<Document>> contextAssembler) {
+        this.vectorStore = vectorStore;
+        boolean rerank = localReranker != null && localReranker.isEnabled();
+        this.topK = rerank ? localReranker.getCandidateTopK() : DEFAULT_TOP_K;
+        this.localReranker = rerank ? localReranker : null;
+        this.contextAssembler = contextAssembler;
+    }
+
+    @Tool(description = "Search the code knowledge base of the current repository for source code and documents related to the query")
+    public String searchCodeKnowledge(@ToolParam(description = "What to search for in the code knowledge base") String query,
+                                      ToolContext toolContext) {
+        return search(query, knowledgeCacheOf(toolContext));
+    }
+
+    /**
+     * 检索代码知识，优先使用缓存
+     *
+     * @param query 查询内容
+     * @param cache 单次运行的检索缓存，为空时不缓存
+     * @return 检索到的上下文
+     */
+    public String search(String query, Map<String, String> cache) {
+        if (StrUtil.isBlank(query)) {
+            return "查询内容不能为空";
+        }
+        // 只合并多余的空白，空白本身仍区分不同的查询（如 "get user" 和 "getuser"）
+        String cacheKey = query.trim().replaceAll("\\s+", " ").toLowerCase();
+        if (cache != null) {
+            String cached = cache.get(cacheKey);
+            if (cached != null) {
+                log.debug("命中代码知识检索缓存: {}", cacheKey);
+                return cached;
+            }
+        }
+        try {
+            List<Document> documents = vectorStore.similaritySearch(SearchRequest.builder()
+                    .query(query)
+                    .topK(topK)
+                    .build());
+            if (localReranker != null) {
+                documents = localReranker.rerank(query, documents);
+            }
+            documents = contextAssembler.apply(documents);
+            String context = CollUtil.isEmpty(documents)
+                    ? "未检索到相关的代码知识"
+                    : documents.stream().map(Document::getText).collect(Collectors.joining("\n\n"));
+            // 只缓存成功的检索结果，失败时下次仍可重试
+            if (cache != null) {
+                cache.put(cacheKey, context);
+            }
+            return context;
+        } catch (Exception e) {
+            log.error("代码知识检索失败: {}", e.getMessage());
+            return "代码知识检索失败: " + e.getMessage();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> knowledgeCacheOf(ToolContext toolContext) {
+        if (toolContext == null || toolContext.getContext() == null) {
+            return null;
+        }
+        return (Map<String, String>) toolContext.getContext().get(KNOWLEDGE_CACHE_KEY);
+    }
+}
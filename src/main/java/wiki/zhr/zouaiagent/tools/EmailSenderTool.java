@@ -11,6 +11,7 @@ import java.io.File;
 @Component
 public class EmailSenderTool {
 
+    @FireAndForget
     @Tool(description = "发送带附件的电子邮件")
     public String sendEmailWithAttachment(
             @ToolParam(description = "收件人邮箱地址") String to,
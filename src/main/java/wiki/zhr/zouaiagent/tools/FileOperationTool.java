@@ -22,6 +22,7 @@ public class FileOperationTool {
         }
     }
 
+    @FireAndForget
     @Tool(description = "Write content to a file")
     public String writeFile(
         @ToolParam(description = "Name of the file to write") String fileName,
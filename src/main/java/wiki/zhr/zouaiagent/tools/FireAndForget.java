@@ -0,0 +1,19 @@
+package wiki.zhr.zouaiagent.tools;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记工具的返回结果不影响下一步推理
+ *
+ * 智能体开启推测执行时，这类工具在后台执行，下一次思考不必等待工具返回，
+ * 工具结果在之后的步骤中同步回消息上下文。
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FireAndForget {
+}
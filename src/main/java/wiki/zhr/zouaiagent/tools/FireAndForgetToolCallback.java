@@ -0,0 +1,72 @@
+package wiki.zhr.zouaiagent.tools;
+
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.ToolCallbacks;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.ai.tool.util.ToolUtils;
+import org.springframework.lang.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 结果不影响下一步推理的工具，执行逻辑委托给原始工具
+ */
+public class FireAndForgetToolCallback implements ToolCallback {
+
+    private final ToolCallback delegate;
+
+    public FireAndForgetToolCallback(ToolCallback delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 与 {@link ToolCallbacks#from(Object...)} 相同，额外将标注了 {@link FireAndForget} 的工具包装为本类
+     *
+     * @param toolObjects 工具对象
+     * @return 工具列表
+     */
+    public static ToolCallback[] from(Object... toolObjects) {
+        Set<String> fireAndForgetTools = new HashSet<>();
+        for (Object toolObject : toolObjects) {
+            for (Method method : toolObject.getClass().getMethods()) {
+                if (method.isAnnotationPresent(Tool.class) && method.isAnnotationPresent(FireAndForget.class)) {
+                    fireAndForgetTools.add(ToolUtils.getToolName(method));
+                }
+            }
+        }
+        List<ToolCallback> toolCallbacks = new ArrayList<>();
+        for (ToolCallback toolCallback : ToolCallbacks.from(toolObjects)) {
+            toolCallbacks.add(fireAndForgetTools.contains(toolCallback.getToolDefinition().name())
+                    ? new FireAndForgetToolCallback(toolCallback)
+                    : toolCallback);
+        }
+        return toolCallbacks.toArray(new ToolCallback[0]);
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return delegate.call(toolInput);
+    }
+
+    @Override
+    public String call(String toolInput, @Nullable ToolContext toolContext) {
+        return delegate.call(toolInput, toolContext);
+    }
+}
@@ -15,6 +15,7 @@ import java.io.IOException;
 
 public class PDFGenerationTool {
 
+    @FireAndForget
     @Tool(description = "Generate a PDF file with given content")
     public String generatePDF(
             @ToolParam(description = "Name of the file to save the generated PDF") String fileName,
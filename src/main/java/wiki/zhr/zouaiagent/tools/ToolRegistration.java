@@ -1,10 +1,10 @@
 package wiki.zhr.zouaiagent.tools;
 
 import org.springframework.ai.tool.ToolCallback;
-import org.springframework.ai.tool.ToolCallbacks;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import wiki.zhr.zouaiagent.http.SharedHttpClient;
 
 /**
  * @Author Zou hr
@@ -20,16 +20,17 @@ public class ToolRegistration {
     private String searchApiKey;
 
     @Bean
-    public ToolCallback[] allTools() {
+    public ToolCallback[] allTools(SharedHttpClient sharedHttpClient) {
         FileOperationTool fileOperationTool = new FileOperationTool();
-        WebSearchTool webSearchTool = new WebSearchTool(searchApiKey);
-        WebScrapingTool webScrapingTool = new WebScrapingTool();
-        ResourceDownloadTool resourceDownloadTool = new ResourceDownloadTool();
+        WebSearchTool webSearchTool = new WebSearchTool(searchApiKey, sharedHttpClient);
+        WebScrapingTool webScrapingTool = new WebScrapingTool(sharedHttpClient);
+        ResourceDownloadTool resourceDownloadTool = new ResourceDownloadTool(sharedHttpClient);
         TerminalOperationTool terminalOperationTool = new TerminalOperationTool();
         PDFGenerationTool pdfGenerationTool = new PDFGenerationTool();
         EmailSenderTool emailSenderTool = new EmailSenderTool();
         TerminateTool terminateTool = new TerminateTool();
-        return ToolCallbacks.from(
+        // 标注了 @FireAndForget 的工具在推测执行时可以在后台运行
+        return FireAndForgetToolCallback.from(
             fileOperationTool,
             webSearchTool,
             webScrapingTool,
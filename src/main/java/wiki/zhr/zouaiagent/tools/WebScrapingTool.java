@@ -4,17 +4,44 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
+import wiki.zhr.zouaiagent.http.SharedHttpClient;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
 
 public class WebScrapingTool {
 
+    // 部分网站会拒绝默认的 Java 客户端标识
+    private static final String USER_AGENT = "Mozilla/5.0 (compatible; zou-ai-agent)";
+
+    // 网页内容的大小上限，与 Jsoup 默认的 2MB 一致
+    private static final long MAX_BODY_BYTES = 2 * 1024 * 1024;
+
+    private final SharedHttpClient httpClient;
+
+    public WebScrapingTool() {
+        this(SharedHttpClient.defaultClient());
+    }
+
+    public WebScrapingTool(SharedHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
     @Tool(description = "Scrape the content of a web page")
     public String scrapeWebPage(@ToolParam(description = "URL of the web page to scrape") String url) {
         try {
-            Document doc = Jsoup.connect(url).get();
+            SharedHttpClient.Response response = httpClient.get(url, Map.of("User-Agent", USER_AGENT), MAX_BODY_BYTES);
+            if (!response.isSuccessful()) {
+                return "Error scraping web page: HTTP " + response.statusCode();
+            }
+            // 响应头没有声明字符集时由 Jsoup 根据 meta 标签识别
+            Charset charset = response.charset();
+            Document doc = Jsoup.parse(new ByteArrayInputStream(response.body()),
+                    charset != null ? charset.name() : null, url);
             return doc.html();
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             return "Error scraping web page: " + e.getMessage();
         }
     }
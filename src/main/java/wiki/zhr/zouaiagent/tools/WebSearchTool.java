@@ -1,12 +1,14 @@
 package wiki.zhr.zouaiagent.tools;
 
-import cn.hutool.http.HttpUtil;
 import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
+import wiki.zhr.zouaiagent.http.SharedHttpClient;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,8 +22,15 @@ public class WebSearchTool {
 
     private final String apiKey;
 
+    private final SharedHttpClient httpClient;
+
     public WebSearchTool(String apiKey) {
+        this(apiKey, SharedHttpClient.defaultClient());
+    }
+
+    public WebSearchTool(String apiKey, SharedHttpClient httpClient) {
         this.apiKey = apiKey;
+        this.httpClient = httpClient;
     }
 
     @Tool(description = "Search for information from Bing Search Engine")
@@ -32,7 +41,10 @@ public class WebSearchTool {
         paramMap.put("api_key", apiKey);
         paramMap.put("engine", "bing");
         try {
-            String response = HttpUtil.get(SEARCH_API_URL, paramMap);
+            String queryString = paramMap.entrySet().stream()
+                    .map(e -> e.getKey() + "=" + URLEncoder.encode(String.valueOf(e.getValue()), StandardCharsets.UTF_8))
+                    .collect(Collectors.joining("&"));
+            String response = httpClient.get(SEARCH_API_URL + "?" + queryString, null).bodyAsString();
             // 取出返回结果的前 5 条
             JSONObject jsonObject = JSONUtil.parseObj(response);
             // 提取 organic_results 部分
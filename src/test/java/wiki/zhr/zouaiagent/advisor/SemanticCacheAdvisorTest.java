@@ -0,0 +1,90 @@
+package wiki.zhr.zouaiagent.advisor;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SemanticCacheAdvisorTest {
+
+    /**
+     * 按字符统计的简易向量化，相同文本得到相同向量
+     */
+    private static class CharEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                float[] vector = new float[64];
+                request.getInstructions().get(i).chars().forEach(c -> vector[c % 64]++);
+                embeddings.add(new Embedding(vector, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+    }
+
+    private final AtomicInteger modelCalls = new AtomicInteger();
+
+    private final ChatModel chatModel = prompt -> {
+        modelCalls.incrementAndGet();
+        return new ChatResponse(List.of(new Generation(new AssistantMessage("answer " + modelCalls.get()))));
+    };
+
+    @Test
+    void returnCachedAnswerForNearDuplicatePrompt() {
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(new CharEmbeddingModel(), 0.99, Duration.ofMinutes(5), 10);
+        ChatClient chatClient = ChatClient.builder(chatModel).defaultSystem("你是代码助手").defaultAdvisors(advisor).build();
+
+        String first = chatClient.prompt().user("Review this code:  int a = 1;").call().content();
+        String second = chatClient.prompt().user("review this code: int a = 1; ").call().content();
+
+        assertEquals(first, second);
+        assertEquals(1, modelCalls.get());
+        assertEquals(1, advisor.getHitCount());
+    }
+
+    @Test
+    void skipCacheWhenContextDiffers() {
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(new CharEmbeddingModel(), 0.99, Duration.ofMinutes(5), 10);
+        ChatClient chatClient = ChatClient.builder(chatModel).defaultAdvisors(advisor).build();
+
+        chatClient.prompt().system("你是代码助手").user("Review this code").call().content();
+        chatClient.prompt().system("你是测试专家").user("Review this code").call().content();
+        chatClient.prompt().system("你是代码助手").user("Explain the build").call().content();
+
+        assertEquals(3, modelCalls.get());
+        assertEquals(0, advisor.getHitCount());
+    }
+
+    @Test
+    void expiredEntriesAreNotReturned() throws InterruptedException {
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(new CharEmbeddingModel(), 0.99, Duration.ofMillis(50), 10);
+        ChatClient chatClient = ChatClient.builder(chatModel).defaultAdvisors(advisor).build();
+
+        chatClient.prompt().user("Review this code").call().content();
+        Thread.sleep(100);
+        chatClient.prompt().user("Review this code").call().content();
+
+        assertEquals(2, modelCalls.get());
+    }
+}
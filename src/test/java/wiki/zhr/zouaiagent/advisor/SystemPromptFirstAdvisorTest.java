@@ -0,0 +1,45 @@
+package wiki.zhr.zouaiagent.advisor;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SystemPromptFirstAdvisorTest {
+
+    @Test
+    void systemPromptStaysFirstWithChatMemory() {
+        List<Prompt> prompts = new ArrayList<>();
+        ChatModel chatModel = prompt -> {
+            prompts.add(prompt);
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("ok"))));
+        };
+        ChatClient chatClient = ChatClient.builder(chatModel)
+                .defaultSystem("你是代码助手")
+                .defaultAdvisors(new MessageChatMemoryAdvisor(new InMemoryChatMemory()), new SystemPromptFirstAdvisor())
+                .build();
+
+        chatClient.prompt().user("第一轮").advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, "1")).call().content();
+        chatClient.prompt().user("第二轮").advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, "1")).call().content();
+
+        Prompt second = prompts.get(1);
+        assertEquals(MessageType.SYSTEM, second.getInstructions().get(0).getMessageType());
+        assertEquals("你是代码助手", second.getInstructions().get(0).getText());
+        assertEquals(1, second.getInstructions().stream()
+                .filter(message -> message.getMessageType() == MessageType.SYSTEM).count());
+        // 第二轮的前缀与第一轮完全一致
+        assertEquals(prompts.get(0).getInstructions().subList(0, 2), second.getInstructions().subList(0, 2));
+    }
+}
@@ -0,0 +1,86 @@
+package wiki.zhr.zouaiagent.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgentRunSchedulerTest {
+
+    @Test
+    void rejectWhenQueueIsFull() throws InterruptedException {
+        AgentRunScheduler scheduler = new AgentRunScheduler(1, 1, 1, 1, 60);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch rejected = new CountDownLatch(1);
+
+        AgentRunScheduler.AgentRun first = scheduler.submit("user", run -> awaitQuietly(release), reason -> fail());
+        assertNotNull(first);
+        // 第二个运行进入排队，排队超时后被拒绝
+        AgentRunScheduler.AgentRun second = scheduler.submit("user", run -> fail(), reason -> rejected.countDown());
+        assertNotNull(second);
+        // 排队已满，第三个运行直接被拒绝
+        assertNull(scheduler.submit("user", run -> fail(), reason -> fail()));
+
+        assertTrue(rejected.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertEquals(2L, scheduler.getMetrics().get("rejected"));
+    }
+
+    @Test
+    void cancelRunAfterDeadline() throws InterruptedException {
+        AgentRunScheduler scheduler = new AgentRunScheduler(1, 1, 1, 1, 1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+
+        scheduler.submit("user", run -> {
+            while (!run.isCancelled()) {
+                Thread.onSpinWait();
+            }
+            cancelled.countDown();
+        }, reason -> fail());
+
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(1L, scheduler.getMetrics().get("deadlineExceeded"));
+    }
+
+    @Test
+    void admittedRunIsNotCountedAsQueued() throws InterruptedException {
+        AgentRunScheduler scheduler = new AgentRunScheduler(2, 2, 0, 1, 60);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        // 有空闲名额时不经过排队，排队上限为 0 也能运行
+        assertNotNull(scheduler.submit("a", run -> { awaitQuietly(release); done.countDown(); }, reason -> fail()));
+        assertNotNull(scheduler.submit("b", run -> { awaitQuietly(release); done.countDown(); }, reason -> fail()));
+        assertEquals(0, scheduler.getMetrics().get("queued"));
+        assertNull(scheduler.submit("c", run -> fail(), reason -> fail()));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void idleUserSlotsAreRemoved() throws InterruptedException {
+        AgentRunScheduler scheduler = new AgentRunScheduler(4, 1, 4, 1, 60);
+        CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit("user-" + i, run -> done.countDown(), reason -> fail());
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Integer.valueOf(0).equals(scheduler.getMetrics().get("users")) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, scheduler.getMetrics().get("users"));
+    }
+
+    private void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
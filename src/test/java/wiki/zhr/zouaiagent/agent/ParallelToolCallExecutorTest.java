@@ -0,0 +1,119 @@
+package wiki.zhr.zouaiagent.agent;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallbacks;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelToolCallExecutorTest {
+
+    public static class SlowTools {
+
+        @Tool(description = "sleep and echo")
+        public String slowEcho(@ToolParam(description = "text") String text) throws InterruptedException {
+            Thread.sleep(500);
+            return text;
+        }
+
+        @Tool(description = "never returns in time")
+        public String hang() throws InterruptedException {
+            Thread.sleep(10_000);
+            return "late";
+        }
+    }
+
+    private ChatResponse toolCallResponse(AssistantMessage.ToolCall... toolCalls) {
+        AssistantMessage assistantMessage = new AssistantMessage("", Map.of(), List.of(toolCalls));
+        return new ChatResponse(List.of(new Generation(assistantMessage)));
+    }
+
+    @Test
+    void executeToolCallsConcurrentlyAndKeepOrder() {
+        ParallelToolCallExecutor executor = new ParallelToolCallExecutor(ToolCallbacks.from(new SlowTools()));
+        ChatResponse chatResponse = toolCallResponse(
+                new AssistantMessage.ToolCall("1", "function", "slowEcho", "{\"text\":\"a\"}"),
+                new AssistantMessage.ToolCall("2", "function", "slowEcho", "{\"text\":\"b\"}"),
+                new AssistantMessage.ToolCall("3", "function", "slowEcho", "{\"text\":\"c\"}"));
+
+        long start = System.currentTimeMillis();
+        ToolExecutionResult result = executor.executeToolCalls(new Prompt(new UserMessage("hi")), chatResponse);
+        long elapsed = System.currentTimeMillis() - start;
+
+        List<Message> history = result.conversationHistory();
+        assertEquals(3, history.size());
+        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) history.get(2);
+        assertEquals(List.of("1", "2", "3"),
+                toolResponseMessage.getResponses().stream().map(ToolResponseMessage.ToolResponse::id).toList());
+        assertTrue(toolResponseMessage.getResponses().get(0).responseData().contains("a"));
+        assertTrue(toolResponseMessage.getResponses().get(2).responseData().contains("c"));
+        // 三个 500ms 的工具并发执行，总耗时远小于串行的 1500ms
+        assertTrue(elapsed < 1200, "elapsed: " + elapsed);
+    }
+
+    @Test
+    void timeoutReturnsErrorResponse() {
+        ParallelToolCallExecutor executor = new ParallelToolCallExecutor(ToolCallbacks.from(new SlowTools()))
+                .withToolPolicy("hang", Duration.ofMillis(200), 1);
+        ChatResponse chatResponse = toolCallResponse(
+                new AssistantMessage.ToolCall("1", "function", "hang", "{}"),
+                new AssistantMessage.ToolCall("2", "function", "slowEcho", "{\"text\":\"ok\"}"));
+
+        ToolExecutionResult result = executor.executeToolCalls(new Prompt(new UserMessage("hi")), chatResponse);
+
+        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) result.conversationHistory().get(2);
+        assertTrue(toolResponseMessage.getResponses().get(0).responseData().contains("超时"));
+        assertTrue(toolResponseMessage.getResponses().get(1).responseData().contains("ok"));
+    }
+
+    @Test
+    void timeoutStartsAfterWaitingForPermit() {
+        ParallelToolCallExecutor executor = new ParallelToolCallExecutor(ToolCallbacks.from(new SlowTools()))
+                .withToolPolicy("slowEcho", Duration.ofMillis(800), 1);
+        ChatResponse chatResponse = toolCallResponse(
+                new AssistantMessage.ToolCall("1", "function", "slowEcho", "{\"text\":\"a\"}"),
+                new AssistantMessage.ToolCall("2", "function", "slowEcho", "{\"text\":\"b\"}"));
+
+        ToolExecutionResult result = executor.executeToolCalls(new Prompt(new UserMessage("hi")), chatResponse);
+
+        // 第二个调用排队约 500ms，执行 500ms，排队时间不计入 800ms 的超时
+        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) result.conversationHistory().get(2);
+        assertTrue(toolResponseMessage.getResponses().get(0).responseData().contains("a"));
+        assertTrue(toolResponseMessage.getResponses().get(1).responseData().contains("b"));
+    }
+
+    @Test
+    void toolLimitsAreScopedPerSession() {
+        ParallelToolCallExecutor executor = new ParallelToolCallExecutor(ToolCallbacks.from(new SlowTools()))
+                .withToolPolicy("slowEcho", Duration.ofSeconds(5), 1);
+        List<AssistantMessage.ToolCall> toolCalls = List.of(
+                new AssistantMessage.ToolCall("1", "function", "slowEcho", "{\"text\":\"a\"}"));
+
+        long start = System.currentTimeMillis();
+        CompletableFuture<List<ToolResponseMessage.ToolResponse>> first =
+                executor.executeInBackground(toolCalls, Map.of(), new ConcurrentHashMap<>());
+        CompletableFuture<List<ToolResponseMessage.ToolResponse>> second =
+                executor.executeInBackground(toolCalls, Map.of(), new ConcurrentHashMap<>());
+        CompletableFuture.allOf(first, second).join();
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 两次运行各自有串行限制，彼此不排队
+        assertTrue(elapsed < 900, "elapsed: " + elapsed);
+        executor.shutdown();
+    }
+}
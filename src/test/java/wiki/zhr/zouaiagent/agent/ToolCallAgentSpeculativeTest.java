@@ -0,0 +1,84 @@
+package wiki.zhr.zouaiagent.agent;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+import wiki.zhr.zouaiagent.agent.model.AgentSession;
+import wiki.zhr.zouaiagent.tools.FireAndForget;
+import wiki.zhr.zouaiagent.tools.FireAndForgetToolCallback;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ToolCallAgentSpeculativeTest {
+
+    public static class ArchiveTools {
+
+        @FireAndForget
+        @Tool(description = "slowly archive a text")
+        public String archive(@ToolParam(description = "text") String text) throws InterruptedException {
+            Thread.sleep(500);
+            return "archived " + text;
+        }
+
+        @Tool(description = "echo a text")
+        public String echo(@ToolParam(description = "text") String text) {
+            return "echo " + text;
+        }
+    }
+
+    private AgentSession sessionWithToolCalls(AssistantMessage.ToolCall... toolCalls) {
+        AgentSession session = new AgentSession();
+        session.getMessageList().add(new UserMessage("hi"));
+        AssistantMessage assistantMessage = new AssistantMessage("", Map.of(), List.of(toolCalls));
+        session.setToolCallChatResponse(new ChatResponse(List.of(new Generation(assistantMessage))));
+        return session;
+    }
+
+    @Test
+    void fireAndForgetToolRunsInBackgroundAndIsReconciled() {
+        ToolCallAgent agent = new ToolCallAgent(FireAndForgetToolCallback.from(new ArchiveTools()));
+        agent.setSpeculativeExecution(true);
+        AgentSession session = sessionWithToolCalls(
+                new AssistantMessage.ToolCall("1", "function", "archive", "{\"text\":\"a\"}"),
+                new AssistantMessage.ToolCall("2", "function", "echo", "{\"text\":\"b\"}"));
+
+        long start = System.currentTimeMillis();
+        agent.act(session);
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 后台工具未执行完成时就已返回，上下文中是占位内容
+        assertTrue(elapsed < 400, "elapsed: " + elapsed);
+        ToolResponseMessage placeholder = (ToolResponseMessage) session.getMessageList().get(2);
+        assertFalse(placeholder.getResponses().get(0).responseData().contains("archived"));
+        assertTrue(placeholder.getResponses().get(1).responseData().contains("echo b"));
+        assertEquals(1, session.getPendingToolResults().size());
+
+        agent.reconcilePendingToolResults(session);
+
+        ToolResponseMessage reconciled = (ToolResponseMessage) session.getMessageList().get(2);
+        assertTrue(reconciled.getResponses().get(0).responseData().contains("archived a"));
+        assertTrue(reconciled.getResponses().get(1).responseData().contains("echo b"));
+        assertTrue(session.getPendingToolResults().isEmpty());
+    }
+
+    @Test
+    void waitForAllToolsWhenSpeculativeExecutionDisabled() {
+        ToolCallAgent agent = new ToolCallAgent(FireAndForgetToolCallback.from(new ArchiveTools()));
+        AgentSession session = sessionWithToolCalls(
+                new AssistantMessage.ToolCall("1", "function", "archive", "{\"text\":\"a\"}"));
+
+        agent.act(session);
+
+        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) session.getMessageList().get(2);
+        assertTrue(toolResponseMessage.getResponses().get(0).responseData().contains("archived a"));
+        assertTrue(session.getPendingToolResults().isEmpty());
+    }
+}
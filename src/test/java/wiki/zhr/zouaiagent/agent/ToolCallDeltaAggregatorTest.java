@@ -0,0 +1,62 @@
+package wiki.zhr.zouaiagent.agent;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ToolCallDeltaAggregatorTest {
+
+    @Test
+    void mergeIncrementalDeltas() {
+        ToolCallDeltaAggregator aggregator = new ToolCallDeltaAggregator();
+        aggregator.add(List.of(new AssistantMessage.ToolCall("call_1", "function", "searchWeb", "{\"query\":")));
+        aggregator.add(List.of(new AssistantMessage.ToolCall("", "", "", "\"java\"}")));
+        aggregator.add(List.of(new AssistantMessage.ToolCall("call_2", "function", "doTerminate", "")));
+
+        List<AssistantMessage.ToolCall> toolCalls = aggregator.getToolCalls();
+        assertEquals(2, toolCalls.size());
+        assertEquals("searchWeb", toolCalls.get(0).name());
+        assertEquals("{\"query\":\"java\"}", toolCalls.get(0).arguments());
+        assertEquals("doTerminate", toolCalls.get(1).name());
+        assertEquals("{}", toolCalls.get(1).arguments());
+    }
+
+    @Test
+    void replaceCumulativeArguments() {
+        ToolCallDeltaAggregator aggregator = new ToolCallDeltaAggregator(true);
+        aggregator.add(List.of(new AssistantMessage.ToolCall("call_1", "function", "readFile", "{\"fileName\"")));
+        aggregator.add(List.of(new AssistantMessage.ToolCall("call_1", "function", "readFile", "{\"fileName\":\"a.md\"}")));
+
+        assertEquals("{\"fileName\":\"a.md\"}", aggregator.getToolCalls().get(0).arguments());
+    }
+
+    @Test
+    void incrementalDeltaRepeatingPrefixIsAppended() {
+        ToolCallDeltaAggregator aggregator = new ToolCallDeltaAggregator();
+        aggregator.add(List.of(new AssistantMessage.ToolCall("call_1", "function", "writeFile", "{\"c\":\"a")));
+        // 增量片段恰好以已有内容开头，也只能追加
+        aggregator.add(List.of(new AssistantMessage.ToolCall("", "", "", "{\"c\":\"a\"}")));
+
+        assertEquals("{\"c\":\"a{\"c\":\"a\"}", aggregator.getToolCalls().get(0).arguments());
+    }
+
+    @Test
+    void deltasWithoutIdAreMatchedByPosition() {
+        ToolCallDeltaAggregator aggregator = new ToolCallDeltaAggregator();
+        aggregator.add(List.of(new AssistantMessage.ToolCall("call_1", "function", "readFile", "{\"fileName\":"),
+                new AssistantMessage.ToolCall("call_2", "function", "searchWeb", "{\"query\":")));
+        aggregator.add(List.of(new AssistantMessage.ToolCall("", "", "", "\"a.md\"}"),
+                new AssistantMessage.ToolCall("", "", "", "\"java\"}")));
+        // 没有 id 但带名称的片段是新的工具调用
+        aggregator.add(List.of(new AssistantMessage.ToolCall("", "function", "doTerminate", "")));
+
+        List<AssistantMessage.ToolCall> toolCalls = aggregator.getToolCalls();
+        assertEquals(3, toolCalls.size());
+        assertEquals("{\"fileName\":\"a.md\"}", toolCalls.get(0).arguments());
+        assertEquals("{\"query\":\"java\"}", toolCalls.get(1).arguments());
+        assertEquals("doTerminate", toolCalls.get(2).name());
+    }
+}
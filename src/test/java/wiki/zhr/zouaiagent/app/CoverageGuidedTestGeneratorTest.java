@@ -0,0 +1,105 @@
+package wiki.zhr.zouaiagent.app;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import wiki.zhr.zouaiagent.tools.CodeCoverageAnalyzer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoverageGuidedTestGeneratorTest {
+
+    private static final String SOURCE = """
+            package demo;
+
+            public class Grader {
+                public String grade(int score) {
+                    if (score >= 90) {
+                        return "A";
+                    }
+                    if (score >= 60) {
+                        return "B";
+                    }
+                    return "C";
+                }
+            }
+            """;
+
+    private static String reply(String... assertions) {
+        return "好的，测试如下：\n```java\npackage demo;\n\nimport org.junit.jupiter.api.Test;\n"
+                + "import static org.junit.jupiter.api.Assertions.assertEquals;\n\nclass GraderTest {\n"
+                + "    @Test\n    void grade() {\n" + String.join("\n", assertions) + "\n    }\n}\n```";
+    }
+
+    private final CodeCoverageAnalyzer analyzer = new CodeCoverageAnalyzer("in-process", 1, 5, 30, 0, 200,
+            256, 30, 20, 50, "", "");
+
+    @AfterEach
+    void tearDown() {
+        analyzer.shutdown();
+    }
+
+    @Test
+    void generateFeedsCompileErrorsAndUncoveredLinesBackUntilTargetReached() {
+        Iterator<String> replies = List.of(
+                reply("assertEquals(\"A\", new Grader().grade(95))  // 缺少分号"),
+                reply("assertEquals(\"A\", new Grader().grade(95));"),
+                reply("assertEquals(\"A\", new Grader().grade(95));",
+                        "assertEquals(\"B\", new Grader().grade(70));",
+                        "assertEquals(\"C\", new Grader().grade(10));")).iterator();
+        List<String> prompts = new ArrayList<>();
+        CoverageGuidedTestGenerator generator = new CoverageGuidedTestGenerator((prompt, chatId) -> {
+            prompts.add(prompt);
+            return replies.next();
+        }, analyzer, 100, 5, Duration.ofMinutes(1));
+
+        CoverageGuidedTestGenerator.GenerationResult result = generator.generate(SOURCE, null, null, "chat");
+
+        assertTrue(result.targetReached());
+        assertEquals(3, result.rounds().size());
+        assertTrue(result.rounds().get(0).compileErrors() > 0);
+        assertEquals(100.0, result.report().lineCoverage(), 0.01);
+        assertTrue(result.testCode().contains("grade(10)"));
+
+        assertTrue(prompts.get(1).contains("编译失败"));
+        // 第二轮只覆盖了 A 分支，反馈中应包含未执行的行
+        assertTrue(prompts.get(2).contains("第 9 行（未执行）: return \"B\";"));
+        assertTrue(prompts.get(2).contains("第 5 行（分支覆盖 1/2）: if (score >= 90) {"));
+        // 配置为进程内执行时，模型生成的测试仍在工作进程中执行
+        assertTrue(analyzer.getMetrics().get("generation") instanceof Map<?, ?> generation
+                && "worker".equals(generation.get("execution")));
+    }
+
+    @Test
+    void workerExitIsRecordedAsFailedRoundAndFedBack() {
+        Iterator<String> replies = List.of(
+                reply("System.exit(1);"),
+                reply("assertEquals(\"A\", new Grader().grade(95));",
+                        "assertEquals(\"B\", new Grader().grade(70));",
+                        "assertEquals(\"C\", new Grader().grade(10));")).iterator();
+        List<String> prompts = new ArrayList<>();
+        CoverageGuidedTestGenerator generator = new CoverageGuidedTestGenerator((prompt, chatId) -> {
+            prompts.add(prompt);
+            return replies.next();
+        }, analyzer, 100, 5, Duration.ofMinutes(1));
+
+        CoverageGuidedTestGenerator.GenerationResult result = generator.generate(SOURCE, null, null, "chat");
+
+        assertTrue(result.targetReached());
+        assertEquals(2, result.rounds().size());
+        assertTrue(result.rounds().get(0).error().contains("System.exit"));
+        assertNull(result.rounds().get(1).error());
+        assertTrue(prompts.get(1).contains("工作进程异常退出"));
+    }
+
+    @Test
+    void extractCodePrefersBlockWithTests() {
+        String reply = "```java\nclass Helper {}\n```\n```java\nclass FooTest { @Test void t() {} }\n```";
+        assertTrue(CoverageGuidedTestGenerator.extractCode(reply).startsWith("class FooTest"));
+    }
+}
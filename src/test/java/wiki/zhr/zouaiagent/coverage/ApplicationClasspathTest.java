@@ -0,0 +1,80 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApplicationClasspathTest {
+
+    @TempDir
+    Path temp;
+
+    private static void write(JarOutputStream jar, String name, String content) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(content.getBytes(StandardCharsets.UTF_8));
+        jar.closeEntry();
+    }
+
+    private Path bootJar() throws IOException {
+        Path jar = temp.resolve("app.jar");
+        try (OutputStream out = Files.newOutputStream(jar); JarOutputStream jarOut = new JarOutputStream(out)) {
+            jarOut.putNextEntry(new JarEntry("BOOT-INF/"));
+            jarOut.putNextEntry(new JarEntry("BOOT-INF/classes/"));
+            write(jarOut, "BOOT-INF/classes/app/Main.class", "main");
+            write(jarOut, "BOOT-INF/lib/b.jar", "b");
+            write(jarOut, "BOOT-INF/lib/a.jar", "a");
+            write(jarOut, "BOOT-INF/classpath.idx", "- \"BOOT-INF/lib/b.jar\"\n- \"BOOT-INF/lib/a.jar\"\n");
+            write(jarOut, "org/springframework/boot/loader/Launcher.class", "loader");
+        }
+        return jar;
+    }
+
+    @Test
+    void executableJarIsExtractedInIndexOrder() throws IOException {
+        Path jar = bootJar();
+        Path extractRoot = temp.resolve("extract");
+
+        List<String> entries = ApplicationClasspath.resolve(jar.toString(), extractRoot);
+
+        assertEquals(3, entries.size());
+        assertTrue(entries.get(0).endsWith("BOOT-INF" + File.separator + "classes"));
+        assertTrue(entries.get(1).endsWith("b.jar"));
+        assertTrue(entries.get(2).endsWith("a.jar"));
+        assertEquals("main", Files.readString(Path.of(entries.get(0), "app", "Main.class")));
+        assertEquals("a", Files.readString(Path.of(entries.get(2))));
+
+        // 同一个 jar 不重复解压
+        Files.delete(Path.of(entries.get(2)));
+        ApplicationClasspath.resolve(jar.toString(), extractRoot);
+        assertFalse(Files.exists(Path.of(entries.get(2))));
+    }
+
+    @Test
+    void plainClasspathIsUnchanged() throws IOException {
+        Path classes = Files.createDirectories(temp.resolve("classes"));
+        Path lib = Files.writeString(temp.resolve("lib.jar"), "not a jar");
+
+        List<String> entries = ApplicationClasspath.resolve(
+                classes + File.pathSeparator + lib + File.pathSeparator, temp.resolve("extract"));
+
+        assertEquals(List.of(classes.toString(), lib.toString()), entries);
+    }
+
+    @Test
+    void relativeEntriesBecomeAbsolute() {
+        List<String> entries = ApplicationClasspath.resolve("target" + File.separator + "classes", temp.resolve("extract"));
+
+        assertEquals(List.of(Path.of("target", "classes").toAbsolutePath().toString()), entries);
+    }
+}
@@ -0,0 +1,144 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+class CoverageEnginePoolTest {
+
+    private static JavaSource source(int n) {
+        return JavaSource.of("""
+                package bench;
+
+                public class Subject%d {
+                    public String classify(int value) {
+                        if (value > %d) {
+                            return "big";
+                        }
+                        return value < 0 ? "negative" : "small";
+                    }
+                }
+                """.formatted(n, n));
+    }
+
+    private static JavaSource test(int n) {
+        return JavaSource.of("""
+                package bench;
+
+                import org.junit.jupiter.api.Test;
+                import static org.junit.jupiter.api.Assertions.assertEquals;
+
+                class Subject%dTest {
+                    @Test
+                    void classify() {
+                        assertEquals("big", new Subject%d().classify(1000));
+                    }
+                }
+                """.formatted(n, n));
+    }
+
+    /**
+     * 基准：冷启动的第一次分析 vs 预热后的分析，以及多个引擎并发时的吞吐量
+     *
+     * 耗时较长，默认不执行，使用 mvn test -Pbenchmark 单独运行
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkWarmThroughput() throws Exception {
+        int poolSize = 2;
+        int analyses = 40;
+        try (CoverageEnginePool pool = new CoverageEnginePool(poolSize, Duration.ofSeconds(5), Duration.ofSeconds(30))) {
+            long coldStart = System.nanoTime();
+            CoverageReport cold = pool.analyze(List.of(source(0)), List.of(test(0)));
+            long coldMillis = (System.nanoTime() - coldStart) / 1_000_000;
+            assertEquals(1, cold.tests().succeeded());
+
+            pool.warmUp(3);
+
+            ExecutorService executor = Executors.newFixedThreadPool(poolSize * 2);
+            try {
+                long start = System.nanoTime();
+                List<Future<CoverageReport>> futures = new ArrayList<>();
+                for (int i = 1; i <= analyses; i++) {
+                    int n = i;
+                    futures.add(executor.submit(() -> pool.analyze(List.of(source(n)), List.of(test(n)))));
+                }
+                for (Future<CoverageReport> future : futures) {
+                    CoverageReport report = future.get();
+                    assertEquals(1, report.tests().succeeded());
+                    assertEquals(25.0, report.branchCoverage(), 0.01);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                log.info("覆盖率分析基准: 冷启动 {} ms, 预热后 {} 次分析耗时 {} s, 吞吐量 {} 次/秒",
+                        coldMillis, analyses, String.format("%.2f", seconds), String.format("%.1f", analyses / seconds));
+            } finally {
+                executor.shutdownNow();
+            }
+            assertEquals(0L, pool.getMetrics().get("failed"));
+        }
+    }
+
+    @Test
+    void enginesAreCreatedOnDemandAndWarmedLazily() {
+        try (CoverageEnginePool pool = new CoverageEnginePool(2, Duration.ofSeconds(5), Duration.ofSeconds(30))) {
+            assertEquals(0, pool.getMetrics().get("created"));
+
+            assertEquals(1, pool.analyze(List.of(source(1)), List.of(test(1))).tests().succeeded());
+            assertEquals(1, pool.getMetrics().get("created"));
+
+            // 预热只创建剩余的引擎
+            pool.warmUp(1);
+            assertEquals(2, pool.getMetrics().get("created"));
+            assertEquals(2, pool.getMetrics().get("idle"));
+            pool.warmUp(1);
+            assertEquals(2, pool.getMetrics().get("created"));
+        }
+    }
+
+    @Test
+    void compilationIsNotCountedAsAnalysis() {
+        try (CoverageEnginePool pool = new CoverageEnginePool(1, Duration.ofSeconds(5), Duration.ofSeconds(30))) {
+            CompiledSources compiled = pool.compileSources(List.of(source(2)));
+            pool.analyze(compiled, List.of(test(2)));
+
+            assertEquals(1L, pool.getMetrics().get("compiled"));
+            assertEquals(1L, pool.getMetrics().get("completed"));
+        }
+    }
+
+    @Test
+    void analyzeIsRejectedWhenNoEngineBecomesIdle() throws Exception {
+        JavaSource slowTest = JavaSource.of("""
+                package bench;
+
+                import org.junit.jupiter.api.Test;
+
+                class SlowTest {
+                    @Test
+                    void slow() throws Exception {
+                        Thread.sleep(1500);
+                        new Subject7().classify(1);
+                    }
+                }
+                """);
+        try (CoverageEnginePool pool = new CoverageEnginePool(1, Duration.ofSeconds(5), Duration.ofMillis(200))) {
+            Thread busy = Thread.ofVirtual().start(() -> pool.analyze(List.of(source(7)), List.of(slowTest)));
+            Thread.sleep(500);
+            assertThrows(RejectedExecutionException.class, () -> pool.analyze(List.of(source(8)), List.of(test(8))));
+            busy.join();
+            assertEquals(1L, pool.getMetrics().get("rejected"));
+            assertEquals(1L, pool.getMetrics().get("completed"));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoverageEngineTest {
+
+    private static final String SOURCE = """
+            package demo;
+
+            public class Calculator {
+                public int max(int a, int b) {
+                    if (a > b) {
+                        return a;
+                    }
+                    return b;
+                }
+
+                public int abs(int a) {
+                    return a < 0 ? -a : a;
+                }
+            }
+            """;
+
+    private static final String TEST = """
+            package demo;
+
+            import org.junit.jupiter.api.Test;
+            import static org.junit.jupiter.api.Assertions.assertEquals;
+
+            class CalculatorTest {
+                @Test
+                void maxReturnsLargerValue() {
+                    assertEquals(3, new Calculator().max(3, 1));
+                }
+
+                @Test
+                void failingTest() {
+                    assertEquals(1, new Calculator().max(0, 2));
+                }
+            }
+            """;
+
+    private final CoverageEngine engine = new CoverageEngine(Duration.ofSeconds(5));
+
+    @Test
+    void analyzeExecutesTestsAndReportsLineAndBranchCoverage() {
+        CoverageReport report = engine.analyze(List.of(JavaSource.of(SOURCE)), List.of(JavaSource.of(TEST)));
+
+        assertEquals(2, report.tests().found());
+        assertEquals(1, report.tests().succeeded());
+        assertEquals(1, report.tests().failed());
+
+        assertEquals(1, report.classes().size());
+        CoverageReport.ClassCoverage calculator = report.classes().get(0);
+        assertEquals("demo.Calculator", calculator.className());
+        assertTrue(report.lineCoverage() > 0 && report.lineCoverage() < 100);
+        // max 的两个分支都走到了，abs 的分支没有执行
+        assertEquals(2, report.coveredBranches());
+        assertEquals(4, report.totalBranches());
+
+        CoverageReport.LineCoverage ifLine = calculator.lines().stream().filter(l -> l.line() == 5).findFirst().orElseThrow();
+        assertEquals(CoverageReport.LineCoverage.FULLY_COVERED, ifLine.status());
+        assertTrue(calculator.uncoveredLines().stream().anyMatch(l -> l.line() == 12));
+    }
+
+    @Test
+    void analyzeReportsCompilationErrors() {
+        CompilationException e = assertThrows(CompilationException.class, () -> engine.analyze(
+                List.of(JavaSource.of("public class Broken { int x = ; }")),
+                List.of(JavaSource.of(TEST))));
+        assertTrue(e.getErrors().get(0).startsWith("Broken.java:1:"));
+    }
+
+    @Test
+    void javaSourceDetectsPackageAndPublicType() {
+        JavaSource source = JavaSource.of("// class Comment\npackage a.b;\nclass Helper {}\npublic final class Main {}");
+        assertEquals("a.b.Main", source.className());
+        assertEquals("a/b/Main.java", source.path());
+    }
+
+    @Test
+    void analyzeBatchCompilesOnceAndReportsEachClass() {
+        List<BatchCoverageRequest.SourceFile> sources = new ArrayList<>();
+        List<BatchCoverageRequest.SourceFile> tests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sources.add(new BatchCoverageRequest.SourceFile("src/main/java/pkg" + i + "/Unit" + i + ".java", """
+                    package pkg%d;
+
+                    public class Unit%d {
+                        public int twice(int value) {
+                            return value * 2;
+                        }
+
+                        public int unused() {
+                            return %d;
+                        }
+                    }
+                    """.formatted(i, i, i)));
+            tests.add(new BatchCoverageRequest.SourceFile(null, """
+                    package pkg%d;
+
+                    import org.junit.jupiter.api.Test;
+                    import static org.junit.jupiter.api.Assertions.assertEquals;
+
+                    class Unit%dTest {
+                        @Test
+                        void twice() {
+                            assertEquals(%d, new Unit%d().twice(2));
+                        }
+                    }
+                    """.formatted(i, i, i == 2 ? 5 : 4, i)));
+        }
+        BatchCoverageRequest request = new BatchCoverageRequest(sources, tests);
+        request.validate(10);
+
+        CoverageReport report = engine.analyze(request.sourceFiles(), request.testFiles());
+
+        assertEquals(List.of("pkg0.Unit0", "pkg1.Unit1", "pkg2.Unit2"),
+                report.classes().stream().map(CoverageReport.ClassCoverage::className).toList());
+        assertTrue(report.classes().stream().allMatch(c -> c.lineCoverage() > 0 && c.lineCoverage() < 100));
+        assertEquals(3, report.tests().found());
+        assertEquals(1, report.tests().failed());
+        assertTrue(report.tests().failures().get(0).startsWith("pkg2.Unit2Test#twice()"));
+    }
+
+    @Test
+    void batchRequestRejectsMismatchedPathAndDuplicateClasses() {
+        BatchCoverageRequest.SourceFile source = new BatchCoverageRequest.SourceFile("src/Other.java", "package a; public class A {}");
+        BatchCoverageRequest.SourceFile test = new BatchCoverageRequest.SourceFile(null, "package a; class ATest {}");
+        assertThrows(IllegalArgumentException.class,
+                () -> new BatchCoverageRequest(List.of(source), List.of(test)).validate(10));
+
+        BatchCoverageRequest.SourceFile plain = new BatchCoverageRequest.SourceFile(null, "package a; public class A {}");
+        assertThrows(IllegalArgumentException.class,
+                () -> new BatchCoverageRequest(List.of(plain, plain), List.of(test)).validate(10));
+    }
+}
@@ -0,0 +1,120 @@
+package wiki.zhr.zouaiagent.coverage;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoverageWorkerPoolTest {
+
+    private static final JavaSource SOURCE = JavaSource.of("""
+            package sandbox;
+
+            public class Counter {
+                public int next(int value) {
+                    return value + 1;
+                }
+            }
+            """);
+
+    private static JavaSource test(String body) {
+        return JavaSource.of("""
+                package sandbox;
+
+                import org.junit.jupiter.api.Test;
+                import static org.junit.jupiter.api.Assertions.assertEquals;
+
+                class CounterTest {
+                    @Test
+                    void next() {
+                        %s
+                        assertEquals(2, new Counter().next(1));
+                    }
+                }
+                """.formatted(body));
+    }
+
+    private static CoverageWorkerPool pool(int maxRuns) {
+        return new CoverageWorkerPool(new CoverageWorkerPool.Settings(1, 128, Duration.ofSeconds(3),
+                Duration.ofSeconds(20), maxRuns, Duration.ofSeconds(10), Duration.ofSeconds(30), null, null));
+    }
+
+    @Test
+    void workerSurvivesSystemExitAndRunawayTests() {
+        try (CoverageWorkerPool pool = pool(50)) {
+            CoverageReport report = pool.analyze(List.of(SOURCE), List.of(test("")));
+            assertEquals(100.0, report.lineCoverage(), 0.01);
+
+            IllegalStateException exit = assertThrows(IllegalStateException.class,
+                    () -> pool.analyze(List.of(SOURCE), List.of(test("System.exit(1);"))));
+            assertTrue(exit.getMessage().contains("System.exit"));
+
+            assertThrows(WorkerLimitExceededException.class,
+                    () -> pool.analyze(List.of(SOURCE), List.of(test("while (System.nanoTime() > 0) { }"))));
+
+            CompilationException compilation = assertThrows(CompilationException.class,
+                    () -> pool.analyze(List.of(SOURCE), List.of(test("int x = ;"))));
+            assertFalse(compilation.getErrors().isEmpty());
+
+            // 进程被杀掉后由新进程补位，后续请求不受影响
+            assertEquals(1, pool.analyze(List.of(SOURCE), List.of(test(""))).tests().succeeded());
+            assertEquals(1L, pool.getMetrics().get("workersCrashed"));
+            assertEquals(1L, pool.getMetrics().get("workersKilled"));
+        }
+    }
+
+    @Test
+    void sourcesCompiledOnceAreReusedAcrossRounds() {
+        try (CoverageWorkerPool pool = pool(50)) {
+            CompiledSources compiled = pool.compileSources(List.of(SOURCE));
+            assertTrue(compiled.classes().containsKey("sandbox.Counter"));
+
+            for (int i = 0; i < 2; i++) {
+                CoverageReport report = pool.analyze(compiled, List.of(test("")));
+                assertEquals(100.0, report.lineCoverage(), 0.01);
+            }
+            assertThrows(CompilationException.class, () -> pool.analyze(compiled, List.of(test("int x = ;"))));
+            assertThrows(CompilationException.class,
+                    () -> pool.compileSources(List.of(JavaSource.of("package sandbox; class Broken { int x = ; }"))));
+
+            assertEquals(1L, pool.getMetrics().get("compiled"));
+            assertEquals(2L, pool.getMetrics().get("completed"));
+        }
+    }
+
+    @Test
+    void workerIsRecycledAfterMaxRuns() {
+        try (CoverageWorkerPool pool = pool(2)) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(1, pool.analyze(List.of(SOURCE), List.of(test(""))).tests().succeeded());
+            }
+            assertEquals(1L, pool.getMetrics().get("workersRecycled"));
+        }
+    }
+
+    @Test
+    void workerWithLeftoverVirtualThreadIsRecycled() {
+        try (CoverageWorkerPool pool = pool(50)) {
+            assertEquals(1, pool.analyze(List.of(SOURCE), List.of(test(""))).tests().succeeded());
+            assertEquals(0L, pool.getMetrics().get("workersRecycled"));
+
+            // Thread.getAllStackTraces 看不到虚拟线程
+            String leak = "Thread.ofVirtual().start(() -> { try { Thread.sleep(60_000); } catch (InterruptedException e) { } });";
+            assertEquals(1, pool.analyze(List.of(SOURCE), List.of(test(leak))).tests().succeeded());
+            assertEquals(1L, pool.getMetrics().get("workersRecycled"));
+        }
+    }
+
+    @Test
+    void workerDoesNotInheritEnvironment() {
+        String check = """
+                assertEquals(null, System.getenv("PATH"));
+                assertEquals(System.getProperty("java.io.tmpdir"), System.getProperty("user.dir"));
+                """;
+        try (CoverageWorkerPool pool = pool(50)) {
+            assertEquals(1, pool.analyze(List.of(SOURCE), List.of(test(check))).tests().succeeded());
+        }
+    }
+}
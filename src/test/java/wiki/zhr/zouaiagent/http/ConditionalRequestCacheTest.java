@@ -0,0 +1,111 @@
+package wiki.zhr.zouaiagent.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConditionalRequestCacheTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @TempDir
+    Path cacheDir;
+
+    private HttpServer server;
+
+    private SharedHttpClient client;
+
+    private final AtomicInteger fullResponses = new AtomicInteger();
+
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/repos", exchange -> {
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            fullResponses.incrementAndGet();
+            String auth = String.valueOf(exchange.getRequestHeaders().getFirst("Authorization"));
+            byte[] body = ("{\"auth\":\"" + auth + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            exchange.getResponseHeaders().set("X-RateLimit-Remaining", "4999");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        client = new SharedHttpClient(Duration.ofSeconds(5), Duration.ofSeconds(10), 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        client.close();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    void servesNotModifiedResponsesFromDisk() throws IOException {
+        ConditionalRequestCache cache = new ConditionalRequestCache(client, true, cacheDir);
+
+        ConditionalRequestCache.CachedResponse first = cache.get(url("/repos/a/b/contents/"), "token-a");
+        assertFalse(first.fromCache());
+
+        // 新实例只依赖磁盘上的缓存
+        ConditionalRequestCache reopened = new ConditionalRequestCache(client, true, cacheDir);
+        ConditionalRequestCache.CachedResponse second = reopened.get(url("/repos/a/b/contents/"), "token-a");
+
+        assertTrue(second.fromCache());
+        assertEquals(first.bodyAsString(), second.bodyAsString());
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, notModifiedResponses.get());
+        assertEquals(1L, reopened.getMetrics().get("notModified"));
+        assertEquals("4999", cache.getMetrics().get("rateLimitRemaining"));
+    }
+
+    @Test
+    void differentTokensDoNotShareEntries() throws IOException {
+        ConditionalRequestCache cache = new ConditionalRequestCache(client, true, cacheDir);
+
+        cache.get(url("/repos/a/b/contents/"), "token-a");
+        ConditionalRequestCache.CachedResponse other = cache.get(url("/repos/a/b/contents/"), "token-b");
+
+        assertFalse(other.fromCache());
+        assertTrue(other.bodyAsString().contains("Bearer token-b"));
+        assertEquals(2, fullResponses.get());
+        assertNotEquals(ConditionalRequestCache.key("u", "token-a", null), ConditionalRequestCache.key("u", "token-b", null));
+    }
+
+    @Test
+    void errorStatusThrows() {
+        ConditionalRequestCache cache = new ConditionalRequestCache(client, true, cacheDir);
+
+        IOException e = assertThrows(IOException.class, () -> cache.get(url("/missing"), null));
+        assertTrue(e.getMessage().startsWith("HTTP 404"));
+    }
+}
@@ -0,0 +1,178 @@
+package wiki.zhr.zouaiagent.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedHttpClientTest {
+
+    private static final String BODY = "你好，共享客户端".repeat(50);
+
+    private HttpServer server;
+
+    private SharedHttpClient client;
+
+    private final AtomicInteger concurrent = new AtomicInteger();
+
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    private final AtomicInteger gzipResponses = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/gzip", exchange -> {
+            boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                    out.write(body);
+                }
+                body = compressed.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                gzipResponses.incrementAndGet();
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            concurrent.decrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.createContext("/large", exchange -> {
+            byte[] chunk = new byte[1024];
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 64; i++) {
+                    out.write(chunk);
+                }
+            }
+        });
+        server.createContext("/stall", exchange -> {
+            // 发送响应头和一部分响应体后不再发送
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("partial".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.start();
+        client = new SharedHttpClient(Duration.ofSeconds(5), Duration.ofSeconds(10), 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        client.close();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    void requestsGzipAndDecodesResponse() throws IOException {
+        SharedHttpClient.Response response = client.get(url("/gzip"), null);
+
+        assertTrue(response.isSuccessful());
+        assertEquals(BODY, response.bodyAsString());
+        assertEquals(1, gzipResponses.get());
+    }
+
+    @Test
+    void restTemplateSharesClientAndDecodesGzip() {
+        RestTemplate restTemplate = HttpClientConfig.createRestTemplate(client);
+
+        assertEquals(BODY, restTemplate.getForObject(url("/gzip"), String.class));
+        assertEquals(1, gzipResponses.get());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> host = (Map<String, Object>) ((Map<String, Object>) client.getMetrics().get("hosts")).get("127.0.0.1");
+        assertEquals(1L, host.get("requests"));
+        assertEquals(0, host.get("inFlight"));
+    }
+
+    @Test
+    void rejectsOversizedBody(@TempDir Path dir) {
+        IOException error = assertThrows(IOException.class, () -> client.get(url("/large"), null, 16 * 1024));
+        assertTrue(error.getMessage().contains("大小上限"), error.getMessage());
+
+        SharedHttpClient small = new SharedHttpClient(Duration.ofSeconds(5), Duration.ofSeconds(10), 2,
+                Duration.ofSeconds(10), 16 * 1024);
+        Path target = dir.resolve("large.bin");
+        assertThrows(IOException.class, () -> small.download(url("/large"), target));
+        assertFalse(Files.exists(target));
+        small.close();
+    }
+
+    @Test
+    void stalledBodyTimesOut() {
+        SharedHttpClient impatient = new SharedHttpClient(Duration.ofSeconds(5), Duration.ofSeconds(10), 2,
+                Duration.ofMillis(300), 1024 * 1024);
+        long start = System.nanoTime();
+
+        assertThrows(HttpTimeoutException.class, () -> impatient.get(url("/stall"), null));
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 3000);
+        assertEquals(1L, impatient.getMetrics().get("failures"));
+        impatient.close();
+    }
+
+    @Test
+    void limitsConcurrentRequestsPerHost() throws Exception {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        List<Future<SharedHttpClient.Response>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> client.get(url("/slow"), null)));
+        }
+        for (Future<SharedHttpClient.Response> future : futures) {
+            assertEquals(200, future.get().statusCode());
+        }
+        executor.shutdown();
+
+        assertTrue(maxConcurrent.get() <= 2, "单主机并发超过上限: " + maxConcurrent.get());
+        Map<String, Object> metrics = client.getMetrics();
+        assertEquals(8L, metrics.get("requests"));
+        assertEquals(0L, metrics.get("failures"));
+        assertEquals(0, metrics.get("inFlight"));
+    }
+}
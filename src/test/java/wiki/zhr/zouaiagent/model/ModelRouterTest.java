@@ -0,0 +1,57 @@
+package wiki.zhr.zouaiagent.model;
+
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelRouterTest {
+
+    private final List<String> requestedModels = new ArrayList<>();
+
+    private final ChatModel recordingModel = new StubChatModel(prompt -> {
+        requestedModels.add(prompt.getOptions() == null ? null : prompt.getOptions().getModel());
+        return "ok";
+    }) {
+        @Override
+        public ChatOptions getDefaultOptions() {
+            return DashScopeChatOptions.builder().withModel("qwen-plus").withTemperature(0.7).build();
+        }
+    };
+
+    @Test
+    void routeTasksByTierAndOverride() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("model.routing.fast-model", "qwen-turbo")
+                .withProperty("model.routing.tasks.agent-reasoning", "qwen-max");
+        ModelRouter router = new ModelRouter(recordingModel, environment);
+
+        router.chatModelFor(ModelTask.QUERY_REWRITE).call(new Prompt("rewrite"));
+        router.chatModelFor(ModelTask.AGENT_REASONING).call(new Prompt("reason"));
+        ChatClient.builder(router.chatModelFor(ModelTask.KEYWORD_EXTRACTION)).build().prompt().user("keywords").call().content();
+
+        assertEquals(List.of("qwen-turbo", "qwen-max", "qwen-turbo"), requestedModels);
+        // 未指定强模型时直接使用原始模型
+        assertSame(recordingModel, router.chatModelFor(ModelTask.ANSWER));
+    }
+
+    @Test
+    void useStubModelForAllTasks() {
+        MockEnvironment environment = new MockEnvironment().withProperty("model.routing.stub", "true");
+        ModelRouter router = new ModelRouter(recordingModel, environment);
+
+        String answer = router.chatModelFor(ModelTask.ANSWER).call(new Prompt("hello")).getResult().getOutput().getText();
+
+        assertEquals("hello", answer);
+        assertTrue(requestedModels.isEmpty());
+        assertInstanceOf(StubChatModel.class, router.chatModelFor(ModelTask.QUERY_REWRITE));
+    }
+}
@@ -0,0 +1,128 @@
+package wiki.zhr.zouaiagent.model;
+
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightChatModelTest {
+
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+
+    private final ChatModel slowModel = prompt -> {
+        upstreamCalls.incrementAndGet();
+        try {
+            Thread.sleep(300);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new ChatResponse(List.of(new Generation(new AssistantMessage("rewritten: " + prompt.getContents()))));
+    };
+
+    @Test
+    void identicalConcurrentCallsShareOneUpstreamCall() throws Exception {
+        SingleFlightChatModel chatModel = new SingleFlightChatModel(slowModel);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return chatModel.call(new Prompt("如何写单元测试")).getResult().getOutput().getText();
+                }));
+            }
+            start.countDown();
+            for (Future<String> future : futures) {
+                assertEquals("rewritten: 如何写单元测试", future.get());
+            }
+        }
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(7, chatModel.getSingleFlight().getCoalescedCount());
+        assertEquals(0, chatModel.getSingleFlight().getInFlightCount());
+    }
+
+    @Test
+    void differentPromptsAreNotCoalesced() throws Exception {
+        SingleFlightChatModel chatModel = new SingleFlightChatModel(slowModel);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<ChatResponse> first = executor.submit(() -> chatModel.call(new Prompt("问题一")));
+            Future<ChatResponse> second = executor.submit(() -> chatModel.call(new Prompt("问题二")));
+            assertNotEquals(first.get().getResult().getOutput().getText(), second.get().getResult().getOutput().getText());
+        }
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(0, chatModel.getSingleFlight().getCoalescedCount());
+    }
+
+    @Test
+    void failureIsSharedAndNotCached() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        assertThrows(IllegalArgumentException.class, () -> singleFlight.execute("key", () -> {
+            throw new IllegalArgumentException("boom");
+        }));
+        assertEquals("ok", singleFlight.execute("key", () -> "ok"));
+        assertEquals(2, singleFlight.getExecutedCount());
+    }
+
+    @Test
+    void cancelledLeaderHandsOverToFollower() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+                executions.incrementAndGet();
+                leaderStarted.countDown();
+                try {
+                    Thread.sleep(10_000);
+                    return "leader";
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("cancelled", e);
+                }
+            }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+            Future<String> follower = executor.submit(() -> singleFlight.execute("key", () -> {
+                executions.incrementAndGet();
+                return "follower";
+            }));
+            while (singleFlight.getCoalescedCount() == 0) {
+                Thread.sleep(5);
+            }
+            // 取消执行方，等待方不受影响，接替执行
+            leader.cancel(true);
+
+            assertEquals("follower", follower.get());
+        }
+        assertEquals(2, executions.get());
+        assertEquals(1, singleFlight.getHandedOverCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    void optionsWithDifferentTemperatureAreNotCoalesced() throws Exception {
+        SingleFlightChatModel chatModel = new SingleFlightChatModel(slowModel);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<ChatResponse> first = executor.submit(() -> chatModel.call(new Prompt("问题",
+                    DashScopeChatOptions.builder().withModel("qwen-plus").withTemperature(0.1).build())));
+            Future<ChatResponse> second = executor.submit(() -> chatModel.call(new Prompt("问题",
+                    DashScopeChatOptions.builder().withModel("qwen-plus").withTemperature(0.9).build())));
+            first.get();
+            second.get();
+        }
+        assertEquals(2, upstreamCalls.get());
+    }
+}
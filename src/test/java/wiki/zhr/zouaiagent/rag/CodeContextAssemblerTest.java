@@ -0,0 +1,84 @@
+package wiki.zhr.zouaiagent.rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodeContextAssemblerTest {
+
+    private static Document chunk(String filePath, int index, int startLine, int endLine, String text) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(LocalReranker.FILE_PATH_METADATA_KEY, filePath);
+        metadata.put(MyTokenTextSplitter.CHUNK_INDEX_METADATA_KEY, index);
+        metadata.put(MyTokenTextSplitter.START_LINE_METADATA_KEY, startLine);
+        metadata.put(MyTokenTextSplitter.END_LINE_METADATA_KEY, endLine);
+        return new Document(text, metadata);
+    }
+
+    @Test
+    void assembleMergesAdjacentChunksAndFillsSmallGapsInOneFetch() {
+        CodeContextAssembler assembler = new CodeContextAssembler(true, 1);
+        List<Document> hits = List.of(
+                chunk("src/A.java", 2, 21, 30, "chunk two"),
+                chunk("src/B.java", 0, 1, 5, "other file"),
+                chunk("src/A.java", 0, 1, 10, "chunk zero"),
+                chunk("src/A.java", 5, 51, 60, "chunk five"));
+        AtomicInteger fetches = new AtomicInteger();
+
+        List<Document> result = assembler.assemble(hits, missing -> {
+            fetches.incrementAndGet();
+            assertEquals(Map.of("src/A.java", Set.of(1)), missing);
+            return List.of(chunk("src/A.java", 1, 11, 20, "chunk one"));
+        });
+
+        assertEquals(1, fetches.get());
+        // A.java 的 0-2 合并为一段，5 单独一段；文件按最相关片段的顺序排列
+        assertEquals(3, result.size());
+        assertTrue(result.get(0).getText().startsWith("// src/A.java (第 1-30 行)\n"));
+        assertTrue(result.get(0).getText().contains("chunk zero\nchunk one\nchunk two"));
+        assertTrue(result.get(1).getText().contains("chunk five"));
+        assertTrue(result.get(2).getText().startsWith("// src/B.java"));
+    }
+
+    @Test
+    void assembleKeepsDocumentsWithoutChunkIndexAndDropsDuplicates() {
+        CodeContextAssembler assembler = new CodeContextAssembler(true, 1);
+        Document plain = new Document("飞书文档片段");
+        List<Document> result = assembler.assemble(
+                List.of(plain, new Document("飞书文档片段"), chunk("src/A.java", 0, 1, 3, "code")),
+                missing -> fail("没有需要补齐的片段"));
+
+        assertEquals(2, result.size());
+        assertSame(plain, result.get(0));
+    }
+
+    @Test
+    void appendWithoutOverlapRemovesRepeatedBoundary() {
+        StringBuilder text = new StringBuilder("public void run() {\n    doSomethingImportant();");
+        CodeContextAssembler.appendWithoutOverlap(text, "    doSomethingImportant();\n}");
+        assertEquals("public void run() {\n    doSomethingImportant();\n}", text.toString());
+    }
+
+    @Test
+    void annotateChunksRecordsIndexAndLineRange() {
+        String original = "line1\nline2\nline3\nline4";
+        List<Document> chunks = new ArrayList<>(List.of(new Document("line1\nline2"), new Document("line3 line4")));
+
+        MyTokenTextSplitter.annotateChunks(original, chunks);
+
+        assertEquals(0, chunks.get(0).getMetadata().get(MyTokenTextSplitter.CHUNK_INDEX_METADATA_KEY));
+        assertEquals(1, chunks.get(0).getMetadata().get(MyTokenTextSplitter.START_LINE_METADATA_KEY));
+        assertEquals(2, chunks.get(0).getMetadata().get(MyTokenTextSplitter.END_LINE_METADATA_KEY));
+        assertEquals(1, chunks.get(1).getMetadata().get(MyTokenTextSplitter.CHUNK_INDEX_METADATA_KEY));
+        assertEquals(3, chunks.get(1).getMetadata().get(MyTokenTextSplitter.START_LINE_METADATA_KEY));
+        assertEquals(4, chunks.get(1).getMetadata().get(MyTokenTextSplitter.END_LINE_METADATA_KEY));
+    }
+}
@@ -0,0 +1,51 @@
+package wiki.zhr.zouaiagent.rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorFilterExpressionConverter;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodeSearchFilterTest {
+
+    private static String toJsonPath(Filter.Expression expression) {
+        return new PgVectorFilterExpressionConverter().convertExpression(expression);
+    }
+
+    @Test
+    void buildsConjunctionOfTypedConditions() {
+        Filter.Expression filter = CodeSearchFilter.of("java", "/src/App.java", "src/main/", "main");
+
+        assertEquals("$.file_type == \".java\" && $.file_path == \"src/App.java\" && "
+                + "$.directories == \"src/main\" && $.branch == \"main\"", toJsonPath(filter));
+    }
+
+    @Test
+    void blankConditionsAreIgnored() {
+        assertNull(CodeSearchFilter.of(null, " ", "/", null));
+        assertEquals("$.file_type == \".java\"", toJsonPath(CodeSearchFilter.of(".java", null, null, "")));
+    }
+
+    @Test
+    void rejectsUnknownKeysAndUnsafeValues() {
+        assertThrows(IllegalArgumentException.class,
+                () -> CodeSearchFilter.of(Map.of("local_path", "/tmp")));
+        assertThrows(IllegalArgumentException.class,
+                () -> CodeSearchFilter.of(null, null, null, "main' OR 1=1 --"));
+        assertThrows(IllegalArgumentException.class,
+                () -> CodeSearchFilter.of(null, "a\\b", null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> CodeSearchFilter.of(".java\" || $.branch == \"x", null, null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> CodeSearchFilter.of(null, null, "src\nmain", null));
+    }
+
+    @Test
+    void directoriesIncludeEveryAncestor() {
+        assertEquals(List.of("src", "src/main", "src/main/java"), CodeSearchFilter.directoriesOf("src/main/java/App.java"));
+        assertEquals(List.of(), CodeSearchFilter.directoriesOf("README.md"));
+    }
+}
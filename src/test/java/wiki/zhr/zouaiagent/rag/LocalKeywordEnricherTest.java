@@ -0,0 +1,97 @@
+package wiki.zhr.zouaiagent.rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalKeywordEnricherTest {
+
+    private final LocalKeywordEnricher enricher = new LocalKeywordEnricher(5);
+
+    @Test
+    void extractTermsWeightsDeclarationsAndImports() {
+        String code = """
+                import org.springframework.web.client.RestTemplate;
+
+                public class GitHubCodeKnowledgeService {
+                    public String fetchFileContent(String path) {
+                        return restTemplate.exchange(path);
+                    }
+                }
+                """;
+        Map<String, Integer> terms = LocalKeywordEnricher.extractTerms(code);
+
+        assertTrue(terms.get("GitHubCodeKnowledgeService") > terms.getOrDefault("exchange", 0));
+        assertTrue(terms.get("fetchFileContent") > 1);
+        assertTrue(terms.get("RestTemplate") > 1);
+        // 驼峰拆分出的词
+        assertTrue(terms.containsKey("knowledge"));
+        // 语言关键字被过滤
+        assertFalse(terms.containsKey("public"));
+        assertFalse(terms.containsKey("return"));
+    }
+
+    @Test
+    void enrichDocumentsPrefersTermsUniqueToChunk() {
+        List<Document> documents = new ArrayList<>();
+        documents.add(new Document("class OrderService { void shared() {} void placeOrder() {} }"));
+        documents.add(new Document("class PaymentService { void shared() {} void refundPayment() {} }"));
+        documents.add(new Document("class UserService { void shared() {} void registerUser() {} }"));
+
+        enricher.enrichDocuments(documents);
+
+        String keywords = (String) documents.get(0).getMetadata().get(LocalKeywordEnricher.EXCERPT_KEYWORDS_METADATA_KEY);
+        assertNotNull(keywords);
+        List<String> keywordList = List.of(keywords.split(", "));
+        assertTrue(keywordList.contains("OrderService"));
+        assertTrue(keywordList.contains("placeOrder"));
+        // 每个片段都出现的词得分更低
+        assertFalse(keywordList.indexOf("shared") >= 0 && keywordList.indexOf("shared") < keywordList.indexOf("placeOrder"));
+        assertTrue(keywordList.size() <= 5);
+    }
+
+    private static List<Document> chunks(String... files) {
+        List<Document> documents = new ArrayList<>();
+        for (String file : files) {
+            String name = file.substring(0, file.indexOf('.'));
+            documents.add(new Document("class " + name + " { void shared() {} void handle" + name + "() {} }",
+                    Map.of(CodeSearchFilter.FILE_PATH, file)));
+        }
+        return documents;
+    }
+
+    private static Object keywords(Document document) {
+        return document.getMetadata().get(LocalKeywordEnricher.EXCERPT_KEYWORDS_METADATA_KEY);
+    }
+
+    @Test
+    void incrementalEnrichmentUsesRepositoryWideFrequencies(@TempDir Path dir) throws IOException {
+        DocumentFrequencies corpus = new DocumentFrequencies();
+        enricher.enrichDocuments(chunks("OrderService.java", "PaymentService.java", "UserService.java",
+                "StockService.java"), corpus);
+        Path file = dir.resolve("df");
+        corpus.save(file);
+
+        // 修改 OrderService、删除 StockService 后只处理变化的文件，IDF 与整批处理一致
+        DocumentFrequencies loaded = DocumentFrequencies.load(file);
+        assertNotNull(loaded);
+        loaded.removeAll(List.of("OrderService.java", "StockService.java"));
+        List<Document> changed = enricher.enrichDocuments(chunks("OrderService.java"), loaded);
+        List<Document> full = enricher.enrichDocuments(chunks("OrderService.java", "PaymentService.java",
+                "UserService.java"));
+
+        assertEquals(3, loaded.totalDocuments());
+        assertEquals(3, loaded.documentFrequency("shared"));
+        assertEquals(keywords(full.get(0)), keywords(changed.get(0)));
+        // 只用变化的文件统计时每个词的 IDF 都一样，共有的词无法被压低
+        assertNotEquals(keywords(enricher.enrichDocuments(chunks("OrderService.java")).get(0)), keywords(changed.get(0)));
+    }
+}
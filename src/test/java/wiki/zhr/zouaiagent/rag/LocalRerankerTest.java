@@ -0,0 +1,59 @@
+package wiki.zhr.zouaiagent.rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalRerankerTest {
+
+    private static Document chunk(String id, String text, String filePath, double score) {
+        return Document.builder()
+                .id(id)
+                .text(text)
+                .metadata(Map.of(LocalReranker.FILE_PATH_METADATA_KEY, filePath))
+                .score(score)
+                .build();
+    }
+
+    @Test
+    void rerankPrefersLexicalMatchOverSlightlyHigherVectorScore() {
+        LocalReranker reranker = new LocalReranker(true, 20, 3000, 0.0);
+        List<Document> candidates = List.of(
+                chunk("a", "public class UserController { void list() {} }", "src/main/java/UserController.java", 0.82),
+                chunk("b", "public class OrderService { void placeOrder() {} }", "src/main/java/OrderService.java", 0.80),
+                chunk("c", "class OrderServiceTest { void placeOrder() {} }", "src/test/java/OrderServiceTest.java", 0.81));
+
+        List<Document> result = reranker.rerank("How does OrderService placeOrder work?", candidates);
+
+        assertEquals("b", result.get(0).getId());
+        // 查询没有涉及测试，测试代码排在业务代码之后
+        assertTrue(result.indexOf(candidates.get(2)) > 0);
+    }
+
+    @Test
+    void rerankRespectsTokenBudgetAndScoreCutoff() {
+        String longText = "orderService ".repeat(400);
+        LocalReranker reranker = new LocalReranker(true, 20, 200, 0.5);
+        List<Document> candidates = List.of(
+                chunk("a", "class OrderService { void placeOrder() {} }", "src/main/java/OrderService.java", 0.9),
+                chunk("b", longText, "src/main/java/Big.java", 0.85),
+                chunk("c", "unrelated readme text", "node_modules/lib/README.md", 0.1));
+
+        List<Document> result = reranker.rerank("OrderService placeOrder", candidates);
+
+        assertEquals(List.of("a"), result.stream().map(Document::getId).toList());
+        assertTrue(LocalReranker.estimateTokens(longText) > 200);
+    }
+
+    @Test
+    void rerankKeepsTopDocumentEvenWhenOverBudget() {
+        LocalReranker reranker = new LocalReranker(true, 20, 1, 0.5);
+        List<Document> result = reranker.rerank("OrderService",
+                List.of(chunk("a", "class OrderService {}", "src/main/java/OrderService.java", 0.9)));
+        assertEquals(1, result.size());
+    }
+}
@@ -0,0 +1,54 @@
+package wiki.zhr.zouaiagent.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DynamicPgVectorStoreServiceTest {
+
+    /**
+     * 只记录执行的 SQL，元信息列的类型固定返回 json
+     */
+    private static class RecordingJdbcTemplate extends JdbcTemplate {
+        final List<String> statements = new ArrayList<>();
+
+        @Override
+        public void execute(String sql) {
+            statements.add(sql);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+            return (T) "json";
+        }
+    }
+
+    @Test
+    void metadataIsIndexedForJsonPathFilters() {
+        RecordingJdbcTemplate jdbcTemplate = new RecordingJdbcTemplate();
+        DynamicPgVectorStoreService service = new DynamicPgVectorStoreService();
+        ReflectionTestUtils.setField(service, "jdbcTemplate", jdbcTemplate);
+
+        service.ensureMetadataIndexes("code_o_r");
+
+        List<String> statements = jdbcTemplate.statements;
+        assertTrue(statements.contains(
+                "ALTER TABLE zou_ai_agent.code_o_r ALTER COLUMN metadata TYPE jsonb USING metadata::jsonb"));
+        assertTrue(statements.contains(
+                "CREATE INDEX IF NOT EXISTS code_o_r_metadata_idx ON zou_ai_agent.code_o_r USING gin (metadata jsonb_path_ops)"));
+        assertTrue(statements.contains(
+                "CREATE INDEX IF NOT EXISTS code_o_r_file_chunk_idx ON zou_ai_agent.code_o_r (file_path, chunk_index)"));
+        // 检索过滤不使用的独立列和 B-Tree 索引不再创建，旧表中的会被删除
+        assertTrue(statements.stream().noneMatch(sql -> sql.contains("ADD COLUMN IF NOT EXISTS file_type")
+                || sql.contains("ADD COLUMN IF NOT EXISTS directory") || sql.contains("ADD COLUMN IF NOT EXISTS branch")));
+        assertTrue(statements.stream().noneMatch(sql -> sql.contains("_file_type_idx")
+                || sql.contains("_branch_idx") || sql.contains("_directory_idx")));
+        assertTrue(statements.contains("ALTER TABLE zou_ai_agent.code_o_r DROP COLUMN IF EXISTS directory"));
+    }
+}
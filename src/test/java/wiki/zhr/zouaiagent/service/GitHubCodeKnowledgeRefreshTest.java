@@ -0,0 +1,294 @@
+package wiki.zhr.zouaiagent.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.test.util.ReflectionTestUtils;
+import wiki.zhr.zouaiagent.http.ConditionalRequestCache;
+import wiki.zhr.zouaiagent.rag.DocumentFrequencies;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 增量刷新代码知识库：GitHub 接口和向量库都用内存中的替身
+ */
+class GitHubCodeKnowledgeRefreshTest {
+
+    private static final String API = "https://api.github.com/repos/o/r";
+
+    @TempDir
+    Path dir;
+
+    private final FakeGitHub gitHub = new FakeGitHub();
+
+    private final FakeVectorStoreService vectorStoreService = new FakeVectorStoreService();
+
+    private GitHubCodeKnowledgeService service;
+
+    /**
+     * 按 URL 返回预设的响应，记录每个 URL 的请求次数
+     */
+    private static class FakeGitHub extends ConditionalRequestCache {
+        final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+        final List<String> requests = new CopyOnWriteArrayList<>();
+
+        FakeGitHub() {
+            super(null, false, Path.of("unused"));
+        }
+
+        @Override
+        public CachedResponse get(String url, String token, String accept) throws IOException {
+            requests.add(url);
+            byte[] body = responses.get(url);
+            if (body == null) {
+                throw new IOException("HTTP 404: " + url);
+            }
+            return new CachedResponse(body, false);
+        }
+
+        /**
+         * 设置分支的根目录树和文件列表，files 为 路径 -> 内容
+         */
+        void branch(String branch, String tree, Map<String, byte[]> files) {
+            responses.put(API + "/commits/" + branch,
+                    ("{\"sha\":\"c" + tree + "\",\"commit\":{\"tree\":{\"sha\":\"" + tree + "\"}}}")
+                            .getBytes(StandardCharsets.UTF_8));
+            StringBuilder listing = new StringBuilder("[");
+            files.forEach((path, content) -> {
+                String sha = sha1(content);
+                if (listing.length() > 1) {
+                    listing.append(',');
+                }
+                listing.append("{\"name\":\"").append(path).append("\",\"path\":\"").append(path)
+                        .append("\",\"type\":\"file\",\"sha\":\"").append(sha)
+                        .append("\",\"size\":").append(content.length)
+                        .append(",\"download_url\":\"https://raw.githubusercontent.com/o/r/").append(branch)
+                        .append('/').append(path).append("\"}");
+                responses.put(API + "/contents/" + path + "?ref=" + branch,
+                        ("{\"encoding\":\"base64\",\"content\":\"" + Base64.getEncoder().encodeToString(content) + "\"}")
+                                .getBytes(StandardCharsets.UTF_8));
+            });
+            responses.put(API + "/contents/?ref=" + branch, listing.append(']').toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static String sha1(byte[] content) {
+            try {
+                return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(content));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        long downloads(String path) {
+            return requests.stream().filter(url -> url.startsWith(API + "/contents/" + path + "?")).count();
+        }
+    }
+
+    /**
+     * 内存中的向量库，可以让写入失败
+     */
+    private static class FakeVectorStoreService extends DynamicPgVectorStoreService {
+        final List<Document> documents = new CopyOnWriteArrayList<>();
+        volatile boolean failWrites;
+
+        private final VectorStore vectorStore = new VectorStore() {
+            @Override
+            public void add(List<Document> batch) {
+                if (failWrites) {
+                    throw new IllegalStateException("向量库不可用");
+                }
+                documents.addAll(batch);
+            }
+
+            @Override
+            public void delete(List<String> ids) {
+                documents.removeIf(document -> ids.contains(document.getId()));
+            }
+
+            @Override
+            public void delete(Filter.Expression filterExpression) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<Document> similaritySearch(SearchRequest request) {
+                return List.copyOf(documents);
+            }
+        };
+
+        @Override
+        public VectorStore getVectorStore(String repositoryName) {
+            return vectorStore;
+        }
+
+        @Override
+        public int deleteFiles(String repositoryName, Collection<String> filePaths, Collection<String> keepIds) {
+            int before = documents.size();
+            documents.removeIf(document -> filePaths.contains((String) document.getMetadata().get("file_path"))
+                    && !keepIds.contains(document.getId()));
+            return before - documents.size();
+        }
+
+        @Override
+        public void clearRepository(String repositoryName) {
+            documents.clear();
+        }
+
+        List<String> texts(String filePath) {
+            List<String> texts = new ArrayList<>();
+            for (Document document : documents) {
+                if (filePath.equals(document.getMetadata().get("file_path"))) {
+                    texts.add(document.getText());
+                }
+            }
+            return texts;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        service = new GitHubCodeKnowledgeService();
+        ReflectionTestUtils.setField(service, "personalAccessToken", "token");
+        ReflectionTestUtils.setField(service, "cacheDirectory", dir.toString());
+        ReflectionTestUtils.setField(service, "conditionalRequestCache", gitHub);
+        ReflectionTestUtils.setField(service, "dynamicPgVectorStoreService", vectorStoreService);
+        ReflectionTestUtils.setField(service, "gitHubFileReader",
+                new GitHubFileReader(gitHub, "https://api.github.com", "token", 2 * 1024 * 1024));
+    }
+
+    private GitHubCodeKnowledgeService.RefreshResult refresh(String branch) {
+        return service.refreshCodeKnowledge("o", "r", branch, false, false);
+    }
+
+    private static byte[] text(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void refreshUpdatesOnlyChangedFilesAndRemembersSkippedOnes() {
+        byte[] binary = {'P', 'K', 0, 0, 1, 2, 3};
+        gitHub.branch("main", "t1", Map.of("A.java", text("class A {}"), "B.java", text("class B {}"),
+                "data.json", binary));
+
+        assertEquals(GitHubCodeKnowledgeService.RefreshMode.FULL, refresh("main").mode());
+        assertEquals("main", service.getBuiltBranch("o", "r"));
+        assertEquals(List.of("class A {}"), vectorStoreService.texts("A.java"));
+        assertEquals(1, gitHub.downloads("data.json"));
+
+        assertEquals(GitHubCodeKnowledgeService.RefreshMode.UNCHANGED, refresh("main").mode());
+
+        // 修改 B，删除 A；按内容跳过的文件没有变化，不再下载
+        gitHub.branch("main", "t2", Map.of("B.java", text("class B { int x; }"), "data.json", binary));
+        GitHubCodeKnowledgeService.RefreshResult result = refresh("main");
+
+        assertEquals(new GitHubCodeKnowledgeService.RefreshResult(
+                GitHubCodeKnowledgeService.RefreshMode.INCREMENTAL, 1, 1, 1), result);
+        assertEquals(List.of(), vectorStoreService.texts("A.java"));
+        assertEquals(List.of("class B { int x; }"), vectorStoreService.texts("B.java"));
+        assertEquals(1, gitHub.downloads("data.json"));
+    }
+
+    @Test
+    void failedStoreKeepsOldManifestSoNextRefreshRestoresChunks() {
+        gitHub.branch("main", "t1", Map.of("A.java", text("class A {}"), "B.java", text("class B {}")));
+        refresh("main");
+
+        gitHub.branch("main", "t2", Map.of("A.java", text("class A {}"), "B.java", text("class B { int x; }")));
+        vectorStoreService.failWrites = true;
+        assertThrows(RuntimeException.class, () -> refresh("main"));
+        // 新片段没有写入，旧片段保留
+        assertEquals(List.of("class B {}"), vectorStoreService.texts("B.java"));
+
+        vectorStoreService.failWrites = false;
+        GitHubCodeKnowledgeService.RefreshResult result = refresh("main");
+
+        assertEquals(GitHubCodeKnowledgeService.RefreshMode.INCREMENTAL, result.mode());
+        assertEquals(1, result.changedFiles());
+        assertEquals(List.of("class B { int x; }"), vectorStoreService.texts("B.java"));
+        assertEquals(List.of("class A {}"), vectorStoreService.texts("A.java"));
+    }
+
+    @Test
+    void failedListingFailsRefreshWithoutDroppingChunks() {
+        gitHub.branch("main", "t1", Map.of("A.java", text("class A {}")));
+        refresh("main");
+
+        gitHub.branch("main", "t2", Map.of("A.java", text("class A { int x; }")));
+        byte[] listing = gitHub.responses.remove(API + "/contents/?ref=main");
+        assertThrows(RuntimeException.class, () -> refresh("main"));
+        assertEquals(List.of("class A {}"), vectorStoreService.texts("A.java"));
+
+        // 列表恢复后不会误判为没有变化
+        gitHub.responses.put(API + "/contents/?ref=main", listing);
+        assertEquals(GitHubCodeKnowledgeService.RefreshMode.INCREMENTAL, refresh("main").mode());
+        assertEquals(List.of("class A { int x; }"), vectorStoreService.texts("A.java"));
+    }
+
+    @Test
+    void failedDownloadKeepsOldChunksAndIsRetried() {
+        gitHub.branch("main", "t1", Map.of("A.java", text("class A {}"), "B.java", text("class B {}")));
+        refresh("main");
+
+        gitHub.branch("main", "t2", Map.of("A.java", text("class A { int x; }"), "B.java", text("class B { int y; }")));
+        byte[] content = gitHub.responses.remove(API + "/contents/B.java?ref=main");
+        GitHubCodeKnowledgeService.RefreshResult result = refresh("main");
+
+        assertEquals(GitHubCodeKnowledgeService.RefreshMode.INCREMENTAL, result.mode());
+        assertEquals(List.of("class A { int x; }"), vectorStoreService.texts("A.java"));
+        assertEquals(List.of("class B {}"), vectorStoreService.texts("B.java"));
+
+        // 有下载失败时不记录根目录树，下次刷新重新下载失败的文件
+        gitHub.responses.put(API + "/contents/B.java?ref=main", content);
+        result = refresh("main");
+
+        assertEquals(1, result.changedFiles());
+        assertEquals(List.of("class B { int y; }"), vectorStoreService.texts("B.java"));
+        assertEquals(GitHubCodeKnowledgeService.RefreshMode.UNCHANGED, refresh("main").mode());
+    }
+
+    @Test
+    void refreshKeepsRepositoryWideDocumentFrequencies() {
+        gitHub.branch("main", "t1", Map.of("A.java", text("class OrderService {}"),
+                "B.java", text("class PaymentService {}")));
+        refresh("main");
+
+        gitHub.branch("main", "t2", Map.of("B.java", text("class PaymentService { void refund() {} }")));
+        refresh("main");
+
+        DocumentFrequencies corpus = DocumentFrequencies.load(dir.resolve("o_r").resolve(".manifest.df"));
+        assertNotNull(corpus);
+        assertEquals(1, corpus.totalDocuments());
+        assertEquals(0, corpus.documentFrequency("OrderService"));
+        assertEquals(1, corpus.documentFrequency("refund"));
+    }
+
+    @Test
+    void refreshOfAnotherBranchRebuildsTheRepository() {
+        gitHub.branch("main", "t1", Map.of("A.java", text("class A {}")));
+        gitHub.branch("dev", "t9", Map.of("D.java", text("class D {}")));
+        refresh("main");
+
+        assertEquals(GitHubCodeKnowledgeService.RefreshMode.FULL, refresh("dev").mode());
+        assertEquals("dev", service.getBuiltBranch("o", "r"));
+        assertEquals(List.of(), vectorStoreService.texts("A.java"));
+        assertEquals(List.of("class D {}"), vectorStoreService.texts("D.java"));
+    }
+}
@@ -0,0 +1,132 @@
+package wiki.zhr.zouaiagent.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import wiki.zhr.zouaiagent.http.ConditionalRequestCache;
+import wiki.zhr.zouaiagent.http.SharedHttpClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GitHubFileReaderTest {
+
+    private static final String JAVA_SOURCE = "package demo;\n\n// 中文注释\npublic class Demo {\n"
+            + "    int value = 1;\n".repeat(40) + "}\n";
+
+    @TempDir
+    Path cacheDir;
+
+    private HttpServer server;
+
+    private SharedHttpClient client;
+
+    private GitHubFileReader reader;
+
+    // 路径 -> 文件内容；contentsOmitted 中的文件模拟大文件，Contents 接口不返回内容
+    private final Map<String, byte[]> files = new HashMap<>();
+
+    private final Map<String, Boolean> contentsOmitted = new HashMap<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/repos/o/r/contents/", this::handle);
+        server.start();
+        client = new SharedHttpClient(Duration.ofSeconds(5), Duration.ofSeconds(10), 4);
+        reader = new GitHubFileReader(new ConditionalRequestCache(client, true, cacheDir),
+                "http://127.0.0.1:" + server.getAddress().getPort(), "token", 64 * 1024);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        client.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring("/repos/o/r/contents/".length());
+        byte[] content = files.get(path);
+        byte[] body;
+        if (content == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        if ("application/vnd.github.raw+json".equals(exchange.getRequestHeaders().getFirst("Accept"))) {
+            body = content;
+        } else if (contentsOmitted.containsKey(path)) {
+            body = ("{\"name\":\"" + path + "\",\"size\":" + content.length + ",\"content\":\"\",\"encoding\":\"none\"}")
+                    .getBytes(StandardCharsets.UTF_8);
+        } else {
+            // 和 GitHub 一样每 60 个字符换一行
+            String base64 = Base64.getMimeEncoder(60, "\n".getBytes()).encodeToString(content).replace("\n", "\\n");
+            body = ("{\"name\":\"" + path + "\",\"size\":" + content.length + ",\"content\":\"" + base64
+                    + "\",\"encoding\":\"base64\",\"_links\":{\"self\":\"x\"}}").getBytes(StandardCharsets.UTF_8);
+        }
+        exchange.getResponseHeaders().set("ETag", "\"" + path.hashCode() + "\"");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    void decodesBase64ContentAsUtf8() throws IOException {
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] source = JAVA_SOURCE.getBytes(StandardCharsets.UTF_8);
+        byte[] withBom = new byte[source.length + 3];
+        System.arraycopy(bom, 0, withBom, 0, 3);
+        System.arraycopy(source, 0, withBom, 3, source.length);
+        files.put("Demo.java", withBom);
+
+        GitHubFileReader.FileContent content = reader.read("o", "r", "main", "Demo.java", "Demo.java", withBom.length);
+
+        assertFalse(content.isSkipped());
+        assertFalse(content.raw());
+        assertEquals(JAVA_SOURCE, content.content());
+    }
+
+    @Test
+    void fallsBackToRawDownloadWhenContentsOmitted() throws IOException {
+        files.put("Big.java", JAVA_SOURCE.getBytes(StandardCharsets.UTF_8));
+        contentsOmitted.put("Big.java", true);
+
+        GitHubFileReader.FileContent content = reader.read("o", "r", "main", "Big.java", "Big.java", 0);
+
+        assertTrue(content.raw());
+        assertEquals(JAVA_SOURCE, content.content());
+    }
+
+    @Test
+    void skipsBinaryMinifiedGeneratedAndOversizedFiles() throws IOException {
+        files.put("logo.js", new byte[]{'G', 'I', 'F', 0, 1, 2});
+        files.put("app.js", ("var a=" + "1+".repeat(3000) + "1;").getBytes(StandardCharsets.UTF_8));
+        files.put("Api.java", ("// Code generated by protoc. DO NOT EDIT.\n" + JAVA_SOURCE).getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("二进制文件", reader.read("o", "r", "main", "logo.js", "logo.js", 6).skipReason());
+        assertEquals("压缩后的代码", reader.read("o", "r", "main", "app.js", "app.js", 6009).skipReason());
+        assertEquals("生成文件", reader.read("o", "r", "main", "Api.java", "Api.java", 100).skipReason());
+        // 按文件名和大小判断的不发请求
+        assertEquals("依赖锁文件", reader.read("o", "r", "main", "package-lock.json", "package-lock.json", 10).skipReason());
+        assertTrue(reader.read("o", "r", "main", "Huge.java", "Huge.java", 10 * 1024 * 1024).isSkipped());
+    }
+
+    @Test
+    void sourceWithLongLinesIsNotMinified() {
+        String source = "public class A {\n" + ("    String s = \"" + "x".repeat(150) + "\";\n").repeat(20) + "}\n";
+        assertNull(ContentSniffer.sniffContent(source.getBytes(StandardCharsets.UTF_8)));
+    }
+}
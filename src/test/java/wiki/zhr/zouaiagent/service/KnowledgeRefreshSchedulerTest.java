@@ -0,0 +1,278 @@
+package wiki.zhr.zouaiagent.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KnowledgeRefreshSchedulerTest {
+
+    private static final String SECRET = "test-secret";
+
+    private KnowledgeRefreshScheduler scheduler;
+
+    /**
+     * 记录每个仓库的刷新次数，以及同时进行的最大刷新数
+     */
+    private static class FakeRefresher implements KnowledgeRefreshScheduler.Refresher {
+        final Map<String, AtomicInteger> refreshes = new ConcurrentHashMap<>();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final Map<String, String> heads = new ConcurrentHashMap<>();
+        final Map<String, String> built = new ConcurrentHashMap<>();
+        volatile long refreshMillis = 0;
+        volatile CountDownLatch started = new CountDownLatch(0);
+        volatile CountDownLatch release = new CountDownLatch(0);
+        // 接下来失败的刷新次数
+        final AtomicInteger failuresLeft = new AtomicInteger();
+
+        @Override
+        public GitHubCodeKnowledgeService.RefreshResult refresh(String owner, String repository, String branch) {
+            int now = active.incrementAndGet();
+            maxActive.accumulateAndGet(now, Math::max);
+            try {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                Thread.sleep(refreshMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+                refreshes.computeIfAbsent(owner + "/" + repository, key -> new AtomicInteger()).incrementAndGet();
+            }
+            if (failuresLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new IllegalStateException("GitHub 不可用");
+            }
+            return new GitHubCodeKnowledgeService.RefreshResult(GitHubCodeKnowledgeService.RefreshMode.INCREMENTAL, 1, 0, 1);
+        }
+
+        @Override
+        public String headSha(String owner, String repository, String branch) {
+            return heads.get(owner + "/" + repository);
+        }
+
+        @Override
+        public String builtBranch(String owner, String repository) {
+            return built.get(owner + "/" + repository);
+        }
+
+        int count(String repository) {
+            AtomicInteger count = refreshes.get(repository);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    private final FakeRefresher refresher = new FakeRefresher();
+
+    private KnowledgeRefreshScheduler create(Duration debounce, int maxConcurrent, String repositories, String secret) {
+        return create(debounce, maxConcurrent, Duration.ZERO, repositories, secret);
+    }
+
+    private KnowledgeRefreshScheduler create(Duration debounce, int maxConcurrent, Duration pollInterval,
+                                             String repositories, String secret) {
+        scheduler = new KnowledgeRefreshScheduler(refresher, debounce, Duration.ofSeconds(10), maxConcurrent,
+                Duration.ofMillis(20), pollInterval, KnowledgeRefreshScheduler.parseRepositories(repositories), secret);
+        scheduler.start();
+        return scheduler;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void burstOfPushesIsCoalescedIntoOneRefresh() throws InterruptedException {
+        create(Duration.ofMillis(200), 2, "", null);
+
+        for (int i = 0; i < 10; i++) {
+            scheduler.requestRefresh("o", "r", "main", "push " + i);
+        }
+        awaitUntil(() -> refresher.count("o/r") == 1);
+        Thread.sleep(400);
+
+        assertEquals(1, refresher.count("o/r"));
+        assertEquals(9L, scheduler.getMetrics().get("coalesced"));
+        assertEquals(1L, scheduler.getMetrics().get("incremental"));
+    }
+
+    @Test
+    void concurrentRefreshesAreCappedAcrossRepositories() throws InterruptedException {
+        create(Duration.ZERO, 2, "", null);
+        refresher.refreshMillis = 100;
+
+        for (int i = 0; i < 6; i++) {
+            scheduler.requestRefresh("o", "repo" + i, "main", "push");
+        }
+        awaitUntil(() -> refresher.refreshes.values().stream().mapToInt(AtomicInteger::get).sum() == 6);
+
+        assertEquals(2, refresher.maxActive.get());
+    }
+
+    @Test
+    void pushDuringRunningRefreshTriggersOneMoreRefresh() throws InterruptedException {
+        create(Duration.ofMillis(50), 2, "", null);
+        refresher.started = new CountDownLatch(1);
+        refresher.release = new CountDownLatch(1);
+
+        scheduler.requestRefresh("o", "r", "main", "push 1");
+        assertTrue(refresher.started.await(5, TimeUnit.SECONDS));
+        // 刷新进行中的多次推送合并为一次后续刷新
+        scheduler.requestRefresh("o", "r", "main", "push 2");
+        scheduler.requestRefresh("o", "r", "main", "push 3");
+        refresher.release.countDown();
+
+        awaitUntil(() -> refresher.count("o/r") == 2);
+        Thread.sleep(200);
+        assertEquals(2, refresher.count("o/r"));
+    }
+
+    @Test
+    void pollingRequestsRefreshOnlyWhenHeadChanges() throws InterruptedException {
+        create(Duration.ZERO, 2, "o/r@dev", null);
+        refresher.heads.put("o/r", "sha1");
+
+        scheduler.poll();
+        awaitUntil(() -> refresher.count("o/r") == 1);
+        scheduler.poll();
+        refresher.heads.put("o/r", "sha2");
+        scheduler.poll();
+        awaitUntil(() -> refresher.count("o/r") == 2);
+        Thread.sleep(100);
+
+        assertEquals(2, refresher.count("o/r"));
+    }
+
+    @Test
+    void failedRefreshIsRetriedWithBackoff() throws InterruptedException {
+        create(Duration.ZERO, 2, "o/r@dev", null);
+        refresher.heads.put("o/r", "sha1");
+        refresher.failuresLeft.set(2);
+
+        // 轮询只发现一次新提交，失败的刷新由调度器自己重试
+        scheduler.poll();
+        awaitUntil(() -> refresher.count("o/r") == 3);
+        Thread.sleep(200);
+
+        assertEquals(3, refresher.count("o/r"));
+        assertEquals(2L, scheduler.getMetrics().get("failed"));
+        assertEquals(2L, scheduler.getMetrics().get("retried"));
+        assertEquals(1L, scheduler.getMetrics().get("incremental"));
+    }
+
+    @Test
+    void exhaustedRetriesLetTheNextPollTryAgain() throws InterruptedException {
+        create(Duration.ZERO, 2, "o/r@dev", null);
+        refresher.heads.put("o/r", "sha1");
+        refresher.failuresLeft.set(KnowledgeRefreshScheduler.MAX_RETRIES + 1);
+
+        scheduler.poll();
+        awaitUntil(() -> refresher.count("o/r") == KnowledgeRefreshScheduler.MAX_RETRIES + 1);
+        awaitUntil(() -> (Long) scheduler.getMetrics().get("scheduled") == 0L);
+        Thread.sleep(100);
+        // 同一个提交，重试用完后轮询会重新发起刷新
+        scheduler.poll();
+        awaitUntil(() -> refresher.count("o/r") == KnowledgeRefreshScheduler.MAX_RETRIES + 2);
+
+        assertEquals(1L, scheduler.getMetrics().get("incremental"));
+    }
+
+    @Test
+    void pollingStartsAfterConstructionAndRunsOnWorkers() throws InterruptedException {
+        refresher.heads.put("o/r", "sha1");
+        scheduler = new KnowledgeRefreshScheduler(refresher, Duration.ZERO, Duration.ofSeconds(10), 2,
+                Duration.ofMillis(20), Duration.ofMillis(50), KnowledgeRefreshScheduler.parseRepositories("o/r@dev"),
+                SECRET);
+        Thread.sleep(200);
+        // 构造后还没有开始轮询
+        assertEquals(0L, scheduler.getMetrics().get("polls"));
+
+        scheduler.start();
+        awaitUntil(() -> refresher.count("o/r") == 1);
+        assertTrue((Long) scheduler.getMetrics().get("polls") >= 1);
+    }
+
+    @Test
+    void webhookIsRejectedWithoutSecret() {
+        create(Duration.ZERO, 2, "zhrRunner/zou-ai-agent@main", null);
+        byte[] push = pushPayload("zhrRunner/zou-ai-agent", "refs/heads/main");
+
+        assertThrows(IllegalStateException.class, () -> scheduler.handleWebhook("push", null, push));
+        assertThrows(IllegalStateException.class, () -> scheduler.handleWebhook("push", sign(push), push));
+        assertEquals(0L, scheduler.getMetrics().get("requested"));
+    }
+
+    @Test
+    void webhookVerifiesSignatureAndSchedulesTrackedBranch() throws Exception {
+        create(Duration.ZERO, 2, "zhrRunner/zou-ai-agent@main", SECRET);
+        byte[] push = pushPayload("zhrRunner/zou-ai-agent", "refs/heads/main");
+
+        assertEquals("scheduled", scheduler.handleWebhook("push", sign(push), push));
+        awaitUntil(() -> refresher.count("zhrRunner/zou-ai-agent") == 1);
+
+        assertThrows(SecurityException.class, () -> scheduler.handleWebhook("push", "sha256=00", push));
+        assertThrows(SecurityException.class, () -> scheduler.handleWebhook("push", null, push));
+
+        byte[] otherBranch = pushPayload("zhrRunner/zou-ai-agent", "refs/heads/feature");
+        assertEquals("ignored", scheduler.handleWebhook("push", sign(otherBranch), otherBranch));
+        // 没有配置也没有构建过的仓库
+        byte[] unknown = pushPayload("someone/else", "refs/heads/main");
+        assertEquals("ignored", scheduler.handleWebhook("push", sign(unknown), unknown));
+        // 没有配置的仓库只跟踪构建的分支，不看推送中的默认分支
+        refresher.built.put("someone/else", "dev");
+        assertEquals("ignored", scheduler.handleWebhook("push", sign(unknown), unknown));
+        refresher.built.put("someone/else", "main");
+        assertEquals("scheduled", scheduler.handleWebhook("push", sign(unknown), unknown));
+
+        byte[] ping = "{\"zen\":\"Keep it logically awesome.\"}".getBytes(StandardCharsets.UTF_8);
+        assertEquals("pong", scheduler.handleWebhook("ping", sign(ping), ping));
+        byte[] invalid = "not json".getBytes(StandardCharsets.UTF_8);
+        assertThrows(IllegalArgumentException.class, () -> scheduler.handleWebhook("push", sign(invalid), invalid));
+    }
+
+    @Test
+    void parsesRepositoryList() {
+        List<KnowledgeRefreshScheduler.Repository> repositories =
+                KnowledgeRefreshScheduler.parseRepositories(" a/b@dev, c/d ,");
+
+        assertEquals(List.of(new KnowledgeRefreshScheduler.Repository("a", "b", "dev"),
+                new KnowledgeRefreshScheduler.Repository("c", "d", "main")), repositories);
+        assertThrows(IllegalArgumentException.class, () -> KnowledgeRefreshScheduler.parseRepositories("nobranch"));
+    }
+
+    private static byte[] pushPayload(String fullName, String ref) {
+        return ("{\"ref\":\"" + ref + "\",\"before\":\"" + "0".repeat(40) + "\",\"after\":\"" + "a".repeat(40)
+                + "\",\"deleted\":false,\"repository\":{\"full_name\":\"" + fullName
+                + "\",\"default_branch\":\"main\"},\"commits\":[{\"modified\":[\"README.md\"]}]}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String sign(byte[] body) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        return "sha256=" + HexFormat.of().formatHex(mac.doFinal(body));
+    }
+}
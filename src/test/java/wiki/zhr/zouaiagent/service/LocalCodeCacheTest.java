@@ -0,0 +1,109 @@
+package wiki.zhr.zouaiagent.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalCodeCacheTest {
+
+    private static final String SHA_A = "a".repeat(40);
+    private static final String SHA_B = "b".repeat(40);
+
+    @TempDir
+    Path root;
+
+    @Test
+    void manifestSurvivesReopenAndValidatesAgainstRemoteSha() throws IOException {
+        LocalCodeCache cache = LocalCodeCache.open(root);
+        cache.put("src/Main.java", "class Main {}", SHA_A);
+        cache.setTreeSha("c".repeat(40));
+        cache.save();
+
+        LocalCodeCache reopened = LocalCodeCache.open(root);
+        assertEquals("c".repeat(40), reopened.getTreeSha());
+        assertTrue(reopened.isValid("src/Main.java", SHA_A));
+        // 上游变化
+        assertFalse(reopened.isValid("src/Main.java", SHA_B));
+        assertFalse(reopened.isValid("src/Other.java", SHA_A));
+
+        // 本地文件被改动
+        Path file = root.resolve("src/Main.java");
+        Files.writeString(file, "class Main { int changed; }");
+        assertFalse(reopened.isValid("src/Main.java", SHA_A));
+    }
+
+    @Test
+    void readAllReadsSmallAndMappedLargeFilesInOrder() throws IOException {
+        LocalCodeCache cache = LocalCodeCache.open(root);
+        String large = "// 大文件\n" + "int x = 1;\n".repeat((int) (LocalCodeCache.MMAP_THRESHOLD / 10));
+        cache.put("b/Large.java", large, SHA_A);
+        cache.put("a/Small.java", "class Small {}", SHA_B);
+
+        Map<String, String> contents = cache.readAll(List.of("b/Large.java", "a/Small.java", "missing/Gone.java"));
+
+        assertEquals(List.of("b/Large.java", "a/Small.java"), List.copyOf(contents.keySet()));
+        assertEquals(large, contents.get("b/Large.java"));
+        assertEquals("class Small {}", contents.get("a/Small.java"));
+    }
+
+    @Test
+    void retainOnlyRemovesStaleEntriesAndUntrackedFiles() throws IOException {
+        LocalCodeCache cache = LocalCodeCache.open(root);
+        cache.put("keep/Keep.java", "class Keep {}", SHA_A);
+        cache.put("old/Removed.java", "class Removed {}", SHA_B);
+        Files.writeString(root.resolve("untracked.txt"), "left over from an old build");
+        cache.save();
+
+        int removed = cache.retainOnly(Set.of("keep/Keep.java"));
+        cache.save();
+
+        assertEquals(2, removed);
+        assertFalse(Files.exists(root.resolve("old")));
+        assertTrue(Files.exists(root.resolve(LocalCodeCache.MANIFEST_FILE)));
+        assertEquals(1, LocalCodeCache.open(root).entries().size());
+    }
+
+    @Test
+    void retainOnlyTreatsNestedManifestNamesAsOrdinaryFiles() throws IOException {
+        LocalCodeCache cache = LocalCodeCache.open(root);
+        cache.put("docs/.manifest.json", "{}", SHA_A);
+        Files.createDirectories(root.resolve("old"));
+        Files.writeString(root.resolve("old/.manifest"), "left over from an old build");
+        cache.save();
+
+        int removed = cache.retainOnly(Set.of());
+
+        assertEquals(2, removed);
+        assertFalse(Files.exists(root.resolve("docs")));
+        assertFalse(Files.exists(root.resolve("old")));
+        assertTrue(Files.exists(root.resolve(LocalCodeCache.MANIFEST_FILE)));
+    }
+
+    @Test
+    void corruptManifestStartsEmptyAndPathsCannotEscape() throws IOException {
+        Files.writeString(root.resolve(LocalCodeCache.MANIFEST_FILE), "not a manifest");
+        LocalCodeCache cache = LocalCodeCache.open(root);
+
+        assertTrue(cache.isEmpty());
+        assertNull(cache.getTreeSha());
+        assertThrows(IOException.class, () -> cache.put("../escape.java", "x", SHA_A));
+    }
+
+    @Test
+    void touchedFileIsInvalidEvenWithSameSize() throws IOException {
+        LocalCodeCache cache = LocalCodeCache.open(root);
+        Path file = cache.put("A.java", "class A {}", SHA_A);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60_000));
+
+        assertFalse(cache.isValid("A.java", SHA_A));
+    }
+}
@@ -0,0 +1,69 @@
+package wiki.zhr.zouaiagent.tools;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodeKnowledgeSearchToolTest {
+
+    private static class CountingVectorStore implements VectorStore {
+
+        private final AtomicInteger searchCount = new AtomicInteger();
+
+        @Override
+        public void add(List<Document> documents) {
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            searchCount.incrementAndGet();
+            return List.of(new Document("class BaseAgent {}"));
+        }
+    }
+
+    @Test
+    void searchOncePerQueryWithinRun() {
+        CountingVectorStore vectorStore = new CountingVectorStore();
+        CodeKnowledgeSearchTool tool = new CodeKnowledgeSearchTool(vectorStore);
+        Map<String, String> cache = new ConcurrentHashMap<>();
+
+        String first = tool.search("BaseAgent 的执行流程", cache);
+        String second = tool.search("  BaseAgent  的执行流程 ", cache);
+
+        assertTrue(first.contains("BaseAgent"));
+        assertEquals(first, second);
+        assertEquals(1, vectorStore.searchCount.get());
+
+        // 去掉空白后相同的不同查询不能共用缓存
+        tool.search("BaseAgent的执行流程", cache);
+        assertEquals(2, vectorStore.searchCount.get());
+    }
+
+    @Test
+    void searchWithoutCache() {
+        CountingVectorStore vectorStore = new CountingVectorStore();
+        CodeKnowledgeSearchTool tool = new CodeKnowledgeSearchTool(vectorStore);
+
+        tool.search("BaseAgent", null);
+        tool.search("BaseAgent", null);
+
+        assertEquals(2, vectorStore.searchCount.get());
+    }
+}